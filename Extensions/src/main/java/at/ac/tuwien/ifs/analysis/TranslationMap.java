@@ -0,0 +1,140 @@
+package at.ac.tuwien.ifs.analysis;
+
+import at.ac.tuwien.ifs.api.ApiReturnItem;
+import at.ac.tuwien.ifs.api.ApiReturnModel;
+import org.apache.lucene.analysis.CharArrayMap;
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.util.BytesRef;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted similar term file for the index-time translation (see <code>{@link TranslationTokenFilter}</code>):
+ * similar term -> main terms, that have it as similar term, with the weight as float payload.
+ *
+ * A document token t is indexed as translation of every main term m with (t, weight) in the expansion of m, so the
+ * sum of the payloads of m in a document is the weighted frequency of the generalized model (query time expansion of m).
+ *
+ * The terms have to be in the analyzed form of the field (e.g. via <code>{@link at.ac.tuwien.ifs.api.PreAnalyzedExpansions}</code>),
+ * for pre-analyzed items the analyzed main term is used.
+ */
+public final class TranslationMap {
+
+    /**
+     * Translations of one similar term, sorted by weight (highest first)
+     */
+    static final class Translations {
+        final char[][] terms;
+        final BytesRef[] payloads;
+
+        Translations(char[][] terms, BytesRef[] payloads) {
+            this.terms = terms;
+            this.payloads = payloads;
+        }
+    }
+
+    private static class Translation {
+        final String term;
+        final float weight;
+
+        Translation(String term, float weight) {
+            this.term = term;
+            this.weight = weight;
+        }
+    }
+
+    private final CharArrayMap<Translations> map;
+    private final int translationCount;
+    private final int droppedCount;
+
+    private TranslationMap(CharArrayMap<Translations> map, int translationCount, int droppedCount) {
+        this.map = map;
+        this.translationCount = translationCount;
+        this.droppedCount = droppedCount;
+    }
+
+    /**
+     * @param minWeight similar terms with a lower weight are not translated
+     * @param maxTranslations max. number of main terms a token is translated to (the highest weights are kept,
+     *                        Integer.MAX_VALUE = all). The dropped translations are missing in the weighted freqs of
+     *                        their main terms, those no longer score like the query time expansion (see
+     *                        <code>{@link #getDroppedCount()}</code>)
+     */
+    public static TranslationMap of(ApiReturnModel model, float minWeight, int maxTranslations) {
+
+        // similar term -> main terms (first entry of a main term wins, like in the stores)
+        Map<String, List<Translation>> inverted = new HashMap<>();
+        Set<String> seenMainTerms = new HashSet<>();
+
+        for (ApiReturnItem item : model.items) {
+            String mainTerm = item.analyzedMainTerm != null ? item.analyzedMainTerm : item.mainTerm;
+            if (!seenMainTerms.add(mainTerm)) {
+                continue;
+            }
+            for (int j = 0; j < item.similarTerms.length; j++) {
+                if (item.similarTerms[j].equals(mainTerm) || item.similarWeights[j] < minWeight) {
+                    continue;
+                }
+                inverted.computeIfAbsent(item.similarTerms[j], k -> new ArrayList<>())
+                        .add(new Translation(mainTerm, item.similarWeights[j]));
+            }
+        }
+
+        CharArrayMap<Translations> map = new CharArrayMap<>(inverted.size(), false);
+        int translationCount = 0;
+        int droppedCount = 0;
+        for (Map.Entry<String, List<Translation>> entry : inverted.entrySet()) {
+            List<Translation> translations = entry.getValue();
+            translations.sort((a, b) -> Float.compare(b.weight, a.weight));
+
+            int size = Math.min(translations.size(), maxTranslations);
+            droppedCount += translations.size() - size;
+            if (size == 0) {
+                continue;
+            }
+            char[][] terms = new char[size][];
+            BytesRef[] payloads = new BytesRef[size];
+            for (int i = 0; i < size; i++) {
+                terms[i] = translations.get(i).term.toCharArray();
+                payloads[i] = new BytesRef(PayloadHelper.encodeFloat(translations.get(i).weight));
+            }
+            map.put(entry.getKey(), new Translations(terms, payloads));
+            translationCount += size;
+        }
+
+        return new TranslationMap(CharArrayMap.unmodifiableMap(map), translationCount, droppedCount);
+    }
+
+    /**
+     * Returns the translations of the token or null
+     */
+    Translations get(char[] buffer, int length) {
+        return map.get(buffer, 0, length);
+    }
+
+    /**
+     * Number of similar terms, that are translated
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Number of (similar term, main term) pairs
+     */
+    public int getTranslationCount() {
+        return translationCount;
+    }
+
+    /**
+     * Number of (similar term, main term) pairs, that were dropped by maxTranslations
+     */
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+}
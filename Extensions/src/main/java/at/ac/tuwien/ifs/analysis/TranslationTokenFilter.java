@@ -0,0 +1,75 @@
+package at.ac.tuwien.ifs.analysis;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+
+import java.io.IOException;
+
+/**
+ * Index-time translation: every token is passed through, followed by its translations (the main terms of the
+ * <code>{@link TranslationMap}</code>) at the same position (position increment 0) with the weight as float payload.
+ * The original tokens have no payload (= weight 1).
+ *
+ * The translations overlap the original token, so they do not change the document length (with discountOverlaps,
+ * the default of the similarities). Read with the <code>{@link at.ac.tuwien.ifs.query.TranslationTermQuery}</code>.
+ */
+public final class TranslationTokenFilter extends TokenFilter {
+
+    public static final String TYPE = "translation";
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final PayloadAttribute payloadAtt = addAttribute(PayloadAttribute.class);
+    private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+    private final TranslationMap translationMap;
+
+    // translations of the current token, that are not emitted yet
+    private TranslationMap.Translations pending;
+    private int pendingIndex;
+    private State original;
+
+    public TranslationTokenFilter(TokenStream input, TranslationMap translationMap) {
+        super(input);
+        this.translationMap = translationMap;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (pending != null) {
+            restoreState(original);
+            termAtt.copyBuffer(pending.terms[pendingIndex], 0, pending.terms[pendingIndex].length);
+            payloadAtt.setPayload(pending.payloads[pendingIndex]);
+            posIncAtt.setPositionIncrement(0);
+            typeAtt.setType(TYPE);
+
+            if (++pendingIndex == pending.terms.length) {
+                pending = null;
+                original = null;
+            }
+            return true;
+        }
+
+        if (!input.incrementToken()) {
+            return false;
+        }
+
+        pending = translationMap.get(termAtt.buffer(), termAtt.length());
+        if (pending != null) {
+            pendingIndex = 0;
+            original = captureState();
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        pending = null;
+        original = null;
+    }
+}
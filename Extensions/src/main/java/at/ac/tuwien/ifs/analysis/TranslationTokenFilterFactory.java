@@ -0,0 +1,75 @@
+package at.ac.tuwien.ifs.analysis;
+
+import at.ac.tuwien.ifs.api.ApiReturnModel;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Factory of the <code>{@link TranslationTokenFilter}</code> (e.g. in the solr schema.xml)
+ *
+ * <remarks>
+ *     Usage: as last filter of the index analyzer of a translation field (copy of the original field), the similar
+ *     term file has to be in the analyzed form of the field:
+ *     <code>
+
+ <filter class="at.ac.tuwien.ifs.analysis.TranslationTokenFilterFactory"
+         expansions="similar-terms.json" // pre-computed similar terms (json, same format as the api response), relative to the conf dir
+         minWeight="0.5"                  // optional, similar terms with a lower weight are not translated (default: 0)
+         maxTranslations="10"/>           // optional, max. main terms per token (default: all)
+
+ *     </code>
+ *     The query analyzer of the field must not contain the filter. With maxTranslations the main terms of the dropped
+ *     translations no longer score like the query time expansion, the number of dropped translations is logged.
+ * </remarks>
+ */
+public class TranslationTokenFilterFactory extends TokenFilterFactory implements ResourceLoaderAware {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranslationTokenFilterFactory.class);
+
+    private static final int default_max_translations = Integer.MAX_VALUE;
+
+    private final String expansions;
+    private final float minWeight;
+    private final int maxTranslations;
+
+    private volatile TranslationMap translationMap;
+
+    public TranslationTokenFilterFactory(Map<String, String> args) {
+        super(args);
+        expansions = require(args, "expansions");
+        minWeight = getFloat(args, "minWeight", 0f);
+        maxTranslations = getInt(args, "maxTranslations", default_max_translations);
+        if (!args.isEmpty()) {
+            throw new IllegalArgumentException("Unknown parameters: " + args);
+        }
+    }
+
+    @Override
+    public void inform(ResourceLoader loader) throws IOException {
+        try (InputStream stream = loader.openResource(expansions)) {
+            translationMap = TranslationMap.of(new ObjectMapper().readValue(stream, ApiReturnModel.class), minWeight, maxTranslations);
+        }
+        if (translationMap.getDroppedCount() > 0) {
+            logger.warn("[TranslationTokenFilterFactory] maxTranslations=" + maxTranslations + " dropped " + translationMap.getDroppedCount()
+                    + " of " + (translationMap.getDroppedCount() + translationMap.getTranslationCount()) + " translations of " + expansions
+                    + ": their main terms do not score like the query time expansion");
+        }
+    }
+
+    @Override
+    public TokenStream create(TokenStream input) {
+        if (translationMap == null) {
+            throw new IllegalStateException("[TranslationTokenFilterFactory] inform(ResourceLoader) was not called");
+        }
+        return new TranslationTokenFilter(input, translationMap);
+    }
+}
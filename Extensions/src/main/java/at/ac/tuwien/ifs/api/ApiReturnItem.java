@@ -7,4 +7,7 @@ public class ApiReturnItem {
     public String mainTerm;
     public String[] similarTerms;
     public float[] similarWeights;
+
+    // only set for pre-analyzed items (see PreAnalyzedExpansions)
+    public String analyzedMainTerm;
 }
@@ -0,0 +1,213 @@
+package at.ac.tuwien.ifs.api;
+
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Named, memory mapped expansion models (see <code>{@link MappedExpansionStore}</code>)
+ *
+ * The models are defined as string: <code>name1=/path/model1.exp;name2=/path/model2.json</code> (the first one is the
+ * default). Json files are converted to the binary format next to the json file (<code>.json.exp</code>), if the
+ * binary version is missing or older.
+ *
+ * One instance is created per core (see <code>{@link at.ac.tuwien.ifs.parser.SimilarityParserPlugin}</code>) and closed
+ * with it, every file is mapped once per instance. If the modified time or size of a model file changes, the file is
+ * mapped again on a later <code>{@link #get(String)}</code> and the old mapping is closed. The file is checked at most
+ * once per check interval (not on every request).
+ */
+public class ExpansionModels implements Closeable {
+
+    /**
+     * Default interval between two checks of a model file for changes
+     */
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final Map<String, Path> models;
+    private final long checkIntervalNanos;
+
+    private final ConcurrentHashMap<Path, Model> openModels = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    public ExpansionModels(String definition) {
+        this(definition, DEFAULT_CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param checkIntervalMillis interval between two checks of a model file for changes (0 = on every get)
+     */
+    public ExpansionModels(String definition, long checkIntervalMillis) {
+        this.checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkIntervalMillis);
+        Map<String, Path> temp = new LinkedHashMap<>();
+
+        if(definition != null) {
+            for (String s : definition.split(";")) {
+                String[] innerSplit = s.split("=");
+                if (innerSplit.length != 2) {
+                    continue;
+                }
+                temp.put(innerSplit[0].trim(), Paths.get(innerSplit[1].trim()).toAbsolutePath().normalize());
+            }
+        }
+        if(temp.isEmpty()){
+            throw new IllegalArgumentException("No expansion models defined in: " + definition);
+        }
+        models = Collections.unmodifiableMap(temp);
+    }
+
+    /**
+     * Returns the (shared) model of the given name, or the first model if the name is null. The model is mapped
+     * again, if its file changed since it was mapped.
+     */
+    public ISimilarityApi get(String name) throws IOException {
+        Path file = name == null ? models.values().iterator().next() : models.get(name);
+        if(file == null){
+            throw new IllegalArgumentException("Unknown expansion model: " + name + " (available: " + models.keySet() + ")");
+        }
+        Model model = openModels.computeIfAbsent(file, f -> new Model(f, checkIntervalNanos));
+        if(closed){
+            model.close(); // created after close
+            throw new IllegalStateException("ExpansionModels are already closed");
+        }
+        model.refresh();
+        return model;
+    }
+
+    public Map<String, Path> getModels() {
+        return models;
+    }
+
+    /**
+     * Closes the mappings of all models, lookups on models returned by <code>{@link #get(String)}</code> fail afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        List<Model> toClose = new ArrayList<>(openModels.values());
+        openModels.clear();
+        IOUtils.close(toClose);
+    }
+
+    /**
+     * The binary version of a json file carries the modified time of the json it was converted from, it is converted
+     * again if the times differ (concurrent conversions write unique temporary files, the last rename wins)
+     */
+    private static Path binaryFile(Path file) throws IOException {
+        if(!file.getFileName().toString().endsWith(".json")){
+            return file;
+        }
+        Path binary = file.resolveSibling(file.getFileName() + MappedExpansionStore.EXTENSION);
+        if(!Files.exists(binary) || !Files.getLastModifiedTime(binary).equals(Files.getLastModifiedTime(file))){
+            MappedExpansionStore.convert(file, binary);
+        }
+        return binary;
+    }
+
+    /**
+     * The current mapping of one model file, lookups hold the read lock, so that a replaced mapping is only closed
+     * when no lookup uses it anymore
+     */
+    private static final class Model implements ISimilarityApi, Closeable {
+
+        private final Path file;
+        private final long checkIntervalNanos;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // time of the last check of the file (System.nanoTime)
+        private volatile long checked;
+        private volatile boolean mapped;
+
+        // guarded by the lock
+        private MappedExpansionStore store;
+        private FileTime modified;
+        private long size;
+        private boolean closed;
+
+        Model(Path file, long checkIntervalNanos) {
+            this.file = file;
+            this.checkIntervalNanos = checkIntervalNanos;
+        }
+
+        /**
+         * Maps the file (again), if it is not mapped yet or its modified time or size changed (checked at most once
+         * per check interval)
+         */
+        void refresh() throws IOException {
+            long now = System.nanoTime();
+            if (mapped && now - checked < checkIntervalNanos) {
+                return;
+            }
+            checked = now;
+
+            FileTime currentModified = Files.getLastModifiedTime(file);
+            long currentSize = Files.size(file);
+
+            lock.readLock().lock();
+            try {
+                if (store != null && currentModified.equals(modified) && currentSize == size) {
+                    return;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("ExpansionModels are already closed");
+                }
+                if (store != null && currentModified.equals(modified) && currentSize == size) {
+                    return;
+                }
+                MappedExpansionStore old = store;
+                store = new MappedExpansionStore(binaryFile(file));
+                modified = currentModified;
+                size = currentSize;
+                mapped = true;
+                IOUtils.close(old);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public SimilarTermModel[] GetSimilarTerms(String field, String[] queryTerms) throws IOException {
+            lock.readLock().lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("ExpansionModels are already closed");
+                }
+                return store.GetSimilarTerms(field, queryTerms);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            lock.writeLock().lock();
+            try {
+                closed = true;
+                IOUtils.close(store);
+                store = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package at.ac.tuwien.ifs.api;
+
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable, reference counted version of a pre-computed similar term file
+ *
+ * Starts with a reference count of 1 (owned by the creator), every reader has to hold a reference while it reads
+ * (see <code>{@link ExpansionStoreManager}</code>). The term map is released when the last reference is dropped.
+ */
+public final class ExpansionStore {
+
+    private volatile Map<String, ApiReturnItem> items;
+
+    private final Path file;
+    private final long version;
+    private final int size;
+
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private ExpansionStore(Path file, long version, Map<String, ApiReturnItem> items) {
+        this.file = file;
+        this.version = version;
+        this.items = items;
+        this.size = items.size();
+    }
+
+    /**
+     * Reads the whole file (json, same format as the api response), the version is the last modified time of the file
+     */
+    public static ExpansionStore load(Path file) throws IOException {
+        long version = Files.getLastModifiedTime(file).toMillis();
+
+        ApiReturnModel returnModel = new ObjectMapper().readValue(Files.readAllBytes(file), ApiReturnModel.class);
+
+        // index by main term (first entry wins)
+        Map<String, ApiReturnItem> items = new HashMap<>(returnModel.items.length * 2);
+        for (ApiReturnItem item : returnModel.items) {
+            items.putIfAbsent(item.mainTerm, item);
+        }
+        return new ExpansionStore(file, version, items);
+    }
+
+    public SimilarTermModel[] lookup(String field, String[] queryTerms) {
+
+        Map<String, ApiReturnItem> items = this.items;
+        if (items == null) {
+            throw new IllegalStateException("this ExpansionStore is already released: " + file);
+        }
+
+        SimilarTermModel[] output = new SimilarTermModel[queryTerms.length];
+
+        for (int i = 0; i < output.length; i++) {
+
+            ApiReturnItem item = items.get(queryTerms[i]);
+
+            List<TermWeightTuple> similar = new ArrayList<>();
+
+            if(item != null) { // only add info if we have it
+                for (int j = 0; j < item.similarTerms.length; j++) {
+                    if (!item.similarTerms[j].equals(item.mainTerm)) {
+                        similar.add(
+                                new TermWeightTuple(
+                                        new Term(field, item.similarTerms[j]),
+                                        item.similarWeights[j]));
+                    }
+                }
+            }
+
+            output[i] = new SimilarTermModel(new Term(field, queryTerms[i]), similar.toArray(new TermWeightTuple[0]));
+        }
+
+        return output;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Last modified time of the file when it was loaded
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Number of main terms
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isReleased() {
+        return items == null;
+    }
+
+    public int getRefCount() {
+        return refCount.get();
+    }
+
+    public boolean tryIncRef() {
+        int count;
+        while ((count = refCount.get()) > 0) {
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void incRef() {
+        if (!tryIncRef()) {
+            throw new IllegalStateException("this ExpansionStore is already released: " + file);
+        }
+    }
+
+    public void decRef() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            items = null;
+        } else if (count < 0) {
+            throw new IllegalStateException("too many decRef calls: refCount is " + count + " after decrement");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package at.ac.tuwien.ifs.api;
+
+import org.apache.lucene.search.ReferenceManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Swaps <code>{@link ExpansionStore}</code> versions of a similar term file without blocking readers
+ * (same usage as Lucene's SearcherManager: acquire -> read -> release in a finally block)
+ *
+ * A refresh loads the new version on the calling thread, while readers continue to use the current one, and then
+ * swaps the reference. The old version is released once the last reader that acquired it releases it.
+ */
+public class ExpansionStoreManager extends ReferenceManager<ExpansionStore> {
+
+    private final Path file;
+    private final AtomicBoolean forceReload = new AtomicBoolean();
+
+    public ExpansionStoreManager(Path file) throws IOException {
+        this.file = file;
+        current = ExpansionStore.load(file);
+    }
+
+    /**
+     * Reloads the file on the next refresh, even if its last modified time did not change
+     */
+    public void forceReload() {
+        forceReload.set(true);
+    }
+
+    @Override
+    protected ExpansionStore refreshIfNeeded(ExpansionStore referenceToRefresh) throws IOException {
+        boolean force = forceReload.getAndSet(false);
+        if (!force && Files.getLastModifiedTime(file).toMillis() == referenceToRefresh.getVersion()) {
+            return null;
+        }
+        return ExpansionStore.load(file);
+    }
+
+    @Override
+    protected void decRef(ExpansionStore reference) {
+        reference.decRef();
+    }
+
+    @Override
+    protected boolean tryIncRef(ExpansionStore reference) {
+        return reference.tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(ExpansionStore reference) {
+        return reference.getRefCount();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
@@ -1,19 +1,22 @@
 package at.ac.tuwien.ifs.api;
 
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Internal use only, needed to convert json to lucene term format
+ *
+ * Reads the {"term": [[similar terms], [weights]], ...} structure token by token (without a tree model),
+ * so it works the same way for every jackson data format (json, smile)
  */
 public class ItemDeserializer extends StdDeserializer<ApiReturnModel> {
 
@@ -29,32 +32,54 @@ public class ItemDeserializer extends StdDeserializer<ApiReturnModel> {
     public ApiReturnModel deserialize(JsonParser jp, DeserializationContext ctxt)
             throws IOException, JsonProcessingException {
 
-        JsonNode node = jp.getCodec().readTree(jp);
         List<ApiReturnItem> outputTemp = new ArrayList<>();
 
-        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        }
 
-        while (fields.hasNext()){
-            Map.Entry<String, JsonNode> curr = fields.next();
+        while (token == JsonToken.FIELD_NAME) {
             ApiReturnItem item = new ApiReturnItem();
+            item.mainTerm = jp.getCurrentName();
+
+            expect(jp, jp.nextToken(), JsonToken.START_ARRAY);
 
-            item.mainTerm = curr.getKey();
+            // [0] -> similar terms
+            expect(jp, jp.nextToken(), JsonToken.START_ARRAY);
+            List<String> terms = new ArrayList<>();
+            while (jp.nextToken() != JsonToken.END_ARRAY) {
+                terms.add(jp.getText());
+            }
+            item.similarTerms = terms.toArray(new String[0]);
 
-            JsonNode stringlist = curr.getValue().get(0);
-            item.similarTerms = new String[stringlist.size()];
-            for (int i = 0; i < stringlist.size();i++) {
-                item.similarTerms[i] = stringlist.get(i).asText();
+            // [1] -> weights
+            expect(jp, jp.nextToken(), JsonToken.START_ARRAY);
+            float[] weights = new float[item.similarTerms.length];
+            int count = 0;
+            while (jp.nextToken() != JsonToken.END_ARRAY) {
+                if (count == weights.length) {
+                    weights = Arrays.copyOf(weights, Math.max(4, count * 2));
+                }
+                weights[count++] = jp.getFloatValue();
             }
+            item.similarWeights = count == weights.length ? weights : Arrays.copyOf(weights, count);
 
-            JsonNode weightlist = curr.getValue().get(1);
-            item.similarWeights = new float[weightlist.size()];
-            for (int i = 0; i < weightlist.size();i++) {
-                item.similarWeights[i] = weightlist.get(i).floatValue();
+            // skip everything else in the term array
+            while ((token = jp.nextToken()) != JsonToken.END_ARRAY) {
+                jp.skipChildren();
             }
 
             outputTemp.add(item);
+            token = jp.nextToken();
         }
 
         return new ApiReturnModel(outputTemp.toArray(new ApiReturnItem[0]));
     }
-}
\ No newline at end of file
+
+    private static void expect(JsonParser jp, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException("Expected " + expected + " but got " + actual, jp.getCurrentLocation());
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package at.ac.tuwien.ifs.api;
+
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+/**
+ * Read-only, memory mapped version of a pre-computed similar term file
+ *
+ * Nothing is loaded into the heap: lookups binary search the sorted main terms directly in the mapped file, so all
+ * stores (and JVMs) that open the same file share its pages through the OS page cache.
+ *
+ * Stores can be pre-analyzed for a specific analyzer (see <code>{@link PreAnalyzedExpansions}</code>): the similar terms
+ * are already in the analyzed form and every entry contains the analyzed main term, that is returned as query term.
+ *
+ * File format (written by <code>{@link #write(ApiReturnModel, Path, String)}</code>):
+ * <pre>
+ * header, string analyzerId (empty = not analyzed), entries[count], offsets[count], long offsetsStart, int count, footer
+ * entry: vint length, utf-8 main term, [vint length, utf-8 analyzed main term], vint similar count,
+ *        (vint length, utf-8 similar term, int float bits)[similar count]
+ * offsets: long file pointer of each entry, sorted by main term (unsigned byte order)
+ * </pre>
+ */
+public class MappedExpansionStore implements ISimilarityApi, Closeable {
+
+    public static final String EXTENSION = ".exp";
+
+    private static final String codec = "ExpansionStore";
+    private static final int version = 1;
+
+    // offsetsStart (long) + count (int)
+    private static final int trailerLength = 12;
+
+    private final Path file;
+    private final Directory directory;
+    private final IndexInput data;
+    private final long offsetsStart;
+    private final int count;
+    private final String analyzerId;
+
+    public MappedExpansionStore(Path file) throws IOException {
+        this.file = file;
+
+        directory = new MMapDirectory(file.toAbsolutePath().getParent());
+        IndexInput input = null;
+        boolean success = false;
+        try {
+            input = directory.openInput(file.getFileName().toString(), IOContext.READ);
+            CodecUtil.checkHeader(input, codec, version, version);
+            String id = input.readString();
+            analyzerId = id.isEmpty() ? null : id;
+            CodecUtil.retrieveChecksum(input);
+
+            input.seek(input.length() - CodecUtil.footerLength() - trailerLength);
+            offsetsStart = input.readLong();
+            count = input.readInt();
+
+            data = input;
+            success = true;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(input, directory);
+            }
+        }
+    }
+
+    /**
+     * Writes the binary version of a similar term file (json, same format as the api response) to the given path
+     */
+    public static void convert(Path jsonFile, Path output) throws IOException {
+        // the modified time of the read version (read first -> a newer json never gets an older binary's time)
+        FileTime modified = Files.getLastModifiedTime(jsonFile);
+        write(readJson(jsonFile), output, null, modified);
+    }
+
+    public static ApiReturnModel readJson(Path jsonFile) throws IOException {
+        return new ObjectMapper().readValue(Files.readAllBytes(jsonFile), ApiReturnModel.class);
+    }
+
+    /**
+     * Writes the binary version of the given items (the first entry of a main term wins), the file is written
+     * under a unique temporary name and atomically renamed when it is complete
+     *
+     * @param analyzerId null for raw items, or the id of the analyzer the items were analyzed with
+     *                   (the items must contain the analyzed main term)
+     */
+    public static void write(ApiReturnModel model, Path output, String analyzerId) throws IOException {
+        write(model, output, analyzerId, null);
+    }
+
+    /**
+     * @param modified modified time of the written file (set before it is renamed), null = the time of the write
+     */
+    private static void write(ApiReturnModel model, Path output, String analyzerId, FileTime modified) throws IOException {
+
+        // sort by main term in utf-8 byte order (= order of the binary search), keep the first entry per term
+        ApiReturnItem[] items = model.items.clone();
+        BytesRef[] keys = new BytesRef[items.length];
+        Integer[] order = new Integer[items.length];
+        for (int i = 0; i < items.length; i++) {
+            keys[i] = new BytesRef(items[i].mainTerm);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int cmp = keys[a].compareTo(keys[b]);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+
+        try (Directory directory = FSDirectory.open(output.toAbsolutePath().getParent())) {
+
+            long[] offsets = new long[items.length];
+            int count = 0;
+
+            // unique temporary name -> concurrent writers (other cores or jvms) never write into the same file
+            String tempName = null;
+            boolean success = false;
+            try (IndexOutput out = directory.createTempOutput(output.getFileName().toString(), "convert", IOContext.DEFAULT)) {
+                tempName = out.getName();
+                CodecUtil.writeHeader(out, codec, version);
+                out.writeString(analyzerId == null ? "" : analyzerId);
+
+                BytesRef previous = null;
+                for (int i : order) {
+                    if (previous != null && previous.equals(keys[i])) {
+                        continue;
+                    }
+                    previous = keys[i];
+                    offsets[count++] = out.getFilePointer();
+
+                    ApiReturnItem item = items[i];
+                    writeBytes(out, keys[i]);
+                    if (analyzerId != null) {
+                        writeBytes(out, new BytesRef(item.analyzedMainTerm));
+                    }
+                    out.writeVInt(item.similarTerms.length);
+                    for (int j = 0; j < item.similarTerms.length; j++) {
+                        writeBytes(out, new BytesRef(item.similarTerms[j]));
+                        out.writeInt(Float.floatToIntBits(item.similarWeights[j]));
+                    }
+                }
+
+                long offsetsStart = out.getFilePointer();
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(offsets[i]);
+                }
+                out.writeLong(offsetsStart);
+                out.writeInt(count);
+
+                CodecUtil.writeFooter(out);
+                success = true;
+            } finally {
+                if (!success && tempName != null) {
+                    IOUtils.deleteFilesIgnoringExceptions(directory, tempName);
+                }
+            }
+
+            if (modified != null) {
+                Files.setLastModifiedTime(output.resolveSibling(tempName), modified);
+            }
+            // complete files only: readers see the old or the new file, the last writer wins
+            Files.move(output.resolveSibling(tempName), output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void writeBytes(IndexOutput out, BytesRef bytes) throws IOException {
+        out.writeVInt(bytes.length);
+        out.writeBytes(bytes.bytes, bytes.offset, bytes.length);
+    }
+
+    @Override
+    public SimilarTermModel[] GetSimilarTerms(String field, String[] queryTerms) throws IOException {
+
+        // clones are cheap and not shared between threads
+        IndexInput in = data.clone();
+        RandomAccessInput offsets = in.randomAccessSlice(offsetsStart, (long) count * Long.BYTES);
+        BytesRefBuilder scratch = new BytesRefBuilder();
+
+        SimilarTermModel[] output = new SimilarTermModel[queryTerms.length];
+
+        for (int i = 0; i < output.length; i++) {
+
+            TermWeightTuple[] similar = new TermWeightTuple[0];
+            String mainTerm = queryTerms[i];
+
+            long pointer = find(in, offsets, new BytesRef(queryTerms[i]), scratch);
+            if (pointer >= 0) {
+                in.seek(pointer);
+                readBytes(in, scratch); // main term
+                if (analyzerId != null) {
+                    readBytes(in, scratch);
+                    mainTerm = scratch.get().utf8ToString();
+                }
+
+                int similarCount = in.readVInt();
+                TermWeightTuple[] temp = new TermWeightTuple[similarCount];
+                int added = 0;
+                for (int j = 0; j < similarCount; j++) {
+                    readBytes(in, scratch);
+                    float weight = Float.intBitsToFloat(in.readInt());
+
+                    String term = scratch.get().utf8ToString();
+                    if (!term.equals(mainTerm)) {
+                        temp[added++] = new TermWeightTuple(new Term(field, term), weight);
+                    }
+                }
+                similar = added == similarCount ? temp : Arrays.copyOf(temp, added);
+            }
+
+            output[i] = new SimilarTermModel(new Term(field, mainTerm), similar);
+        }
+
+        return output;
+    }
+
+    /**
+     * Binary search of the main term, returns the file pointer of its entry or -1
+     */
+    private long find(IndexInput in, RandomAccessInput offsets, BytesRef target, BytesRefBuilder scratch) throws IOException {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long pointer = offsets.readLong((long) mid * Long.BYTES);
+            in.seek(pointer);
+            readBytes(in, scratch);
+
+            int cmp = scratch.get().compareTo(target);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return pointer;
+            }
+        }
+        return -1;
+    }
+
+    private static void readBytes(IndexInput in, BytesRefBuilder scratch) throws IOException {
+        int length = in.readVInt();
+        scratch.grow(length);
+        scratch.setLength(length);
+        in.readBytes(scratch.bytes(), 0, length);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * The id of the analyzer the store was pre-analyzed with, or null if it contains the raw terms
+     */
+    public String getAnalyzerId() {
+        return analyzerId;
+    }
+
+    /**
+     * Number of main terms
+     */
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(data, directory);
+    }
+}
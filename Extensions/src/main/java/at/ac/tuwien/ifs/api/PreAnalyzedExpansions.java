@@ -0,0 +1,87 @@
+package at.ac.tuwien.ifs.api;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts a pre-computed similar term file for a specific analyzer, so that no analyzer calls are needed for the
+ * similar terms at query time
+ *
+ * Every main & similar term is replaced by its first analyzed token (like the query time preprocessing does),
+ * similar terms that collapse to the same token are merged (max weight) and tokens equal to the analyzed main
+ * term are removed. Main terms without a token or without remaining similar terms are dropped, they are
+ * analyzed at query time as before.
+ */
+public class PreAnalyzedExpansions {
+
+    /**
+     * Analyzes the items of the json file and writes them as pre-analyzed <code>{@link MappedExpansionStore}</code>
+     */
+    public static void convert(Path jsonFile, Path output, Analyzer analyzer, String field, String analyzerId) throws IOException {
+        MappedExpansionStore.write(analyze(MappedExpansionStore.readJson(jsonFile), analyzer, field), output, analyzerId);
+    }
+
+    public static ApiReturnModel analyze(ApiReturnModel model, Analyzer analyzer, String field) throws IOException {
+
+        List<ApiReturnItem> output = new ArrayList<>();
+
+        for (ApiReturnItem item : model.items) {
+
+            String mainAnalyzed = firstToken(analyzer, field, item.mainTerm);
+            if (mainAnalyzed == null) {
+                continue;
+            }
+
+            // analyzed term -> max weight (in order of the first occurrence)
+            Map<String, Float> merged = new LinkedHashMap<>();
+            for (int j = 0; j < item.similarTerms.length; j++) {
+                String analyzed = firstToken(analyzer, field, item.similarTerms[j]);
+                if (analyzed == null || analyzed.equals(mainAnalyzed)) {
+                    continue;
+                }
+                merged.merge(analyzed, item.similarWeights[j], Math::max);
+            }
+            if (merged.isEmpty()) {
+                continue;
+            }
+
+            ApiReturnItem analyzedItem = new ApiReturnItem();
+            analyzedItem.mainTerm = item.mainTerm;
+            analyzedItem.analyzedMainTerm = mainAnalyzed;
+            analyzedItem.similarTerms = new String[merged.size()];
+            analyzedItem.similarWeights = new float[merged.size()];
+
+            int i = 0;
+            for (Map.Entry<String, Float> entry : merged.entrySet()) {
+                analyzedItem.similarTerms[i] = entry.getKey();
+                analyzedItem.similarWeights[i] = entry.getValue();
+                i++;
+            }
+
+            output.add(analyzedItem);
+        }
+
+        return new ApiReturnModel(output.toArray(new ApiReturnItem[0]));
+    }
+
+    private static String firstToken(Analyzer analyzer, String field, String text) throws IOException {
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            CharTermAttribute charTermAttribute = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            String token = stream.incrementToken() ? charTermAttribute.toString() : null;
+            while (stream.incrementToken()) {
+                // consume the rest
+            }
+            stream.end();
+            return token;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package at.ac.tuwien.ifs.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Api access class for a pre-computed similar term file, that can be replaced while the api is in use
+ *
+ * The file is re-loaded when its last modified time changes (checked in the background every
+ * <code>pollIntervalMillis</code>, 0 = no background checks) or when <code>{@link #reload()}</code> is called.
+ * Lookups that are running during a reload finish against the previous version.
+ */
+public class ReloadableSimilarityApi implements ISimilarityApi, Closeable {
+
+    private final static Logger logger = LoggerFactory.getLogger(ReloadableSimilarityApi.class);
+
+    private final ExpansionStoreManager manager;
+    private final ScheduledExecutorService watcher;
+
+    public ReloadableSimilarityApi(Path file, long pollIntervalMillis) throws IOException {
+        manager = new ExpansionStoreManager(file);
+
+        if (pollIntervalMillis > 0) {
+            watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "expansion-store-watcher-" + file.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            watcher.scheduleWithFixedDelay(this::refreshQuietly, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            watcher = null;
+        }
+    }
+
+    @Override
+    public SimilarTermModel[] GetSimilarTerms(String field, String[] queryTerms) throws IOException {
+        ExpansionStore store = manager.acquire();
+        try {
+            return store.lookup(field, queryTerms);
+        } finally {
+            manager.release(store);
+        }
+    }
+
+    /**
+     * Re-loads the file (even if it did not change) and swaps it in, blocks until the new version is visible
+     */
+    public void reload() throws IOException {
+        manager.forceReload();
+        manager.maybeRefreshBlocking();
+    }
+
+    /**
+     * Acquires the current version, it must be released via <code>{@link #release(ExpansionStore)}</code>
+     */
+    public ExpansionStore acquire() throws IOException {
+        return manager.acquire();
+    }
+
+    public void release(ExpansionStore store) throws IOException {
+        manager.release(store);
+    }
+
+    public Path getFile() {
+        return manager.getFile();
+    }
+
+    private void refreshQuietly() {
+        try {
+            // keeps the current version if the new one can not be loaded, the next check tries again
+            manager.maybeRefresh();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not reload: " + manager.getFile(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+        manager.close();
+    }
+}
@@ -1,26 +1,51 @@
 package at.ac.tuwien.ifs.api;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.apache.lucene.index.Term;
 import at.ac.tuwien.ifs.query.TermWeightTuple;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Api access class for the https://github.com/neds/similarityAPI, see the api spec for more info
  * about the optional parameters
+ *
+ * The payload format is negotiated via Content-Type / Accept: the request is sent in the configured
+ * <code>{@link WireFormat}</code>, the response is parsed in the format the api answers with (json or smile).
+ * If gzip is enabled, the request is compressed and a compressed response is accepted.
  */
 public class SimilarityApi implements ISimilarityApi {
 
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+
+    /**
+     * Encoding of the request & response payloads
+     */
+    public enum WireFormat {
+        Json,
+        Smile
+    }
+
+    // mappers are thread safe and expensive to create -> shared
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+    private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+
     private String url;
     private String parameters;
 
+    private final WireFormat wireFormat;
+    private final boolean gzip;
+
     //parsed parameters
     private String vector_method = "we";
     private String similarity_method = "cos";
@@ -28,8 +53,14 @@ public class SimilarityApi implements ISimilarityApi {
     private String filter_value = "0.7";
 
     public SimilarityApi(String url, String parameters) {
+        this(url, parameters, WireFormat.Json, false);
+    }
+
+    public SimilarityApi(String url, String parameters, WireFormat wireFormat, boolean gzip) {
         this.url = url;
         this.parameters = parameters;
+        this.wireFormat = wireFormat;
+        this.gzip = gzip;
 
         if(this.parameters != null){
             if(this.parameters.trim().length() == 0){
@@ -88,12 +119,12 @@ public class SimilarityApi implements ISimilarityApi {
 
     private ApiReturnModel sendApiRequest(String[] queryTerms) throws IOException {
 
-        // convert string[] -> json
-        ObjectMapper mapper = new ObjectMapper();
+        // convert string[] -> json / smile
+        ObjectMapper requestMapper = wireFormat == WireFormat.Smile ? smileMapper : jsonMapper;
 
         ApiRequestModel rm = new ApiRequestModel(queryTerms, vector_method, similarity_method, filter_method, filter_value);
 
-        String requestPayload = mapper.writeValueAsString(rm);
+        byte[] requestPayload = requestMapper.writeValueAsBytes(rm);
 
         // do request
         HttpURLConnection connection = null;
@@ -104,20 +135,35 @@ public class SimilarityApi implements ISimilarityApi {
 
             connection = (HttpURLConnection) url.openConnection();
             connection.setRequestMethod("GET");
-            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Content-Type", wireFormat == WireFormat.Smile ? SMILE_CONTENT_TYPE : JSON_CONTENT_TYPE);
+            connection.setRequestProperty("Accept", wireFormat == WireFormat.Smile ?
+                    SMILE_CONTENT_TYPE + ", " + JSON_CONTENT_TYPE + ";q=0.5" : JSON_CONTENT_TYPE);
+            if (gzip) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+            }
             connection.setDoOutput(true);
             connection.setDoInput(true);
 
             //Send request
-            DataOutputStream wr = new DataOutputStream(connection.getOutputStream());
-            wr.writeBytes(requestPayload);
+            OutputStream wr = connection.getOutputStream();
+            if (gzip) {
+                wr = new GZIPOutputStream(wr);
+            }
+            wr.write(requestPayload);
             wr.close();
 
             //Get Response
             InputStream inputStream = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+
+            String contentType = connection.getContentType();
+            ObjectMapper responseMapper = contentType != null && contentType.startsWith(SMILE_CONTENT_TYPE) ? smileMapper : jsonMapper;
 
-            // convert result json -> ApiReturnModel
-            return mapper.readValue(inputStream, ApiReturnModel.class);
+            // convert result json / smile -> ApiReturnModel
+            return responseMapper.readValue(inputStream, ApiReturnModel.class);
         }
         finally {
             if (connection != null) {
@@ -0,0 +1,119 @@
+package at.ac.tuwien.ifs.api;
+
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent lookups of the same term into a single call of the wrapped <code>{@link ISimilarityApi}</code>
+ *
+ * The first thread that requests a term becomes its "leader" and sends it (together with all other terms it leads)
+ * to the wrapped api. Every other thread that requests the same term while the call is in flight waits for the
+ * leaders result, instead of sending its own request. Nothing is cached after the call is completed.
+ */
+public class SingleFlightSimilarityApi implements ISimilarityApi {
+
+    private final ISimilarityApi delegate;
+
+    private final ConcurrentHashMap<String, CompletableFuture<TermWeightTuple[]>> inFlight = new ConcurrentHashMap<>();
+
+    public SingleFlightSimilarityApi(ISimilarityApi delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public SimilarTermModel[] GetSimilarTerms(String field, String[] queryTerms) throws IOException {
+
+        //
+        // join the in-flight lookups or become the leader for a term
+        //
+        Map<String, CompletableFuture<TermWeightTuple[]>> futures = new HashMap<>();
+        Map<String, CompletableFuture<TermWeightTuple[]>> leading = new LinkedHashMap<>();
+
+        for (String term : queryTerms) {
+            if (futures.containsKey(term)) {
+                continue;
+            }
+            CompletableFuture<TermWeightTuple[]> own = new CompletableFuture<>();
+            CompletableFuture<TermWeightTuple[]> existing = inFlight.putIfAbsent(key(field, term), own);
+            if (existing == null) {
+                leading.put(term, own);
+                futures.put(term, own);
+            } else {
+                futures.put(term, existing);
+            }
+        }
+
+        //
+        // send the terms we lead (always before we wait for others -> no deadlocks)
+        //
+        if (!leading.isEmpty()) {
+            try {
+                SimilarTermModel[] result = delegate.GetSimilarTerms(field, leading.keySet().toArray(new String[0]));
+
+                for (SimilarTermModel model : result) {
+                    CompletableFuture<TermWeightTuple[]> future = leading.get(model.queryTerm.text());
+                    if (future != null) {
+                        future.complete(model.similarTerms);
+                    }
+                }
+                // terms the api did not return, have no similar terms
+                for (CompletableFuture<TermWeightTuple[]> future : leading.values()) {
+                    future.complete(new TermWeightTuple[0]);
+                }
+            } catch (IOException | RuntimeException e) {
+                for (CompletableFuture<TermWeightTuple[]> future : leading.values()) {
+                    future.completeExceptionally(e);
+                }
+            } finally {
+                for (Map.Entry<String, CompletableFuture<TermWeightTuple[]>> entry : leading.entrySet()) {
+                    inFlight.remove(key(field, entry.getKey()), entry.getValue());
+                }
+            }
+        }
+
+        //
+        // collect the results in the order of the query terms
+        //
+        List<SimilarTermModel> output = new ArrayList<>(queryTerms.length);
+        for (String term : queryTerms) {
+            output.add(new SimilarTermModel(new Term(field, term), await(futures.get(term))));
+        }
+
+        return output.toArray(new SimilarTermModel[0]);
+    }
+
+    private static TermWeightTuple[] await(CompletableFuture<TermWeightTuple[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a coalesced similarity lookup", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Coalesced similarity lookup failed", e.getCause());
+        }
+    }
+
+    private static String key(String field, String term) {
+        return field + '\u0000' + term;
+    }
+
+    /**
+     * Returns the number of terms, that are currently requested from the wrapped api
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,145 @@
+package at.ac.tuwien.ifs.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bloom filter over the vocabulary of the expansion model (all terms that have at least one similar term).
+ * If <code>{@link #mightContain(String)}</code> returns false, the term has no similar terms for sure, and the api
+ * does not need to be asked.
+ *
+ * The size is computed from the number of terms and the false positive rate, it can be capped with a maximum
+ * memory size (this raises the false positive rate). The filter is not modified after it is built, so it is thread safe.
+ */
+public class VocabularyBloomFilter {
+
+    private static final int seed1 = 0x9747b28c;
+    private static final int seed2 = 0x5bd1e995;
+
+    private final FixedBitSet bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * @param expectedTerms the number of terms that will be added
+     * @param falsePositiveRate the targeted false positive rate (0..1)
+     * @param maxBytes the maximum memory of the bit set, <= 0 for no limit
+     */
+    public VocabularyBloomFilter(int expectedTerms, double falsePositiveRate, long maxBytes) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1, got: " + falsePositiveRate);
+        }
+        expectedTerms = Math.max(1, expectedTerms);
+
+        // optimal size: m = -n * ln(p) / ln(2)^2, optimal hash count: k = m / n * ln(2)
+        long optimalBits = (long) Math.ceil(-expectedTerms * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        if (maxBytes > 0) {
+            optimalBits = Math.min(optimalBits, maxBytes * 8);
+        }
+        numBits = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 64, optimalBits));
+        numHashes = Math.max(1, (int) Math.round((double) numBits / expectedTerms * Math.log(2)));
+        bits = new FixedBitSet(numBits);
+    }
+
+    /**
+     * Builds the filter from a pre-computed similar term file (same format as used by <code>{@link SimilarityApiFromFile}</code>)
+     */
+    public static VocabularyBloomFilter fromFile(String file, double falsePositiveRate, long maxBytes) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ApiReturnModel returnModel = mapper.readValue(Files.readAllBytes(Paths.get(file)), ApiReturnModel.class);
+
+        List<String> vocabulary = new ArrayList<>();
+        for (ApiReturnItem item : returnModel.items) {
+            for (String similar : item.similarTerms) {
+                if (!similar.equals(item.mainTerm)) {
+                    vocabulary.add(item.mainTerm);
+                    break;
+                }
+            }
+        }
+        return fromTerms(vocabulary, falsePositiveRate, maxBytes);
+    }
+
+    /**
+     * Builds the filter from the vocabulary endpoint of the similarity service, it has to return a json array of terms
+     */
+    public static VocabularyBloomFilter fromUrl(String url, double falsePositiveRate, long maxBytes) throws IOException {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("GET");
+            connection.setRequestProperty("Accept", "application/json");
+
+            InputStream inputStream = connection.getInputStream();
+            JsonNode node = new ObjectMapper().readTree(inputStream);
+
+            List<String> vocabulary = new ArrayList<>(node.size());
+            for (JsonNode term : node) {
+                vocabulary.add(term.asText());
+            }
+            return fromTerms(vocabulary, falsePositiveRate, maxBytes);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    public static VocabularyBloomFilter fromTerms(List<String> vocabulary, double falsePositiveRate, long maxBytes) {
+        VocabularyBloomFilter filter = new VocabularyBloomFilter(vocabulary.size(), falsePositiveRate, maxBytes);
+        for (String term : vocabulary) {
+            filter.add(term);
+        }
+        return filter;
+    }
+
+    public void add(String term) {
+        BytesRef bytes = new BytesRef(term);
+        int h1 = StringHelper.murmurhash3_x86_32(bytes, seed1);
+        int h2 = StringHelper.murmurhash3_x86_32(bytes, seed2);
+        for (int i = 0; i < numHashes; i++) {
+            bits.set(index(h1, h2, i));
+        }
+    }
+
+    /**
+     * Returns false if the term is definitely not in the vocabulary, true if it might be
+     */
+    public boolean mightContain(String term) {
+        BytesRef bytes = new BytesRef(term);
+        int h1 = StringHelper.murmurhash3_x86_32(bytes, seed1);
+        int h2 = StringHelper.murmurhash3_x86_32(bytes, seed2);
+        for (int i = 0; i < numHashes; i++) {
+            if (!bits.get(index(h1, h2, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // double hashing (Kirsch & Mitzenmacher): h1 + i * h2
+    private int index(int h1, int h2, int i) {
+        return (int) (((h1 & 0xFFFFFFFFL) + i * (h2 & 0xFFFFFFFFL)) % numBits);
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    public long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(bits.getBits());
+    }
+}
@@ -0,0 +1,112 @@
+package at.ac.tuwien.ifs.api;
+
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short-circuits lookups for terms that can not produce similar terms, before they reach the wrapped
+ * <code>{@link ISimilarityApi}</code>:
+ * <ul>
+ * <li>terms that are not in the <code>{@link VocabularyBloomFilter}</code> of the expansion model (optional)</li>
+ * <li>terms that the wrapped api returned without similar terms before (bounded LRU negative cache)</li>
+ * </ul>
+ * Short-circuited terms are returned without similar terms, so that they still become a plain
+ * <code>{@link at.ac.tuwien.ifs.query.AugmentedTermQuery}</code>.
+ */
+public class VocabularyFilteredSimilarityApi implements ISimilarityApi {
+
+    private final ISimilarityApi delegate;
+    private final VocabularyBloomFilter vocabulary;
+    private final Map<String, Boolean> negativeCache;
+
+    private final AtomicLong vocabularyRejects = new AtomicLong();
+    private final AtomicLong negativeCacheHits = new AtomicLong();
+
+    /**
+     * @param delegate the wrapped api
+     * @param vocabulary the vocabulary filter, may be null (only the negative cache is used)
+     * @param negativeCacheSize the maximum number of cached terms without similar terms, 0 disables the cache
+     */
+    public VocabularyFilteredSimilarityApi(ISimilarityApi delegate, VocabularyBloomFilter vocabulary, int negativeCacheSize) {
+        this.delegate = delegate;
+        this.vocabulary = vocabulary;
+        this.negativeCache = negativeCacheSize <= 0 ? null : Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > negativeCacheSize;
+            }
+        });
+    }
+
+    @Override
+    public SimilarTermModel[] GetSimilarTerms(String field, String[] queryTerms) throws IOException {
+
+        //
+        // only send terms that might have similar terms
+        //
+        Set<String> toSend = new LinkedHashSet<>();
+        for (String term : queryTerms) {
+            if (vocabulary != null && !vocabulary.mightContain(term)) {
+                vocabularyRejects.incrementAndGet();
+            } else if (negativeCache != null && negativeCache.get(term) != null) {
+                negativeCacheHits.incrementAndGet();
+            } else {
+                toSend.add(term);
+            }
+        }
+
+        Map<String, SimilarTermModel> results = new HashMap<>();
+        if (!toSend.isEmpty()) {
+            for (SimilarTermModel model : delegate.GetSimilarTerms(field, toSend.toArray(new String[0]))) {
+                results.put(model.queryTerm.text(), model);
+            }
+            if (negativeCache != null) {
+                for (String term : toSend) {
+                    SimilarTermModel model = results.get(term);
+                    if (model == null || model.similarTerms.length == 0) {
+                        negativeCache.put(term, Boolean.TRUE);
+                    }
+                }
+            }
+        }
+
+        //
+        // output in the order of the query terms, short-circuited terms without similar terms
+        //
+        List<SimilarTermModel> output = new ArrayList<>(queryTerms.length);
+        for (String term : queryTerms) {
+            SimilarTermModel model = results.get(term);
+            if (model == null) {
+                model = new SimilarTermModel(new Term(field, term), new TermWeightTuple[0]);
+            }
+            output.add(model);
+        }
+
+        return output.toArray(new SimilarTermModel[0]);
+    }
+
+    /**
+     * Number of terms that were not sent, because they are not in the vocabulary
+     */
+    public long getVocabularyRejects() {
+        return vocabularyRejects.get();
+    }
+
+    /**
+     * Number of terms that were not sent, because they are in the negative cache
+     */
+    public long getNegativeCacheHits() {
+        return negativeCacheHits.get();
+    }
+}
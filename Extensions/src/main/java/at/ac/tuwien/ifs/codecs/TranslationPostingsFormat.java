@@ -0,0 +1,370 @@
+package at.ac.tuwien.ifs.codecs;
+
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.codecs.BlockTermState;
+import org.apache.lucene.codecs.FieldsConsumer;
+import org.apache.lucene.codecs.FieldsProducer;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.PostingsReaderBase;
+import org.apache.lucene.codecs.PostingsWriterBase;
+import org.apache.lucene.codecs.blocktree.BlockTreeTermsReader;
+import org.apache.lucene.codecs.blocktree.BlockTreeTermsWriter;
+import org.apache.lucene.codecs.lucene50.Lucene50PostingsReader;
+import org.apache.lucene.codecs.lucene50.Lucene50PostingsWriter;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentReadState;
+import org.apache.lucene.index.SegmentWriteState;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Postings format for a translation field (see <code>{@link at.ac.tuwien.ifs.analysis.TranslationTokenFilter}</code>),
+ * that stores the weighted term frequency (sum of the payload weights of a document, original tokens = 1) as a
+ * quantized fixed point value in place of the integer freq.
+ *
+ * The weights are written with the block postings of Lucene (<code>{@link Lucene50PostingsWriter}</code>: packed
+ * blocks of 128 docs & freqs, skip data) as a docs & freqs field, the positions and payloads are dropped. So a
+ * weighted term is iterated as fast as a term without positions and is only slightly bigger (the quantized freqs
+ * need more bits), the query reads the weight via <code>{@link WeightedPostingsEnum}</code> without rounding.
+ * Fields without positions are written unchanged.
+ *
+ * <remarks>
+ *     Usage: set the format for the translation field, in Solr: <code>postingsFormat="TranslationWeights"</code> on the
+ *     field type (needs <code>&lt;codecFactory class="solr.SchemaCodecFactory"/&gt;</code> in the solrconfig.xml),
+ *     in Lucene: override <code>getPostingsFormatForField</code> of the codec.
+ *
+ *     The field only supports term queries (<code>{@link at.ac.tuwien.ifs.query.TranslationTermQuery}</code>), it has
+ *     no positions for phrase queries or highlighting.
+ * </remarks>
+ */
+public final class TranslationPostingsFormat extends PostingsFormat {
+
+    public static final String NAME = "TranslationWeights";
+
+    /**
+     * Default number of fraction bits of the quantized weights (resolution 1/256)
+     */
+    public static final int DEFAULT_FRACTION_BITS = 8;
+
+    // field attribute with the fraction bits, the reader does not depend on the settings of the writer
+    static final String fraction_bits_key = TranslationPostingsFormat.class.getSimpleName() + ".fractionBits";
+
+    private final int fractionBits;
+
+    /**
+     * Default format (used for reading, loaded by name via SPI)
+     */
+    public TranslationPostingsFormat() {
+        this(DEFAULT_FRACTION_BITS);
+    }
+
+    /**
+     * @param fractionBits fraction bits of the quantized weights, every bit doubles the precision and adds a bit per
+     *                     freq in the packed blocks
+     */
+    public TranslationPostingsFormat(int fractionBits) {
+        super(NAME);
+        if (fractionBits < 0 || fractionBits > 16) {
+            throw new IllegalArgumentException("[TranslationPostingsFormat] fractionBits must be in [0, 16], got: " + fractionBits);
+        }
+        this.fractionBits = fractionBits;
+    }
+
+    @Override
+    public FieldsConsumer fieldsConsumer(SegmentWriteState state) throws IOException {
+        PostingsWriterBase postingsWriter = new WeightedPostingsWriter(new Lucene50PostingsWriter(state), fractionBits);
+        boolean success = false;
+        try {
+            FieldsConsumer consumer = new BlockTreeTermsWriter(state, postingsWriter,
+                    BlockTreeTermsWriter.DEFAULT_MIN_BLOCK_SIZE, BlockTreeTermsWriter.DEFAULT_MAX_BLOCK_SIZE);
+            success = true;
+            return consumer;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(postingsWriter);
+            }
+        }
+    }
+
+    @Override
+    public FieldsProducer fieldsProducer(SegmentReadState state) throws IOException {
+        PostingsReaderBase postingsReader = new WeightedPostingsReader(new Lucene50PostingsReader(state));
+        boolean success = false;
+        try {
+            FieldsProducer producer = new BlockTreeTermsReader(postingsReader, state);
+            success = true;
+            return producer;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(postingsReader);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "(fractionBits=" + fractionBits + ")";
+    }
+
+    /**
+     * True, if the field is written with the weights of this format (its postings are a <code>{@link WeightedPostingsEnum}</code>)
+     */
+    public static boolean isWeighted(FieldInfo fieldInfo) {
+        return fieldInfo != null && fieldInfo.getAttribute(fraction_bits_key) != null;
+    }
+
+    private static boolean hasPositions(FieldInfo fieldInfo) {
+        return fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
+    }
+
+    /**
+     * The field info, that the block postings see: docs & freqs, no payloads
+     */
+    static FieldInfo freqsOnly(FieldInfo fieldInfo) {
+        return new FieldInfo(fieldInfo.name, fieldInfo.number, false, fieldInfo.omitsNorms(), false,
+                IndexOptions.DOCS_AND_FREQS, fieldInfo.getDocValuesType(), fieldInfo.getDocValuesGen(),
+                fieldInfo.attributes(), fieldInfo.getPointDimensionCount(), fieldInfo.getPointNumBytes());
+    }
+
+    /**
+     * Replaces the freq of the weighted fields by the quantized sum of the payload weights
+     */
+    private static final class WeightedPostingsWriter extends PostingsWriterBase {
+
+        private final PostingsWriterBase delegate;
+        private final int fractionBits;
+        private boolean weighted;
+
+        // the field info of the current field, that is passed to the block postings
+        private FieldInfo field;
+        private FieldInfo delegateField;
+
+        WeightedPostingsWriter(PostingsWriterBase delegate, int fractionBits) {
+            this.delegate = delegate;
+            this.fractionBits = fractionBits;
+        }
+
+        @Override
+        public void init(IndexOutput termsOut, SegmentWriteState state) throws IOException {
+            delegate.init(termsOut, state);
+        }
+
+        @Override
+        public int setField(FieldInfo fieldInfo) {
+            weighted = hasPositions(fieldInfo);
+            field = fieldInfo;
+            if (weighted) {
+                fieldInfo.putAttribute(fraction_bits_key, Integer.toString(fractionBits));
+                delegateField = freqsOnly(fieldInfo);
+            } else {
+                delegateField = fieldInfo;
+            }
+            return delegate.setField(delegateField);
+        }
+
+        @Override
+        public BlockTermState writeTerm(BytesRef term, TermsEnum termsEnum, FixedBitSet docsSeen) throws IOException {
+            if (!weighted) {
+                return delegate.writeTerm(term, termsEnum, docsSeen);
+            }
+            return delegate.writeTerm(term, new FilterLeafReader.FilterTermsEnum(termsEnum) {
+                @Override
+                public PostingsEnum postings(PostingsEnum reuse, int flags) throws IOException {
+                    return new QuantizingPostingsEnum(in.postings(null, PostingsEnum.PAYLOADS), fractionBits);
+                }
+            }, docsSeen);
+        }
+
+        @Override
+        public void encodeTerm(long[] longs, DataOutput out, FieldInfo fieldInfo, BlockTermState state, boolean absolute) throws IOException {
+            delegate.encodeTerm(longs, out, fieldInfo == field ? delegateField : fieldInfo, state, absolute);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Docs of the indexed postings with the quantized payload sum as freq (at least 1)
+     */
+    private static final class QuantizingPostingsEnum extends FilterLeafReader.FilterPostingsEnum {
+
+        private final float scale;
+        private int freq;
+
+        QuantizingPostingsEnum(PostingsEnum in, int fractionBits) {
+            super(in);
+            this.scale = 1 << fractionBits;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return quantize(in.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return quantize(in.advance(target));
+        }
+
+        private int quantize(int doc) throws IOException {
+            if (doc != NO_MORE_DOCS) {
+                float sum = 0;
+                for (int i = in.freq(); i > 0; i--) {
+                    in.nextPosition();
+                    BytesRef payload = in.getPayload();
+                    sum += payload == null ? 1 : PayloadHelper.decodeFloat(payload.bytes, payload.offset);
+                }
+                freq = Math.max(1, Math.round(sum * scale));
+            }
+            return doc;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return freq;
+        }
+    }
+
+    /**
+     * Reads the weighted fields as docs & freqs, the postings are wrapped in a <code>{@link WeightedPostingsEnum}</code>
+     */
+    private static final class WeightedPostingsReader extends PostingsReaderBase {
+
+        private final PostingsReaderBase delegate;
+        private final Map<Integer, FieldInfo> freqsOnlyFields = new ConcurrentHashMap<>();
+
+        WeightedPostingsReader(PostingsReaderBase delegate) {
+            this.delegate = delegate;
+        }
+
+        private FieldInfo delegateFieldInfo(FieldInfo fieldInfo) {
+            if (!isWeighted(fieldInfo)) {
+                return fieldInfo;
+            }
+            return freqsOnlyFields.computeIfAbsent(fieldInfo.number, n -> freqsOnly(fieldInfo));
+        }
+
+        @Override
+        public void init(IndexInput termsIn, SegmentReadState state) throws IOException {
+            delegate.init(termsIn, state);
+        }
+
+        @Override
+        public BlockTermState newTermState() throws IOException {
+            return delegate.newTermState();
+        }
+
+        @Override
+        public void decodeTerm(long[] longs, DataInput in, FieldInfo fieldInfo, BlockTermState state, boolean absolute) throws IOException {
+            delegate.decodeTerm(longs, in, delegateFieldInfo(fieldInfo), state, absolute);
+        }
+
+        @Override
+        public PostingsEnum postings(FieldInfo fieldInfo, BlockTermState state, PostingsEnum reuse, int flags) throws IOException {
+            String fractionBits = fieldInfo.getAttribute(fraction_bits_key);
+            if (fractionBits == null) {
+                return delegate.postings(fieldInfo, state, reuse, flags);
+            }
+
+            // with positions the weight is read as positions with payloads (see WeightedPostingsEnum), the block postings
+            // need the freqs for that
+            boolean positions = PostingsEnum.featureRequested(flags, PostingsEnum.POSITIONS);
+            boolean freqs = positions || PostingsEnum.featureRequested(flags, PostingsEnum.FREQS);
+
+            WeightedPostingsEnum weightedReuse = reuse instanceof WeightedPostingsEnum ? (WeightedPostingsEnum) reuse : null;
+            PostingsEnum postings = delegate.postings(delegateFieldInfo(fieldInfo), state,
+                    weightedReuse != null ? weightedReuse.delegate() : null, freqs ? PostingsEnum.FREQS : PostingsEnum.NONE);
+
+            if (weightedReuse != null && weightedReuse.delegate() == postings && weightedReuse.positions == positions) {
+                return weightedReuse;
+            }
+            return new WeightedPostingsEnum(postings, Integer.parseInt(fractionBits), positions);
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return delegate.ramBytesUsed();
+        }
+
+        @Override
+        public void checkIntegrity() throws IOException {
+            delegate.checkIntegrity();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "(" + delegate + ")";
+        }
+    }
+
+    /**
+     * Postings of a weighted field: <code>{@link #weight()}</code> is the weighted term frequency, <code>{@link #freq()}</code>
+     * the quantized weight. With positions, each of the freq positions has the quantization step as float payload, so
+     * the payloads sum up to the weight (the form of the translation field, e.g. to merge weighted segments).
+     */
+    public static final class WeightedPostingsEnum extends FilterLeafReader.FilterPostingsEnum {
+
+        private final float scale;
+        private final boolean positions;
+        private final BytesRef payload;
+
+        WeightedPostingsEnum(PostingsEnum in, int fractionBits, boolean positions) {
+            super(in);
+            this.scale = 1f / (1 << fractionBits);
+            this.positions = positions;
+            this.payload = positions ? new BytesRef(PayloadHelper.encodeFloat(scale)) : null;
+        }
+
+        PostingsEnum delegate() {
+            return in;
+        }
+
+        /**
+         * Weighted term frequency of the current doc (sum of the payload weights, with the precision of the format)
+         */
+        public float weight() throws IOException {
+            return in.freq() * scale;
+        }
+
+        @Override
+        public int nextPosition() throws IOException {
+            return positions ? 0 : -1;
+        }
+
+        @Override
+        public int startOffset() throws IOException {
+            return -1;
+        }
+
+        @Override
+        public int endOffset() throws IOException {
+            return -1;
+        }
+
+        @Override
+        public BytesRef getPayload() throws IOException {
+            return payload;
+        }
+    }
+}
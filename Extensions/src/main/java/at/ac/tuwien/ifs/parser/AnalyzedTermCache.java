@@ -0,0 +1,142 @@
+package at.ac.tuwien.ifs.parser;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded, thread safe memo of analyzer results: (analyzer, field, text) -> analyzed terms
+ *
+ * Analyzers are compared by identity (a new analyzer, e.g. after a schema reload, starts with an empty cache).
+ * The cache is split into two generations: new entries go into the current one, when it is full it becomes the
+ * previous generation and the old previous generation is dropped. Hits in the previous generation are copied to
+ * the current one, so frequently used terms survive. Lookups don't lock.
+ *
+ * The cache holds strong references to its analyzers, so it must not outlive them: the Solr parser uses one cache per
+ * core (owned by the <code>{@link SimilarityParserPlugin}</code> and cleared when the core is closed, e.g. on a schema
+ * reload), the evaluation parser one per instance.
+ *
+ * The returned arrays are shared and must not be modified.
+ */
+public class AnalyzedTermCache {
+
+    private final int generationSize;
+
+    private volatile ConcurrentHashMap<Key, String[]> current = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<Key, String[]> previous = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize max. number of cached entries (split into 2 generations)
+     */
+    public AnalyzedTermCache(int maxSize) {
+        this.generationSize = Math.max(1, maxSize / 2);
+    }
+
+    /**
+     * Returns all tokens of the text, analyzed with the analyzer for the field
+     */
+    public String[] analyze(Analyzer analyzer, String field, String text) throws IOException {
+        Key key = new Key(analyzer, field, text);
+
+        String[] terms = current.get(key);
+        if (terms != null) {
+            return terms;
+        }
+
+        terms = previous.get(key);
+        if (terms == null) {
+            terms = termsFromTokenStream(analyzer.tokenStream(field, text));
+        }
+        put(key, terms);
+
+        return terms;
+    }
+
+    /**
+     * Returns the first token of the analyzed text, or null if there is none (e.g. a stop word)
+     */
+    public String analyzeFirst(Analyzer analyzer, String field, String text) throws IOException {
+        String[] terms = analyze(analyzer, field, text);
+        return terms.length > 0 ? terms[0] : null;
+    }
+
+    /**
+     * Returns all tokens of the text, analyzed with the analyzer for the field, without a cache
+     */
+    public static String[] analyzeUncached(Analyzer analyzer, String field, String text) throws IOException {
+        return termsFromTokenStream(analyzer.tokenStream(field, text));
+    }
+
+    public int size() {
+        return current.size() + previous.size();
+    }
+
+    /**
+     * Drops all entries (and the references to their analyzers)
+     */
+    public synchronized void clear() {
+        current = new ConcurrentHashMap<>();
+        previous = new ConcurrentHashMap<>();
+    }
+
+    private void put(Key key, String[] terms) {
+        ConcurrentHashMap<Key, String[]> generation = current;
+        if (generation.size() >= generationSize) {
+            synchronized (this) {
+                if (current == generation) {
+                    previous = generation;
+                    current = new ConcurrentHashMap<>();
+                }
+                generation = current;
+            }
+        }
+        generation.put(key, terms);
+    }
+
+    private static String[] termsFromTokenStream(TokenStream stream) throws IOException {
+
+        List<String> outputTemp=new ArrayList<>();
+        CharTermAttribute charTermAttribute = stream.addAttribute(CharTermAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+            outputTemp.add(charTermAttribute.toString());
+        }
+        stream.end();
+        stream.close();
+
+        return outputTemp.toArray(new String[0]);
+    }
+
+    private static final class Key {
+
+        private final Analyzer analyzer;
+        private final String field;
+        private final String text;
+        private final int hash;
+
+        Key(Analyzer analyzer, String field, String text) {
+            this.analyzer = analyzer;
+            this.field = field;
+            this.text = text;
+            this.hash = 31 * (31 * System.identityHashCode(analyzer) + field.hashCode()) + text.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return analyzer == other.analyzer && field.equals(other.field) && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
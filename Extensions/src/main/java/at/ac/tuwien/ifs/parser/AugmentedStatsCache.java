@@ -0,0 +1,160 @@
+package at.ac.tuwien.ifs.parser;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.ShardRequest;
+import org.apache.solr.handler.component.ShardResponse;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.stats.ExactStatsCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distributed statistics for the augmented term queries in a sharded (SolrCloud) collection, so that every shard
+ * scores with the statistics of the whole collection:
+ * <ul>
+ * <li>GT &amp; ET: the term statistics of the main + similar terms and the collection statistics are gathered by the
+ * <code>{@link ExactStatsCache}</code> (the query extracts the similar terms as well)</li>
+ * <li>ET: the document set count of every expansion is counted per shard in the same stats round, summed by the
+ * aggregator and sent back to the shards with the query (used by the <code>{@link DistributedDocumentSetCounter}</code>)</li>
+ * </ul>
+ * Configured in the solrconfig.xml (the SimilarityParser then uses the distributed counter for ET):
+ * <pre>
+ *  &lt;statsCache class="at.ac.tuwien.ifs.parser.AugmentedStatsCache"/&gt;
+ * </pre>
+ * The duration of the extra round (aggregator: stats request sent until the global stats are sent) is added to the
+ * request log as <code>statsRoundMs</code>, the shard time to count the local document sets is logged (debug).
+ *
+ * A count is only used, if all shards returned it - e.g. if a shard dropped other similar terms because of a
+ * budget its document set is different, then the shards use their local count.
+ */
+public class AugmentedStatsCache extends ExactStatsCache {
+
+    private static final String DOC_SET_COUNTS_KEY = "at.ac.tuwien.ifs.stats.docSetCounts";
+
+    // request context keys
+    private static final String LOCAL_COUNTS_KEY = DOC_SET_COUNTS_KEY + ".local";
+    private static final String GLOBAL_COUNTS_KEY = DOC_SET_COUNTS_KEY + ".global";
+    private static final String STATS_ROUND_START_KEY = DOC_SET_COUNTS_KEY + ".start";
+
+    private final static Logger logger = LoggerFactory.getLogger(AugmentedStatsCache.class);
+
+    //
+    // aggregator
+    //
+
+    @Override
+    public ShardRequest retrieveStatsRequest(ResponseBuilder rb) {
+        rb.req.getContext().put(STATS_ROUND_START_KEY, System.nanoTime());
+        return super.retrieveStatsRequest(rb);
+    }
+
+    @Override
+    public void mergeToGlobalStats(SolrQueryRequest req, List<ShardResponse> responses) {
+        super.mergeToGlobalStats(req, responses);
+
+        Map<String, Long> globalCounts = new HashMap<>();
+        Map<String, Integer> shardCounts = new HashMap<>();
+        for (ShardResponse response : responses) {
+            NamedList<?> counts = (NamedList<?>) response.getSolrResponse().getResponse().get(DOC_SET_COUNTS_KEY);
+            if (counts == null) {
+                continue;
+            }
+            for (int i = 0; i < counts.size(); i++) {
+                globalCounts.merge(counts.getName(i), ((Number) counts.getVal(i)).longValue(), Long::sum);
+                shardCounts.merge(counts.getName(i), 1, Integer::sum);
+            }
+        }
+
+        // a partial sum would be wrong for all shards
+        globalCounts.keySet().removeIf(key -> shardCounts.get(key) != responses.size());
+
+        req.getContext().put(GLOBAL_COUNTS_KEY, globalCounts);
+    }
+
+    @Override
+    public void sendGlobalStats(ResponseBuilder rb, ShardRequest outgoing) {
+        super.sendGlobalStats(rb, outgoing);
+
+        Map<String, Long> globalCounts = getGlobalCounts(rb.req.getContext());
+        if (globalCounts != null) {
+            ModifiableSolrParams params = outgoing.params;
+            for (Map.Entry<String, Long> entry : globalCounts.entrySet()) {
+                params.add(DOC_SET_COUNTS_KEY, entry.getValue() + ":" + entry.getKey());
+            }
+        }
+
+        Object start = rb.req.getContext().remove(STATS_ROUND_START_KEY);
+        if (start != null) {
+            rb.rsp.getToLog().add("statsRoundMs", (System.nanoTime() - (Long) start) / 1000000);
+        }
+    }
+
+    //
+    // shard
+    //
+
+    @Override
+    public void returnLocalStats(ResponseBuilder rb, SolrIndexSearcher searcher) {
+        long start = System.nanoTime();
+
+        // the weight of the query is created by the super class -> the document set counter collects the local counts
+        Map<String, Long> localCounts = new HashMap<>();
+        rb.req.getContext().put(LOCAL_COUNTS_KEY, localCounts);
+        try {
+            super.returnLocalStats(rb, searcher);
+        } finally {
+            rb.req.getContext().remove(LOCAL_COUNTS_KEY);
+        }
+
+        if (!localCounts.isEmpty()) {
+            NamedList<Long> counts = new SimpleOrderedMap<>();
+            for (Map.Entry<String, Long> entry : localCounts.entrySet()) {
+                counts.add(entry.getKey(), entry.getValue());
+            }
+            rb.rsp.add(DOC_SET_COUNTS_KEY, counts);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Local stats with " + localCounts.size() + " document set counts in " + (System.nanoTime() - start) / 1000 + " us");
+        }
+    }
+
+    @Override
+    public void receiveGlobalStats(SolrQueryRequest req) {
+        super.receiveGlobalStats(req);
+
+        String[] values = req.getParams().getParams(DOC_SET_COUNTS_KEY);
+        if (values == null) {
+            return;
+        }
+
+        Map<String, Long> globalCounts = new HashMap<>();
+        for (String value : values) {
+            int split = value.indexOf(':');
+            globalCounts.put(value.substring(split + 1), Long.parseLong(value.substring(0, split)));
+        }
+        req.getContext().put(GLOBAL_COUNTS_KEY, globalCounts);
+    }
+
+    //
+    // access for the document set counter
+    //
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Long> getGlobalCounts(Map<Object, Object> context) {
+        return (Map<String, Long>) context.get(GLOBAL_COUNTS_KEY);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Long> getLocalCounts(Map<Object, Object> context) {
+        return (Map<String, Long>) context.get(LOCAL_COUNTS_KEY);
+    }
+}
@@ -0,0 +1,96 @@
+package at.ac.tuwien.ifs.parser;
+
+import at.ac.tuwien.ifs.query.DocumentSetCounter;
+import at.ac.tuwien.ifs.query.TermDocSetCache;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <code>{@link DocumentSetCounter}</code> of a shard in a distributed request (see <code>{@link AugmentedStatsCache}</code>):
+ * <ul>
+ * <li>stats round: the local count is computed (delegate or postings) and collected for the response</li>
+ * <li>query round: the global count (sum of all shards) is returned, if it was sent with the request</li>
+ * </ul>
+ * Outside of a distributed request the delegate is used (or -1, if it is null = postings scan of the query).
+ */
+public class DistributedDocumentSetCounter implements DocumentSetCounter {
+
+    // separates the terms of a key, does not occur in analyzed terms
+    private static final char separator = '\u0000';
+
+    private final DocumentSetCounter delegate;
+
+    /**
+     * @param delegate local counter, may be null
+     */
+    public DistributedDocumentSetCounter(DocumentSetCounter delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public long count(IndexSearcher searcher, Term[] terms, TermContext[] states) throws IOException {
+        SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+        Map<Object, Object> context = requestInfo == null ? null : requestInfo.getReq().getContext();
+
+        String key = key(terms);
+
+        if (context != null) {
+            Map<String, Long> globalCounts = AugmentedStatsCache.getGlobalCounts(context);
+            if (globalCounts != null && globalCounts.containsKey(key)) {
+                return globalCounts.get(key);
+            }
+        }
+
+        long count = delegate != null ? delegate.count(searcher, terms, states) : -1;
+
+        Map<String, Long> localCounts = context == null ? null : AugmentedStatsCache.getLocalCounts(context);
+        if (localCounts != null) {
+            // the global count is a sum of all shards -> needs an exact local count
+            if (count < 0) {
+                count = TermDocSetCache.countPostings(searcher, terms, states);
+            }
+            localCounts.put(key, count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Key of the document set of the terms (independent of their order, like the count)
+     */
+    static String key(Term[] terms) {
+        String[] parts = new String[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            parts[i] = terms[i].toString();
+        }
+        Arrays.sort(parts);
+
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                key.append(separator);
+            }
+            key.append(parts[i]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * True, if the request is handled with the distributed statistics of the <code>{@link AugmentedStatsCache}</code>
+     */
+    static boolean isConfigured(SolrQueryRequest req) {
+        return req != null && req.getCore() != null && req.getCore().getStatsCache() instanceof AugmentedStatsCache;
+    }
+
+    @Override
+    public String toString() {
+        return "DistributedDocumentSetCounter(" + delegate + ")";
+    }
+}
@@ -0,0 +1,73 @@
+package at.ac.tuwien.ifs.parser;
+
+import at.ac.tuwien.ifs.api.ExpansionStore;
+import at.ac.tuwien.ifs.api.ReloadableSimilarityApi;
+import at.ac.tuwien.ifs.query.MaterializedExpansionCache;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.QParserPlugin;
+
+/**
+ * Solr admin handler, that re-loads the pre-computed similar term files of the <code>{@link SimilarityParser}</code>
+ * (api:type=file) of its core without a core reload. Running queries finish with the previous version.
+ *
+ * <remarks>
+ *     Usage: <code>
+
+ <requestHandler name="/admin/expansions" class="at.ac.tuwien.ifs.parser.ExpansionReloadHandler"/>
+
+ *     </code>
+ *     <code>/admin/expansions?action=reload</code> re-loads all files of the core (and drops its materialized expansions),
+ *     <code>/admin/expansions</code> lists the loaded versions
+ * </remarks>
+ */
+public class ExpansionReloadHandler extends RequestHandlerBase {
+
+    @Override
+    public void handleRequestBody(SolrQueryRequest req, SolrQueryResponse rsp) throws Exception {
+
+        boolean reload = "reload".equals(req.getParams().get("action"));
+
+        QParserPlugin plugin = req.getCore().getQueryPlugin(SimilarityParserPlugin.NAME);
+        if (!(plugin instanceof SimilarityParserPlugin)) {
+            throw new RuntimeException("[ExpansionReloadHandler] The " +
+                    SimilarityParserPlugin.class.getSimpleName() + " is not registered in this core");
+        }
+        SimilarityParserPlugin parserPlugin = (SimilarityParserPlugin) plugin;
+
+        NamedList<Object> files = new SimpleOrderedMap<>();
+
+        for (ReloadableSimilarityApi api : parserPlugin.getFileApis()) {
+            if (reload) {
+                api.reload();
+            }
+
+            ExpansionStore store = api.acquire();
+            try {
+                NamedList<Object> info = new SimpleOrderedMap<>();
+                info.add("version", store.getVersion());
+                info.add("terms", store.size());
+                files.add(api.getFile().toString(), info);
+            } finally {
+                api.release(store);
+            }
+        }
+
+        // the materialized postings of the old expansions are not requested anymore
+        if (reload) {
+            for (MaterializedExpansionCache cache : parserPlugin.getMaterializedExpansions()) {
+                cache.invalidate();
+            }
+        }
+
+        rsp.add("files", files);
+    }
+
+    @Override
+    public String getDescription() {
+        return "Re-loads the similar term files of the similarityApiParser";
+    }
+}
@@ -1,31 +1,55 @@
 package at.ac.tuwien.ifs.parser;
 
+import at.ac.tuwien.ifs.api.ExpansionModels;
 import at.ac.tuwien.ifs.api.ISimilarityApi;
+import at.ac.tuwien.ifs.api.ReloadableSimilarityApi;
 import at.ac.tuwien.ifs.api.SimilarTermModel;
 import at.ac.tuwien.ifs.api.SimilarityApi;
 import at.ac.tuwien.ifs.api.SimilarityApiMock;
+import at.ac.tuwien.ifs.api.SingleFlightSimilarityApi;
+import at.ac.tuwien.ifs.api.VocabularyBloomFilter;
+import at.ac.tuwien.ifs.api.VocabularyFilteredSimilarityApi;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
 import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.SolrCache;
 import org.apache.solr.search.SyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import at.ac.tuwien.ifs.query.AugmentedMultiFieldQuery;
+import at.ac.tuwien.ifs.query.AugmentedPhraseQuery;
 import at.ac.tuwien.ifs.query.AugmentedTermQuery;
+import at.ac.tuwien.ifs.query.ExpansionBudget;
+import at.ac.tuwien.ifs.query.DocumentSetCounter;
+import at.ac.tuwien.ifs.query.MaterializedExpansionCache;
+import at.ac.tuwien.ifs.query.SegmentDocumentSetCache;
+import at.ac.tuwien.ifs.query.TermContextBuilder;
+import at.ac.tuwien.ifs.query.TermDocSetCache;
 import at.ac.tuwien.ifs.query.TermWeightTuple;
+import at.ac.tuwien.ifs.query.TranslationTermQuery;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Solr query parser, that utilizes the <code>{@link ISimilarityApi}</code>
@@ -36,33 +60,124 @@ import java.util.List;
  *     <code>
 
  <str name="query:method">GT</str> // GT or ET
-
- <str name="api:type">mock</str> // mock or real
+ <str name="query:maxPostings">1000000</str> // optional, postings budget per request (split evenly between the query terms)
+ <str name="query:maxMillis">50</str> // optional, alternative to maxPostings: estimated latency budget per request
+ <str name="query:postingsPerMilli">100000</str> // optional, throughput used to convert maxMillis to postings
+ <str name="query:termContexts">serial</str> // optional, serial, term or leaf: builds the term contexts in parallel (per term or per index segment)
+ <str name="query:termContextCache">termContextCache</str> // optional, name of a solr user cache for term contexts (see TermContextCacheRegenerator)
+ <str name="query:docSetCacheMB">64</str> // optional, ET only: bitmap cache for the document sets of frequent terms (size in MB, shared by all requests)
+ <str name="query:docSetCacheMinDocFreq">1000</str> // optional, terms with a lower document frequency (per segment) are not cached
+ <str name="query:segmentStatsCacheSize">100000</str> // optional, ET only: number of per segment document set counts kept across reopens (near-real-time)
+ <str name="query:materializeCacheMB">256</str> // optional, merged postings of hot expansions per segment (size in MB, per core)
+ <str name="query:materializeMinRequests">10</str> // optional, an expansion is materialized after this many requests
+ <str name="query:phraseSlop">2</str> // optional, GT only: additional proximity clause over the same expansions (reads their postings again, with positions)
+ <str name="query:translationField">text_tr</str> // optional, GT only: index-time translation field, not with fields, phraseSlop, maxPostings, maxMillis or materializeCacheMB
+ <str name="query:fields">title^2 body</str> // optional, ranking model: scores the expansions over all fields (BM25F-style, field^boost) instead of the df, not with maxPostings, maxMillis or materializeCacheMB
+ <str name="query:k1">1.2</str> // optional, k1 of the multi-field scoring
+ <str name="query:b">0.75</str> // optional, length normalization of every field of the multi-field scoring
+
+ <str name="api:type">mock</str> // mock, real, file or models
  <str name="api:failOnNotConnected">true</str> // true or false
  <str name="api:url">https://localhost:5000</str> // the url of the real endpoint
  <str name="api:optionalParams">vector_method=we;similarity_method=cos;filter_method=threshold;filter_value=0.7</str> // optional parameter as url appendable string (see api spec for options)
+ <str name="api:wireFormat">json</str> // optional, json or smile (binary) payloads
+ <str name="api:gzip">false</str> // optional, compress request & response payloads
+ <str name="api:vocabularyFile">/path/to/similar-terms.json</str> // optional, bloom filter of the expansion vocabulary from a pre-computed file
+ <str name="api:vocabularyUrl">http://localhost:5000/api/v1.0/vocabulary</str> // optional, or from the service (json array of terms)
+ <str name="api:vocabularyFpp">0.01</str> // optional, false positive rate of the vocabulary bloom filter
+ <str name="api:vocabularyMaxBytes">0</str> // optional, memory limit of the vocabulary bloom filter (0 = no limit)
+ <str name="api:negativeCacheSize">10000</str> // optional, number of cached terms without similar terms (default 0 = disabled, kept until the core is reloaded)
+ <str name="api:file">/path/to/similar-terms.json</str> // pre-computed similar terms (for api:type=file)
+ <str name="api:fileReloadInterval">10000</str> // optional, checks the file for changes every x ms (0 = only via the ExpansionReloadHandler)
+ <str name="api:models">we=/path/we.exp;glove=/path/glove.json</str> // named, memory mapped models (for api:type=models), the first is the default
+ <str name="api:model">glove</str> // optional, selects the model (usually set per request)
+ <str name="api:modelsCheckInterval">1000</str> // optional, checks the model files for changes at most every x ms (0 = on every request)
  *     </code>
+ *     In a sharded collection the statistics are merged over all shards, if the <code>{@link AugmentedStatsCache}</code>
+ *     is set as statsCache in the solrconfig.xml.
  * </remarks>
  */
 public class SimilarityParser extends QParser {
 
     private static final String config_query_method = "query:method";
+    private static final String config_max_postings = "query:maxPostings";
+    private static final String config_max_millis = "query:maxMillis";
+    private static final String config_postings_per_milli = "query:postingsPerMilli";
+
+    private static final String config_term_contexts = "query:termContexts";
+    private static final String config_term_context_cache = "query:termContextCache";
+    private static final String config_doc_set_cache_mb = "query:docSetCacheMB";
+    private static final String config_doc_set_cache_min_doc_freq = "query:docSetCacheMinDocFreq";
+    private static final String config_segment_stats_cache_size = "query:segmentStatsCacheSize";
+    private static final String config_materialize_cache_mb = "query:materializeCacheMB";
+    private static final String config_materialize_min_requests = "query:materializeMinRequests";
+    private static final String config_translation_field = "query:translationField";
+    private static final String config_phrase_slop = "query:phraseSlop";
+    private static final String config_fields = "query:fields";
+    private static final String config_k1 = "query:k1";
+    private static final String config_b = "query:b";
+
+    private static final int default_doc_set_cache_min_doc_freq = 1000;
+    private static final int default_materialize_min_requests = 10;
+
+    private static final long default_postings_per_milli = 100000;
+
+    private static final float default_k1 = 1.2f;
+    private static final float default_b = 0.75f;
 
     private static final String config_api_type = "api:type";
     private static final String config_fail = "api:failOnNotConnected";
     private static final String config_url = "api:url";
     private static final String config_optionalParams = "api:optionalParams";
+    private static final String config_wire_format = "api:wireFormat";
+    private static final String config_gzip = "api:gzip";
+    private static final String config_vocabulary_file = "api:vocabularyFile";
+    private static final String config_vocabulary_url = "api:vocabularyUrl";
+    private static final String config_vocabulary_fpp = "api:vocabularyFpp";
+    private static final String config_vocabulary_max_bytes = "api:vocabularyMaxBytes";
+    private static final String config_negative_cache_size = "api:negativeCacheSize";
+    private static final String config_file = "api:file";
+    private static final String config_file_reload_interval = "api:fileReloadInterval";
+    private static final String config_models = "api:models";
+    private static final String config_model = "api:model";
+    private static final String config_models_check_interval = "api:modelsCheckInterval";
+
+    private static final double default_vocabulary_fpp = 0.01;
+    private static final int default_negative_cache_size = 0;
     private final AugmentedTermQuery.ModelMethod modelMethod;
 
+    private static final ConcurrentHashMap<String, ISimilarityApi> sharedApis = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, DocumentSetCounter> sharedDocumentSetCounters = new ConcurrentHashMap<>();
+
+    // shared by all parallel term context builds of the jvm (daemon threads, created on first use)
+    private static volatile ExecutorService termContextExecutor;
+
     private ISimilarityApi similarityApi;
+    private final TermContextBuilder termContextBuilder;
+    private final AnalyzedTermCache analyzedTerms;
+    private final DocumentSetCounter documentSetCounter;
+    private final MaterializedExpansionCache materializedExpansions;
+    private final String translationField;
+    private final Integer phraseSlop;
+    private final AugmentedMultiFieldQuery.FieldParameters[] fields;
+    private final float k1;
     private boolean failOnConnectionError = false;
 
     private final static Logger logger = LoggerFactory.getLogger(SimilarityParser.class);
 
 
     public SimilarityParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+        this(qstr, localParams, params, req, findPlugin(req));
+    }
+
+    /**
+     * Creates the parser with the per core resources of the plugin (plugin may be null, if it is not registered)
+     */
+    public SimilarityParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req, SimilarityParserPlugin plugin) {
         super(qstr, localParams, params, req);
 
+        analyzedTerms = plugin != null ? plugin.getAnalyzedTerms() : null;
+
         //
         // create api access via parameters
         //
@@ -76,9 +191,44 @@ public class SimilarityParser extends QParser {
         if(params.get(config_api_type).equals("mock")){
             similarityApi = new SimilarityApiMock();
         }
+        else if(params.get(config_api_type).equals("models")){
+            if(plugin == null){
+                throw new RuntimeException("[SimilarityParser] api:type=models needs the " + SimilarityParserPlugin.class.getSimpleName() + " to be registered");
+            }
+            try {
+                similarityApi = plugin.getExpansionModels(params.get(config_models),
+                        params.getLong(config_models_check_interval, ExpansionModels.DEFAULT_CHECK_INTERVAL_MILLIS)).get(params.get(config_model));
+            } catch (IOException e) {
+                throw new RuntimeException("[SimilarityParser] Could not open the expansion model", e);
+            }
+        }
+        else if(params.get(config_api_type).equals("file")){
+            if(plugin == null){
+                throw new RuntimeException("[SimilarityParser] api:type=file needs the " + SimilarityParserPlugin.class.getSimpleName() + " to be registered");
+            }
+            // owned by the core, so that the ExpansionReloadHandler of the core can swap the file for all requests
+            String key = params.get(config_file) + "|" + params.get(config_file_reload_interval);
+            similarityApi = plugin.getFileApi(key, k -> createFileApi(params));
+        }
         else {
-            similarityApi = new SimilarityApi(params.get(config_url), params.get(config_optionalParams));
+            // shared between all requests (and threads) with the same configuration -> coalesces concurrent lookups
+            String key = params.get(config_url) + "|" + params.get(config_optionalParams) + "|"
+                    + params.get(config_wire_format) + "|" + params.get(config_gzip) + "|"
+                    + params.get(config_vocabulary_file) + "|" + params.get(config_vocabulary_url) + "|"
+                    + params.get(config_vocabulary_fpp) + "|" + params.get(config_vocabulary_max_bytes) + "|"
+                    + params.get(config_negative_cache_size);
+            similarityApi = sharedApis.computeIfAbsent(key, k -> createSharedApi(params));
+        }
+
+        TermContextBuilder builder = createTermContextBuilder(params.get(config_term_contexts, "serial"));
+        if(params.get(config_term_context_cache) != null && req != null && req.getSearcher() != null) {
+            SolrCache<Term, TermContext> cache = SolrTermContextCache.getCache(req.getSearcher(), params.get(config_term_context_cache));
+            if(cache == null) {
+                throw new RuntimeException("[SimilarityParser] The cache: " + params.get(config_term_context_cache) + " is not defined in the solrconfig.xml");
+            }
+            builder = builder.withCache(new SolrTermContextCache(cache));
         }
+        termContextBuilder = builder;
 
         if(params.get(config_query_method).equals("GT")){
             modelMethod = AugmentedTermQuery.ModelMethod.Generalized;
@@ -86,11 +236,188 @@ public class SimilarityParser extends QParser {
             modelMethod = AugmentedTermQuery.ModelMethod.Extended;
         }
 
+        if(modelMethod == AugmentedTermQuery.ModelMethod.Extended) {
+            documentSetCounter = createDocumentSetCounter(params, DistributedDocumentSetCounter.isConfigured(req));
+        }else{
+            documentSetCounter = null;
+        }
+
+        if(params.get(config_fields) != null) {
+            // the multi-field query has no postings budget and no materialized expansions
+            for (String unsupported : new String[]{config_max_postings, config_max_millis, config_materialize_cache_mb}) {
+                if(params.get(unsupported) != null) {
+                    throw new RuntimeException("[SimilarityParser] " + unsupported + " is not supported with " + config_fields);
+                }
+            }
+        }
+
+        if(params.get(config_translation_field) != null) {
+            // the translation query reads a single term: no expansion to restrict, materialize, score per field or as phrase
+            for (String unsupported : new String[]{config_fields, config_phrase_slop, config_max_postings, config_max_millis, config_materialize_cache_mb}) {
+                if(params.get(unsupported) != null) {
+                    throw new RuntimeException("[SimilarityParser] " + unsupported + " is not supported with " + config_translation_field);
+                }
+            }
+        }
+
+        if(params.get(config_materialize_cache_mb) != null) {
+            long maxBytes = params.getLong(config_materialize_cache_mb) << 20;
+            int minRequests = params.getInt(config_materialize_min_requests, default_materialize_min_requests);
+            if(plugin == null){
+                throw new RuntimeException("[SimilarityParser] " + config_materialize_cache_mb + " needs the " + SimilarityParserPlugin.class.getSimpleName() + " to be registered");
+            }
+            materializedExpansions = plugin.getMaterializedExpansions(maxBytes + "|" + minRequests,
+                    k -> new MaterializedExpansionCache(minRequests, maxBytes));
+        }else{
+            materializedExpansions = null;
+        }
+
+        translationField = params.get(config_translation_field);
+        if(translationField != null && modelMethod == AugmentedTermQuery.ModelMethod.Extended) {
+            // the translation field only holds the weighted freqs (GT), not the ET statistics of the expansion
+            throw new RuntimeException("[SimilarityParser] " + config_translation_field + " is only supported with " + config_query_method + "=GT");
+        }
+        phraseSlop = params.getInt(config_phrase_slop);
+        if(phraseSlop != null && modelMethod == AugmentedTermQuery.ModelMethod.Extended) {
+            // the phrase clause scores with the statistics of the main terms (GT), not the ET statistics of the expansion
+            throw new RuntimeException("[SimilarityParser] " + config_phrase_slop + " is only supported with " + config_query_method + "=GT");
+        }
+
+        fields = params.get(config_fields) == null ? null :
+                parseFields(params.get(config_fields), params.getFloat(config_b, default_b));
+        k1 = params.getFloat(config_k1, default_k1);
+
         if(logger.isInfoEnabled()) {
             logger.info("Class initialized with: " + similarityApi.getClass().getSimpleName());
         }
     }
 
+    /**
+     * Parses the fields of the multi-field query: <code>field^boost</code> separated by whitespace or commas
+     * (the boost is optional, default 1)
+     */
+    public static AugmentedMultiFieldQuery.FieldParameters[] parseFields(String value, float b) {
+        List<AugmentedMultiFieldQuery.FieldParameters> output = new ArrayList<>();
+        for (String entry : value.trim().split("[\\s,]+")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int separator = entry.indexOf('^');
+            try {
+                output.add(separator < 0 ?
+                        new AugmentedMultiFieldQuery.FieldParameters(entry, 1f, b) :
+                        new AugmentedMultiFieldQuery.FieldParameters(entry.substring(0, separator), Float.parseFloat(entry.substring(separator + 1)), b));
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("[SimilarityParser] " + config_fields + ": could not parse the boost of: " + entry, e);
+            }
+        }
+        if (output.isEmpty()) {
+            throw new RuntimeException("[SimilarityParser] " + config_fields + ": no field set");
+        }
+        return output.toArray(new AugmentedMultiFieldQuery.FieldParameters[0]);
+    }
+
+    private static ReloadableSimilarityApi createFileApi(SolrParams params) {
+        try {
+            return new ReloadableSimilarityApi(Paths.get(params.get(config_file)), params.getLong(config_file_reload_interval, 0));
+        } catch (IOException e) {
+            throw new RuntimeException("[SimilarityParser] Could not load the similar term file", e);
+        }
+    }
+
+    /**
+     * Returns the shared bitmap cache and/or per segment cache for the extended model statistics, wrapped for
+     * distributed requests (or null if nothing is set). Every counter is shared under the key of its configuration,
+     * a wrapper under the key of the counter it wraps.
+     */
+    private static DocumentSetCounter createDocumentSetCounter(SolrParams params, boolean distributed) {
+        String key = null;
+        DocumentSetCounter counter = null;
+
+        if(params.get(config_doc_set_cache_mb) != null) {
+            long maxBytes = params.getLong(config_doc_set_cache_mb) << 20;
+            int minDocFreq = params.getInt(config_doc_set_cache_min_doc_freq, default_doc_set_cache_min_doc_freq);
+            key = "bitmaps|" + maxBytes + "|" + minDocFreq;
+            counter = sharedDocumentSetCounters.computeIfAbsent(key, k -> new TermDocSetCache(minDocFreq, maxBytes));
+        }
+
+        if(params.get(config_segment_stats_cache_size) != null) {
+            int maxEntries = params.getInt(config_segment_stats_cache_size);
+            TermDocSetCache bitmaps = (TermDocSetCache) counter;
+            key = "segments|" + maxEntries + "|" + key;
+            counter = sharedDocumentSetCounters.computeIfAbsent(key, k -> new SegmentDocumentSetCache(maxEntries, bitmaps));
+        }
+
+        if(distributed) {
+            DocumentSetCounter localCounter = counter;
+            counter = sharedDocumentSetCounters.computeIfAbsent("distributed|" + key, k -> new DistributedDocumentSetCounter(localCounter));
+        }
+
+        return counter;
+    }
+
+    private static TermContextBuilder createTermContextBuilder(String mode) {
+        switch (mode) {
+            case "serial":
+                return TermContextBuilder.serial();
+            case "term":
+                return new TermContextBuilder(TermContextBuilder.Mode.PerTerm, getTermContextExecutor());
+            case "leaf":
+                return new TermContextBuilder(TermContextBuilder.Mode.PerLeaf, getTermContextExecutor());
+            default:
+                throw new RuntimeException("[SimilarityParser] " + config_term_contexts + ": " + mode + " not supported");
+        }
+    }
+
+    private static ExecutorService getTermContextExecutor() {
+        if (termContextExecutor == null) {
+            synchronized (SimilarityParser.class) {
+                if (termContextExecutor == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    termContextExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                        Thread thread = new Thread(r, "term-contexts-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return termContextExecutor;
+    }
+
+    /**
+     * Creates the api chain for the "real" api: vocabulary filter + negative cache -> single flight -> api
+     */
+    private static ISimilarityApi createSharedApi(SolrParams params) {
+
+        SimilarityApi.WireFormat wireFormat = "smile".equalsIgnoreCase(params.get(config_wire_format)) ?
+                SimilarityApi.WireFormat.Smile : SimilarityApi.WireFormat.Json;
+
+        ISimilarityApi api = new SingleFlightSimilarityApi(
+                new SimilarityApi(params.get(config_url), params.get(config_optionalParams), wireFormat, params.getBool(config_gzip, false)));
+
+        double fpp = params.getDouble(config_vocabulary_fpp, default_vocabulary_fpp);
+        long maxBytes = params.getLong(config_vocabulary_max_bytes, 0);
+
+        VocabularyBloomFilter vocabulary = null;
+        try {
+            if (params.get(config_vocabulary_file) != null) {
+                vocabulary = VocabularyBloomFilter.fromFile(params.get(config_vocabulary_file), fpp, maxBytes);
+            } else if (params.get(config_vocabulary_url) != null) {
+                vocabulary = VocabularyBloomFilter.fromUrl(params.get(config_vocabulary_url), fpp, maxBytes);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("[SimilarityParser] Could not load the vocabulary", e);
+        }
+
+        int negativeCacheSize = params.getInt(config_negative_cache_size, default_negative_cache_size);
+
+        if (vocabulary == null && negativeCacheSize <= 0) {
+            return api;
+        }
+        return new VocabularyFilteredSimilarityApi(api, vocabulary, negativeCacheSize);
+    }
+
     public Query parse() throws SyntaxError {
 
         //
@@ -104,15 +431,22 @@ public class SimilarityParser extends QParser {
         }
 
         final Analyzer analyzer = schema.getQueryAnalyzer();
-        TokenStream tokenStream = analyzer.tokenStream(defaultField, qstr);
 
         String[] queryTerms = null;
         try {
-            queryTerms = termsFromTokenStream(tokenStream);
+            queryTerms = analyzedTerms != null ? analyzedTerms.analyze(analyzer, defaultField, qstr)
+                                               : AnalyzedTermCache.analyzeUncached(analyzer, defaultField, qstr);
         } catch (IOException e) {
             throw new SyntaxError(e);
         }
 
+        //
+        // index-time translation -> the expansion is already in the translation field, no api call
+        //
+        if(translationField != null) {
+            return createTranslationQuery(queryTerms, defaultField);
+        }
+
         //
         // get similar terms through the api
         //
@@ -135,18 +469,40 @@ public class SimilarityParser extends QParser {
             }
         }
 
+        //
+        // optional latency budget -> the lowest weighted similar terms are dropped, if it is exceeded: once here with
+        // the request searcher (the weights do not fit again), or by the AugmentedTermWeight without a searcher
+        //
+        ExpansionBudget budget = createBudget(similarTerms);
+        if(budget != null && req != null && req.getSearcher() != null) {
+            similarTerms = fitBudget(budget, maxPostings(), similarTerms);
+            budget = null;
+        }
+
         //
         // create the lucene query
         //
         Query query;
         if(similarTerms.length == 1) {
-            query = new AugmentedTermQuery(modelMethod, similarTerms[0].queryTerm, similarTerms[0].similarTerms);
+            query = createTermQuery(similarTerms[0], budget);
         }else{
 
             BooleanQuery.Builder builder = new BooleanQuery.Builder();
 
             for (SimilarTermModel model : similarTerms) {
-                builder.add(new AugmentedTermQuery(modelMethod, model.queryTerm, model.similarTerms), BooleanClause.Occur.SHOULD);
+                builder.add(createTermQuery(model, budget), BooleanClause.Occur.SHOULD);
+            }
+
+            // optional proximity clause over the same (budget fitted) expansions, an additional clause that reads
+            // their postings again with positions
+            if(phraseSlop != null) {
+                Term[] mainTerms = new Term[similarTerms.length];
+                TermWeightTuple[][] slotTerms = new TermWeightTuple[similarTerms.length][];
+                for (int i = 0; i < similarTerms.length; i++) {
+                    mainTerms[i] = similarTerms[i].queryTerm;
+                    slotTerms[i] = similarTerms[i].similarTerms;
+                }
+                builder.add(new AugmentedPhraseQuery(phraseSlop, mainTerms, slotTerms, budget, termContextBuilder), BooleanClause.Occur.SHOULD);
             }
 
             query = builder.build();
@@ -159,18 +515,118 @@ public class SimilarityParser extends QParser {
         return query;
     }
 
-    private String[] termsFromTokenStream(TokenStream stream) throws IOException {
+    /**
+     * The query of a single query term: multi-field (if fields are set, without budget &amp; materialized postings)
+     * or on the default field
+     */
+    private Query createTermQuery(SimilarTermModel model, ExpansionBudget budget) {
+        if(fields != null) {
+            return new AugmentedMultiFieldQuery(modelMethod, k1, fields, model.queryTerm, model.similarTerms, documentSetCounter, termContextBuilder);
+        }
+        return new AugmentedTermQuery(modelMethod, model.queryTerm, model.similarTerms, budget, termContextBuilder, documentSetCounter, materializedExpansions);
+    }
+
+    /**
+     * One <code>{@link TranslationTermQuery}</code> per query term on the translation field, with the statistics &
+     * norms of the search field (generalized model only)
+     */
+    private Query createTranslationQuery(String[] queryTerms, String defaultField) {
+        Query query;
+        if(queryTerms.length == 1) {
+            query = new TranslationTermQuery(new Term(translationField, queryTerms[0]), defaultField);
+        }else{
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (String queryTerm : queryTerms) {
+                builder.add(new TranslationTermQuery(new Term(translationField, queryTerm), defaultField), BooleanClause.Occur.SHOULD);
+            }
+            query = builder.build();
+        }
+
+        if(logger.isInfoEnabled()) {
+            logger.info("Created query: " + query.toString());
+        }
+
+        return query;
+    }
+
+    /**
+     * Creates the budget from the request params (or returns null if none is set), the budget of the request is split
+     * evenly between the query terms
+     */
+    private ExpansionBudget createBudget(SimilarTermModel[] similarTerms) throws SyntaxError {
+        Long maxPostings = maxPostings();
+        if(maxPostings == null) {
+            return null;
+        }
+        try {
+            return new ExpansionBudget(maxPostings / Math.max(1, similarTerms.length));
+        } catch (IllegalArgumentException e) {
+            throw new SyntaxError(e.getMessage(), e);
+        }
+    }
 
-        List<String> outputTemp=new ArrayList<>();
-        CharTermAttribute charTermAttribute = stream.addAttribute(CharTermAttribute.class);
-        stream.reset();
-        while (stream.incrementToken()) {
-            outputTemp.add(charTermAttribute.toString());
+    /**
+     * The postings budget of the request or null
+     */
+    private Long maxPostings() throws SyntaxError {
+        try {
+            if(params.get(config_max_postings) != null){
+                return params.getLong(config_max_postings);
+            }
+            if(params.get(config_max_millis) != null){
+                return Math.multiplyExact(params.getLong(config_max_millis), params.getLong(config_postings_per_milli, default_postings_per_milli));
+            }
+            return null;
+        } catch (ArithmeticException e) {
+            throw new SyntaxError(config_max_millis + " * " + config_postings_per_milli + " is too large", e);
         }
-        stream.end();
-        stream.close();
+    }
 
-        return outputTemp.toArray(new String[0]);
+    /**
+     * Fits the similar terms of every query term into the budget (once per query, with the request searcher) and
+     * reports the similar terms it drops in the response header. The header is filled here and not by the query, so
+     * that it is also filled, if the results come from a cache (no weight is created).
+     */
+    private SimilarTermModel[] fitBudget(ExpansionBudget budget, long maxPostings, SimilarTermModel[] similarTerms) {
+        SimilarTermModel[] output = new SimilarTermModel[similarTerms.length];
+        NamedList<Object> degradations = new SimpleOrderedMap<>();
+        try {
+            for (int i = 0; i < similarTerms.length; i++) {
+                SimilarTermModel model = similarTerms[i];
+                ExpansionBudget.Fit fit = budget.fit(req.getSearcher().getIndexReader(), model.queryTerm, model.similarTerms);
+                output[i] = fit.isDegraded() ? new SimilarTermModel(model.queryTerm, fit.kept) : model;
+                if(fit.isDegraded()) {
+                    NamedList<Object> info = new SimpleOrderedMap<>();
+                    info.add("cost", fit.cost);
+                    info.add("reducedCost", fit.reducedCost);
+                    info.add("dropped", fit.dropped);
+                    degradations.add(model.queryTerm.text(), info);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("[SimilarityParser] Could not read the document frequencies for the budget", e);
+        }
+
+        SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+        if(requestInfo != null && requestInfo.getRsp() != null && requestInfo.getRsp().getResponseHeader() != null) {
+            NamedList<Object> info = new SimpleOrderedMap<>();
+            info.add("maxPostings", maxPostings);
+            info.add("maxPostingsPerTerm", budget.getMaxPostings());
+            info.add("degraded", degradations);
+            requestInfo.getRsp().getResponseHeader().add("expansionBudget", info);
+        }
+        return output;
+    }
+
+    /**
+     * The plugin registered for this parser in the core of the request or null
+     */
+    private static SimilarityParserPlugin findPlugin(SolrQueryRequest req) {
+        if(req == null || req.getCore() == null) {
+            return null;
+        }
+        QParserPlugin plugin = req.getCore().getQueryPlugin(SimilarityParserPlugin.NAME);
+        return plugin instanceof SimilarityParserPlugin ? (SimilarityParserPlugin) plugin : null;
     }
 
     private boolean checkParams(SolrParams params){
@@ -184,6 +640,16 @@ public class SimilarityParser extends QParser {
             if(type.equals("mock")){
                 return true;
             }
+            if(type.equals("models")) {
+                if(params.get(config_models) != null){
+                    return true;
+                }
+            }
+            if(type.equals("file")) {
+                if(params.get(config_file) != null){
+                    return true;
+                }
+            }
             if(type.equals("real")) {
                 if(params.get(config_url) != null){
                     return true;
@@ -1,18 +1,101 @@
 package at.ac.tuwien.ifs.parser;
 
+import at.ac.tuwien.ifs.api.ExpansionModels;
+import at.ac.tuwien.ifs.api.ReloadableSimilarityApi;
+import at.ac.tuwien.ifs.query.MaterializedExpansionCache;
+import org.apache.lucene.util.IOUtils;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
 /**
  * Solr plugin to use the <code>{@link SimilarityParser}</code> for query parsing
+ *
+ * The plugin is created per core and closed with it (Solr closes query parser plugins, that are closeable), it owns
+ * the resources that must not outlive the core (e.g. the memory mapped <code>{@link ExpansionModels}</code>, the
+ * similar term files with their watcher threads, the materialized expansions and the analyzer results of the schema
+ * analyzers).
  */
-public class SimilarityParserPlugin extends QParserPlugin {
+public class SimilarityParserPlugin extends QParserPlugin implements Closeable {
 
     public static final String NAME = "similarityApiParser";
 
+    private final ConcurrentHashMap<String, ExpansionModels> expansionModels = new ConcurrentHashMap<>();
+
+    private final AnalyzedTermCache analyzedTerms = new AnalyzedTermCache(100000);
+
+    private final ConcurrentHashMap<String, ReloadableSimilarityApi> fileApis = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, MaterializedExpansionCache> materializedExpansions = new ConcurrentHashMap<>();
+
     public QParser createParser(String s, SolrParams localParams, SolrParams solrParams, SolrQueryRequest solrQueryRequest) {
-        return new SimilarityParser(s,localParams,solrParams,solrQueryRequest);
+        return new SimilarityParser(s,localParams,solrParams,solrQueryRequest,this);
+    }
+
+    /**
+     * The expansion models of the definition (see <code>{@link ExpansionModels}</code>), created once per core
+     */
+    ExpansionModels getExpansionModels(String definition, long checkIntervalMillis) {
+        return expansionModels.computeIfAbsent(definition + "|" + checkIntervalMillis,
+                k -> new ExpansionModels(definition, checkIntervalMillis));
+    }
+
+    /**
+     * The similar term file api of the key (file + reload interval), created once per core
+     */
+    ReloadableSimilarityApi getFileApi(String key, Function<String, ReloadableSimilarityApi> create) {
+        return fileApis.computeIfAbsent(key, create);
+    }
+
+    /**
+     * All similar term file apis of this core (see <code>{@link ExpansionReloadHandler}</code>)
+     */
+    Collection<ReloadableSimilarityApi> getFileApis() {
+        return fileApis.values();
+    }
+
+    /**
+     * The materialized expansion cache of the key (size + min requests), created once per core
+     */
+    MaterializedExpansionCache getMaterializedExpansions(String key, Function<String, MaterializedExpansionCache> create) {
+        return materializedExpansions.computeIfAbsent(key, create);
+    }
+
+    /**
+     * All materialized expansion caches of this core (see <code>{@link ExpansionReloadHandler}</code>)
+     */
+    Collection<MaterializedExpansionCache> getMaterializedExpansions() {
+        return materializedExpansions.values();
+    }
+
+    /**
+     * The analyzer results of this core
+     */
+    AnalyzedTermCache getAnalyzedTerms() {
+        return analyzedTerms;
+    }
+
+    @Override
+    public void close() throws IOException {
+        analyzedTerms.clear();
+        for (MaterializedExpansionCache cache : materializedExpansions.values()) {
+            cache.invalidate();
+        }
+        materializedExpansions.clear();
+
+        List<Closeable> toClose = new ArrayList<>(expansionModels.values());
+        toClose.addAll(fileApis.values());
+        expansionModels.clear();
+        fileApis.clear();
+        IOUtils.close(toClose);
     }
-}
\ No newline at end of file
+}
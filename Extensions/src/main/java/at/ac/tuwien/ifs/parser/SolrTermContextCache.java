@@ -0,0 +1,48 @@
+package at.ac.tuwien.ifs.parser;
+
+import at.ac.tuwien.ifs.query.TermContextCache;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * <code>{@link TermContextCache}</code> backed by a Solr user cache of the current searcher, so that it is
+ * invalidated with the searcher, warmed by the <code>{@link TermContextCacheRegenerator}</code> and reports its hit
+ * rate in the Solr cache statistics
+ */
+public class SolrTermContextCache implements TermContextCache {
+
+    private final SolrCache<Term, TermContext> cache;
+
+    public SolrTermContextCache(SolrCache<Term, TermContext> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the user cache with the name of the searcher (or null), as a term context cache
+     */
+    public static SolrCache<Term, TermContext> getCache(SolrIndexSearcher searcher, String name) {
+        return typed(searcher.getCache(name));
+    }
+
+    /**
+     * Solr hands out its caches as raw types, the term context caches only contain terms -> term contexts
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static SolrCache<Term, TermContext> typed(SolrCache cache) {
+        return (SolrCache<Term, TermContext>) cache;
+    }
+
+    @Override
+    public TermContext get(IndexReaderContext context, Term term) {
+        TermContext termContext = cache.get(term);
+        return termContext != null && termContext.wasBuiltFor(context) ? termContext : null;
+    }
+
+    @Override
+    public void put(Term term, TermContext termContext) {
+        cache.put(term, termContext);
+    }
+}
@@ -0,0 +1,33 @@
+package at.ac.tuwien.ifs.parser;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import java.io.IOException;
+
+/**
+ * Warms the term context cache of a new searcher: the terms of the old cache are resolved against the new index
+ *
+ * <remarks>
+ *     Usage (solrconfig.xml, inside of <code>query</code>): <code>
+
+ <cache name="termContextCache" class="solr.LRUCache" size="10000" initialSize="1000" autowarmCount="1000"
+        regenerator="at.ac.tuwien.ifs.parser.TermContextCacheRegenerator"/>
+
+ *     </code>
+ * </remarks>
+ */
+public class TermContextCacheRegenerator implements CacheRegenerator {
+
+    @Override
+    @SuppressWarnings("rawtypes") // the signature of the solr interface
+    public boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache newCache, SolrCache oldCache,
+                                  Object oldKey, Object oldVal) throws IOException {
+        Term term = (Term) oldKey;
+        SolrTermContextCache.typed(newCache).put(term, TermContext.build(newSearcher.getTopReaderContext(), term));
+        return true;
+    }
+}
@@ -0,0 +1,495 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.search.similarities.SimilarityBase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Multi-field version of the <code>{@link AugmentedTermQuery}</code>: the main term and its weighted similar terms
+ * are searched in every field and scored BM25F-style (one saturation over all fields):
+ *
+ * <code>score = idf * tf * (k1 + 1) / (k1 + tf)</code> with
+ * <code>tf = sum over fields: boost * weightedTermFreq / (1 - b + b * fieldLength / avgFieldLength)</code>
+ *
+ * It is a ranking model option, not a faster way to search several fields: compared to a disjunction of one
+ * <code>{@link AugmentedTermQuery}</code> per field (one saturation per field), it reads the same postings and is
+ * about as fast (or a bit slower on dense terms). The postings of all fields are traversed in one doc-at-a-time loop
+ * (see <code>{@link AugmentedMultiFieldScorer}</code>), the statistics are computed once per field (ET: with
+ * <code>{@link ExtendedStatistics}</code> and the expansion document lengths, like the <code>{@link AugmentedTermQuery}</code>).
+ * The postings budget and the materialized expansions are not supported. The idf is computed from the largest (expanded)
+ * document frequency and document count of the fields. With a single field (boost 1) it scores like the
+ * <code>{@link AugmentedTermQuery}</code> with the <code>{@link BM25SimilarityLossless}</code>.
+ *
+ * <remarks>
+ *     The query scores by itself, the similarity of the searcher only decides how the norms are decoded
+ *     (one byte encoded by the <code>BM25Similarity</code> &amp; <code>SimilarityBase</code>, otherwise the plain length).
+ * </remarks>
+ */
+public class AugmentedMultiFieldQuery extends Query {
+
+    /**
+     * Boost &amp; length normalization of one field
+     */
+    public static final class FieldParameters {
+
+        public final String field;
+        public final float boost;
+        public final float b;
+
+        public FieldParameters(String field, float boost, float b) {
+            if (Float.isFinite(boost) == false || boost <= 0) {
+                throw new IllegalArgumentException("[AugmentedMultiFieldQuery] illegal boost value: " + boost + " for field: " + field + ", must be a positive finite value");
+            }
+            if (Float.isNaN(b) || b < 0 || b > 1) {
+                throw new IllegalArgumentException("[AugmentedMultiFieldQuery] illegal b value: " + b + " for field: " + field + ", must be between 0 and 1");
+            }
+            this.field = Objects.requireNonNull(field);
+            this.boost = boost;
+            this.b = b;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof FieldParameters)) {
+                return false;
+            }
+            FieldParameters otherParameters = (FieldParameters) other;
+            return field.equals(otherParameters.field) &&
+                    Float.floatToIntBits(boost) == Float.floatToIntBits(otherParameters.boost) &&
+                    Float.floatToIntBits(b) == Float.floatToIntBits(otherParameters.b);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = field.hashCode();
+            h = 31 * h + Float.floatToIntBits(boost);
+            h = 31 * h + Float.floatToIntBits(b);
+            return h;
+        }
+
+        @Override
+        public String toString() {
+            return field + "^" + boost + "(b=" + b + ")";
+        }
+    }
+
+    private final AugmentedTermQuery.ModelMethod method;
+    private final float k1;
+    private final FieldParameters[] fields;
+    private final Term mainTerm;
+    private final TermWeightTuple[] similarTerms;
+    private final DocumentSetCounter documentSetCounter;
+    private final TermContextBuilder termContextBuilder;
+
+    private final int hashCode;
+
+    /**
+     * Constructs a query for the mainTerm and the weighted similarTerms in all given fields (the field of the terms
+     * is not used, e.g. the terms of a <code>{@link at.ac.tuwien.ifs.api.SimilarTermModel}</code> can be passed).
+     */
+    public AugmentedMultiFieldQuery(AugmentedTermQuery.ModelMethod method, float k1, FieldParameters[] fields,
+                                    Term mainTerm, TermWeightTuple[] similarTerms) {
+        this(method, k1, fields, mainTerm, similarTerms, null);
+    }
+
+    /**
+     * Constructs a query, that gets the document set counts of the extended model statistics (per field) from the
+     * given counter instead of walking all postings. If the counter is null or can not be used with the searcher,
+     * the postings are walked.
+     */
+    public AugmentedMultiFieldQuery(AugmentedTermQuery.ModelMethod method, float k1, FieldParameters[] fields,
+                                    Term mainTerm, TermWeightTuple[] similarTerms, DocumentSetCounter documentSetCounter) {
+        this(method, k1, fields, mainTerm, similarTerms, documentSetCounter, TermContextBuilder.serial());
+    }
+
+    /**
+     * Constructs a query (counter may be null), that builds the term contexts of all fields with the given builder
+     * (not part of the query equality)
+     */
+    public AugmentedMultiFieldQuery(AugmentedTermQuery.ModelMethod method, float k1, FieldParameters[] fields,
+                                    Term mainTerm, TermWeightTuple[] similarTerms, DocumentSetCounter documentSetCounter,
+                                    TermContextBuilder termContextBuilder) {
+        if (Float.isFinite(k1) == false || k1 < 0) {
+            throw new IllegalArgumentException("[AugmentedMultiFieldQuery] illegal k1 value: " + k1 + ", must be a non-negative finite value");
+        }
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("[AugmentedMultiFieldQuery] needs at least one field");
+        }
+        for (int i = 0; i < fields.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (fields[i].field.equals(fields[j].field)) {
+                    throw new IllegalArgumentException("[AugmentedMultiFieldQuery] field: " + fields[i].field + " is set twice");
+                }
+            }
+        }
+        this.method = Objects.requireNonNull(method);
+        this.k1 = k1;
+        this.fields = fields;
+        this.mainTerm = Objects.requireNonNull(mainTerm);
+        this.similarTerms = Objects.requireNonNull(similarTerms);
+        this.documentSetCounter = documentSetCounter;
+        this.termContextBuilder = Objects.requireNonNull(termContextBuilder);
+
+        this.hashCode = computeHashCode();
+    }
+
+    public FieldParameters[] getFields() {
+        return fields;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        IndexReaderContext context = searcher.getTopReaderContext();
+
+        //
+        // main term (index 0) + similar terms per field, the term contexts of all fields are built at once
+        //
+        int termCount = similarTerms.length + 1;
+        Term[] allTerms = new Term[fields.length * termCount];
+        for (int f = 0; f < fields.length; f++) {
+            allTerms[f * termCount] = new Term(fields[f].field, mainTerm.bytes());
+            for (int i = 0; i < similarTerms.length; i++) {
+                allTerms[f * termCount + i + 1] = new Term(fields[f].field, similarTerms[i].term.bytes());
+            }
+        }
+        TermContext[] allStates = termContextBuilder.build(context, allTerms);
+
+        Term[][] terms = new Term[fields.length][termCount];
+        TermContext[][] states = new TermContext[fields.length][termCount];
+        for (int f = 0; f < fields.length; f++) {
+            System.arraycopy(allTerms, f * termCount, terms[f], 0, termCount);
+            System.arraycopy(allStates, f * termCount, states[f], 0, termCount);
+        }
+
+        return new AugmentedMultiFieldWeight(searcher, needsScores, terms, states);
+    }
+
+    /** Prints a user-readable version of this query. */
+    @Override
+    public String toString(String field) {
+        StringBuilder buffer = new StringBuilder("(");
+        for (int f = 0; f < fields.length; f++) {
+            buffer.append(f > 0 ? " " : "").append(fields[f]);
+        }
+        buffer.append("):").append(mainTerm.text()).append(" (");
+        for (int i = 0; i < similarTerms.length; i++) {
+            buffer.append(similarTerms[i].weight + "*" + similarTerms[i].term.text());
+            if (i != similarTerms.length - 1) {
+                buffer.append(";");
+            }
+        }
+        buffer.append(")");
+        return buffer.toString();
+    }
+
+    /** Returns true iff <code>o</code> is equal to this. */
+    @Override
+    public boolean equals(Object other) {
+        if (!sameClassAs(other)) {
+            return false;
+        }
+        AugmentedMultiFieldQuery otherQuery = (AugmentedMultiFieldQuery) other;
+        if (method != otherQuery.method || Float.floatToIntBits(k1) != Float.floatToIntBits(otherQuery.k1) ||
+                documentSetCounter != otherQuery.documentSetCounter) {
+            return false;
+        }
+        if (!mainTerm.bytes().equals(otherQuery.mainTerm.bytes()) || fields.length != otherQuery.fields.length ||
+                similarTerms.length != otherQuery.similarTerms.length) {
+            return false;
+        }
+        for (int f = 0; f < fields.length; f++) {
+            if (!fields[f].equals(otherQuery.fields[f])) {
+                return false;
+            }
+        }
+        for (int i = 0; i < similarTerms.length; i++) {
+            if (!similarTerms[i].term.bytes().equals(otherQuery.similarTerms[i].term.bytes()) ||
+                    Float.floatToIntBits(similarTerms[i].weight) != Float.floatToIntBits(otherQuery.similarTerms[i].weight)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Same values as equals (the term texts only, the counter by identity)
+     */
+    private int computeHashCode() {
+        int h = classHash();
+        h = 31 * h + method.ordinal();
+        h = 31 * h + Float.floatToIntBits(k1);
+        h = 31 * h + System.identityHashCode(documentSetCounter);
+        for (FieldParameters field : fields) {
+            h = 31 * h + field.hashCode();
+        }
+        h = 31 * h + mainTerm.bytes().hashCode();
+        for (TermWeightTuple similarTerm : similarTerms) {
+            h = 31 * h + similarTerm.term.bytes().hashCode();
+            h = 31 * h + Float.floatToIntBits(similarTerm.weight);
+        }
+        return h;
+    }
+
+    /**
+     * The statistics of all fields, it provides access to the <code>{@link AugmentedMultiFieldScorer}</code>.
+     */
+    private class AugmentedMultiFieldWeight extends Weight {
+
+        private final boolean needsScores;
+        private final boolean oneByteNorms;
+
+        // per field: main term (index 0) + similar terms, with their term contexts
+        private final Term[][] terms;
+        private final TermContext[][] states;
+
+        // weights of the terms (main term = 1, same index as the terms of a field) and of the similar terms only
+        private final float[] weights;
+        private final float[] similarWeights;
+
+        // per field: average (expanded) document length
+        private final float[] avgFieldLengths;
+
+        private final long docFreq;
+        private final long docCount;
+        private final float idf;
+        private float boost;
+
+        AugmentedMultiFieldWeight(IndexSearcher searcher, boolean needsScores, Term[][] terms, TermContext[][] states)
+                throws IOException {
+            super(AugmentedMultiFieldQuery.this);
+
+            this.needsScores = needsScores;
+            this.terms = terms;
+            this.states = states;
+
+            // same decision as the extended model of the AugmentedTermQuery
+            Similarity similarity = searcher.getSimilarity(needsScores);
+            this.oneByteNorms = similarity instanceof SimilarityBase || similarity instanceof BM25Similarity;
+
+            this.weights = new float[similarTerms.length + 1];
+            this.similarWeights = new float[similarTerms.length];
+            weights[0] = 1f;
+            for (int i = 0; i < similarTerms.length; i++) {
+                weights[i + 1] = similarTerms[i].weight;
+                similarWeights[i] = similarTerms[i].weight;
+            }
+
+            this.avgFieldLengths = new float[fields.length];
+
+            long maxDocFreq = 0;
+            long maxDocCount = 0;
+
+            if (needsScores) {
+                List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+                boolean parallel = leaves.size() > 1 && searcher.getIndexReader().maxDoc() >= ExtendedStatistics.PARALLEL_MIN_DOCS;
+
+                for (int f = 0; f < fields.length; f++) {
+                    CollectionStatistics collectionStats = searcher.collectionStatistics(fields[f].field);
+                    TermStatistics termStats = searcher.termStatistics(terms[f][0], states[f][0]);
+
+                    long fieldDocFreq = termStats.docFreq();
+                    long sumTotalTermFreq = collectionStats.sumTotalTermFreq();
+
+                    if (method == AugmentedTermQuery.ModelMethod.Extended && similarTerms.length > 0) {
+
+                        //
+                        // the statistics of this field: one scan (or count) for the main + similar terms of the field
+                        //
+                        int field = f;
+                        ExtendedStatistics extendedStats = null;
+                        if (documentSetCounter != null) {
+                            extendedStats = ExtendedStatistics.count(documentSetCounter, searcher, terms[f], states[f], similarWeights);
+                        }
+                        if (extendedStats == null) {
+                            extendedStats = ExtendedStatistics.compute(leaves, similarWeights,
+                                    ctx -> postings(ctx, field, PostingsEnum.FREQS),
+                                    parallel ? ExtendedStatistics.sharedPool() : null);
+                        }
+
+                        fieldDocFreq = extendedStats.documentSetCount;
+                        if (sumTotalTermFreq > 0) {
+                            // we can not have less terms than documents (same bound as the AugmentedTermQuery)
+                            sumTotalTermFreq = Math.max(collectionStats.sumDocFreq(),
+                                    Math.round(sumTotalTermFreq - extendedStats.oneMinusWeightedSimilarTermFreqSum));
+                        }
+                    }
+
+                    long fieldDocCount = collectionStats.docCount() == -1 ? collectionStats.maxDoc() : collectionStats.docCount();
+
+                    // same as the BM25SimilarityLossless: 1, if the field does not exist or the stat is unsupported
+                    avgFieldLengths[f] = sumTotalTermFreq <= 0 ? 1f : (float) (sumTotalTermFreq / (double) fieldDocCount);
+
+                    maxDocFreq = Math.max(maxDocFreq, fieldDocFreq);
+                    maxDocCount = Math.max(maxDocCount, fieldDocCount);
+                }
+            }
+
+            this.docFreq = maxDocFreq;
+            this.docCount = maxDocCount;
+            this.idf = (float) Math.log(1 + (docCount - docFreq + 0.5D) / (docFreq + 0.5D));
+            this.boost = 1f;
+        }
+
+        @Override
+        public void extractTerms(Set<Term> output) {
+            for (Term[] fieldTerms : terms) {
+                for (Term term : fieldTerms) {
+                    output.add(term);
+                }
+            }
+        }
+
+        @Override
+        public float getValueForNormalization() {
+            // like BM25: a TF-IDF like normalization, but the query norm is not used
+            float weight = idf * boost;
+            return weight * weight;
+        }
+
+        @Override
+        public void normalize(float queryNorm, float boost) {
+            this.boost = boost;
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+
+            //
+            // per field: the postings of the terms, that are in this leaf (+ their weights)
+            //
+            PostingsEnum[][] postings = new PostingsEnum[fields.length][];
+            float[][] leafWeights = new float[fields.length][];
+            int[] sizes = new int[fields.length];
+            int size = 0;
+
+            short flag = needsScores ? PostingsEnum.FREQS : PostingsEnum.NONE;
+
+            for (int f = 0; f < fields.length; f++) {
+                postings[f] = postings(context, f, flag);
+                leafWeights[f] = weights.clone();
+                for (int i = 0; i < postings[f].length; i++) {
+                    if (postings[f][i] != null) {
+                        postings[f][sizes[f]] = postings[f][i];
+                        leafWeights[f][sizes[f]++] = weights[i];
+                    }
+                }
+                size += sizes[f];
+            }
+
+            if (size == 0) {
+                return null;
+            }
+
+            NumericDocValues[] norms = new NumericDocValues[fields.length];
+            float[] fieldBoosts = new float[fields.length];
+            float[] multB = new float[fields.length];
+            float[] multB_InvAvgdl = new float[fields.length];
+            for (int f = 0; f < fields.length; f++) {
+                norms[f] = needsScores ? context.reader().getNormValues(fields[f].field) : null;
+                fieldBoosts[f] = fields[f].boost;
+                // without norms the length normalization is 1 (same as the BM25SimilarityLossless)
+                multB[f] = norms[f] == null ? 0 : fields[f].b;
+                multB_InvAvgdl[f] = norms[f] == null ? 0 : fields[f].b / Math.max(1e-10f, avgFieldLengths[f]);
+            }
+
+            return new AugmentedMultiFieldScorer(this, postings, leafWeights, sizes, norms, oneByteNorms,
+                    method == AugmentedTermQuery.ModelMethod.Extended, fieldBoosts, multB, multB_InvAvgdl,
+                    boost * idf * (k1 + 1), k1);
+        }
+
+        /**
+         * Returns the postings of the main term (index 0) and the similar terms of a field in the given leaf
+         * (null if a term does not exist in the leaf)
+         */
+        private PostingsEnum[] postings(LeafReaderContext context, int field, int flags) throws IOException {
+            assert states[field][0].wasBuiltFor(ReaderUtil.getTopLevelContext(context)) : "The top-reader used to create Weight is not the same as the current reader's top-reader (" + ReaderUtil.getTopLevelContext(context);
+
+            PostingsEnum[] output = new PostingsEnum[terms[field].length];
+
+            Terms fieldTerms = context.reader().terms(fields[field].field);
+            if (fieldTerms == null) {
+                return output;
+            }
+            TermsEnum termsEnum = fieldTerms.iterator();
+
+            for (int i = 0; i < output.length; i++) {
+                TermState state = states[field][i].get(context.ord);
+                if (state == null) { // term is not present in that reader
+                    continue;
+                }
+                termsEnum.seekExact(terms[field][i].bytes(), state);
+                output[i] = termsEnum.postings(null, flags);
+            }
+            return output;
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            AugmentedMultiFieldScorer scorer = (AugmentedMultiFieldScorer) scorer(context);
+            if (scorer == null || scorer.iterator().advance(doc) != doc) {
+                return Explanation.noMatch("no matching term");
+            }
+
+            float score = scorer.score();
+
+            List<Explanation> fieldExplanations = new ArrayList<>();
+            for (int f = 0; f < fields.length; f++) {
+                float weightedTermFreq = scorer.fieldFreq(f);
+                if (weightedTermFreq == 0) {
+                    continue;
+                }
+                List<Explanation> subs = new ArrayList<>();
+                subs.add(Explanation.match(weightedTermFreq, "weightedTermFreq=" + weightedTermFreq));
+                subs.add(Explanation.match(fields[f].boost, "field boost"));
+                subs.add(Explanation.match(fields[f].b, "parameter b"));
+                subs.add(Explanation.match(avgFieldLengths[f], "avgFieldLength"));
+                subs.add(Explanation.match(scorer.fieldLength(f), "fieldLength"));
+                fieldExplanations.add(Explanation.match(scorer.fieldTf(f), "tf(" + fields[f].field + "), computed from:", subs));
+            }
+            float tf = scorer.tf();
+
+            List<Explanation> subs = new ArrayList<>();
+            if (boost != 1f) {
+                subs.add(Explanation.match(boost, "boost"));
+            }
+            subs.add(Explanation.match(idf, "idf(docFreq=" + docFreq + ", docCount=" + docCount + ")"));
+            subs.add(Explanation.match(tf, "tf, sum of:", fieldExplanations));
+            subs.add(Explanation.match(k1, "parameter k1"));
+
+            return Explanation.match(score, "weight(" + getQuery() + " in " + doc + ") [BM25F], result of:", subs);
+        }
+
+        @Override
+        public String toString() {
+            return "weight(" + AugmentedMultiFieldQuery.this + ")";
+        }
+    }
+}
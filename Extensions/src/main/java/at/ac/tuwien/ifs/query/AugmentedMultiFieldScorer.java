@@ -0,0 +1,287 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+
+/**
+ * Scores the <code>{@link AugmentedMultiFieldQuery}</code>: the postings of every field (main term + similar terms)
+ * are merged with a <code>{@link MultiDocIdSetIterator}</code> per field, the fields are merged doc-at-a-time by this
+ * scorer (a doc only touches the postings of the fields, that contain it). For the current document the weighted
+ * frequencies are summed up per field, normalized with the length of the field and saturated once (BM25F).
+ *
+ * For the extended model, the length of a field is reduced by the (1 - weight) * freq sum of the similar terms of
+ * the field (like the <code>{@link LeafReaderOverride}</code> of the <code>{@link AugmentedTermQuery}</code>).
+ */
+class AugmentedMultiFieldScorer extends Scorer {
+
+    // per field: parallel arrays of the postings & weights, only the first sizes[f] entries are used
+    private final PostingsEnum[][] postings;
+    private final float[][] weights;
+    private final int[] sizes;
+    private final MultiDocIdSetIterator[] fieldIterators; // null, if the field has no postings in the leaf
+
+    // per field
+    private final NumericDocValues[] norms;
+    private final float[] fieldBoosts;
+    private final float[] multB;
+    private final float[] multB_InvAvgdl;
+    private final float[] fieldFreqs;
+    private final float[] lengthDeltas;
+
+    private final boolean oneByteNorms;
+    private final boolean extended;
+    private final float weightValue; // boost * idf * (k1 + 1)
+    private final float k1;
+
+    private final DocIdSetIterator iterator;
+
+    AugmentedMultiFieldScorer(Weight weight, PostingsEnum[][] postings, float[][] weights, int[] sizes,
+                              NumericDocValues[] norms, boolean oneByteNorms, boolean extended,
+                              float[] fieldBoosts, float[] multB, float[] multB_InvAvgdl, float weightValue, float k1) {
+        super(weight);
+        this.postings = postings;
+        this.weights = weights;
+        this.sizes = sizes;
+        this.norms = norms;
+        this.oneByteNorms = oneByteNorms;
+        this.extended = extended;
+        this.fieldBoosts = fieldBoosts;
+        this.multB = multB;
+        this.multB_InvAvgdl = multB_InvAvgdl;
+        this.weightValue = weightValue;
+        this.k1 = k1;
+
+        this.fieldFreqs = new float[sizes.length];
+        this.lengthDeltas = new float[sizes.length];
+
+        this.fieldIterators = new MultiDocIdSetIterator[sizes.length];
+        int fieldCount = 0;
+        for (int f = 0; f < sizes.length; f++) {
+            if (sizes[f] > 0) {
+                fieldIterators[f] = new MultiDocIdSetIterator(postings[f], sizes[f]);
+                fieldCount++;
+            }
+        }
+
+        // a single field -> no need for the field union
+        if (fieldCount == 1) {
+            DocIdSetIterator single = null;
+            for (MultiDocIdSetIterator fieldIterator : fieldIterators) {
+                if (fieldIterator != null) {
+                    single = fieldIterator;
+                }
+            }
+            this.iterator = single;
+        } else {
+            this.iterator = new FieldUnion(fieldIterators);
+        }
+    }
+
+    /**
+     * Union of the field iterators (few fields -> a scan is cheaper than a queue), only the fields on the current
+     * doc are moved forward
+     */
+    private static final class FieldUnion extends DocIdSetIterator {
+
+        private final MultiDocIdSetIterator[] iterators;
+        private int doc = -1;
+
+        FieldUnion(MultiDocIdSetIterator[] fieldIterators) {
+            int count = 0;
+            for (MultiDocIdSetIterator fieldIterator : fieldIterators) {
+                if (fieldIterator != null) {
+                    count++;
+                }
+            }
+            this.iterators = new MultiDocIdSetIterator[count];
+            count = 0;
+            for (MultiDocIdSetIterator fieldIterator : fieldIterators) {
+                if (fieldIterator != null) {
+                    iterators[count++] = fieldIterator;
+                }
+            }
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            int next = NO_MORE_DOCS;
+            for (MultiDocIdSetIterator iterator : iterators) {
+                int id = iterator.docID();
+                if (id == doc) {
+                    id = iterator.nextDoc();
+                }
+                if (id < next) {
+                    next = id;
+                }
+            }
+            return doc = next;
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            int next = NO_MORE_DOCS;
+            for (MultiDocIdSetIterator iterator : iterators) {
+                int id = iterator.docID();
+                if (id < target) {
+                    id = iterator.advance(target);
+                }
+                if (id < next) {
+                    next = id;
+                }
+            }
+            return doc = next;
+        }
+
+        @Override
+        public long cost() {
+            long sum = 0;
+            for (MultiDocIdSetIterator iterator : iterators) {
+                sum += iterator.cost();
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Sums up the weighted freqs (and length deltas) of every field for the current doc
+     */
+    private void sumFreqs(int doc) throws IOException {
+        for (int f = 0; f < fieldIterators.length; f++) {
+            float freqSum = 0;
+            float lengthDelta = 0;
+            if (fieldIterators[f] != null && fieldIterators[f].docID() == doc) {
+                PostingsEnum[] fieldPostings = postings[f];
+                float[] fieldWeights = weights[f];
+                for (int i = 0; i < sizes[f]; i++) {
+                    if (fieldPostings[i].docID() == doc) {
+                        int freq = fieldPostings[i].freq();
+                        freqSum += fieldWeights[i] * freq;
+                        lengthDelta += (1 - fieldWeights[i]) * freq;
+                    }
+                }
+            }
+            fieldFreqs[f] = freqSum;
+            lengthDeltas[f] = lengthDelta;
+        }
+    }
+
+    /**
+     * (Expanded) length of the field, the freqs of the doc must be summed up
+     */
+    private float length(int field, int doc) {
+        if (norms[field] == null) {
+            return 1;
+        }
+        long norm = norms[field].get(doc);
+        float length = oneByteNorms ? LeafReaderOverride.decodeNormValue((byte) norm) : norm;
+        if (!extended) {
+            return length;
+        }
+        // never smaller than 1 (behavior of the similarity classes)
+        return oneByteNorms ? Math.max(1, length - lengthDeltas[field]) : Math.max(1, Math.round(length - lengthDeltas[field]));
+    }
+
+    /**
+     * Boosted &amp; length normalized freq of the field, the freqs of the doc must be summed up
+     */
+    private float normalizedFreq(int field, int doc) {
+        if (fieldFreqs[field] == 0) {
+            return 0;
+        }
+        return fieldBoosts[field] * fieldFreqs[field] / (1 - multB[field] + multB_InvAvgdl[field] * length(field, doc));
+    }
+
+    /**
+     * Sum of the normalized freqs of all fields, the freqs of the doc must be summed up
+     */
+    private float tf(int doc) {
+        float tf = 0;
+        for (int f = 0; f < fieldFreqs.length; f++) {
+            tf += normalizedFreq(f, doc);
+        }
+        return tf;
+    }
+
+    //
+    // explain: the values of the current doc (the freqs are summed up again, not used while scoring)
+    //
+
+    /**
+     * Weighted frequency of the field for the current doc
+     */
+    float fieldFreq(int field) throws IOException {
+        sumFreqs(docID());
+        return fieldFreqs[field];
+    }
+
+    /**
+     * (Expanded) length of the field for the current doc, 1 if the field has no norms
+     */
+    float fieldLength(int field) throws IOException {
+        sumFreqs(docID());
+        return length(field, docID());
+    }
+
+    /**
+     * Boosted &amp; length normalized weighted frequency of the field for the current doc
+     */
+    float fieldTf(int field) throws IOException {
+        sumFreqs(docID());
+        return normalizedFreq(field, docID());
+    }
+
+    /**
+     * Sum of the normalized frequencies of all fields for the current doc (before the saturation)
+     */
+    float tf() throws IOException {
+        sumFreqs(docID());
+        return tf(docID());
+    }
+
+    @Override
+    public int docID() {
+        return iterator.docID();
+    }
+
+    /**
+     * Attention (!!) this is the rounded weighted frequency sum of all fields (without boosts and normalization)
+     */
+    @Override
+    public int freq() throws IOException {
+        sumFreqs(docID());
+        float sum = 0;
+        for (float fieldFreq : fieldFreqs) {
+            sum += fieldFreq;
+        }
+        return Math.round(sum);
+    }
+
+    @Override
+    public float score() throws IOException {
+        int doc = docID();
+        assert doc != DocIdSetIterator.NO_MORE_DOCS;
+        sumFreqs(doc);
+        float tf = tf(doc);
+        return weightValue * tf / (k1 + tf);
+    }
+
+    @Override
+    public DocIdSetIterator iterator() {
+        return iterator;
+    }
+
+    @Override
+    public String toString() {
+        return "AugmentedMultiFieldScorer(" + weight + ")";
+    }
+}
@@ -0,0 +1,325 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Phrase & proximity query for the generalized translation model: every phrase slot is a weighted union of a main
+ * term (weight 1) and its similar terms, like the <code>{@link AugmentedTermQuery}</code>.
+ *
+ * A match counts the product of the weights of its terms times the slop factor of the similarity (e.g.
+ * <code>1 / (distance + 1)</code> of the <code>{@link BM25SimilarityLossless}</code>), the term statistics are the ones
+ * of the main terms (GT). Without similar terms, it scores like Lucene's <code>PhraseQuery</code> with the same slop.
+ *
+ * The documents are matched with a single traversal of the postings (see <code>{@link AugmentedPhraseScorer}</code>).
+ * Next to the augmented term clauses it is an additional clause, that reads the postings of the same expansions a
+ * second time (with positions). With a budget, every slot drops the same similar terms as the
+ * <code>{@link AugmentedTermQuery}</code> of its main term.
+ */
+public class AugmentedPhraseQuery extends Query {
+
+    private final int slop;
+    private final Term[] mainTerms;
+    private final TermWeightTuple[][] similarTerms;
+    private final ExpansionBudget budget;
+    private final TermContextBuilder termContextBuilder;
+    private final String field;
+
+    private int hashCode;
+
+    /**
+     * @param slop max. edit distance of a match (0 = exact phrase)
+     * @param mainTerms the main terms of the slots in phrase order (same field)
+     * @param similarTerms the similar terms of every slot (parallel to the main terms, entries can be empty)
+     */
+    public AugmentedPhraseQuery(int slop, Term[] mainTerms, TermWeightTuple[][] similarTerms) {
+        this(slop, mainTerms, similarTerms, null, TermContextBuilder.serial());
+    }
+
+    /**
+     * Constructs a phrase query, that is restricted by a postings budget per slot (may be null = no restriction) and
+     * builds the term contexts of all slots with the given builder
+     */
+    public AugmentedPhraseQuery(int slop, Term[] mainTerms, TermWeightTuple[][] similarTerms, ExpansionBudget budget,
+                                TermContextBuilder termContextBuilder) {
+        if (slop < 0) {
+            throw new IllegalArgumentException("[AugmentedPhraseQuery] slop must be >= 0, got: " + slop);
+        }
+        if (mainTerms.length == 0 || mainTerms.length != similarTerms.length) {
+            throw new IllegalArgumentException("[AugmentedPhraseQuery] needs at least one slot, with similar terms for every main term");
+        }
+        this.field = mainTerms[0].field();
+        for (int i = 0; i < mainTerms.length; i++) {
+            if (!mainTerms[i].field().equals(field)) {
+                throw new IllegalArgumentException("[AugmentedPhraseQuery] all terms must be in the same field");
+            }
+            for (TermWeightTuple similar : similarTerms[i]) {
+                if (!similar.term.field().equals(field)) {
+                    throw new IllegalArgumentException("[AugmentedPhraseQuery] all terms must be in the same field");
+                }
+            }
+        }
+        this.slop = slop;
+        this.mainTerms = mainTerms;
+        this.similarTerms = similarTerms;
+        this.budget = budget;
+        this.termContextBuilder = Objects.requireNonNull(termContextBuilder);
+    }
+
+    public int getSlop() {
+        return slop;
+    }
+
+    public Term[] getMainTerms() {
+        return mainTerms;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        IndexReaderContext context = searcher.getTopReaderContext();
+
+        //
+        // get the term contexts of all slots with one call of the builder: main term + similar terms per slot
+        //
+        int size = 0;
+        for (TermWeightTuple[] slot : similarTerms) {
+            size += slot.length + 1;
+        }
+        Term[] terms = new Term[size];
+        for (int i = 0, k = 0; i < mainTerms.length; i++) {
+            terms[k++] = mainTerms[i];
+            for (TermWeightTuple similar : similarTerms[i]) {
+                terms[k++] = similar.term;
+            }
+        }
+        TermContext[] allStates = termContextBuilder.build(context, terms);
+
+        TermContext[][] states = new TermContext[mainTerms.length][];
+        TermWeightTuple[][] usedSimilarTerms = new TermWeightTuple[mainTerms.length][];
+        TermStatistics[] mainTermStats = new TermStatistics[mainTerms.length];
+        for (int i = 0, k = 0; i < mainTerms.length; i++) {
+            TermContext mainTermState = allStates[k++];
+            TermContext[] similarStates = Arrays.copyOfRange(allStates, k, k + similarTerms[i].length);
+            k += similarTerms[i].length;
+
+            // drop the same similar terms as the term query of the slot
+            usedSimilarTerms[i] = similarTerms[i];
+            if (budget != null) {
+                int[] similarDocFreqs = new int[similarStates.length];
+                for (int j = 0; j < similarStates.length; j++) {
+                    similarDocFreqs[j] = similarStates[j].docFreq();
+                }
+                usedSimilarTerms[i] = budget.fit(mainTermState.docFreq(), similarTerms[i], similarDocFreqs).kept;
+            }
+
+            states[i] = new TermContext[usedSimilarTerms[i].length + 1];
+            states[i][0] = mainTermState;
+            for (int j = 0, used = 0; j < similarTerms[i].length && used < usedSimilarTerms[i].length; j++) {
+                if (similarTerms[i][j] == usedSimilarTerms[i][used]) {
+                    states[i][++used] = similarStates[j];
+                }
+            }
+            mainTermStats[i] = searcher.termStatistics(mainTerms[i], mainTermState);
+        }
+
+        return new AugmentedPhraseWeight(searcher, needsScores, states, usedSimilarTerms, mainTermStats);
+    }
+
+    /** Prints a user-readable version of this query. */
+    @Override
+    public String toString(String field) {
+        StringBuilder buffer = new StringBuilder();
+        if (!this.field.equals(field)) {
+            buffer.append(this.field).append(":");
+        }
+        buffer.append("\"");
+        for (int i = 0; i < mainTerms.length; i++) {
+            if (i > 0) {
+                buffer.append(" ");
+            }
+            buffer.append(mainTerms[i].text());
+            if (similarTerms[i].length > 0) {
+                buffer.append(" (");
+                for (int j = 0; j < similarTerms[i].length; j++) {
+                    buffer.append(similarTerms[i][j].weight + "*" + similarTerms[i][j].term.text());
+                    if (j != similarTerms[i].length - 1) {
+                        buffer.append(";");
+                    }
+                }
+                buffer.append(")");
+            }
+        }
+        buffer.append("\"");
+        if (slop != 0) {
+            buffer.append("~").append(slop);
+        }
+        if (budget != null) {
+            buffer.append(" ").append(budget);
+        }
+        return buffer.toString();
+    }
+
+    /** Returns true iff <code>o</code> is equal to this. */
+    @Override
+    public boolean equals(Object other) {
+        if (!sameClassAs(other)) {
+            return false;
+        }
+        AugmentedPhraseQuery otherQuery = (AugmentedPhraseQuery) other;
+        if (slop != otherQuery.slop || mainTerms.length != otherQuery.mainTerms.length ||
+                !Objects.equals(budget, otherQuery.budget)) {
+            return false;
+        }
+        for (int i = 0; i < mainTerms.length; i++) {
+            if (!mainTerms[i].equals(otherQuery.mainTerms[i]) || similarTerms[i].length != otherQuery.similarTerms[i].length) {
+                return false;
+            }
+            for (int j = 0; j < similarTerms[i].length; j++) {
+                if (!similarTerms[i][j].term.equals(otherQuery.similarTerms[i][j].term) ||
+                        Float.floatToIntBits(similarTerms[i][j].weight) != Float.floatToIntBits(otherQuery.similarTerms[i][j].weight)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Returns a hash code value for this object (cached, the query is immutable). */
+    @Override
+    public int hashCode() {
+        int h = hashCode;
+        if (h == 0) {
+            h = 31 * classHash() + slop;
+            h = 31 * h + Objects.hashCode(budget);
+            for (int i = 0; i < mainTerms.length; i++) {
+                h = 31 * h + mainTerms[i].hashCode();
+                for (TermWeightTuple similar : similarTerms[i]) {
+                    h = 31 * h + similar.term.hashCode();
+                    h = 31 * h + Float.floatToIntBits(similar.weight);
+                }
+            }
+            hashCode = h;
+        }
+        return h;
+    }
+
+    private class AugmentedPhraseWeight extends Weight {
+
+        private final Similarity similarity;
+        private final Similarity.SimWeight stats;
+        private final TermContext[][] states;
+        // the similar terms of the slots used by this weight (all of the query or less, if the budget dropped some)
+        private final TermWeightTuple[][] usedSimilarTerms;
+
+        AugmentedPhraseWeight(IndexSearcher searcher, boolean needsScores, TermContext[][] states,
+                              TermWeightTuple[][] usedSimilarTerms, TermStatistics[] mainTermStats) throws IOException {
+            super(AugmentedPhraseQuery.this);
+            this.similarity = searcher.getSimilarity(needsScores);
+            this.states = states;
+            this.usedSimilarTerms = usedSimilarTerms;
+            this.stats = similarity.computeWeight(searcher.collectionStatistics(field), mainTermStats);
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms) {
+            for (int i = 0; i < mainTerms.length; i++) {
+                terms.add(mainTerms[i]);
+                for (TermWeightTuple similar : usedSimilarTerms[i]) {
+                    terms.add(similar.term);
+                }
+            }
+        }
+
+        @Override
+        public float getValueForNormalization() {
+            return stats.getValueForNormalization();
+        }
+
+        @Override
+        public void normalize(float queryNorm, float boost) {
+            stats.normalize(queryNorm, boost);
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            assert states[0][0].wasBuiltFor(ReaderUtil.getTopLevelContext(context)) : "The top-reader used to create Weight is not the same as the current reader's top-reader (" + ReaderUtil.getTopLevelContext(context);
+
+            Terms fieldTerms = context.reader().terms(field);
+            if (fieldTerms == null) {
+                return null;
+            }
+            if (!fieldTerms.hasPositions()) {
+                throw new IllegalStateException("[AugmentedPhraseQuery] field \"" + field + "\" was indexed without position data");
+            }
+
+            AugmentedPhraseScorer.Slot[] slots = new AugmentedPhraseScorer.Slot[mainTerms.length];
+            TermsEnum termsEnum = fieldTerms.iterator();
+            for (int i = 0; i < mainTerms.length; i++) {
+                PostingsEnum[] postings = new PostingsEnum[states[i].length];
+                float[] weights = new float[states[i].length];
+                int size = 0;
+                for (int j = 0; j < states[i].length; j++) {
+                    TermState state = states[i][j].get(context.ord);
+                    if (state == null) {
+                        continue;
+                    }
+                    Term term = j == 0 ? mainTerms[i] : usedSimilarTerms[i][j - 1].term;
+                    termsEnum.seekExact(term.bytes(), state);
+                    postings[size] = termsEnum.postings(null, PostingsEnum.POSITIONS);
+                    weights[size] = j == 0 ? 1f : usedSimilarTerms[i][j - 1].weight;
+                    size++;
+                }
+                // no term of the slot in this segment -> no phrase
+                if (size == 0) {
+                    return null;
+                }
+                slots[i] = new AugmentedPhraseScorer.Slot(postings, weights, size, i);
+            }
+
+            return new AugmentedPhraseScorer(this, slots, slop, similarity.simScorer(stats, context));
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            AugmentedPhraseScorer scorer = (AugmentedPhraseScorer) scorer(context);
+            if (scorer != null) {
+                TwoPhaseIterator twoPhase = scorer.twoPhaseIterator();
+                if (twoPhase.approximation().advance(doc) == doc && twoPhase.matches()) {
+                    float freq = scorer.phraseFreq();
+                    Explanation freqExplanation = Explanation.match(freq, "weightedPhraseFreq=" + freq);
+                    Explanation scoreExplanation = similarity.simScorer(stats, context).explain(doc, freqExplanation);
+                    return Explanation.match(
+                            scoreExplanation.getValue(),
+                            "weight(" + getQuery() + " in " + doc + ") [" + similarity.getClass().getSimpleName() + "], result of:",
+                            scoreExplanation);
+                }
+            }
+            return Explanation.noMatch("no matching phrase");
+        }
+
+        @Override
+        public String toString() {
+            return "weight(" + AugmentedPhraseQuery.this + ")";
+        }
+    }
+}
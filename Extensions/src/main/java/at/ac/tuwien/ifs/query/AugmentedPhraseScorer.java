@@ -0,0 +1,296 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.search.ConjunctionDISI;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scores the <code>{@link AugmentedPhraseQuery}</code>: the documents, that have a term of every slot, are found with
+ * a conjunction of the slot unions (<code>{@link MultiDocIdSetIterator}</code>), the phrase is only checked for them
+ * (two-phase iteration).
+ *
+ * The positions of a slot are merged with a heap over the positions of its terms. The weighted sloppy frequency is
+ * computed in a single pass over the merged slot positions like Lucene's sloppy phrase scorer (the slot with the
+ * smallest phrase position is moved forward, each minimal match within the slop counts
+ * <code>slopFactor(matchLength)</code>), multiplied with the product of the weights of the matched terms.
+ *
+ * <remarks>
+ *     The same term in different slots is not disambiguated (Lucene's "repeats"), so with a slop such a
+ *     position can be counted for both slots.
+ * </remarks>
+ */
+class AugmentedPhraseScorer extends Scorer {
+
+    /**
+     * A phrase slot: parallel arrays of the postings (with positions) and weights of its terms
+     */
+    static final class Slot {
+
+        final PostingsEnum[] postings;
+        final float[] weights;
+        final int size;
+        final int offset;
+        final MultiDocIdSetIterator iterator;
+
+        // heap of the term indices ordered by their current position, remaining positions per term
+        private final int[] heap;
+        private final int[] positions;
+        private final int[] remaining;
+        private int heapSize;
+
+        // current merged position (phrase position = position - offset) and the weight of its term
+        int position;
+        float weight;
+
+        Slot(PostingsEnum[] postings, float[] weights, int size, int offset) {
+            this.postings = postings;
+            this.weights = weights;
+            this.size = size;
+            this.offset = offset;
+            this.iterator = new MultiDocIdSetIterator(postings, size);
+            this.heap = new int[size];
+            this.positions = new int[size];
+            this.remaining = new int[size];
+        }
+
+        /**
+         * Loads the positions of the current doc and moves to the first one
+         */
+        boolean reset(int doc) throws IOException {
+            heapSize = 0;
+            for (int i = 0; i < size; i++) {
+                if (postings[i].docID() == doc) {
+                    remaining[i] = postings[i].freq() - 1;
+                    positions[i] = postings[i].nextPosition();
+                    heap[heapSize] = i;
+                    upHeap(heapSize++);
+                }
+            }
+            return nextPosition();
+        }
+
+        /**
+         * Moves to the next position (of any term) of the current doc, false if there is none
+         */
+        boolean nextPosition() throws IOException {
+            if (heapSize == 0) {
+                return false;
+            }
+            int top = heap[0];
+            position = positions[top] - offset;
+            weight = weights[top];
+
+            if (remaining[top] > 0) {
+                remaining[top]--;
+                positions[top] = postings[top].nextPosition();
+            } else {
+                heap[0] = heap[--heapSize];
+            }
+            if (heapSize > 0) {
+                downHeap();
+            }
+            return true;
+        }
+
+        private void upHeap(int i) {
+            int node = heap[i];
+            int parent = (i - 1) >>> 1;
+            while (i > 0 && positions[node] < positions[heap[parent]]) {
+                heap[i] = heap[parent];
+                i = parent;
+                parent = (i - 1) >>> 1;
+            }
+            heap[i] = node;
+        }
+
+        private void downHeap() {
+            int i = 0;
+            int node = heap[0];
+            int child = 1;
+            while (child < heapSize) {
+                if (child + 1 < heapSize && positions[heap[child + 1]] < positions[heap[child]]) {
+                    child++;
+                }
+                if (positions[heap[child]] >= positions[node]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+                child = 2 * i + 1;
+            }
+            heap[i] = node;
+        }
+    }
+
+    private final Slot[] slots;
+    private final int slop;
+    private final Similarity.SimScorer docScorer;
+    private final DocIdSetIterator approximation;
+    private final TwoPhaseIterator twoPhase;
+
+    private float freq;
+
+    AugmentedPhraseScorer(Weight weight, Slot[] slots, int slop, Similarity.SimScorer docScorer) {
+        super(weight);
+        this.slots = slots;
+        this.slop = slop;
+        this.docScorer = docScorer;
+
+        if (slots.length == 1) {
+            approximation = slots[0].iterator;
+        } else {
+            List<DocIdSetIterator> iterators = new ArrayList<>(slots.length);
+            for (Slot slot : slots) {
+                iterators.add(slot.iterator);
+            }
+            approximation = ConjunctionDISI.intersectIterators(iterators);
+        }
+
+        int terms = 0;
+        for (Slot slot : slots) {
+            terms += slot.size;
+        }
+        final float matchCost = terms;
+
+        this.twoPhase = new TwoPhaseIterator(approximation) {
+            @Override
+            public boolean matches() throws IOException {
+                freq = phraseFreq(approximation.docID());
+                return freq != 0;
+            }
+
+            @Override
+            public float matchCost() {
+                return matchCost;
+            }
+        };
+    }
+
+    /**
+     * Weighted sloppy frequency of the doc (0 if there is no match within the slop)
+     */
+    float phraseFreq(int doc) throws IOException {
+        int end = Integer.MIN_VALUE;
+        for (Slot slot : slots) {
+            if (!slot.reset(doc)) {
+                return 0;
+            }
+            end = Math.max(end, slot.position);
+        }
+
+        float sum = 0;
+
+        Slot min = minSlot();
+        int next = nextOtherPosition(min);
+        float otherWeights = otherWeights(min);
+        int matchLength = end - min.position;
+        float matchWeight = otherWeights * min.weight;
+
+        while (min.nextPosition()) {
+            if (min.position > end) {
+                end = min.position;
+            }
+            if (min.position > next) {
+                // the match can not get shorter by moving this slot -> count it and continue with the smallest slot
+                if (matchLength <= slop) {
+                    sum += matchWeight * docScorer.computeSlopFactor(matchLength);
+                }
+                min = minSlot();
+                next = nextOtherPosition(min);
+                otherWeights = otherWeights(min);
+                matchLength = end - min.position;
+                matchWeight = otherWeights * min.weight;
+            } else {
+                int matchLength2 = end - min.position;
+                float matchWeight2 = otherWeights * min.weight;
+                if (matchLength2 < matchLength || (matchLength2 == matchLength && matchWeight2 > matchWeight)) {
+                    matchLength = matchLength2;
+                    matchWeight = matchWeight2;
+                }
+            }
+        }
+        if (matchLength <= slop) {
+            sum += matchWeight * docScorer.computeSlopFactor(matchLength);
+        }
+        return sum;
+    }
+
+    // the slots of a phrase are few, so a scan is cheaper than a queue (ties -> smaller offset, like Lucene's queue)
+    private Slot minSlot() {
+        Slot min = slots[0];
+        for (int i = 1; i < slots.length; i++) {
+            if (slots[i].position < min.position) {
+                min = slots[i];
+            }
+        }
+        return min;
+    }
+
+    private int nextOtherPosition(Slot min) {
+        int next = Integer.MAX_VALUE;
+        for (Slot slot : slots) {
+            if (slot != min && slot.position < next) {
+                next = slot.position;
+            }
+        }
+        return next;
+    }
+
+    private float otherWeights(Slot min) {
+        float product = 1;
+        for (Slot slot : slots) {
+            if (slot != min) {
+                product *= slot.weight;
+            }
+        }
+        return product;
+    }
+
+    @Override
+    public int docID() {
+        return approximation.docID();
+    }
+
+    /**
+     * Attention (!!) this is a rounded weighted frequency, see <code>{@link #phraseFreq()}</code>
+     */
+    @Override
+    public int freq() throws IOException {
+        return Math.round(freq);
+    }
+
+    /**
+     * Weighted sloppy frequency of the current doc
+     */
+    float phraseFreq() {
+        return freq;
+    }
+
+    @Override
+    public float score() throws IOException {
+        return docScorer.score(docID(), freq);
+    }
+
+    @Override
+    public DocIdSetIterator iterator() {
+        return TwoPhaseIterator.asDocIdSetIterator(twoPhase);
+    }
+
+    @Override
+    public TwoPhaseIterator twoPhaseIterator() {
+        return twoPhase;
+    }
+
+    @Override
+    public String toString() {
+        return "AugmentedPhraseScorer(" + weight + ")";
+    }
+}
@@ -19,11 +19,10 @@ package at.ac.tuwien.ifs.query;
 
 import java.io.IOException;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.lucene.index.IndexReaderContext;
 import org.apache.lucene.index.LeafReader;
@@ -40,26 +39,110 @@ import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.search.similarities.Similarity.SimScorer;
 import org.apache.lucene.search.similarities.SimilarityBase;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
 
 /**
  * A Query that matches documents containing a mainTerm or at least one similar term
  * and changes the term frequency based on weighted similar terms.
  * This may be combined with other terms with a {@link BooleanQuery}.
+ * The query can be searched with an {@link IndexSearcher} that scores leaf slices in parallel (executor).
+ * The hash code covers the method, main term, budget and weighted similar terms and the query reports its size
+ * (<code>{@link Accountable}</code>) -> it can be cached by the query caches (see <code>{@link AugmentedTermQueryCachingPolicy}</code>).
  */
-public class AugmentedTermQuery extends Query {
+public class AugmentedTermQuery extends Query implements Accountable {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(AugmentedTermQuery.class);
+    private static final long TERM_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(Term.class) +
+            RamUsageEstimator.shallowSizeOfInstance(BytesRef.class);
+    private static final long TUPLE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(TermWeightTuple.class);
 
     private final Term mainTerm;
     private final TermWeightTuple[] similarTerms;
 
     private final ModelMethod method;
+
+    private final ExpansionBudget budget;
+
+    private final TermContextBuilder termContextBuilder;
+
+    private final DocumentSetCounter documentSetCounter;
+
+    private final MaterializedExpansionCache materializedExpansions;
+
+    // immutable -> computed once (the query caches call them for every lookup)
+    private final int hashCode;
+    private final long ramBytesUsed;
+
+    // the LeafReaderContext constructor is not public, resolved once (newInstance is thread safe -> scorers of
+    // different leaves can be created concurrently, e.g. by an IndexSearcher with an executor)
+    private static final Constructor<LeafReaderContext> leafReaderContextConstructor;
+
+    static {
+        try {
+            leafReaderContextConstructor = LeafReaderContext.class.getDeclaredConstructor(LeafReader.class);
+            leafReaderContextConstructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /**
      * Constructs a query for the mainTerm and the weighted similarTerms.
      * Both must be non-null.
      */
     public AugmentedTermQuery(ModelMethod method, Term mainTerm, TermWeightTuple[] similarTerms) {
+        this(method, mainTerm, similarTerms, null);
+    }
+
+    /**
+     * Constructs a query for the mainTerm and the weighted similarTerms, that is restricted by a postings budget.
+     * If the budget is exceeded the lowest weighted similar terms are dropped (see <code>{@link ExpansionBudget}</code>).
+     * The budget may be null (= no restriction).
+     */
+    public AugmentedTermQuery(ModelMethod method, Term mainTerm, TermWeightTuple[] similarTerms, ExpansionBudget budget) {
+        this(method, mainTerm, similarTerms, budget, TermContextBuilder.serial());
+    }
+
+    /**
+     * Constructs a restricted query (budget may be null), that builds its term contexts with the given builder
+     * (e.g. in parallel, see <code>{@link TermContextBuilder}</code>). The builder is not part of the query equality.
+     */
+    public AugmentedTermQuery(ModelMethod method, Term mainTerm, TermWeightTuple[] similarTerms, ExpansionBudget budget,
+                              TermContextBuilder termContextBuilder) {
+        this(method, mainTerm, similarTerms, budget, termContextBuilder, null);
+    }
+
+    /**
+     * Constructs a restricted query (budget may be null), that gets the document set count of the extended model
+     * statistics from the given counter instead of walking all postings (e.g. approximate ET with
+     * <code>{@link TermSketches}</code> or cached bitmaps with <code>{@link TermDocSetCache}</code>).
+     * If the counter is null or can not be used with the searcher, the postings are walked.
+     */
+    public AugmentedTermQuery(ModelMethod method, Term mainTerm, TermWeightTuple[] similarTerms, ExpansionBudget budget,
+                              TermContextBuilder termContextBuilder, DocumentSetCounter documentSetCounter) {
+        this(method, mainTerm, similarTerms, budget, termContextBuilder, documentSetCounter, null);
+    }
+
+    /**
+     * Constructs a restricted query (budget, counter may be null), that reads the merged postings of hot expansions
+     * from the given cache (see <code>{@link MaterializedExpansionCache}</code>, null = always merge the postings).
+     * The scores are the same, so the cache is not part of the query equality.
+     */
+    public AugmentedTermQuery(ModelMethod method, Term mainTerm, TermWeightTuple[] similarTerms, ExpansionBudget budget,
+                              TermContextBuilder termContextBuilder, DocumentSetCounter documentSetCounter,
+                              MaterializedExpansionCache materializedExpansions) {
         this.method = method;
         this.mainTerm = Objects.requireNonNull(mainTerm);
         this.similarTerms = Objects.requireNonNull(similarTerms);
+        this.budget = budget;
+        this.termContextBuilder = Objects.requireNonNull(termContextBuilder);
+        this.documentSetCounter = documentSetCounter;
+        this.materializedExpansions = materializedExpansions;
+
+        this.hashCode = computeHashCode();
+        this.ramBytesUsed = computeRamBytesUsed();
     }
 
     @Override
@@ -70,22 +153,53 @@ public class AugmentedTermQuery extends Query {
         TermContext mainTermState = null;
         TermContext[] similarStates = new TermContext[similarTerms.length];
 
-        if (needsScores) {
+        // the budget needs the document frequencies, so we have to build the states in any case
+        if (needsScores || budget != null) {
 
             //
             // get the term contexts, for the main term + for each similar term
             //
-            mainTermState = TermContext.build(context, mainTerm);
-
+            Term[] terms = new Term[similarTerms.length + 1];
+            terms[0] = mainTerm;
             for (int i = 0; i < similarTerms.length; i++) {
-                similarStates[i] = TermContext.build(context, similarTerms[i].term);
+                terms[i + 1] = similarTerms[i].term;
             }
+
+            TermContext[] states = termContextBuilder.build(context, terms);
+
+            mainTermState = states[0];
+            System.arraycopy(states, 1, similarStates, 0, similarTerms.length);
         }
 
         // else:  do not compute the term states, this will help save seeks in the terms
         //        dict on segments that have a cache entry for this query
 
-        return new AugmentedTermWeight(searcher, needsScores, mainTermState, similarStates);
+        TermWeightTuple[] usedSimilarTerms = similarTerms;
+
+        if (budget != null) {
+
+            //
+            // drop the lowest weighted similar terms, until the postings cost is inside the budget
+            //
+            int[] similarDocFreqs = new int[similarTerms.length];
+            for (int i = 0; i < similarTerms.length; i++) {
+                similarDocFreqs[i] = similarStates[i].docFreq();
+            }
+
+            usedSimilarTerms = budget.fit(mainTermState.docFreq(), similarTerms, similarDocFreqs).kept;
+
+            if (usedSimilarTerms.length != similarTerms.length) {
+                TermContext[] usedStates = new TermContext[usedSimilarTerms.length];
+                for (int i = 0, j = 0; i < similarTerms.length; i++) {
+                    if (j < usedSimilarTerms.length && similarTerms[i] == usedSimilarTerms[j]) {
+                        usedStates[j++] = similarStates[i];
+                    }
+                }
+                similarStates = usedStates;
+            }
+        }
+
+        return new AugmentedTermWeight(searcher, needsScores, mainTermState, usedSimilarTerms, similarStates);
     }
 
     /** Prints a user-readable version of this query. */
@@ -105,6 +219,10 @@ public class AugmentedTermQuery extends Query {
         }
         buffer.append(")");
 
+        if (budget != null) {
+            buffer.append(" ").append(budget);
+        }
+
         return buffer.toString();
     }
 
@@ -129,13 +247,23 @@ public class AugmentedTermQuery extends Query {
             return false;
         }
 
+        // check budget
+        if(!Objects.equals(budget, otherQuery.budget)){
+            return false;
+        }
+
+        // check the document set counter (approximate statistics -> different scores)
+        if(documentSetCounter != otherQuery.documentSetCounter){
+            return false;
+        }
+
         // check similar terms (length, term, weight)
         if(similarTerms.length != otherQuery.similarTerms.length) {
             return false;
         }
         for (int i = 0; i < similarTerms.length; i++) {
             if(!similarTerms[i].term.equals(otherQuery.similarTerms[i].term) ||
-               similarTerms[i].weight != otherQuery.similarTerms[i].weight){
+               Float.floatToIntBits(similarTerms[i].weight) != Float.floatToIntBits(otherQuery.similarTerms[i].weight)){
                 return false;
             }
         }
@@ -144,7 +272,51 @@ public class AugmentedTermQuery extends Query {
 
     @Override
     public int hashCode() {
-        return classHash() ^ mainTerm.hashCode();
+        return hashCode;
+    }
+
+    /**
+     * Same fields as equals (the counter by identity)
+     */
+    private int computeHashCode() {
+        int h = classHash();
+        h = 31 * h + method.ordinal();
+        h = 31 * h + mainTerm.hashCode();
+        h = 31 * h + Objects.hashCode(budget);
+        h = 31 * h + System.identityHashCode(documentSetCounter);
+        for (TermWeightTuple similarTerm : similarTerms) {
+            h = 31 * h + similarTerm.term.hashCode();
+            h = 31 * h + Float.floatToIntBits(similarTerm.weight);
+        }
+        return h;
+    }
+
+    /**
+     * Size of the query with its terms, the shared budget, builder and counter are not part of it
+     */
+    @Override
+    public long ramBytesUsed() {
+        return ramBytesUsed;
+    }
+
+    private long computeRamBytesUsed() {
+        long size = BASE_RAM_BYTES_USED + termRamBytesUsed(mainTerm) + RamUsageEstimator.shallowSizeOf(similarTerms);
+        for (TermWeightTuple similarTerm : similarTerms) {
+            size += TUPLE_RAM_BYTES_USED + termRamBytesUsed(similarTerm.term);
+        }
+        return size;
+    }
+
+    private static long termRamBytesUsed(Term term) {
+        // the field name is usually shared between all terms
+        return TERM_RAM_BYTES_USED + RamUsageEstimator.sizeOf(term.bytes().bytes);
+    }
+
+    /**
+     * Number of (weighted) similar terms, before the budget is applied
+     */
+    int getSimilarTermCount() {
+        return similarTerms.length;
     }
 
     /**
@@ -163,6 +335,18 @@ public class AugmentedTermQuery extends Query {
         Extended
     }
 
+    /**
+     * Postings of the extended statistics scan of a leaf with the thread that acquired them
+     */
+    private static final class ScannedPostings {
+        final PostingsEnum[] postings;
+        final Thread thread = Thread.currentThread();
+
+        ScannedPostings(PostingsEnum[] postings) {
+            this.postings = postings;
+        }
+    }
+
     /**
      * Weight class is used by lucene to conduct the search. It provides access to the
      * <code>{@link AugmentedTermScorer}</code>.
@@ -178,24 +362,82 @@ public class AugmentedTermQuery extends Query {
         private final Similarity similarity;
         private final Similarity.SimWeight stats;
 
+        //
+        // the similar terms used by this weight (all of the query or less, if the budget dropped some)
+        //
+        private final TermWeightTuple[] similarTerms;
+
         //
         // term contexts -> used to access the index
         //
         private final TermContext mainTermStates;
-        private final TermContext[] similarTermStates; // corresponding index to the AugmentedTermQuery.similarTerms
+        private final TermContext[] similarTermStates; // corresponding index to the similarTerms
+
+        //
+        // main term (index 0) + similar terms, with their contexts and the sorted order to resolve them per leaf
+        //
+        private final Term[] terms;
+        private final TermContext[] termStates;
+        private final int[] seekOrder;
 
-        AugmentedTermWeight(IndexSearcher searcher, boolean needsScores, TermContext mainTermStates, TermContext[] similarTermStates)
+        //
+        // weights of the terms (main term = 1, same index as terms) and of the similar terms only
+        //
+        private final float[] weights;
+        private final float[] similarWeights;
+
+        //
+        // postings of the extended statistics scan per leaf (by ord), handed to the scorer of the same leaf for
+        // re-use (the codec can only re-use postings of the same segment, in the thread that acquired them),
+        // null if the postings were not scanned or scanned on the fork-join pool (never the thread of a scorer)
+        //
+        private AtomicReferenceArray<ScannedPostings> statsPostings;
+
+        //
+        // the expansion of this weight, if it is materialized (hot, scores only), otherwise null
+        //
+        private final MaterializedExpansionCache.Expansion hotExpansion;
+
+        AugmentedTermWeight(IndexSearcher searcher, boolean needsScores, TermContext mainTermStates,
+                            TermWeightTuple[] similarTerms, TermContext[] similarTermStates)
                 throws IOException {
 
             super(AugmentedTermQuery.this);
 
             this.needsScores = needsScores;
 
+            this.similarTerms = similarTerms;
+
             this.similarity = searcher.getSimilarity(needsScores);
 
             this.similarTermStates = similarTermStates;
             this.mainTermStates = mainTermStates;
 
+            this.terms = new Term[similarTerms.length + 1];
+            this.termStates = new TermContext[similarTerms.length + 1];
+            terms[0] = mainTerm;
+            termStates[0] = mainTermStates;
+            for (int i = 0; i < similarTerms.length; i++) {
+                terms[i + 1] = similarTerms[i].term;
+                termStates[i + 1] = similarTermStates[i];
+            }
+            this.seekOrder = TermContextBuilder.sortedOrder(terms);
+
+            this.weights = new float[similarTerms.length + 1];
+            this.similarWeights = new float[similarTerms.length];
+            weights[0] = 1f;
+            for (int i = 0; i < similarTerms.length; i++) {
+                weights[i + 1] = similarTerms[i].weight;
+                similarWeights[i] = similarTerms[i].weight;
+            }
+
+            if (needsScores && materializedExpansions != null) {
+                MaterializedExpansionCache.Expansion expansion = new MaterializedExpansionCache.Expansion(terms, weights);
+                this.hotExpansion = materializedExpansions.request(expansion) ? expansion : null;
+            } else {
+                this.hotExpansion = null;
+            }
+
             //debugOutput(searcher, mainTermStates, similarTermStates);
 
             this.stats = handleStatistics(searcher, needsScores, mainTermStates);
@@ -231,36 +473,37 @@ public class AugmentedTermQuery extends Query {
                         // - total term freq (weighted)
                         //
                         // : iterate over all found docs to get correct values
+                        // : leaves are scanned as fork-join tasks for larger indices (same result as serial)
+                        // : or count the document set with the counter (sketches, cached bitmaps)
                         //
-                        int documentSetCount = 0;
-                        float weightedSimilarTermFreqSum = 0;
-                        float oneMinusWeightedSimilarTermFreqSum = 0;
-
-                        for (LeafReaderContext ctx : searcher.getTopReaderContext().leaves()) {
-                            List<PostingsEnumWeightTuple> post = new ArrayList<>();
-
-                            PostingsEnum mainPost = ctx.reader().postings(mainTerm);
-                            if (mainPost != null) post.add(new PostingsEnumWeightTuple(mainPost, 1));
-
-                            for (TermWeightTuple t : similarTerms) {
-                                PostingsEnum localPost = ctx.reader().postings(t.term);
-                                if (localPost != null) post.add(new PostingsEnumWeightTuple(localPost, t.weight));
-                            }
-
-                            MultiDocIdSetIterator it = new MultiDocIdSetIterator(post.toArray(new PostingsEnumWeightTuple[0]));
-
-                            while (it.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
-                                documentSetCount++;
+                        ExtendedStatistics extendedStats = null;
+                        if (documentSetCounter != null) {
+                            extendedStats = ExtendedStatistics.count(documentSetCounter, searcher, terms, termStates, similarWeights);
+                        }
 
-                                for (PostingsEnumWeightTuple tuple : post) {
-                                    if (!tuple.postingsEnum.equals(mainPost) && tuple.postingsEnum.docID() == it.docID()) {
-                                        weightedSimilarTermFreqSum += tuple.weight * tuple.postingsEnum.freq();
-                                        oneMinusWeightedSimilarTermFreqSum += (1 - tuple.weight) * tuple.postingsEnum.freq();
-                                    }
-                                }
-                            }
+                        if (extendedStats == null) {
+                            List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+                            boolean parallel = leaves.size() > 1 && searcher.getIndexReader().maxDoc() >= ExtendedStatistics.PARALLEL_MIN_DOCS;
+
+                            AtomicReferenceArray<ScannedPostings> scanned = parallel ? null : new AtomicReferenceArray<>(leaves.size());
+                            extendedStats = ExtendedStatistics.compute(leaves, similarWeights, ctx -> {
+                                        PostingsEnum[] postings = postings(ctx, PostingsEnum.FREQS, null);
+                                        if (scanned != null) {
+                                            scanned.set(ctx.ord, new ScannedPostings(postings));
+                                        }
+                                        return postings;
+                                    }, hotExpansion == null ? null : ctx -> {
+                                        // materialized leaves are not scanned again
+                                        MaterializedExpansion materialized = materializedExpansions.get(ctx.reader(), hotExpansion);
+                                        return materialized == null ? null : materialized.statistics;
+                                    }, parallel ? ExtendedStatistics.sharedPool() : null);
+                            statsPostings = scanned;
                         }
 
+                        long documentSetCount = extendedStats.documentSetCount;
+                        double weightedSimilarTermFreqSum = extendedStats.weightedSimilarTermFreqSum;
+                        double oneMinusWeightedSimilarTermFreqSum = extendedStats.oneMinusWeightedSimilarTermFreqSum;
+
                         //System.out.println("count = " + documentSetCount + " vs main stat = " + termStats.docFreq());
 
                         //System.out.println("one minus sim sum = " + oneMinusWeightedSimilarTermFreqSum);
@@ -305,9 +548,16 @@ public class AugmentedTermQuery extends Query {
             return similarity.computeWeight(collectionStats, termStats);
         }
 
+        /**
+         * Main term + the used similar terms (they are matched and scored too, e.g. the distributed statistics of
+         * solr are gathered for the extracted terms)
+         */
         @Override
         public void extractTerms(Set<Term> terms) {
             terms.add(mainTerm);
+            for (TermWeightTuple similarTerm : similarTerms) {
+                terms.add(similarTerm.term);
+            }
         }
 
         @Override
@@ -331,42 +581,74 @@ public class AugmentedTermQuery extends Query {
             // just in case, but it should not be possible to fail here ...
             assert mainTermStates == null || mainTermStates.wasBuiltFor(ReaderUtil.getTopLevelContext(context)) : "The top-reader used to create Weight is not the same as the current reader's top-reader (" + ReaderUtil.getTopLevelContext(context);;
 
+            //
+            // hot expansion -> the merged list of this leaf (materialized by the first query, that scored the leaf)
+            //
+            MaterializedExpansion materialized = hotExpansion == null ? null : materializedExpansions.get(context.reader(), hotExpansion);
+            if (materialized != null) {
+                MaterializedExpansion.Postings materializedPostings = materialized.postings();
+                return new MaterializedExpansionScorer(this, materializedPostings, simScorer(context, materializedPostings::lengthDelta));
+            }
+
             short flag = needsScores ? PostingsEnum.FREQS : PostingsEnum.NONE;
 
             //
-            // main term -> PostingsEnum
+            // main term + similar terms -> PostingsEnum (one TermsEnum for all terms), re-uses the postings of the
+            // statistics scan of this leaf (if any, only once)
             //
-            TermsEnum termsEnum = getTermsEnum(context, mainTermStates, mainTerm);
-            PostingsEnum docs = null;
-            if (termsEnum != null) {
-                docs = termsEnum.postings(null, flag);
-            }else{
+            ScannedPostings scanned = statsPostings == null ? null : statsPostings.getAndSet(context.ord, null);
+            PostingsEnum[] reuse = scanned == null || scanned.thread != Thread.currentThread() ? null : scanned.postings;
+            PostingsEnum[] postings = postings(context, flag, reuse);
+
+            PostingsEnum docs = postings[0];
+            if (docs == null) {
                 return null; // todo remove this and replace it with a check that similar terms are null as well and
                              // keep going if they are not null !!
             }
 
             //
-            // similar terms -> PostingsEnum
+            // drop the similar terms, that are not in this leaf (in place, the weights are only copied if needed)
             //
+            float[] leafWeights = weights;
+            int size = 1;
+            for (int i = 1; i < postings.length; i++) {
+                if (postings[i] == null) {
+                    continue;
+                }
+                if (size != i) {
+                    if (leafWeights == weights) {
+                        leafWeights = weights.clone();
+                    }
+                    postings[size] = postings[i];
+                    leafWeights[size] = weights[i];
+                }
+                size++;
+            }
 
-            List<PostingsEnumWeightTuple> similarEnums = new ArrayList<>();
-            for (int i = 0; i < similarTerms.length; i++) {
-                TermWeightTuple wt = similarTerms[i];
-                TermsEnum enums = getTermsEnum(context, similarTermStates[i], wt.term);
-                if (enums != null) {
-                    similarEnums.add(
-                            new PostingsEnumWeightTuple(
-                                    enums.postings(null, flag),
-                                    wt.weight
-                            )
-                    );
+            if (hotExpansion != null) {
+                // null -> too large for the cache, the postings are not read
+                materialized = materializedExpansions.materialize(context.reader(), hotExpansion, postings, leafWeights, size);
+                if (materialized != null) {
+                    MaterializedExpansion.Postings materializedPostings = materialized.postings();
+                    return new MaterializedExpansionScorer(this, materializedPostings, simScorer(context, materializedPostings::lengthDelta));
                 }
             }
 
-            SimScorer simScorer = null;
+            LeafReaderOverride.LengthDelta lengthDelta = method == ModelMethod.Extended ?
+                    LeafReaderOverride.postingsLengthDelta(postings, leafWeights, size) : null;
+
+            return new AugmentedTermScorer(this, postings, leafWeights, size, simScorer(context, lengthDelta));
+        }
+
+        /**
+         * The similarity scorer of the leaf, for ET with the document lengths of the expansion
+         *
+         * @param lengthDelta (1 - weight) * freq sum of the similar terms of the scored doc (ET only)
+         */
+        private SimScorer simScorer(LeafReaderContext context, LeafReaderOverride.LengthDelta lengthDelta) throws IOException {
             if(method == ModelMethod.Generalized) {
                 // main term context only -> as access by the similarity class
-                simScorer = similarity.simScorer(stats, context);
+                return similarity.simScorer(stats, context);
             }
             else if(method == ModelMethod.Extended) {
 
@@ -375,59 +657,69 @@ public class AugmentedTermQuery extends Query {
                 //
 
                 // we have to use reflection, should not have any side effects
-                Class<LeafReaderContext> contextClass = LeafReaderContext.class;
-                Constructor<LeafReaderContext> declaredConstructor;
+                // (the override only wraps the postings of this scorer -> safe for concurrent scorers of other leaves)
                 LeafReaderContext fakeContext = null;
 
                 // sim base is used by all language model classes
                 boolean simUsesOneByteDocCompression = similarity instanceof SimilarityBase || similarity instanceof BM25Similarity;
 
                 try {
-                    declaredConstructor = contextClass.getDeclaredConstructor(LeafReader.class);
-                    declaredConstructor.setAccessible(true);
-                    fakeContext = declaredConstructor.newInstance(new LeafReaderOverride(similarEnums, context.reader(), simUsesOneByteDocCompression));
+                    fakeContext = leafReaderContextConstructor.newInstance(new LeafReaderOverride(lengthDelta, context.reader(), simUsesOneByteDocCompression));
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
 
-                simScorer = similarity.simScorer(stats, fakeContext);
+                return similarity.simScorer(stats, fakeContext);
             }
             else {
                 throw new RuntimeException("ModelMethod: " +  method.toString() + " not supported");
             }
-
-            return new AugmentedTermScorer(this, docs, similarEnums, simScorer);
         }
 
         /**
-         * Returns a {@link TermsEnum} positioned at this weights Term or null if
-         * the mainTerm does not exist in the given context
+         * Returns the postings of the main term (index 0) and the similar terms in the given leaf (null if a term does
+         * not exist in the leaf). The terms are resolved in sorted order with one TermsEnum per field, the postings of
+         * <code>reuse</code> (same index, may be null) are passed to the codec for re-use and the array is re-used
+         * for the output.
          */
-        private TermsEnum getTermsEnum(LeafReaderContext context,TermContext termContext,Term term) throws IOException {
-            if (termContext != null) {
-                // TermQuery either used as a Query or the mainTerm states have been provided at construction time
-                assert termContext.wasBuiltFor(ReaderUtil.getTopLevelContext(context)) : "The top-reader used to create Weight is not the same as the current reader's top-reader (" + ReaderUtil.getTopLevelContext(context);
-                final TermState state = termContext.get(context.ord);
-                if (state == null) { // mainTerm is not present in that reader
-                    assert termNotInReader(context.reader(), term) : "no termstate found but mainTerm exists in reader mainTerm=" + mainTerm;
-                    return null;
+        private PostingsEnum[] postings(LeafReaderContext context, int flags, PostingsEnum[] reuse) throws IOException {
+            PostingsEnum[] output = reuse != null ? reuse : new PostingsEnum[terms.length];
+
+            String field = null;
+            TermsEnum termsEnum = null;
+
+            for (int i : seekOrder) {
+                Term term = terms[i];
+                if (!term.field().equals(field)) {
+                    field = term.field();
+                    Terms fieldTerms = context.reader().terms(field);
+                    termsEnum = fieldTerms == null ? null : fieldTerms.iterator();
                 }
-                final TermsEnum termsEnum = context.reader().terms(term.field()).iterator();
-                termsEnum.seekExact(term.bytes(), state);
-                return termsEnum;
-            } else {
-                // TermQuery used as a filter, so the mainTerm states have not been built up front
-                Terms terms = context.reader().terms(term.field());
-                if (terms == null) {
-                    return null;
+                if (termsEnum == null) {
+                    output[i] = null;
+                    continue;
                 }
-                final TermsEnum termsEnum = terms.iterator();
-                if (termsEnum.seekExact(term.bytes())) {
-                    return termsEnum;
-                } else {
-                    return null;
+
+                TermContext termContext = termStates[i];
+                if (termContext != null) {
+                    // the term states have been built up front -> no need to seek in the terms dict
+                    assert termContext.wasBuiltFor(ReaderUtil.getTopLevelContext(context)) : "The top-reader used to create Weight is not the same as the current reader's top-reader (" + ReaderUtil.getTopLevelContext(context);
+                    final TermState state = termContext.get(context.ord);
+                    if (state == null) { // term is not present in that reader
+                        assert termNotInReader(context.reader(), term) : "no termstate found but term exists in reader term=" + term;
+                        output[i] = null;
+                        continue;
+                    }
+                    termsEnum.seekExact(term.bytes(), state);
+                } else if (!termsEnum.seekExact(term.bytes())) {
+                    // used as a filter, so the term states have not been built up front
+                    output[i] = null;
+                    continue;
                 }
+
+                output[i] = termsEnum.postings(output[i], flags);
             }
+            return output;
         }
 
         private boolean termNotInReader(LeafReader reader, Term term) throws IOException {
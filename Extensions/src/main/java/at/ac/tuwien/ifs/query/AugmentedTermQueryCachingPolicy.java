@@ -0,0 +1,56 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+
+/**
+ * Query caching policy (for the <code>{@link org.apache.lucene.search.LRUQueryCache}</code>), that knows the cost of
+ * the <code>{@link AugmentedTermQuery}</code> when it is used as a filter:
+ * <ul>
+ * <li>wide expansion (at least minSimilarTerms similar terms): disjunction of many postings lists, cached after
+ * 2 uses (like other costly queries, e.g. multi term queries)</li>
+ * <li>no similar terms: a single postings list, never cached (like a term query)</li>
+ * <li>otherwise: the usage tracking defaults</li>
+ * </ul>
+ * Set it on the searcher: <code>searcher.setQueryCachingPolicy(new AugmentedTermQueryCachingPolicy())</code>
+ */
+public class AugmentedTermQueryCachingPolicy extends UsageTrackingQueryCachingPolicy {
+
+    public static final int DEFAULT_MIN_SIMILAR_TERMS = 4;
+
+    private final int minSimilarTerms;
+
+    public AugmentedTermQueryCachingPolicy() {
+        this(DEFAULT_MIN_SIMILAR_TERMS);
+    }
+
+    /**
+     * @param minSimilarTerms number of similar terms from which on an expansion is costly
+     */
+    public AugmentedTermQueryCachingPolicy(int minSimilarTerms) {
+        this.minSimilarTerms = minSimilarTerms;
+    }
+
+    /**
+     * @param historySize number of recently used filters, that are tracked (see <code>{@link UsageTrackingQueryCachingPolicy}</code>)
+     * @param minSimilarTerms number of similar terms from which on an expansion is costly
+     */
+    public AugmentedTermQueryCachingPolicy(int historySize, int minSimilarTerms) {
+        super(historySize);
+        this.minSimilarTerms = minSimilarTerms;
+    }
+
+    @Override
+    protected int minFrequencyToCache(Query query) {
+        if (query instanceof AugmentedTermQuery) {
+            int similarTerms = ((AugmentedTermQuery) query).getSimilarTermCount();
+            if (similarTerms == 0) {
+                return Integer.MAX_VALUE;
+            }
+            if (similarTerms >= minSimilarTerms) {
+                return 2;
+            }
+        }
+        return super.minFrequencyToCache(query);
+    }
+}
@@ -13,7 +13,10 @@ import org.apache.lucene.search.similarities.Similarity;
  * at that position, based on their weights. The main term gets the weight 1 assigned to it.
  */
 public class AugmentedTermScorer extends Scorer {
-    private final PostingsEnumWeightTuple[] postings;
+    // parallel arrays: main term (index 0, weight 1) + similar terms, only the first size entries are used
+    private final PostingsEnum[] postings;
+    private final float[] weights;
+    private final int size;
     private final Similarity.SimScorer docScorer;
 
     private final MultiDocIdSetIterator iterator;
@@ -32,19 +35,54 @@ public class AugmentedTermScorer extends Scorer {
      *          to be used for score computations.
      */
     public AugmentedTermScorer(Weight weight, PostingsEnum mainTerm, List<PostingsEnumWeightTuple> similarPostings, Similarity.SimScorer docScorer) {
+        this(weight, toPostings(mainTerm, similarPostings), toWeights(similarPostings), similarPostings.size() + 1, docScorer);
+    }
+
+    /**
+     * Construct an <code>query.{@link AugmentedTermScorer}</code> from parallel arrays (no copies, used by the
+     * <code>{@link AugmentedTermQuery}</code>).
+     *
+     * @param postings
+     *          The main term postings (index 0) + the similar term postings, the first <code>size</code> entries must
+     *          not be null
+     * @param weights
+     *          The weights of the postings (same index), the main term has the weight 1
+     * @param size
+     *          The number of used entries
+     * @param docScorer
+     *          The <code>Similarity.SimScorer</code> implementation
+     *          to be used for score computations.
+     */
+    public AugmentedTermScorer(Weight weight, PostingsEnum[] postings, float[] weights, int size, Similarity.SimScorer docScorer) {
         super(weight);
 
-        this.postings = new PostingsEnumWeightTuple[similarPostings.size() + 1];
-        this.postings[0] = new PostingsEnumWeightTuple(mainTerm,1f);
-        for (int i = 0; i < similarPostings.size(); i++) {
-            this.postings[i + 1] = similarPostings.get(i);
-        }
+        this.postings = postings;
+        this.weights = weights;
+        this.size = size;
 
-        this.iterator = new MultiDocIdSetIterator(this.postings);
+        this.iterator = new MultiDocIdSetIterator(postings, size);
 
         this.docScorer = docScorer;
     }
 
+    private static PostingsEnum[] toPostings(PostingsEnum mainTerm, List<PostingsEnumWeightTuple> similarPostings) {
+        PostingsEnum[] postings = new PostingsEnum[similarPostings.size() + 1];
+        postings[0] = mainTerm;
+        for (int i = 0; i < similarPostings.size(); i++) {
+            postings[i + 1] = similarPostings.get(i).postingsEnum;
+        }
+        return postings;
+    }
+
+    private static float[] toWeights(List<PostingsEnumWeightTuple> similarPostings) {
+        float[] weights = new float[similarPostings.size() + 1];
+        weights[0] = 1f;
+        for (int i = 0; i < similarPostings.size(); i++) {
+            weights[i + 1] = similarPostings.get(i).weight;
+        }
+        return weights;
+    }
+
     @Override
     public int docID() {
         return this.iterator.docID();
@@ -63,10 +101,11 @@ public class AugmentedTermScorer extends Scorer {
      * Returns the exact floating point sum of all weighted frequencies for the current <code>{@link #docID()}</code>
      */
     public float exactFreq() throws IOException {
+        int doc = iterator.docID();
         float sum = 0;
-        for (PostingsEnumWeightTuple enumWeightTuple : postings) {
-            if (enumWeightTuple.postingsEnum.docID() == docID()) {
-                sum += enumWeightTuple.postingsEnum.freq() * enumWeightTuple.weight;
+        for (int i = 0; i < size; i++) {
+            if (postings[i].docID() == doc) {
+                sum += postings[i].freq() * weights[i];
             }
         }
         return sum;
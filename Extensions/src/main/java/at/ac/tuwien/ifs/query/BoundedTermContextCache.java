@@ -0,0 +1,86 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread safe <code>{@link TermContextCache}</code> for plain Lucene searchers (create one per searcher)
+ *
+ * Like the <code>{@link at.ac.tuwien.ifs.parser.AnalyzedTermCache}</code>, entries are kept in two generations: when
+ * the current generation is full it replaces the previous one, hits in the previous generation are copied forward.
+ */
+public class BoundedTermContextCache implements TermContextCache {
+
+    private final int generationSize;
+
+    private volatile ConcurrentHashMap<Term, TermContext> current = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<Term, TermContext> previous = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize max. number of cached terms (split into 2 generations)
+     */
+    public BoundedTermContextCache(int maxSize) {
+        this.generationSize = Math.max(1, maxSize / 2);
+    }
+
+    @Override
+    public TermContext get(IndexReaderContext context, Term term) {
+        TermContext termContext = current.get(term);
+        if (termContext == null) {
+            termContext = previous.get(term);
+            if (termContext != null) {
+                put(term, termContext);
+            }
+        }
+        if (termContext != null && !termContext.wasBuiltFor(context)) {
+            termContext = null; // built for an old reader -> replaced by the caller
+        }
+
+        if (termContext != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return termContext;
+    }
+
+    @Override
+    public void put(Term term, TermContext termContext) {
+        ConcurrentHashMap<Term, TermContext> generation = current;
+        if (generation.size() >= generationSize) {
+            synchronized (this) {
+                if (current == generation) {
+                    previous = generation;
+                    current = new ConcurrentHashMap<>();
+                }
+                generation = current;
+            }
+        }
+        generation.put(term, termContext);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public int size() {
+        return current.size() + previous.size();
+    }
+}
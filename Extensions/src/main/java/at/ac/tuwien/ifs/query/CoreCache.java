@@ -0,0 +1,286 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.ThreadInterruptedException;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Approximate least recently used cache of per segment core values, bounded by the sum of the value sizes (e.g. heap
+ * bytes or number of entries). The entries of a segment are removed, when its core is closed: deletes do not change
+ * the postings, so reopened readers share the entries. Thread safe, one instance can be shared by all searchers.
+ *
+ * Hits do not take a lock: the entries are kept in a concurrent map and a hit only stamps the entry with its access
+ * time (like the hit path of Lucene's <code>LRUQueryCache</code>, which does not update a shared access order under
+ * contention). A put, that exceeds the bound, sorts the entries by their stamps and evicts the least recently used
+ * ones in a batch (down to 15/16 of the bound), so the sort is amortized over the following puts.
+ *
+ * Used by the <code>{@link TermDocSetCache}</code>, <code>{@link SegmentDocumentSetCache}</code> and
+ * <code>{@link MaterializedExpansionCache}</code>.
+ */
+final class CoreCache<K, V> {
+
+    /**
+     * Key + entry overhead of the concurrent hash map, for caches bounded by heap bytes
+     */
+    static final long ENTRY_OVERHEAD = 128;
+
+    /**
+     * An eviction frees 1/EVICTION_BATCH of the bound more than needed
+     */
+    private static final int EVICTION_BATCH = 16;
+
+    private static final class Key<K> {
+        final Object coreKey;
+        final K key;
+
+        Key(Object coreKey, K key) {
+            this.coreKey = coreKey;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key<?> otherKey = (Key<?>) other;
+            return coreKey == otherKey.coreKey && key.equals(otherKey.key);
+        }
+
+        @Override
+        public int hashCode() {
+            // core keys are compared by identity
+            return 31 * System.identityHashCode(coreKey) + key.hashCode();
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long size;
+        // System.nanoTime() of the last access, written without a lock (approximate order)
+        volatile long lastUsed;
+
+        Entry(V value, long size) {
+            this.value = value;
+            this.size = size;
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    /**
+     * Computes a missing value
+     */
+    interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    private final long maxSize;
+    private final ToLongFunction<V> sizeOf;
+
+    // values that are currently loaded
+    private final ConcurrentHashMap<Key<K>, FutureTask<V>> loading = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Key<K>, Entry<V>> cache = new ConcurrentHashMap<>();
+    private final Set<Object> registeredCores = ConcurrentHashMap.newKeySet();
+    private final AtomicLong size = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize upper bound of the summed sizes of the values
+     * @param sizeOf size of a value (incl. its entry overhead)
+     */
+    CoreCache(long maxSize, ToLongFunction<V> sizeOf) {
+        this.maxSize = maxSize;
+        this.sizeOf = sizeOf;
+    }
+
+    /**
+     * Returns the value of the key in the segment or null
+     */
+    V get(LeafReader reader, K key) {
+        return get(new Key<>(reader.getCoreCacheKey(), key));
+    }
+
+    private V get(Key<K> cacheKey) {
+        Entry<V> entry = cache.get(cacheKey);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.lastUsed = System.nanoTime();
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Returns the value of the key in the segment or loads (and caches) it. Only one caller loads a missing value,
+     * concurrent callers for the same key wait for it and get the same value. The loaded value is returned, even
+     * if it is too large to be cached.
+     */
+    V getOrLoad(LeafReader reader, K key, Loader<V> loader) throws IOException {
+        Key<K> cacheKey = new Key<>(reader.getCoreCacheKey(), key);
+
+        V value = get(cacheKey);
+        if (value != null) {
+            return value;
+        }
+
+        FutureTask<V> task = new FutureTask<>(loader::load);
+        FutureTask<V> running = loading.putIfAbsent(cacheKey, task);
+        if (running != null) {
+            return get(running);
+        }
+
+        try {
+            // loaded & removed from the loading map by another caller in the meantime
+            Entry<V> entry = cache.get(cacheKey);
+            if (entry != null) {
+                return entry.value;
+            }
+            task.run();
+            value = get(task);
+            if (value != null) {
+                put(reader, key, value);
+            }
+            return value;
+        } finally {
+            loading.remove(cacheKey, task);
+        }
+    }
+
+    private static <V> V get(FutureTask<V> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new ThreadInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Whether a value of the size can be cached at all
+     */
+    boolean fits(long valueSize) {
+        return valueSize <= maxSize;
+    }
+
+    /**
+     * Adds the value (and evicts the least recently used ones), returns false if the value alone is too large
+     */
+    boolean put(LeafReader reader, K key, V value) {
+        long valueSize = sizeOf.applyAsLong(value);
+        if (!fits(valueSize)) {
+            return false;
+        }
+
+        Key<K> cacheKey = new Key<>(reader.getCoreCacheKey(), key);
+
+        Entry<V> previous = cache.put(cacheKey, new Entry<>(value, valueSize));
+        if (size.addAndGet(previous == null ? valueSize : valueSize - previous.size) > maxSize) {
+            evict(cacheKey);
+        }
+
+        if (registeredCores.add(cacheKey.coreKey)) {
+            reader.addCoreClosedListener(this::evictCore);
+        }
+        return true;
+    }
+
+    /**
+     * Evicts the least recently used entries (except the one just added) in a batch, one eviction at a time
+     */
+    private synchronized void evict(Key<K> added) {
+        if (size.get() <= maxSize) {
+            return;
+        }
+
+        // the stamps are copied, they change during the sort
+        List<Map.Entry<Key<K>, Long>> entries = new ArrayList<>(cache.size());
+        for (Map.Entry<Key<K>, Entry<V>> entry : cache.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().lastUsed));
+        }
+        entries.sort(Map.Entry.comparingByValue());
+
+        long target = maxSize - maxSize / EVICTION_BATCH;
+        for (Map.Entry<Key<K>, Long> eldest : entries) {
+            if (size.get() <= target) {
+                break;
+            }
+            if (!eldest.getKey().equals(added)) {
+                remove(eldest.getKey());
+            }
+        }
+    }
+
+    private void remove(Key<K> cacheKey) {
+        Entry<V> entry = cache.remove(cacheKey);
+        if (entry != null) {
+            size.addAndGet(-entry.size);
+        }
+    }
+
+    /**
+     * Removes all entries of the segment core (called, when the core is closed, e.g. after a merge)
+     */
+    void evictCore(Object coreKey) {
+        registeredCores.remove(coreKey);
+        for (Key<K> cacheKey : cache.keySet()) {
+            if (cacheKey.coreKey == coreKey) {
+                remove(cacheKey);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries (the close listeners of the cores stay registered)
+     */
+    void clear() {
+        for (Key<K> cacheKey : cache.keySet()) {
+            remove(cacheKey);
+        }
+    }
+
+    /**
+     * Summed sizes of the values
+     */
+    long sizeOfValues() {
+        return size.get();
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+}
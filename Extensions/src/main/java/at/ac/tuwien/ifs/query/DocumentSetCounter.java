@@ -0,0 +1,27 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+
+/**
+ * Counts the documents, that contain at least one of the given terms (= document set count of the extended model
+ * method), without walking the postings of the <code>{@link AugmentedTermQuery}</code>
+ *
+ * Implementations:
+ * <ul>
+ * <li><code>{@link TermSketches}</code> - estimate from pre-built HyperLogLog sketches</li>
+ * <li><code>{@link TermDocSetCache}</code> - exact count from cached per-segment doc id bitmaps</li>
+ * </ul>
+ */
+public interface DocumentSetCounter {
+
+    /**
+     * @param terms main term (index 0) + similar terms
+     * @param states term contexts of the terms (same index), built for the reader of the searcher
+     * @return the (estimated) number of documents, or -1 if the counter can not be used with the searcher
+     */
+    long count(IndexSearcher searcher, Term[] terms, TermContext[] states) throws IOException;
+}
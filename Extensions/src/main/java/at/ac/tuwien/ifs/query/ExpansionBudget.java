@@ -0,0 +1,153 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Upper bound for the postings an <code>{@link AugmentedTermQuery}</code> is allowed to traverse.
+ *
+ * The cost of a query is estimated with the document frequencies of the main term and all similar terms
+ * (this is the same value <code>{@link MultiDocIdSetIterator#cost()}</code> reports). If the estimate is above the budget,
+ * the similar terms with the lowest weight are dropped until the query fits. The main term is never dropped.
+ *
+ * The budget is an immutable value (it is part of the query equality, so cached queries share it), the degradation
+ * of a query can be computed up front with <code>{@link #fit(IndexReader, Term, TermWeightTuple[])}</code> and
+ * reported back to the caller (e.g. the Solr response header).
+ */
+public final class ExpansionBudget {
+
+    /**
+     * The outcome of fitting the similar terms of one main term into the budget
+     */
+    public static final class Fit {
+
+        public final TermWeightTuple[] kept;
+        public final long cost;
+        public final long reducedCost;
+        public final List<String> dropped;
+
+        Fit(TermWeightTuple[] kept, long cost, long reducedCost, List<String> dropped) {
+            this.kept = kept;
+            this.cost = cost;
+            this.reducedCost = reducedCost;
+            this.dropped = Collections.unmodifiableList(dropped);
+        }
+
+        public boolean isDegraded() {
+            return !dropped.isEmpty();
+        }
+    }
+
+    private final long maxPostings;
+
+    /**
+     * @param maxPostings the maximum number of postings (sum of document frequencies) per query
+     */
+    public ExpansionBudget(long maxPostings) {
+        if (maxPostings < 0) {
+            throw new IllegalArgumentException("maxPostings must be >= 0, got: " + maxPostings);
+        }
+        this.maxPostings = maxPostings;
+    }
+
+    /**
+     * Creates a budget from an estimated latency in milliseconds, based on a measured postings throughput
+     *
+     * @throws ArithmeticException if the number of postings overflows a long
+     */
+    public static ExpansionBudget fromMillis(long maxMillis, long postingsPerMilli) {
+        return new ExpansionBudget(Math.multiplyExact(maxMillis, postingsPerMilli));
+    }
+
+    public long getMaxPostings() {
+        return maxPostings;
+    }
+
+    /**
+     * Computes which similar terms fit into the budget with the document frequencies of the reader, this is the same
+     * result the <code>{@link AugmentedTermQuery}</code> gets, when it is executed on a searcher of the reader.
+     */
+    public Fit fit(IndexReader reader, Term mainTerm, TermWeightTuple[] similarTerms) throws IOException {
+        int[] similarDocFreqs = new int[similarTerms.length];
+        for (int i = 0; i < similarTerms.length; i++) {
+            similarDocFreqs[i] = reader.docFreq(similarTerms[i].term);
+        }
+        return fit(reader.docFreq(mainTerm), similarTerms, similarDocFreqs);
+    }
+
+    /**
+     * Computes which similar terms fit into the budget, if the main term plus all similar terms exceed it.
+     *
+     * @param mainDocFreq the document frequency of the main term
+     * @param similarTerms the similar terms
+     * @param similarDocFreqs the document frequencies of the similar terms (same index)
+     * @return the similar terms that are kept (in their original order) and the dropped ones
+     */
+    Fit fit(int mainDocFreq, TermWeightTuple[] similarTerms, int[] similarDocFreqs) {
+
+        long cost = mainDocFreq;
+        for (int docFreq : similarDocFreqs) {
+            cost += docFreq;
+        }
+
+        if (cost <= maxPostings) {
+            return new Fit(similarTerms, cost, cost, Collections.emptyList());
+        }
+
+        //
+        // drop the lowest weighted terms first, on equal weight the more expensive one
+        //
+        Integer[] order = new Integer[similarTerms.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Float.compare(similarTerms[a].weight, similarTerms[b].weight);
+            return c != 0 ? c : Integer.compare(similarDocFreqs[b], similarDocFreqs[a]);
+        });
+
+        long reducedCost = cost;
+        boolean[] dropped = new boolean[similarTerms.length];
+        List<String> droppedTerms = new ArrayList<>();
+
+        for (int i = 0; i < order.length && reducedCost > maxPostings; i++) {
+            int idx = order[i];
+            if (similarDocFreqs[idx] == 0) {
+                continue; // not in the index, dropping it does not change the cost
+            }
+            dropped[idx] = true;
+            reducedCost -= similarDocFreqs[idx];
+            droppedTerms.add(similarTerms[idx].term.text());
+        }
+
+        List<TermWeightTuple> kept = new ArrayList<>();
+        for (int i = 0; i < similarTerms.length; i++) {
+            if (!dropped[i]) {
+                kept.add(similarTerms[i]);
+            }
+        }
+
+        return new Fit(kept.toArray(new TermWeightTuple[0]), cost, reducedCost, droppedTerms);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ExpansionBudget && ((ExpansionBudget) other).maxPostings == maxPostings;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(maxPostings);
+    }
+
+    @Override
+    public String toString() {
+        return "budget(" + maxPostings + ")";
+    }
+}
@@ -0,0 +1,293 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermStatistics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Merged statistics of the main term + weighted similar terms, used by the extended model method
+ * of the <code>{@link AugmentedTermQuery}</code>:
+ * <ul>
+ * <li>document set count: number of docs that contain the main term or at least one similar term</li>
+ * <li>weighted similar term freq sum: sum of weight * freq over all similar term occurrences</li>
+ * <li>one minus weighted similar term freq sum: sum of (1 - weight) * freq over all similar term occurrences</li>
+ * </ul>
+ *
+ * Every leaf is scanned on its own (into a per leaf partial), the leaves can be split into fork-join tasks.
+ * The partials are always summed up in leaf order, so the serial and the parallel computation give
+ * exactly the same statistics. Alternatively, the document set count can come from a
+ * <code>{@link DocumentSetCounter}</code>.
+ *
+ * <remarks>
+ *     The weighted sums are accumulated in double (the former scan used one running float sum over all leaves,
+ *     which can not be split into partials). They are more precise than the float sums, so the rounded ET
+ *     total term freqs - and the ET scores - can differ slightly from the float scan.
+ * </remarks>
+ */
+final class ExtendedStatistics {
+
+    /**
+     * Below this number of docs in the index, the fork-join overhead is larger than the scan itself
+     */
+    static final int PARALLEL_MIN_DOCS = 1 << 14;
+
+    /**
+     * Resolves the postings (main term at index 0 + similar terms, null if not in the leaf) of one leaf
+     * (a codec can only re-use postings of the same segment -> no re-use across leaves)
+     */
+    interface LeafPostings {
+        PostingsEnum[] postings(LeafReaderContext context) throws IOException;
+    }
+
+    /**
+     * Returns the already known partial of a leaf (e.g. of a <code>{@link MaterializedExpansion}</code>) or null
+     */
+    interface LeafPartial {
+        ExtendedStatistics partial(LeafReaderContext context);
+    }
+
+    final long documentSetCount;
+    final double weightedSimilarTermFreqSum;
+    final double oneMinusWeightedSimilarTermFreqSum;
+
+    ExtendedStatistics(long documentSetCount, double weightedSimilarTermFreqSum, double oneMinusWeightedSimilarTermFreqSum) {
+        this.documentSetCount = documentSetCount;
+        this.weightedSimilarTermFreqSum = weightedSimilarTermFreqSum;
+        this.oneMinusWeightedSimilarTermFreqSum = oneMinusWeightedSimilarTermFreqSum;
+    }
+
+    private static volatile ForkJoinPool sharedPool;
+
+    /**
+     * Lazily created fork-join pool (one worker per core, daemon threads) used by all queries
+     */
+    static ForkJoinPool sharedPool() {
+        if (sharedPool == null) {
+            synchronized (ExtendedStatistics.class) {
+                if (sharedPool == null) {
+                    sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("extended-statistics-" + thread.getPoolIndex());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, null, false);
+                }
+            }
+        }
+        return sharedPool;
+    }
+
+    /**
+     * @param leaves all leaves of the top level reader
+     * @param similarWeights weights of the similar terms (index i = postings index i + 1)
+     * @param pool the leaves are scanned as fork-join tasks in this pool, null -> serial scan in the calling thread
+     */
+    static ExtendedStatistics compute(List<LeafReaderContext> leaves, float[] similarWeights, LeafPostings postings,
+                                      ForkJoinPool pool) throws IOException {
+        return compute(leaves, similarWeights, postings, null, pool);
+    }
+
+    /**
+     * @param known partials of leaves, that are not scanned (may be null)
+     */
+    static ExtendedStatistics compute(List<LeafReaderContext> leaves, float[] similarWeights, LeafPostings postings,
+                                      LeafPartial known, ForkJoinPool pool) throws IOException {
+
+        ExtendedStatistics[] partials = new ExtendedStatistics[leaves.size()];
+        boolean parallel = pool != null && partials.length > 1;
+        LeafRangeTask task = new LeafRangeTask(leaves, similarWeights, postings, known, partials, 0, partials.length, parallel);
+
+        try {
+            if (parallel) {
+                pool.invoke(task);
+            } else {
+                task.compute();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        //
+        // deterministic reduction -> always in leaf order
+        //
+        long documentSetCount = 0;
+        double weightedSimilarTermFreqSum = 0;
+        double oneMinusWeightedSimilarTermFreqSum = 0;
+        for (ExtendedStatistics partial : partials) {
+            documentSetCount += partial.documentSetCount;
+            weightedSimilarTermFreqSum += partial.weightedSimilarTermFreqSum;
+            oneMinusWeightedSimilarTermFreqSum += partial.oneMinusWeightedSimilarTermFreqSum;
+        }
+        return new ExtendedStatistics(documentSetCount, weightedSimilarTermFreqSum, oneMinusWeightedSimilarTermFreqSum);
+    }
+
+    /**
+     * Statistics without a postings scan: the document set count comes from the counter (exact or estimated),
+     * the weighted freq sums are computed from the total term freqs of the similar terms
+     * (every occurrence of a similar term is counted, so they are the same as the scanned sums).
+     *
+     * The term & collection statistics are taken from the searcher, so a searcher with global statistics
+     * (e.g. a distributed solr request) gets global sums and bounds.
+     *
+     * @param terms main term (index 0) + similar terms
+     * @param states term contexts of the terms (same index)
+     * @return null, if the counter can not be used with the searcher (or the index has no freqs)
+     */
+    static ExtendedStatistics count(DocumentSetCounter counter, IndexSearcher searcher, Term[] terms, TermContext[] states,
+                                    float[] similarWeights) throws IOException {
+
+        TermStatistics[] termStats = new TermStatistics[terms.length];
+        long maxDocFreq = 0;
+        long sumDocFreq = 0;
+        for (int i = 0; i < terms.length; i++) {
+            if (states[i] == null) {
+                return null;
+            }
+            termStats[i] = searcher.termStatistics(terms[i], states[i]);
+            maxDocFreq = Math.max(maxDocFreq, termStats[i].docFreq());
+            sumDocFreq += termStats[i].docFreq();
+        }
+
+        double weightedSimilarTermFreqSum = 0;
+        double oneMinusWeightedSimilarTermFreqSum = 0;
+        for (int i = 0; i < similarWeights.length; i++) {
+            long totalTermFreq = termStats[i + 1].totalTermFreq();
+            if (totalTermFreq < 0) {
+                return null;
+            }
+            weightedSimilarTermFreqSum += (double) similarWeights[i] * totalTermFreq;
+            oneMinusWeightedSimilarTermFreqSum += (double) (1 - similarWeights[i]) * totalTermFreq;
+        }
+
+        long documentSetCount = counter.count(searcher, terms, states);
+        if (documentSetCount < 0) {
+            return null;
+        }
+
+        // the union is at least as large as the largest set and at most as large as all sets together (estimates)
+        long maxDoc = searcher.collectionStatistics(terms[0].field()).maxDoc();
+        documentSetCount = Math.max(maxDocFreq, Math.min(documentSetCount, Math.min(sumDocFreq, maxDoc)));
+
+        return new ExtendedStatistics(documentSetCount, weightedSimilarTermFreqSum, oneMinusWeightedSimilarTermFreqSum);
+    }
+
+    /**
+     * Scans a single leaf, the non-null postings are compacted into the scratch arrays (of the task)
+     */
+    private static ExtendedStatistics computeLeaf(PostingsEnum[] leafPostings, float[] similarWeights,
+                                                  PostingsEnum[] scratchPostings, float[] scratchWeights) throws IOException {
+
+        int size = 0;
+
+        PostingsEnum mainPost = leafPostings[0];
+        if (mainPost != null) {
+            scratchPostings[size] = mainPost;
+            scratchWeights[size++] = 1;
+        }
+        // the main term is not part of the similar term sums
+        int firstSimilar = size;
+
+        for (int i = 0; i < similarWeights.length; i++) {
+            PostingsEnum localPost = leafPostings[i + 1];
+            if (localPost != null) {
+                scratchPostings[size] = localPost;
+                scratchWeights[size++] = similarWeights[i];
+            }
+        }
+
+        long documentSetCount = 0;
+        double weightedSimilarTermFreqSum = 0;
+        double oneMinusWeightedSimilarTermFreqSum = 0;
+
+        if (size == 0) {
+            return new ExtendedStatistics(0, 0, 0);
+        }
+
+        MultiDocIdSetIterator it = new MultiDocIdSetIterator(scratchPostings, size);
+
+        int doc;
+        while ((doc = it.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            documentSetCount++;
+
+            for (int i = firstSimilar; i < size; i++) {
+                PostingsEnum postings = scratchPostings[i];
+                if (postings.docID() == doc) {
+                    int freq = postings.freq();
+                    weightedSimilarTermFreqSum += (double) scratchWeights[i] * freq;
+                    oneMinusWeightedSimilarTermFreqSum += (double) (1 - scratchWeights[i]) * freq;
+                }
+            }
+        }
+
+        return new ExtendedStatistics(documentSetCount, weightedSimilarTermFreqSum, oneMinusWeightedSimilarTermFreqSum);
+    }
+
+    /**
+     * Splits the leaf range in halves until a single leaf is left (if parallel), writes the partial of every
+     * leaf into its slot
+     */
+    private static class LeafRangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<LeafReaderContext> leaves;
+        private final float[] similarWeights;
+        private final LeafPostings postings;
+        private final LeafPartial known;
+        private final ExtendedStatistics[] partials;
+        private final int from;
+        private final int to;
+        private final boolean parallel;
+
+        LeafRangeTask(List<LeafReaderContext> leaves, float[] similarWeights, LeafPostings postings, LeafPartial known,
+                      ExtendedStatistics[] partials, int from, int to, boolean parallel) {
+            this.leaves = leaves;
+            this.similarWeights = similarWeights;
+            this.postings = postings;
+            this.known = known;
+            this.partials = partials;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected void compute() {
+            if (parallel && to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LeafRangeTask(leaves, similarWeights, postings, known, partials, from, mid, true),
+                          new LeafRangeTask(leaves, similarWeights, postings, known, partials, mid, to, true));
+                return;
+            }
+
+            try {
+                // scratch arrays of this range, re-used for every leaf
+                PostingsEnum[] scratchPostings = new PostingsEnum[similarWeights.length + 1];
+                float[] scratchWeights = new float[similarWeights.length + 1];
+
+                for (int leaf = from; leaf < to; leaf++) {
+                    ExtendedStatistics partial = known == null ? null : known.partial(leaves.get(leaf));
+                    if (partial != null) {
+                        partials[leaf] = partial;
+                        continue;
+                    }
+                    partials[leaf] = computeLeaf(postings.postings(leaves.get(leaf)), similarWeights,
+                            scratchPostings, scratchWeights);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+
+import java.io.IOException;
+
+/**
+ * Dense HyperLogLog cardinality sketch (Flajolet et al.), used to estimate the size of the union of the
+ * document sets of multiple terms (see <code>{@link TermSketches}</code>)
+ *
+ * Uses 2^precision one byte registers, the relative standard error is about 1.04 / sqrt(2^precision)
+ * (precision 12 -> 4 kb per sketch, ~1.6%). Small cardinalities are corrected with linear counting.
+ */
+public class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Adds an already hashed value (the hash must be uniformly distributed over all 64 bits, see <code>{@link #hash(long)}</code>)
+     */
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // sentinel bit -> rank is at most 64 - precision + 1
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Merges the other sketch into this one (= sketch of the union), both must have the same precision
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("precision mismatch: " + precision + " vs " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values added to this sketch (and all merged sketches)
+     */
+    public double cardinality() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        double estimate = alpha(m) * m * (double) m / sum;
+
+        // small range correction
+        if (estimate <= 2.5 * m && zeros > 0) {
+            return m * Math.log((double) m / zeros);
+        }
+        return estimate;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeBytes(registers, 0, registers.length);
+    }
+
+    public static HyperLogLog readFrom(DataInput in, int precision) throws IOException {
+        HyperLogLog sketch = new HyperLogLog(precision);
+        in.readBytes(sketch.registers, 0, sketch.registers.length);
+        return sketch;
+    }
+
+    public HyperLogLog copy() {
+        HyperLogLog copy = new HyperLogLog(precision);
+        System.arraycopy(registers, 0, copy.registers, 0, registers.length);
+        return copy;
+    }
+
+    /**
+     * 64 bit finalizer of murmur3, spreads sequential values (e.g. doc ids) over all bits
+     */
+    public static long hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -6,7 +6,6 @@ import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.SmallFloat;
 
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Used to feed the similarity class an updated document length
@@ -14,12 +13,39 @@ import java.util.List;
  */
 class LeafReaderOverride extends LeafReader {
 
-    private List<PostingsEnumWeightTuple> similarEnums;
-    private LeafReader originalReader;
-    private boolean useOneByteCompression;
+    /**
+     * The (1 - weight) * term frequency sum of the similar terms of a document
+     */
+    interface LengthDelta {
+        float get(int docID) throws IOException;
+    }
+
+    private final LengthDelta lengthDelta;
+    private final LeafReader originalReader;
+    private final boolean useOneByteCompression;
+
+    /**
+     * Length delta from the postings of the scorer, they are positioned on the scored document
+     *
+     * @param postings parallel arrays of the scorer: main term (index 0, not subtracted) + similar terms (1 until size)
+     */
+    static LengthDelta postingsLengthDelta(PostingsEnum[] postings, float[] weights, int size) {
+        return docID -> {
+            float subtract = 0;
+            for (int i = 1; i < size; i++) {
+                if(postings[i].docID() == docID){
+                    subtract += (1 - weights[i]) * postings[i].freq();
+                }
+            }
+            return subtract;
+        };
+    }
 
-    public LeafReaderOverride(List<PostingsEnumWeightTuple> similarEnums,LeafReader originalReader,boolean useOneByteCompression){
-        this.similarEnums = similarEnums;
+    /**
+     * @param lengthDelta gives the delta of the scored document (from the postings or a <code>{@link MaterializedExpansion}</code>)
+     */
+    public LeafReaderOverride(LengthDelta lengthDelta, LeafReader originalReader, boolean useOneByteCompression){
+        this.lengthDelta = lengthDelta;
         this.originalReader = originalReader;
         this.useOneByteCompression = useOneByteCompression;
     }
@@ -59,13 +85,9 @@ class LeafReaderOverride extends LeafReader {
                 original = decodeNormValue((byte)original);
             }
 
-            float subtract = 0;
+            float subtract;
             try {
-                for (PostingsEnumWeightTuple tuple:similarEnums){
-                    if(tuple.postingsEnum.docID() == docID){
-                            subtract += (1 - tuple.weight) * tuple.postingsEnum.freq();
-                    }
-                }
+                subtract = lengthDelta.get(docID);
             } catch (IOException e) {
                 throw new RuntimeException("could not read freq() from postings enum");
             }
@@ -107,7 +129,7 @@ class LeafReaderOverride extends LeafReader {
     /** Decodes a normalization factor (document length) stored in an index.
      * @see #encodeNormValue(float,float)
      */
-    private static float decodeNormValue(byte norm) {
+    static float decodeNormValue(byte norm) {
         return NORM_TABLE[norm & 0xFF];  // & 0xFF maps negative bytes to positive above 127
     }
 
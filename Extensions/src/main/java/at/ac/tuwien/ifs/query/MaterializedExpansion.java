@@ -0,0 +1,171 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The merged postings of one expansion (main term + weighted similar terms) in one segment:
+ * <ul>
+ * <li>doc ids: every doc that contains the main term or a similar term</li>
+ * <li>freqs: weighted freq sum per doc (same as <code>{@link AugmentedTermScorer#exactFreq()}</code>)</li>
+ * <li>length deltas: (1 - weight) * freq sum of the similar terms per doc (same as the ET <code>{@link LeafReaderOverride}</code>)</li>
+ * <li>the extended model statistics of the segment</li>
+ * </ul>
+ * All values are summed in the same order as the scorer, the statistics and the length override, so a materialized
+ * expansion scores exactly like the postings it was built from.
+ */
+final class MaterializedExpansion implements Accountable {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(MaterializedExpansion.class) +
+            RamUsageEstimator.shallowSizeOfInstance(ExtendedStatistics.class);
+
+    final int[] docs;
+    final float[] freqs;
+    final float[] lengthDeltas;
+    final ExtendedStatistics statistics;
+
+    private MaterializedExpansion(int[] docs, float[] freqs, float[] lengthDeltas, ExtendedStatistics statistics) {
+        this.docs = docs;
+        this.freqs = freqs;
+        this.lengthDeltas = lengthDeltas;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Walks the postings (positioned before their first doc, the main term at index 0 must not be null)
+     *
+     * @param postings main term (index 0, weight 1) + similar terms, the first size entries are used
+     * @param weights the weights of the postings (same index)
+     */
+    static MaterializedExpansion build(PostingsEnum[] postings, float[] weights, int size, int maxDoc) throws IOException {
+        MultiDocIdSetIterator it = new MultiDocIdSetIterator(postings, size);
+
+        int capacity = (int) Math.max(1, Math.min(maxDoc, it.cost()));
+        int[] docs = new int[capacity];
+        float[] freqs = new float[capacity];
+        float[] lengthDeltas = new float[capacity];
+
+        int count = 0;
+        double weightedSimilarTermFreqSum = 0;
+        double oneMinusWeightedSimilarTermFreqSum = 0;
+
+        int doc;
+        while ((doc = it.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            float freq = 0;
+            float lengthDelta = 0;
+            for (int i = 0; i < size; i++) {
+                if (postings[i].docID() == doc) {
+                    int termFreq = postings[i].freq();
+                    freq += termFreq * weights[i];
+                    if (i > 0) {
+                        lengthDelta += (1 - weights[i]) * termFreq;
+                        weightedSimilarTermFreqSum += (double) weights[i] * termFreq;
+                        oneMinusWeightedSimilarTermFreqSum += (double) (1 - weights[i]) * termFreq;
+                    }
+                }
+            }
+
+            if (count == docs.length) {
+                docs = ArrayUtil.grow(docs, count + 1);
+                freqs = ArrayUtil.grow(freqs, count + 1);
+                lengthDeltas = ArrayUtil.grow(lengthDeltas, count + 1);
+            }
+            docs[count] = doc;
+            freqs[count] = freq;
+            lengthDeltas[count] = lengthDelta;
+            count++;
+        }
+
+        return new MaterializedExpansion(
+                docs.length == count ? docs : Arrays.copyOf(docs, count),
+                freqs.length == count ? freqs : Arrays.copyOf(freqs, count),
+                lengthDeltas.length == count ? lengthDeltas : Arrays.copyOf(lengthDeltas, count),
+                new ExtendedStatistics(count, weightedSimilarTermFreqSum, oneMinusWeightedSimilarTermFreqSum));
+    }
+
+    /**
+     * A new iterator over the docs
+     */
+    Postings postings() {
+        return new Postings();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(docs) + RamUsageEstimator.sizeOf(freqs) +
+                RamUsageEstimator.sizeOf(lengthDeltas);
+    }
+
+    /**
+     * The heap usage of a materialized expansion with the given number of docs (before it is built)
+     */
+    static long ramBytesUsed(long docCount) {
+        return BASE_RAM_BYTES_USED + 3 * RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + Integer.BYTES * docCount);
+    }
+
+    /**
+     * Iterator over the materialized docs, gives the weighted freq & length delta of the current doc
+     */
+    final class Postings extends DocIdSetIterator {
+
+        private int index = -1;
+        private int doc = -1;
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            index++;
+            return doc = index < docs.length ? docs[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int advance(int target) {
+            // galloping search from the current position
+            int low = index + 1;
+            int step = 1;
+            int high = low;
+            while (high < docs.length && docs[high] < target) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, docs.length - 1);
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (docs[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            index = low;
+            return doc = index < docs.length ? docs[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        public long cost() {
+            return docs.length;
+        }
+
+        float freq() {
+            return freqs[index];
+        }
+
+        /**
+         * Length delta of the doc, if it is the current doc (the similarity reads the norm of the scored doc)
+         */
+        float lengthDelta(int docID) {
+            return docID == doc ? lengthDeltas[index] : 0;
+        }
+    }
+}
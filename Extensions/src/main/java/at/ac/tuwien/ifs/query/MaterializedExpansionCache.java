@@ -0,0 +1,215 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive materialization of hot expansions: an expansion (main term + the used similar terms with their weights),
+ * that is requested at least minRequests times, is merged once per segment core into a
+ * <code>{@link MaterializedExpansion}</code> (doc ids + weighted freqs + ET length deltas + ET statistics).
+ * Later queries with the same expansion read the single merged list instead of merging all postings again and
+ * the extended model statistics of a materialized segment are not scanned again.
+ *
+ * The lists are kept in a <code>{@link CoreCache}</code>, bounded by their (estimated) heap usage. A list, that is
+ * too large for the cache (estimated from the document frequencies before it is built), is never built and a list,
+ * that turned out too large after the build, is not built again. The key contains
+ * the terms & weights, so a changed expansion never reads a stale list - <code>{@link #invalidate()}</code> (e.g. after
+ * the expansion model was re-loaded) frees the lists of the old expansions and resets the request counts.
+ */
+public class MaterializedExpansionCache implements Accountable {
+
+    /**
+     * Expansion of a query (after the budget), same terms in another order are another expansion (the sums of the
+     * scores depend on the order)
+     */
+    static final class Expansion {
+        final Term[] terms;
+        final float[] weights;
+        final int hash;
+
+        /**
+         * @param terms main term (index 0) + similar terms
+         * @param weights weights of the terms (same index)
+         */
+        Expansion(Term[] terms, float[] weights) {
+            this.terms = terms;
+            this.weights = weights;
+            this.hash = 31 * Arrays.hashCode(terms) + Arrays.hashCode(weights);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Expansion)) {
+                return false;
+            }
+            Expansion otherExpansion = (Expansion) other;
+            return Arrays.equals(terms, otherExpansion.terms) && Arrays.equals(weights, otherExpansion.weights);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Number of expansions, whose requests are counted (least recently requested are dropped first)
+     */
+    static final int TRACKED_EXPANSIONS = 10000;
+
+    private final int minRequests;
+    private final long maxRamBytes;
+
+    private final CoreCache<Expansion, MaterializedExpansion> cache;
+
+    // expansions that are too large for the cache in a segment (not built again)
+    private final CoreCache<Expansion, Boolean> rejected = new CoreCache<>(TRACKED_EXPANSIONS, tooLarge -> 1);
+
+    /**
+     * Request count of an expansion, stamped with its last request (approximate order, no lock)
+     */
+    private static final class Requests {
+        final AtomicInteger count = new AtomicInteger();
+        volatile long lastRequested;
+    }
+
+    private final ConcurrentHashMap<Expansion, Requests> requests = new ConcurrentHashMap<>();
+
+    /**
+     * @param minRequests an expansion is materialized, when it is requested at least this often
+     * @param maxRamBytes upper bound of the heap used by the materialized lists
+     */
+    public MaterializedExpansionCache(int minRequests, long maxRamBytes) {
+        this.minRequests = minRequests;
+        this.maxRamBytes = maxRamBytes;
+        this.cache = new CoreCache<>(maxRamBytes, materialized -> materialized.ramBytesUsed() + CoreCache.ENTRY_OVERHEAD);
+    }
+
+    /**
+     * Counts a request of the expansion (once per query), returns true if it is hot (= materialized)
+     */
+    boolean request(Expansion expansion) {
+        Requests counter = requests.computeIfAbsent(expansion, e -> new Requests());
+        counter.lastRequested = System.nanoTime();
+        int count = counter.count.incrementAndGet();
+
+        if (requests.size() > TRACKED_EXPANSIONS + TRACKED_EXPANSIONS / 16) {
+            dropLeastRecentlyRequested();
+        }
+
+        return count >= minRequests;
+    }
+
+    /**
+     * Drops the counts of the least recently requested expansions down to TRACKED_EXPANSIONS (in a batch, so the
+     * sort is amortized over the following requests)
+     */
+    private synchronized void dropLeastRecentlyRequested() {
+        if (requests.size() <= TRACKED_EXPANSIONS) {
+            return;
+        }
+
+        // the stamps are copied, they change during the sort
+        List<Map.Entry<Expansion, Long>> entries = new ArrayList<>(requests.size());
+        for (Map.Entry<Expansion, Requests> entry : requests.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().lastRequested));
+        }
+        entries.sort(Map.Entry.comparingByValue());
+
+        for (int i = 0; i < entries.size() && requests.size() > TRACKED_EXPANSIONS; i++) {
+            requests.remove(entries.get(i).getKey());
+        }
+    }
+
+    /**
+     * Returns the materialized list of the expansion in the segment or null
+     */
+    MaterializedExpansion get(LeafReader reader, Expansion expansion) {
+        return cache.get(reader, expansion);
+    }
+
+    /**
+     * Returns the materialized list of the expansion in the segment, builds it from the postings, if it is missing
+     * (only one caller builds it, concurrent callers wait for it). Returns null without reading the postings, if the
+     * list is too large for the cache - estimated from the document frequencies of the terms before it is built,
+     * or already rejected after a build.
+     *
+     * @param postings main term (index 0, weight 1) + similar terms, the first size entries are used
+     * @param weights the weights of the postings (same index)
+     */
+    MaterializedExpansion materialize(LeafReader reader, Expansion expansion, PostingsEnum[] postings, float[] weights,
+                                      int size) throws IOException {
+        if (rejected.get(reader, expansion) != null) {
+            return null;
+        }
+
+        // the list contains at least every doc of the most frequent term
+        long minDocs = 0;
+        for (int i = 0; i < size; i++) {
+            minDocs = Math.max(minDocs, postings[i].cost());
+        }
+        if (!cache.fits(MaterializedExpansion.ramBytesUsed(minDocs) + CoreCache.ENTRY_OVERHEAD)) {
+            rejected.put(reader, expansion, Boolean.TRUE);
+            return null;
+        }
+
+        return cache.getOrLoad(reader, expansion, () -> {
+            MaterializedExpansion materialized = MaterializedExpansion.build(postings, weights, size, reader.maxDoc());
+            if (!cache.fits(materialized.ramBytesUsed() + CoreCache.ENTRY_OVERHEAD)) {
+                // used by the current queries, but not built again
+                rejected.put(reader, expansion, Boolean.TRUE);
+            }
+            return materialized;
+        });
+    }
+
+    /**
+     * Removes all lists and request counts (e.g. the expansion model changed -> the old expansions are not requested anymore)
+     */
+    public void invalidate() {
+        requests.clear();
+        cache.clear();
+        rejected.clear();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return cache.sizeOfValues() + RamUsageEstimator.shallowSizeOf(this);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Number of segment expansions, that are too large for the cache
+     */
+    public int getRejected() {
+        return rejected.size();
+    }
+
+    @Override
+    public String toString() {
+        return "MaterializedExpansionCache(minRequests=" + minRequests + ", maxRamBytes=" + maxRamBytes + ")";
+    }
+}
@@ -0,0 +1,58 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+
+/**
+ * Scores the documents of a <code>{@link MaterializedExpansion}</code> - like the <code>{@link AugmentedTermScorer}</code>,
+ * but the weighted frequency sums are read from the merged list instead of summed from all postings.
+ */
+class MaterializedExpansionScorer extends Scorer {
+
+    private final MaterializedExpansion.Postings postings;
+    private final Similarity.SimScorer docScorer;
+
+    MaterializedExpansionScorer(Weight weight, MaterializedExpansion.Postings postings, Similarity.SimScorer docScorer) {
+        super(weight);
+        this.postings = postings;
+        this.docScorer = docScorer;
+    }
+
+    @Override
+    public int docID() {
+        return postings.docID();
+    }
+
+    /**
+     * Attention (!!) this is a rounded frequency sum, use <code>{@link #exactFreq()}</code> for the exact frequency
+     */
+    @Override
+    public int freq() throws IOException {
+        return Math.round(exactFreq());
+    }
+
+    /**
+     * Returns the materialized sum of all weighted frequencies for the current <code>{@link #docID()}</code>
+     */
+    public float exactFreq() {
+        return postings.freq();
+    }
+
+    @Override
+    public DocIdSetIterator iterator() {
+        return postings;
+    }
+
+    @Override
+    public float score() throws IOException {
+        assert docID() != DocIdSetIterator.NO_MORE_DOCS;
+        return docScorer.score(docID(), exactFreq());
+    }
+
+    @Override
+    public String toString() { return "materializedScorer(" + weight + ")"; }
+}
@@ -15,17 +15,30 @@ import java.io.IOException;
  * <remarks>
  * This iterator, does nothing more with the given postings enumerations than to iterate through them.
  * The iterator only prepares the docId for the <code>{@link AugmentedTermScorer}</code>. The scorer class utilizes
- * the frequency + weight information of the <code>{@link PostingsEnumWeightTuple}</code> data structure.
+ * the frequency + weight information (parallel arrays of postings and weights, no per document allocations).
  * </remarks>
  */
 public class MultiDocIdSetIterator extends DocIdSetIterator {
 
     private int currentDocId = -1;
 
-    private PostingsEnumWeightTuple[] enumWeightTuples;
+    private final PostingsEnum[] postings;
+    private final int size;
 
     public MultiDocIdSetIterator(PostingsEnumWeightTuple[] enumWeightTuples) {
-        this.enumWeightTuples = enumWeightTuples;
+        this.postings = new PostingsEnum[enumWeightTuples.length];
+        for (int i = 0; i < enumWeightTuples.length; i++) {
+            this.postings[i] = enumWeightTuples[i].postingsEnum;
+        }
+        this.size = postings.length;
+    }
+
+    /**
+     * @param postings only the first <code>size</code> entries are iterated (must not be null)
+     */
+    public MultiDocIdSetIterator(PostingsEnum[] postings, int size) {
+        this.postings = postings;
+        this.size = size;
     }
 
     /**
@@ -64,8 +77,9 @@ public class MultiDocIdSetIterator extends DocIdSetIterator {
         //
         int smallestNextDocId = NO_MORE_DOCS;
 
-        for (PostingsEnumWeightTuple enumWeightTuple : enumWeightTuples) {
-            int id = enumWeightTuple.postingsEnum.docID();
+        for (int i = 0; i < size; i++) {
+            PostingsEnum postingsEnum = postings[i];
+            int id = postingsEnum.docID();
 
             if(id == NO_MORE_DOCS){
                 continue;
@@ -77,7 +91,7 @@ public class MultiDocIdSetIterator extends DocIdSetIterator {
             // the smallest one right now, but will eventually be picked up in a future iteration by the next if
             // when the other docs overtook it.
             if(id == currentDocId){
-                id = enumWeightTuple.postingsEnum.nextDoc();
+                id = postingsEnum.nextDoc();
                 if(id == NO_MORE_DOCS){
                     continue;
                 }
@@ -128,7 +142,25 @@ public class MultiDocIdSetIterator extends DocIdSetIterator {
      */
     @Override
     public int advance(int target) throws IOException {
-        return slowAdvance(target);
+
+        // move every iterator behind the target to it (skip data), the smallest doc id is the new current doc
+        int smallestDocId = NO_MORE_DOCS;
+
+        for (int i = 0; i < size; i++) {
+            PostingsEnum postingsEnum = postings[i];
+            int id = postingsEnum.docID();
+
+            if(id < target){
+                id = postingsEnum.advance(target);
+            }
+            if(id < smallestDocId){
+                smallestDocId = id;
+            }
+        }
+
+        currentDocId = smallestDocId;
+
+        return currentDocId;
     }
 
     /**
@@ -141,8 +173,8 @@ public class MultiDocIdSetIterator extends DocIdSetIterator {
     @Override
     public long cost() {
         long sum = 0;
-        for (PostingsEnumWeightTuple enumWeightTuple : enumWeightTuples) {
-            sum += enumWeightTuple.postingsEnum.cost();
+        for (int i = 0; i < size; i++) {
+            sum += postings[i].cost();
         }
         return sum;
     }
@@ -0,0 +1,96 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Incremental, exact <code>{@link DocumentSetCounter}</code> for near-real-time indices: the document set count of
+ * an expansion (main + similar terms) is kept per segment core (in a <code>{@link CoreCache}</code>). After a reopen
+ * only the new segments are counted, the partials of unchanged segments are re-used and the partials of merged away
+ * segments are dropped when their core is closed.
+ *
+ * The other parts of the extended model statistics (weighted total term freqs, collection length delta) come from
+ * the term contexts, that are built for every query (like for the generalized model method).
+ *
+ * The count does not depend on the weights or the order of the terms, so expansions with the same terms share
+ * their partials. New partials are counted with the bitmaps of a <code>{@link TermDocSetCache}</code> (if given)
+ * or directly from the postings. The number of partials is bounded, the least recently used are evicted first.
+ */
+public class SegmentDocumentSetCache implements DocumentSetCounter {
+
+    private final int maxEntries;
+    private final TermDocSetCache bitmaps;
+
+    // key: the sorted terms
+    private final CoreCache<List<Term>, Long> partials;
+
+    /**
+     * @param maxEntries max. number of per segment partials (a partial is a few bytes + the terms)
+     * @param bitmaps used to count new partials, may be null (= postings)
+     */
+    public SegmentDocumentSetCache(int maxEntries, TermDocSetCache bitmaps) {
+        this.maxEntries = maxEntries;
+        this.bitmaps = bitmaps;
+        this.partials = new CoreCache<>(maxEntries, partial -> 1);
+    }
+
+    @Override
+    public long count(IndexSearcher searcher, Term[] terms, TermContext[] states) throws IOException {
+        Term[] sorted = terms.clone();
+        Arrays.sort(sorted);
+        List<Term> key = Arrays.asList(sorted);
+
+        long count = 0;
+        for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+            if (!inLeaf(leaf, states)) {
+                continue;
+            }
+
+            Long partial = partials.get(leaf.reader(), key);
+            if (partial == null) {
+                partial = TermDocSetCache.countLeaf(leaf, terms, states, bitmaps);
+                partials.put(leaf.reader(), key, partial);
+            }
+            count += partial;
+        }
+        return count;
+    }
+
+    /**
+     * False, if the term contexts show that none of the terms exist in the segment (nothing to count or cache)
+     */
+    private static boolean inLeaf(LeafReaderContext leaf, TermContext[] states) {
+        if (states == null) {
+            return true;
+        }
+        for (TermContext state : states) {
+            if (state == null || state.get(leaf.ord) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return partials.size();
+    }
+
+    public long getHits() {
+        return partials.getHits();
+    }
+
+    public long getMisses() {
+        return partials.getMisses();
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentDocumentSetCache(maxEntries=" + maxEntries + ", bitmaps=" + bitmaps + ")";
+    }
+}
@@ -0,0 +1,267 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Builds the <code>{@link TermContext}</code>s of the main term and the similar terms of an
+ * <code>{@link AugmentedTermQuery}</code>, either serial or in parallel
+ * on an executor:
+ *
+ * <ul>
+ * <li><code>Serial</code> - leaf by leaf on the calling thread</li>
+ * <li><code>PerTerm</code> - one task per term, that seeks the term in all leaves</li>
+ * <li><code>PerLeaf</code> - one task per leaf</li>
+ * </ul>
+ *
+ * Per leaf, the terms are sorted (by field & bytes) and resolved with one TermsEnum per field, that moves forward
+ * through the terms dictionary (the block tree re-uses the already loaded blocks of the previous seek).
+ *
+ * If a <code>{@link TermContextCache}</code> is set, only terms that are not cached for the current reader are
+ * resolved (and put into the cache afterwards).
+ *
+ * The calling thread runs the first task itself and waits for the others. Tasks that are rejected by the executor
+ * are run on the calling thread as well. The results are registered in leaf order, so all modes produce the same
+ * term contexts. The builder is thread safe and not part of the query equality.
+ */
+public final class TermContextBuilder {
+
+    public enum Mode {
+        Serial,
+        PerTerm,
+        PerLeaf
+    }
+
+    private static final TermContextBuilder serial = new TermContextBuilder(Mode.Serial, null);
+
+    private final Mode mode;
+    private final Executor executor;
+    private final TermContextCache cache;
+
+    /**
+     * @param executor runs the tasks of the parallel modes (may be null for Mode.Serial)
+     */
+    public TermContextBuilder(Mode mode, Executor executor) {
+        this(mode, executor, null);
+    }
+
+    /**
+     * @param executor runs the tasks of the parallel modes (may be null for Mode.Serial)
+     * @param cache cross-query cache of term contexts (may be null)
+     */
+    public TermContextBuilder(Mode mode, Executor executor, TermContextCache cache) {
+        if (mode != Mode.Serial && executor == null) {
+            throw new IllegalArgumentException("The parallel mode: " + mode + " needs an executor");
+        }
+        this.mode = mode;
+        this.executor = executor;
+        this.cache = cache;
+    }
+
+    /**
+     * Returns a builder with the same mode & executor, that uses the given cache
+     */
+    public TermContextBuilder withCache(TermContextCache cache) {
+        return new TermContextBuilder(mode, executor, cache);
+    }
+
+    public static TermContextBuilder serial() {
+        return serial;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Builds the term contexts for the terms (same index in the output)
+     */
+    public TermContext[] build(IndexReaderContext context, Term[] terms) throws IOException {
+        if (cache == null) {
+            return buildUncached(context, terms);
+        }
+
+        TermContext[] output = new TermContext[terms.length];
+        List<Integer> missing = new ArrayList<>();
+
+        for (int i = 0; i < terms.length; i++) {
+            TermContext cached = cache.get(context, terms[i]);
+            if (cached != null) {
+                output[i] = cached;
+            } else {
+                missing.add(i);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Term[] missingTerms = new Term[missing.size()];
+            for (int i = 0; i < missingTerms.length; i++) {
+                missingTerms[i] = terms[missing.get(i)];
+            }
+
+            TermContext[] built = buildUncached(context, missingTerms);
+
+            for (int i = 0; i < missingTerms.length; i++) {
+                output[missing.get(i)] = built[i];
+                cache.put(missingTerms[i], built[i]);
+            }
+        }
+        return output;
+    }
+
+    private TermContext[] buildUncached(IndexReaderContext context, Term[] terms) throws IOException {
+        TermContext[] output = new TermContext[terms.length];
+        if (terms.length == 0) {
+            return output;
+        }
+
+        if (mode == Mode.PerTerm && terms.length > 1) {
+            List<FutureTask<TermContext>> tasks = new ArrayList<>(terms.length);
+            for (Term term : terms) {
+                tasks.add(new FutureTask<>(() -> TermContext.build(context, term)));
+            }
+            run(tasks);
+            for (int i = 0; i < terms.length; i++) {
+                output[i] = get(tasks.get(i));
+            }
+            return output;
+        }
+
+        int[] order = sortedOrder(terms);
+        List<LeafReaderContext> leaves = context.leaves();
+
+        for (int i = 0; i < terms.length; i++) {
+            output[i] = new TermContext(context);
+        }
+
+        if (mode == Mode.PerLeaf && leaves.size() > 1) {
+
+            // collect the states of all terms per leaf, register them in leaf order afterwards
+            List<FutureTask<LeafStates>> tasks = new ArrayList<>(leaves.size());
+            for (LeafReaderContext leaf : leaves) {
+                tasks.add(new FutureTask<>(() -> seekAll(leaf, terms, order)));
+            }
+            run(tasks);
+            for (int l = 0; l < leaves.size(); l++) {
+                register(output, get(tasks.get(l)), leaves.get(l).ord);
+            }
+        } else {
+            for (LeafReaderContext leaf : leaves) {
+                register(output, seekAll(leaf, terms, order), leaf.ord);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the indices of the terms in sorted order (field, bytes)
+     */
+    static int[] sortedOrder(Term[] terms) {
+        Integer[] order = new Integer[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> terms[a].compareTo(terms[b]));
+
+        int[] output = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            output[i] = order[i];
+        }
+        return output;
+    }
+
+    private static void register(TermContext[] output, LeafStates states, int ord) {
+        for (int i = 0; i < output.length; i++) {
+            if (states.states[i] != null) {
+                output[i].register(states.states[i], ord, states.docFreqs[i], states.totalTermFreqs[i]);
+            }
+        }
+    }
+
+    /**
+     * Seeks all terms in one leaf (in the given order), the TermsEnum is re-used for terms of the same field
+     */
+    static LeafStates seekAll(LeafReaderContext leaf, Term[] terms, int[] order) throws IOException {
+        LeafStates output = new LeafStates(terms.length);
+
+        String field = null;
+        TermsEnum termsEnum = null;
+
+        for (int i : order) {
+            if (!terms[i].field().equals(field)) {
+                field = terms[i].field();
+                Terms fieldTerms = leaf.reader().terms(field);
+                termsEnum = fieldTerms == null ? null : fieldTerms.iterator();
+            }
+            if (termsEnum != null && termsEnum.seekExact(terms[i].bytes())) {
+                output.states[i] = termsEnum.termState();
+                output.docFreqs[i] = termsEnum.docFreq();
+                output.totalTermFreqs[i] = termsEnum.totalTermFreq();
+            }
+        }
+        return output;
+    }
+
+    private <T> void run(List<FutureTask<T>> tasks) {
+        for (int i = 1; i < tasks.size(); i++) {
+            try {
+                executor.execute(tasks.get(i));
+            } catch (RejectedExecutionException e) {
+                tasks.get(i).run();
+            }
+        }
+        tasks.get(0).run();
+    }
+
+    private static <T> T get(FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "termContexts=" + mode + (cache != null ? "(cached)" : "");
+    }
+
+    /**
+     * Term states of one leaf (same index as the terms, null if the term is not in the leaf)
+     */
+    static final class LeafStates {
+        final TermState[] states;
+        final int[] docFreqs;
+        final long[] totalTermFreqs;
+
+        LeafStates(int size) {
+            states = new TermState[size];
+            docFreqs = new int[size];
+            totalTermFreqs = new long[size];
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+
+/**
+ * Cache of resolved term contexts, that is used by the <code>{@link TermContextBuilder}</code> across queries
+ *
+ * A cache should be scoped to one searcher (and dropped when the index is re-opened). Entries that were built for a
+ * different top-level reader must not be returned (checked with <code>{@link TermContext#wasBuiltFor}</code>).
+ * Implementations must be thread safe.
+ */
+public interface TermContextCache {
+
+    /**
+     * Returns the cached context of the term, if it was built for the given top-level reader context, otherwise null
+     */
+    TermContext get(IndexReaderContext context, Term term);
+
+    void put(Term term, TermContext termContext);
+}
@@ -0,0 +1,178 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.RoaringDocIdSet;
+
+import java.io.IOException;
+
+/**
+ * Exact <code>{@link DocumentSetCounter}</code>: the document set of every term with a (per segment) document
+ * frequency above a threshold is cached as compressed bitmap (<code>{@link RoaringDocIdSet}</code>) per segment core.
+ * The union of a query is built with bitmap ORs into one <code>{@link FixedBitSet}</code> per segment, only the
+ * postings of rare terms are decoded.
+ *
+ * The bitmaps are kept in a <code>{@link CoreCache}</code>, bounded by their (estimated) heap usage.
+ */
+public class TermDocSetCache implements DocumentSetCounter, Accountable {
+
+    private final int minDocFreq;
+    private final long maxRamBytes;
+
+    private final CoreCache<Term, RoaringDocIdSet> cache;
+
+    /**
+     * @param minDocFreq terms with a lower document frequency in a segment are read from the postings (not cached)
+     * @param maxRamBytes upper bound of the heap used by the cached bitmaps
+     */
+    public TermDocSetCache(int minDocFreq, long maxRamBytes) {
+        this.minDocFreq = minDocFreq;
+        this.maxRamBytes = maxRamBytes;
+        this.cache = new CoreCache<>(maxRamBytes, docs -> docs.ramBytesUsed() + CoreCache.ENTRY_OVERHEAD);
+    }
+
+    @Override
+    public long count(IndexSearcher searcher, Term[] terms, TermContext[] states) throws IOException {
+        long count = 0;
+        for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+            count += count(leaf, terms, states);
+        }
+        return count;
+    }
+
+    /**
+     * Exact count without a cache, all postings of the terms are read
+     *
+     * @param states may be null (or contain null), then the terms are looked up in the terms dictionary
+     */
+    public static long countPostings(IndexSearcher searcher, Term[] terms, TermContext[] states) throws IOException {
+        long count = 0;
+        for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+            count += countLeaf(leaf, terms, states, null);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the documents of the segment, that contain at least one of the terms (deleted documents included,
+     * like the postings)
+     */
+    long count(LeafReaderContext leaf, Term[] terms, TermContext[] states) throws IOException {
+        return countLeaf(leaf, terms, states, this);
+    }
+
+    /**
+     * Counts the documents of the segment, that contain at least one of the terms - with the bitmaps of the cache
+     * or (if null) only from the postings
+     *
+     * @param states may be null (or contain null), then the terms are looked up in the terms dictionary
+     */
+    static long countLeaf(LeafReaderContext leaf, Term[] terms, TermContext[] states, TermDocSetCache cache) throws IOException {
+        FixedBitSet union = null;
+
+        String field = null;
+        TermsEnum termsEnum = null;
+
+        for (int i = 0; i < terms.length; i++) {
+            Term term = terms[i];
+            if (!term.field().equals(field)) {
+                field = term.field();
+                Terms fieldTerms = leaf.reader().terms(field);
+                termsEnum = fieldTerms == null ? null : fieldTerms.iterator();
+            }
+            if (termsEnum == null) {
+                continue;
+            }
+
+            TermState state = null;
+            if (states != null && states[i] != null) {
+                state = states[i].get(leaf.ord);
+                if (state == null) {
+                    continue; // not in this segment
+                }
+            }
+
+            DocIdSetIterator docs;
+            if (cache != null) {
+                docs = cache.docs(leaf.reader(), term, termsEnum, state);
+            } else if (state != null) {
+                termsEnum.seekExact(term.bytes(), state);
+                docs = termsEnum.postings(null, PostingsEnum.NONE);
+            } else {
+                docs = termsEnum.seekExact(term.bytes()) ? termsEnum.postings(null, PostingsEnum.NONE) : null;
+            }
+            if (docs == null) {
+                continue;
+            }
+
+            if (union == null) {
+                union = new FixedBitSet(leaf.reader().maxDoc());
+            }
+            union.or(docs);
+        }
+
+        return union == null ? 0 : union.cardinality();
+    }
+
+    /**
+     * Returns the docs of the term in the segment, from the cache or from the postings (null if the term does not exist)
+     */
+    private DocIdSetIterator docs(LeafReader reader, Term term, TermsEnum termsEnum, TermState state) throws IOException {
+        RoaringDocIdSet cached = cache.get(reader, term);
+        if (cached != null) {
+            return cached.iterator();
+        }
+
+        if (state != null) {
+            termsEnum.seekExact(term.bytes(), state);
+        } else if (!termsEnum.seekExact(term.bytes())) {
+            return null;
+        }
+
+        PostingsEnum postings = termsEnum.postings(null, PostingsEnum.NONE);
+        if (termsEnum.docFreq() < minDocFreq) {
+            return postings;
+        }
+
+        RoaringDocIdSet docs = new RoaringDocIdSet.Builder(reader.maxDoc()).add(postings).build();
+        cache.put(reader, term, docs);
+        return docs.iterator();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return cache.sizeOfValues() + RamUsageEstimator.shallowSizeOf(this);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    public int getMinDocFreq() {
+        return minDocFreq;
+    }
+
+    @Override
+    public String toString() {
+        return "TermDocSetCache(minDocFreq=" + minDocFreq + ", maxRamBytes=" + maxRamBytes + ")";
+    }
+}
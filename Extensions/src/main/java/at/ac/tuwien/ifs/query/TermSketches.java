@@ -0,0 +1,252 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sidecar of an index, contains a <code>{@link HyperLogLog}</code> sketch of the document set of every term with a
+ * document frequency above a threshold. The approximate extended model method merges the sketches of the main term
+ * and the similar terms to estimate the union document frequency, instead of walking all postings
+ * (see <code>{@link ExtendedStatistics#count}</code>).
+ *
+ * The sketches hash the global doc ids of one index commit, they can only be used with a reader of that commit
+ * (see <code>{@link #isBuiltFor(IndexReader)}</code>).
+ *
+ * File format (written by <code>{@link #write(DirectoryReader, int, int, Path)}</code>):
+ * <pre>
+ * header, long reader version, int maxDoc, vint precision, vint minDocFreq, vint field count,
+ * fields: string field, vint term count, (vint length, term bytes, registers[2^precision])[term count]
+ * footer
+ * </pre>
+ */
+public class TermSketches implements DocumentSetCounter {
+
+    public static final String EXTENSION = ".hll";
+
+    private static final String codec = "TermSketches";
+    private static final int version = 0;
+
+    private final long readerVersion;
+    private final int maxDoc;
+    private final int precision;
+    private final int minDocFreq;
+    private final Map<Term, HyperLogLog> sketches;
+
+    private TermSketches(long readerVersion, int maxDoc, int precision, int minDocFreq, Map<Term, HyperLogLog> sketches) {
+        this.readerVersion = readerVersion;
+        this.maxDoc = maxDoc;
+        this.precision = precision;
+        this.minDocFreq = minDocFreq;
+        this.sketches = sketches;
+    }
+
+    /**
+     * Builds the sketches of all terms (of all fields) with a document frequency >= minDocFreq of the given reader
+     * and writes them to the output file (under a temporary name, renamed when complete)
+     */
+    public static void write(DirectoryReader reader, int minDocFreq, int precision, Path output) throws IOException {
+
+        String fileName = output.getFileName().toString();
+        String tempName = fileName + ".tmp";
+
+        try (Directory directory = FSDirectory.open(output.toAbsolutePath().getParent())) {
+            Files.deleteIfExists(output.resolveSibling(tempName));
+
+            try (IndexOutput out = directory.createOutput(tempName, IOContext.DEFAULT)) {
+                CodecUtil.writeHeader(out, codec, version);
+                out.writeLong(reader.getVersion());
+                out.writeInt(reader.maxDoc());
+                out.writeVInt(precision);
+                out.writeVInt(minDocFreq);
+
+                Fields fields = MultiFields.getFields(reader);
+                List<String> fieldNames = new ArrayList<>();
+                if (fields != null) {
+                    for (String field : fields) {
+                        fieldNames.add(field);
+                    }
+                }
+                out.writeVInt(fieldNames.size());
+
+                for (String field : fieldNames) {
+                    out.writeString(field);
+
+                    // the term count is only known afterwards -> collect the terms of the field first
+                    List<BytesRef> terms = new ArrayList<>();
+                    List<HyperLogLog> fieldSketches = new ArrayList<>();
+
+                    Terms fieldTerms = fields.terms(field);
+                    if (fieldTerms != null) {
+                        TermsEnum termsEnum = fieldTerms.iterator();
+                        PostingsEnum postings = null;
+                        BytesRef term;
+                        while ((term = termsEnum.next()) != null) {
+                            if (termsEnum.docFreq() < minDocFreq) {
+                                continue;
+                            }
+
+                            // multi postings -> global doc ids
+                            HyperLogLog sketch = new HyperLogLog(precision);
+                            postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                            int doc;
+                            while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                                sketch.add(hashDoc(doc));
+                            }
+
+                            terms.add(BytesRef.deepCopyOf(term));
+                            fieldSketches.add(sketch);
+                        }
+                    }
+
+                    out.writeVInt(terms.size());
+                    for (int i = 0; i < terms.size(); i++) {
+                        BytesRef term = terms.get(i);
+                        out.writeVInt(term.length);
+                        out.writeBytes(term.bytes, term.offset, term.length);
+                        fieldSketches.get(i).writeTo(out);
+                    }
+                }
+
+                CodecUtil.writeFooter(out);
+            }
+
+            Files.move(output.resolveSibling(tempName), output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Loads all sketches of the given file into the heap (the checksum is verified)
+     */
+    public static TermSketches load(Path file) throws IOException {
+        try (Directory directory = FSDirectory.open(file.toAbsolutePath().getParent());
+             ChecksumIndexInput in = directory.openChecksumInput(file.getFileName().toString(), IOContext.READONCE)) {
+
+            CodecUtil.checkHeader(in, codec, version, version);
+            long readerVersion = in.readLong();
+            int maxDoc = in.readInt();
+            int precision = in.readVInt();
+            int minDocFreq = in.readVInt();
+
+            Map<Term, HyperLogLog> sketches = new HashMap<>();
+            int fieldCount = in.readVInt();
+            for (int f = 0; f < fieldCount; f++) {
+                String field = in.readString();
+                int termCount = in.readVInt();
+                for (int t = 0; t < termCount; t++) {
+                    byte[] bytes = new byte[in.readVInt()];
+                    in.readBytes(bytes, 0, bytes.length);
+                    sketches.put(new Term(field, new BytesRef(bytes)), HyperLogLog.readFrom(in, precision));
+                }
+            }
+
+            CodecUtil.checkFooter(in);
+
+            return new TermSketches(readerVersion, maxDoc, precision, minDocFreq, sketches);
+        }
+    }
+
+    /**
+     * True, if the sketches were built from the same index commit as the given reader (= same global doc ids)
+     */
+    public boolean isBuiltFor(IndexReader reader) {
+        return reader instanceof DirectoryReader &&
+                ((DirectoryReader) reader).getVersion() == readerVersion &&
+                reader.maxDoc() == maxDoc;
+    }
+
+    /**
+     * Returns the sketch of the term, or null if its document frequency is below the threshold (or it does not exist)
+     */
+    public HyperLogLog get(Term term) {
+        return sketches.get(term);
+    }
+
+    @Override
+    public long count(IndexSearcher searcher, Term[] terms, TermContext[] states) throws IOException {
+        if (!isBuiltFor(searcher.getIndexReader())) {
+            return -1;
+        }
+        return Math.round(estimateUnionDocFreq(searcher.getTopReaderContext(), terms));
+    }
+
+    /**
+     * Estimates the number of documents, that contain at least one of the given terms: the sketches of the terms are
+     * merged, the postings of terms without a sketch (rare terms) are added to the merged sketch
+     */
+    public double estimateUnionDocFreq(IndexReaderContext context, Term[] terms) throws IOException {
+        HyperLogLog union = new HyperLogLog(precision);
+
+        for (Term term : terms) {
+            HyperLogLog sketch = sketches.get(term);
+            if (sketch != null) {
+                union.merge(sketch);
+                continue;
+            }
+
+            PostingsEnum postings = null;
+            for (LeafReaderContext leaf : context.leaves()) {
+                Terms fieldTerms = leaf.reader().terms(term.field());
+                if (fieldTerms == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = fieldTerms.iterator();
+                if (!termsEnum.seekExact(term.bytes())) {
+                    continue;
+                }
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                int doc;
+                while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    union.add(hashDoc(leaf.docBase + doc));
+                }
+            }
+        }
+
+        return union.cardinality();
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public int getMinDocFreq() {
+        return minDocFreq;
+    }
+
+    public int size() {
+        return sketches.size();
+    }
+
+    /**
+     * Hash of a global doc id (offset, so that doc 0 does not hash to 0)
+     */
+    static long hashDoc(int doc) {
+        return HyperLogLog.hash(doc + 0x9E3779B97F4A7C15L);
+    }
+}
@@ -0,0 +1,240 @@
+package at.ac.tuwien.ifs.query;
+
+import at.ac.tuwien.ifs.codecs.TranslationPostingsFormat;
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Generalized translation model on an index-time translation field (see
+ * <code>{@link at.ac.tuwien.ifs.analysis.TranslationTokenFilter}</code>): a single term lookup, the frequency of a
+ * document is the sum of the payload weights of the term (original tokens without payload = 1), which is the
+ * weighted frequency of the <code>{@link AugmentedTermQuery}</code> (GT) with the same expansion.
+ *
+ * The term & collection statistics and the document lengths (norms) are read from the statistics field (the
+ * original field), like GT uses the statistics of the main term. Like the <code>{@link AugmentedTermQuery}</code>,
+ * a segment without the term in the statistics field is skipped.
+ *
+ * If the translation field is written with the <code>{@link TranslationPostingsFormat}</code>, the stored weights are
+ * read instead of the positions & payloads.
+ */
+public class TranslationTermQuery extends Query {
+
+    private final Term term;
+    private final String statisticsField;
+
+    /**
+     * @param term term in the translation field
+     * @param statisticsField field of the statistics & norms, the original field (not the translation field: its
+     *                        statistics & lengths count the similar terms unweighted, or quantized in a weighted field)
+     */
+    public TranslationTermQuery(Term term, String statisticsField) {
+        this.term = Objects.requireNonNull(term);
+        this.statisticsField = Objects.requireNonNull(statisticsField);
+        if (term.field().equals(statisticsField)) {
+            throw new IllegalArgumentException("[TranslationTermQuery] The statistics field must be the original field, not the translation field: " + statisticsField);
+        }
+    }
+
+    public Term getTerm() {
+        return term;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        IndexReaderContext context = searcher.getTopReaderContext();
+
+        Term statisticsTerm = new Term(statisticsField, term.bytes());
+        TermContext termStates = TermContext.build(context, term);
+        TermContext statisticsStates = TermContext.build(context, statisticsTerm);
+
+        return new TranslationTermWeight(searcher, needsScores, termStates, statisticsTerm, statisticsStates);
+    }
+
+    @Override
+    public String toString(String field) {
+        StringBuilder buffer = new StringBuilder();
+        if (!term.field().equals(field)) {
+            buffer.append(term.field()).append(":");
+        }
+        buffer.append(term.text()).append(" (stats: ").append(statisticsField).append(")");
+        return buffer.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) &&
+                term.equals(((TranslationTermQuery) other).term) &&
+                statisticsField.equals(((TranslationTermQuery) other).statisticsField);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * classHash() + term.hashCode()) + statisticsField.hashCode();
+    }
+
+    private class TranslationTermWeight extends Weight {
+
+        private final boolean needsScores;
+        private final Similarity similarity;
+        private final Similarity.SimWeight stats;
+        private final TermContext termStates;
+        private final TermContext statisticsStates;
+
+        TranslationTermWeight(IndexSearcher searcher, boolean needsScores, TermContext termStates,
+                              Term statisticsTerm, TermContext statisticsStates) throws IOException {
+            super(TranslationTermQuery.this);
+            this.needsScores = needsScores;
+            this.similarity = searcher.getSimilarity(needsScores);
+            this.termStates = termStates;
+            this.statisticsStates = statisticsStates;
+
+            CollectionStatistics collectionStats;
+            TermStatistics termStats;
+            if (needsScores) {
+                collectionStats = searcher.collectionStatistics(statisticsField);
+                termStats = searcher.termStatistics(statisticsTerm, statisticsStates);
+            } else {
+                // we do not need the actual stats, use fake stats with docFreq=maxDoc and ttf=-1
+                int maxDoc = searcher.getIndexReader().maxDoc();
+                collectionStats = new CollectionStatistics(statisticsField, maxDoc, -1, -1, -1);
+                termStats = new TermStatistics(term.bytes(), maxDoc, -1);
+            }
+            this.stats = similarity.computeWeight(collectionStats, termStats);
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms) {
+            terms.add(term);
+        }
+
+        @Override
+        public float getValueForNormalization() {
+            return stats.getValueForNormalization();
+        }
+
+        @Override
+        public void normalize(float queryNorm, float boost) {
+            stats.normalize(queryNorm, boost);
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            assert termStates.wasBuiltFor(ReaderUtil.getTopLevelContext(context)) : "The top-reader used to create Weight is not the same as the current reader's top-reader (" + ReaderUtil.getTopLevelContext(context);
+
+            TermState state = termStates.get(context.ord);
+            if (state == null || statisticsStates.get(context.ord) == null) {
+                return null;
+            }
+
+            TermsEnum termsEnum = context.reader().terms(term.field()).iterator();
+            termsEnum.seekExact(term.bytes(), state);
+            // a weighted field (TranslationPostingsFormat) has the sum in the freqs, otherwise the payloads are summed up
+            boolean weighted = TranslationPostingsFormat.isWeighted(context.reader().getFieldInfos().fieldInfo(term.field()));
+            PostingsEnum postings = termsEnum.postings(null,
+                    needsScores ? (weighted ? PostingsEnum.FREQS : PostingsEnum.PAYLOADS) : PostingsEnum.NONE);
+
+            return new TranslationTermScorer(this, postings, similarity.simScorer(stats, context));
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            TranslationTermScorer scorer = (TranslationTermScorer) scorer(context);
+            if (scorer != null && scorer.iterator().advance(doc) == doc) {
+                float freq = scorer.exactFreq();
+                Explanation freqExplanation = Explanation.match(freq, "weightedTermFreq=" + freq);
+                Explanation scoreExplanation = similarity.simScorer(stats, context).explain(doc, freqExplanation);
+                return Explanation.match(
+                        scoreExplanation.getValue(),
+                        "weight(" + getQuery() + " in " + doc + ") [" + similarity.getClass().getSimpleName() + "], result of:",
+                        scoreExplanation);
+            }
+            return Explanation.noMatch("no matching term");
+        }
+
+        @Override
+        public String toString() {
+            return "weight(" + TranslationTermQuery.this + ")";
+        }
+    }
+
+    /**
+     * Sums the payload weights of all positions of the current doc or reads the stored weight
+     */
+    private static class TranslationTermScorer extends Scorer {
+
+        private final PostingsEnum postings;
+        private final TranslationPostingsFormat.WeightedPostingsEnum weightedPostings;
+        private final Similarity.SimScorer docScorer;
+
+        TranslationTermScorer(Weight weight, PostingsEnum postings, Similarity.SimScorer docScorer) {
+            super(weight);
+            this.postings = postings;
+            this.weightedPostings = postings instanceof TranslationPostingsFormat.WeightedPostingsEnum ?
+                    (TranslationPostingsFormat.WeightedPostingsEnum) postings : null;
+            this.docScorer = docScorer;
+        }
+
+        @Override
+        public int docID() {
+            return postings.docID();
+        }
+
+        /**
+         * Attention (!!) this is a rounded weighted frequency, see <code>{@link #exactFreq()}</code>
+         */
+        @Override
+        public int freq() throws IOException {
+            return Math.round(exactFreq());
+        }
+
+        float exactFreq() throws IOException {
+            if (weightedPostings != null) {
+                return weightedPostings.weight();
+            }
+            float sum = 0;
+            for (int i = postings.freq(); i > 0; i--) {
+                postings.nextPosition();
+                BytesRef payload = postings.getPayload();
+                sum += payload == null ? 1 : PayloadHelper.decodeFloat(payload.bytes, payload.offset);
+            }
+            return sum;
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return postings;
+        }
+
+        @Override
+        public float score() throws IOException {
+            assert docID() != DocIdSetIterator.NO_MORE_DOCS;
+            return docScorer.score(docID(), exactFreq());
+        }
+
+        @Override
+        public String toString() {
+            return "scorer(" + weight + ")";
+        }
+    }
+}
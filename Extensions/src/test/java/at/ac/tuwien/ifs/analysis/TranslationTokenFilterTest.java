@@ -0,0 +1,152 @@
+package at.ac.tuwien.ifs.analysis;
+
+import at.ac.tuwien.ifs.api.ApiReturnModel;
+import at.ac.tuwien.ifs.query.AugmentedTermQuery;
+import at.ac.tuwien.ifs.query.RandomWordIndex;
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import at.ac.tuwien.ifs.query.TranslationTermQuery;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockTokenizer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the emitted translation tokens and that the <code>{@link TranslationTermQuery}</code> on the translation field
+ * ranks like the generalized <code>{@link AugmentedTermQuery}</code> on the original field
+ */
+public class TranslationTokenFilterTest extends LuceneTestCase {
+
+    private static final String json = "{" +
+            "\"universe\": [[\"universe\", \"world\", \"infinity\"], [1.0, 0.9, 0.5]]," +
+            "\"space\": [[\"space\", \"universe\"], [1.0, 0.7]]}";
+
+    private static TranslationMap translationMap(float minWeight) throws IOException {
+        return TranslationMap.of(new ObjectMapper().readValue(json, ApiReturnModel.class), minWeight, 10);
+    }
+
+    private static Analyzer translationAnalyzer(TranslationMap map) {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new MockTokenizer(MockTokenizer.WHITESPACE, true);
+                return new TokenStreamComponents(tokenizer, new TranslationTokenFilter(tokenizer, map));
+            }
+        };
+    }
+
+    public void test_tokens() throws IOException {
+
+        // arrange
+        TranslationMap map = translationMap(0f);
+        List<String> terms = new ArrayList<>();
+        List<Integer> posIncs = new ArrayList<>();
+        List<Float> weights = new ArrayList<>();
+
+        // act
+        try (TokenStream stream = translationAnalyzer(map).tokenStream("field", "world bla universe")) {
+            CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+            PayloadAttribute payloadAtt = stream.addAttribute(PayloadAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(termAtt.toString());
+                posIncs.add(posIncAtt.getPositionIncrement());
+                BytesRef payload = payloadAtt.getPayload();
+                weights.add(payload == null ? 1f : PayloadHelper.decodeFloat(payload.bytes, payload.offset));
+            }
+            stream.end();
+        }
+
+        // assert: highest weight first, the main term itself is not translated
+        assertEquals(3, map.size());
+        assertEquals(3, map.getTranslationCount());
+        assertEquals(0, map.getDroppedCount());
+        assertEquals(Arrays.asList("world", "universe", "bla", "universe", "space"), terms);
+        assertEquals(Arrays.asList(1, 0, 1, 1, 0), posIncs);
+        assertEquals(Arrays.asList(1f, .9f, 1f, 1f, .7f), weights);
+    }
+
+    public void test_maxTranslations() throws IOException {
+        String shared = "{\"car\": [[\"auto\"], [0.9]], \"truck\": [[\"auto\"], [0.5]]}";
+
+        TranslationMap map = TranslationMap.of(new ObjectMapper().readValue(shared, ApiReturnModel.class), 0f, 1);
+
+        // "auto" is only translated to the main term with the highest weight, the other one is reported
+        assertEquals(1, map.getTranslationCount());
+        assertEquals(1, map.getDroppedCount());
+        assertEquals("car", new String(map.get("auto".toCharArray(), "auto".length()).terms[0]));
+    }
+
+    public void test_minWeight() throws IOException {
+        TranslationMap map = translationMap(.6f);
+
+        assertEquals(2, map.size());
+        assertEquals(2, map.getTranslationCount());
+        assertNull(map.get("infinity".toCharArray(), "infinity".length()));
+    }
+
+    public void test_sameRankingAsGeneralized() throws IOException {
+
+        // arrange
+        Directory dir = newDirectory();
+        Analyzer plain = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                return new TokenStreamComponents(new MockTokenizer(MockTokenizer.WHITESPACE, true));
+            }
+        };
+        Analyzer analyzer = new PerFieldAnalyzerWrapper(plain,
+                Collections.singletonMap("field_tr", translationAnalyzer(translationMap(0f))));
+
+        IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(analyzer));
+        int segments = 1 + random().nextInt(3);
+        for (int segment = 0; segment < segments; segment++) {
+            RandomWordIndex.addSegment(w, random(), 100, 8, "field", "field_tr");
+        }
+        w.close();
+
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+        s.setSimilarity(new BM25Similarity());
+
+        AugmentedTermQuery augmented = new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized,
+                new Term("field", "universe"), new TermWeightTuple[]{
+                new TermWeightTuple(new Term("field", "world"), .9f),
+                new TermWeightTuple(new Term("field", "infinity"), .5f)});
+
+        // act
+        TopDocs expected = s.search(augmented, 1000);
+        TopDocs actual = s.search(new TranslationTermQuery(new Term("field_tr", "universe"), "field"), 1000);
+
+        // assert
+        RandomWordIndex.assertSameScores(expected, actual, 1e-5f);
+        for (ScoreDoc e : expected.scoreDocs) {
+            assertEquals(e.score, s.explain(new TranslationTermQuery(new Term("field_tr", "universe"), "field"), e.doc).getValue(), 1e-5f);
+        }
+
+        IOUtils.close(r, dir);
+    }
+}
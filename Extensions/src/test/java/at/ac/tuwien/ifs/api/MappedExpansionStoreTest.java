@@ -0,0 +1,198 @@
+package at.ac.tuwien.ifs.api;
+
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.index.Term;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit tests for the <code>{@link MappedExpansionStore}</code>, the named <code>{@link ExpansionModels}</code>
+ * and the <code>{@link PreAnalyzedExpansions}</code>
+ */
+public class MappedExpansionStoreTest {
+
+    private Path directory;
+    private Path jsonFile;
+
+    @Before
+    public void before() throws IOException {
+        directory = Files.createTempDirectory("expansion-models");
+        jsonFile = directory.resolve("we.json");
+        Files.write(jsonFile, ("{\"zebra\": [[\"horse\"], [0.6]]," +
+                               " \"car\": [[\"car\", \"vehicle\", \"auto\"], [1.0, 0.8, 0.75]]," +
+                               " \"\u00fcber\": [[\"over\"], [0.9]]," +
+                               " \"car\": [[\"duplicate\"], [0.1]]," +
+                               " \"apple\": [[], []]}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void after() throws IOException {
+        for (Path file : Files.newDirectoryStream(directory)) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void test_sameResultsAsTheJsonFile() throws IOException {
+
+        // arrange
+        Path binary = directory.resolve("we" + MappedExpansionStore.EXTENSION);
+        MappedExpansionStore.convert(jsonFile, binary);
+
+        String[] queryTerms = {"car", "\u00fcber", "apple", "unknown", "zebra", "a"};
+
+        // act
+        SimilarTermModel[] expected = new SimilarityApiFromFile(jsonFile.toString()).GetSimilarTerms("text", queryTerms);
+        SimilarTermModel[] actual;
+        try (MappedExpansionStore store = new MappedExpansionStore(binary)) {
+            Assert.assertEquals(4, store.size());
+            actual = store.GetSimilarTerms("text", queryTerms);
+        }
+
+        // assert
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i].queryTerm, actual[i].queryTerm);
+            Assert.assertEquals(expected[i].similarTerms.length, actual[i].similarTerms.length);
+            for (int j = 0; j < expected[i].similarTerms.length; j++) {
+                Assert.assertEquals(expected[i].similarTerms[j].term, actual[i].similarTerms[j].term);
+                Assert.assertEquals(expected[i].similarTerms[j].weight, actual[i].similarTerms[j].weight, 0);
+            }
+        }
+        Assert.assertEquals(new Term("text", "vehicle"), actual[0].similarTerms[0].term);
+    }
+
+    @Test
+    public void test_namedModels() throws IOException {
+
+        // arrange
+        Path other = directory.resolve("glove.json");
+        Files.write(other, "{\"car\": [[\"truck\"], [0.7]]}".getBytes(StandardCharsets.UTF_8));
+
+        try (ExpansionModels models = new ExpansionModels("we=" + jsonFile + "; glove=" + other)) {
+
+            // act & assert
+            Assert.assertEquals(new Term("text", "vehicle"), models.get(null).GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+            Assert.assertEquals(new Term("text", "truck"), models.get("glove").GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+
+            // every file is mapped once per instance
+            Assert.assertSame(models.get("we"), models.get(null));
+            Assert.assertTrue(Files.exists(directory.resolve("glove.json" + MappedExpansionStore.EXTENSION)));
+
+            try {
+                models.get("word2vec");
+                Assert.fail("expected an exception for unknown models");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void test_namedModels_reopenChangedFile() throws IOException {
+
+        // arrange
+        ExpansionModels models = new ExpansionModels("we=" + jsonFile, 0);
+        ExpansionModels throttled = new ExpansionModels("we=" + jsonFile, 3600000);
+        ISimilarityApi model = models.get("we");
+        Assert.assertEquals(new Term("text", "vehicle"), model.GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+        Assert.assertEquals(new Term("text", "vehicle"), throttled.get("we").GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+
+        // act: the json file is re-written (newer than the converted binary)
+        Files.write(jsonFile, "{\"car\": [[\"bus\"], [0.5]]}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(jsonFile, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+
+        // assert: converted & mapped again on the next get (the binary carries the time of its json),
+        // not checked before the interval passed
+        Assert.assertEquals(new Term("text", "bus"), models.get("we").GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+        Assert.assertEquals(Files.getLastModifiedTime(jsonFile), Files.getLastModifiedTime(directory.resolve(jsonFile.getFileName() + MappedExpansionStore.EXTENSION)));
+        Assert.assertEquals(new Term("text", "vehicle"), throttled.get("we").GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+        throttled.close();
+
+        models.close();
+        try {
+            model.GetSimilarTerms("text", new String[]{"car"});
+            Assert.fail("expected an exception after close");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_concurrentConversions() throws Exception {
+
+        // arrange
+        Path binary = directory.resolve("concurrent" + MappedExpansionStore.EXTENSION);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> conversions = new ArrayList<>();
+
+        // act: other cores / jvms convert the same file at the same time
+        for (int i = 0; i < 8; i++) {
+            conversions.add(executor.submit(() -> {
+                MappedExpansionStore.convert(jsonFile, binary);
+                return null;
+            }));
+        }
+        for (Future<?> conversion : conversions) {
+            conversion.get();
+        }
+        executor.shutdown();
+
+        // assert: one complete file, no temporary files left
+        try (MappedExpansionStore store = new MappedExpansionStore(binary)) {
+            Assert.assertEquals(new Term("text", "vehicle"), store.GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "concurrent*")) {
+            int count = 0;
+            for (Path file : files) {
+                count++;
+            }
+            Assert.assertEquals(1, count);
+        }
+    }
+
+    @Test
+    public void test_preAnalyzed_mergesCollapsedTerms() throws IOException {
+
+        // arrange
+        Path analyzedJson = directory.resolve("analyzed.json");
+        Files.write(analyzedJson, ("{\"cars\": [[\"cars\", \"car\", \"vehicles\", \"vehicle\", \"the\"], [1.0, 0.95, 0.8, 0.9, 0.5]]," +
+                                   " \"the\": [[\"a\"], [0.9]]," +
+                                   " \"trucks\": [[\"truck\"], [0.9]]}").getBytes(StandardCharsets.UTF_8));
+        Path binary = directory.resolve("analyzed" + MappedExpansionStore.EXTENSION);
+
+        // act
+        PreAnalyzedExpansions.convert(analyzedJson, binary, new EnglishAnalyzer(), "text", "english");
+
+        // assert
+        try (MappedExpansionStore store = new MappedExpansionStore(binary)) {
+            Assert.assertEquals("english", store.getAnalyzerId());
+            Assert.assertEquals(1, store.size()); // stop word & no remaining similar terms are dropped
+
+            SimilarTermModel[] result = store.GetSimilarTerms("text", new String[]{"cars", "trucks"});
+
+            Assert.assertEquals(new Term("text", "car"), result[0].queryTerm);
+            Assert.assertEquals(1, result[0].similarTerms.length);
+            Assert.assertEquals(new Term("text", "vehicl"), result[0].similarTerms[0].term);
+            Assert.assertEquals(0.9f, result[0].similarTerms[0].weight, 0);
+
+            Assert.assertEquals(new Term("text", "trucks"), result[1].queryTerm);
+            Assert.assertEquals(0, result[1].similarTerms.length);
+        }
+    }
+}
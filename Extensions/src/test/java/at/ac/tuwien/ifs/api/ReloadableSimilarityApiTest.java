@@ -0,0 +1,107 @@
+package at.ac.tuwien.ifs.api;
+
+import org.apache.lucene.index.Term;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Unit tests for the version swap of the <code>{@link ReloadableSimilarityApi}</code>
+ */
+public class ReloadableSimilarityApiTest {
+
+    private Path file;
+
+    @Before
+    public void before() throws IOException {
+        file = Files.createTempFile("similar-terms", ".json");
+        write("{\"car\": [[\"car\", \"vehicle\"], [1.0, 0.8]]}", 1000);
+    }
+
+    @After
+    public void after() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private void write(String json, long lastModified) throws IOException {
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+    }
+
+    @Test
+    public void test_reload_oldVersionIsReleasedAfterTheLastReader() throws IOException {
+
+        // arrange
+        ReloadableSimilarityApi api = new ReloadableSimilarityApi(file, 0);
+        ExpansionStore inFlight = api.acquire();
+
+        // act
+        write("{\"car\": [[\"auto\"], [0.9]]}", 2000);
+        api.reload();
+
+        // assert - new lookups see the new version, the running one still reads the old version
+        Assert.assertEquals(new Term("text", "auto"), api.GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+        Assert.assertEquals(new Term("text", "vehicle"), inFlight.lookup("text", new String[]{"car"})[0].similarTerms[0].term);
+        Assert.assertFalse(inFlight.isReleased());
+
+        api.release(inFlight);
+        Assert.assertTrue(inFlight.isReleased());
+
+        api.close();
+    }
+
+    @Test
+    public void test_backgroundWatcher_picksUpChangedFile() throws Exception {
+
+        // arrange
+        ReloadableSimilarityApi api = new ReloadableSimilarityApi(file, 10);
+
+        // act
+        write("{\"car\": [[\"auto\"], [0.9]]}", 2000);
+
+        // assert
+        long deadline = System.currentTimeMillis() + 5000;
+        ExpansionStore store;
+        while (true) {
+            store = api.acquire();
+            long version = store.getVersion();
+            api.release(store);
+            if (version == 2000 || System.currentTimeMillis() > deadline) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2000, store.getVersion());
+        Assert.assertEquals(new Term("text", "auto"), api.GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+
+        api.close();
+    }
+
+    @Test
+    public void test_brokenFile_keepsCurrentVersion() throws Exception {
+
+        // arrange
+        ReloadableSimilarityApi api = new ReloadableSimilarityApi(file, 0);
+        write("{\"car\": [[\"auto\"", 2000);
+
+        // act
+        try {
+            api.reload();
+            Assert.fail("expected a parse exception");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // assert
+        Assert.assertEquals(new Term("text", "vehicle"), api.GetSimilarTerms("text", new String[]{"car"})[0].similarTerms[0].term);
+
+        api.close();
+    }
+}
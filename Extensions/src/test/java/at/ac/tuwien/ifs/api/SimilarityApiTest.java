@@ -0,0 +1,80 @@
+package at.ac.tuwien.ifs.api;
+
+import at.ac.tuwien.ifs.mocks.SimilarityServerMock;
+import org.apache.lucene.index.Term;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * Tests the wire formats (json, smile, gzip) of the <code>{@link SimilarityApi}</code>
+ * against the local <code>{@link SimilarityServerMock}</code>
+ */
+public class SimilarityApiTest {
+
+    private static SimilarityServerMock server;
+
+    private static final String[] queryTerms = new String[]{"car", "house", "unknown"};
+
+    @BeforeClass
+    public static void beforeTests() throws Exception {
+        String[] similar = new String[50];
+        float[] weights = new float[50];
+        for (int i = 0; i < similar.length; i++) {
+            similar[i] = "vehicle" + i;
+            weights[i] = 0.99f - i * 0.005f;
+        }
+        server = new SimilarityServerMock()
+                .add("car", similar, weights)
+                .add("house", new String[]{"house", "home", "building"}, new float[]{1f, .8f, .7f});
+    }
+
+    @AfterClass
+    public static void afterTests() {
+        server.close();
+    }
+
+    private void assertResult(SimilarTermModel[] result) {
+        Assert.assertEquals(2, result.length);
+        for (SimilarTermModel model : result) {
+            if (model.queryTerm.text().equals("car")) {
+                Assert.assertEquals(50, model.similarTerms.length);
+                Assert.assertEquals(new Term("text", "vehicle0"), model.similarTerms[0].term);
+                Assert.assertEquals(0.99f, model.similarTerms[0].weight, 0.00001);
+            } else {
+                // the main term is removed from the similar terms
+                Assert.assertEquals(new Term("text", "house"), model.queryTerm);
+                Assert.assertEquals(2, model.similarTerms.length);
+                Assert.assertEquals(new Term("text", "home"), model.similarTerms[0].term);
+                Assert.assertEquals(.7f, model.similarTerms[1].weight, 0.00001);
+            }
+        }
+    }
+
+    private long[] call(SimilarityApi.WireFormat format, boolean gzip, String expectedContentType) throws IOException {
+        long requestBefore = server.requestBytes.get();
+        long responseBefore = server.responseBytes.get();
+
+        assertResult(new SimilarityApi(server.url(), null, format, gzip).GetSimilarTerms("text", queryTerms));
+
+        Assert.assertEquals(expectedContentType, server.lastRequestContentType);
+        return new long[]{server.requestBytes.get() - requestBefore, server.responseBytes.get() - responseBefore};
+    }
+
+    @Test
+    public void test_allWireFormats() throws IOException {
+
+        long[] json = call(SimilarityApi.WireFormat.Json, false, SimilarityApi.JSON_CONTENT_TYPE);
+        long[] smile = call(SimilarityApi.WireFormat.Smile, false, SimilarityApi.SMILE_CONTENT_TYPE);
+        long[] jsonGzip = call(SimilarityApi.WireFormat.Json, true, SimilarityApi.JSON_CONTENT_TYPE);
+        long[] smileGzip = call(SimilarityApi.WireFormat.Smile, true, SimilarityApi.SMILE_CONTENT_TYPE);
+
+        // the response payload gets smaller
+        Assert.assertTrue(smile[1] < json[1]);
+        Assert.assertTrue(jsonGzip[1] < json[1]);
+        Assert.assertTrue(smileGzip[1] < smile[1]);
+    }
+}
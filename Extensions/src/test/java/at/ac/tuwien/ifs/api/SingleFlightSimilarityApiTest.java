@@ -0,0 +1,112 @@
+package at.ac.tuwien.ifs.api;
+
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import org.apache.lucene.index.Term;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests, that check that concurrent lookups are coalesced by the <code>{@link SingleFlightSimilarityApi}</code>
+ */
+public class SingleFlightSimilarityApiTest {
+
+    /**
+     * Blocks every call until it is released and counts the requested terms
+     */
+    private static class BlockingApi implements ISimilarityApi {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger requestedTerms = new AtomicInteger();
+
+        @Override
+        public SimilarTermModel[] GetSimilarTerms(String field, String[] queryTerms) throws IOException {
+            calls.incrementAndGet();
+            requestedTerms.addAndGet(queryTerms.length);
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            SimilarTermModel[] output = new SimilarTermModel[queryTerms.length];
+            for (int i = 0; i < queryTerms.length; i++) {
+                output[i] = new SimilarTermModel(new Term(field, queryTerms[i]),
+                        new TermWeightTuple[]{new TermWeightTuple(new Term(field, queryTerms[i] + "s"), .5f)});
+            }
+            return output;
+        }
+    }
+
+    @Test
+    public void test_concurrentLookupsAreCoalesced() throws Exception {
+
+        // arrange
+        BlockingApi delegate = new BlockingApi();
+        SingleFlightSimilarityApi api = new SingleFlightSimilarityApi(delegate);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        // act - 4 threads request the same term, while the first call is blocked
+        List<Future<SimilarTermModel[]>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(executor.submit(() -> api.GetSimilarTerms("text", new String[]{"car"})));
+        }
+        while (delegate.calls.get() == 0) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        delegate.release.countDown();
+
+        // assert
+        for (Future<SimilarTermModel[]> result : results) {
+            SimilarTermModel[] models = result.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(1, models.length);
+            Assert.assertEquals(new Term("text", "car"), models[0].queryTerm);
+            Assert.assertEquals(new Term("text", "cars"), models[0].similarTerms[0].term);
+        }
+        Assert.assertEquals(1, delegate.requestedTerms.get());
+        Assert.assertEquals(0, api.inFlightCount());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void test_outputKeepsQueryTermOrder() throws IOException {
+
+        // arrange
+        BlockingApi delegate = new BlockingApi();
+        delegate.release.countDown();
+        SingleFlightSimilarityApi api = new SingleFlightSimilarityApi(delegate);
+
+        // act
+        SimilarTermModel[] models = api.GetSimilarTerms("text", new String[]{"first", "second", "first"});
+
+        // assert - duplicates are only sent once
+        Assert.assertEquals(3, models.length);
+        Assert.assertEquals("first", models[0].queryTerm.text());
+        Assert.assertEquals("second", models[1].queryTerm.text());
+        Assert.assertEquals("first", models[2].queryTerm.text());
+        Assert.assertEquals(2, delegate.requestedTerms.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void test_failureIsPropagated() throws IOException {
+
+        // arrange
+        SingleFlightSimilarityApi api = new SingleFlightSimilarityApi((field, queryTerms) -> {
+            throw new IOException("not connected");
+        });
+
+        // act - expect: exception
+        api.GetSimilarTerms("text", new String[]{"car"});
+    }
+}
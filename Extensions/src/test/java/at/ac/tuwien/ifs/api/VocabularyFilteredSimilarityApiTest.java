@@ -0,0 +1,110 @@
+package at.ac.tuwien.ifs.api;
+
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import org.apache.lucene.index.Term;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for the <code>{@link VocabularyBloomFilter}</code> and the short-circuit behavior of the
+ * <code>{@link VocabularyFilteredSimilarityApi}</code>
+ */
+public class VocabularyFilteredSimilarityApiTest {
+
+    /**
+     * Returns "bla" as similar term for "car" only, records all requested terms
+     */
+    private static class RecordingApi implements ISimilarityApi {
+
+        final List<String> requested = new ArrayList<>();
+
+        @Override
+        public SimilarTermModel[] GetSimilarTerms(String field, String[] queryTerms) {
+            requested.addAll(Arrays.asList(queryTerms));
+            SimilarTermModel[] output = new SimilarTermModel[queryTerms.length];
+            for (int i = 0; i < queryTerms.length; i++) {
+                TermWeightTuple[] similar = queryTerms[i].equals("car") ?
+                        new TermWeightTuple[]{SimilarityApiMock.similarTerm(field)} : new TermWeightTuple[0];
+                output[i] = new SimilarTermModel(new Term(field, queryTerms[i]), similar);
+            }
+            return output;
+        }
+    }
+
+    @Test
+    public void test_bloomFilter_noFalseNegatives() {
+
+        // arrange
+        List<String> vocabulary = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            vocabulary.add("term" + i);
+        }
+
+        // act
+        VocabularyBloomFilter filter = VocabularyBloomFilter.fromTerms(vocabulary, 0.01, 0);
+
+        // assert
+        for (String term : vocabulary) {
+            Assert.assertTrue(filter.mightContain(term));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void test_bloomFilter_memoryLimit() {
+
+        // act
+        VocabularyBloomFilter filter = new VocabularyBloomFilter(100000, 0.001, 1024);
+
+        // assert
+        Assert.assertTrue(filter.ramBytesUsed() <= 1024 + 64);
+    }
+
+    @Test
+    public void test_termsOutsideOfVocabularyAreNotSent() throws IOException {
+
+        // arrange
+        RecordingApi delegate = new RecordingApi();
+        VocabularyBloomFilter filter = VocabularyBloomFilter.fromTerms(Arrays.asList("car", "vehicle"), 0.0001, 0);
+        VocabularyFilteredSimilarityApi api = new VocabularyFilteredSimilarityApi(delegate, filter, 0);
+
+        // act
+        SimilarTermModel[] models = api.GetSimilarTerms("text", new String[]{"1984", "car"});
+
+        // assert
+        Assert.assertEquals(Arrays.asList("car"), delegate.requested);
+        Assert.assertEquals(2, models.length);
+        Assert.assertEquals(new Term("text", "1984"), models[0].queryTerm);
+        Assert.assertEquals(0, models[0].similarTerms.length);
+        Assert.assertEquals(1, models[1].similarTerms.length);
+        Assert.assertEquals(1, api.getVocabularyRejects());
+    }
+
+    @Test
+    public void test_negativeCache() throws IOException {
+
+        // arrange
+        RecordingApi delegate = new RecordingApi();
+        VocabularyFilteredSimilarityApi api = new VocabularyFilteredSimilarityApi(delegate, null, 10);
+
+        // act
+        api.GetSimilarTerms("text", new String[]{"car", "typo"});
+        SimilarTermModel[] models = api.GetSimilarTerms("text", new String[]{"car", "typo"});
+
+        // assert - typo has no similar terms -> only sent once
+        Assert.assertEquals(Arrays.asList("car", "typo", "car"), delegate.requested);
+        Assert.assertEquals(1, api.getNegativeCacheHits());
+        Assert.assertEquals(new Term("text", "typo"), models[1].queryTerm);
+    }
+}
@@ -0,0 +1,144 @@
+package at.ac.tuwien.ifs.codecs;
+
+import at.ac.tuwien.ifs.analysis.TranslationMap;
+import at.ac.tuwien.ifs.analysis.TranslationTokenFilter;
+import at.ac.tuwien.ifs.api.ApiReturnModel;
+import at.ac.tuwien.ifs.query.RandomWordIndex;
+import at.ac.tuwien.ifs.query.TranslationTermQuery;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockTokenizer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene62.Lucene62Codec;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.io.IOException;
+
+/**
+ * Tests, that the weighted translation field (<code>{@link TranslationPostingsFormat}</code>) scores like the payloads
+ * of the translation field (up to the quantization) - after flushes and after merges
+ */
+public class TranslationPostingsFormatTest extends LuceneTestCase {
+
+    private static final String json = "{" +
+            "\"universe\": [[\"universe\", \"world\", \"infinity\"], [1.0, 0.9, 0.45]]," +
+            "\"space\": [[\"space\", \"universe\"], [1.0, 0.7]]}";
+
+    private static Directory createIndex(TranslationMap map) throws IOException {
+        Directory dir = newDirectory();
+        Analyzer analyzer = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new MockTokenizer(MockTokenizer.WHITESPACE, true);
+                if (fieldName.equals("field")) {
+                    return new TokenStreamComponents(tokenizer);
+                }
+                return new TokenStreamComponents(tokenizer, new TranslationTokenFilter(tokenizer, map));
+            }
+        };
+
+        PostingsFormat weighted = new TranslationPostingsFormat();
+        IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(analyzer).setCodec(new Lucene62Codec() {
+            @Override
+            public PostingsFormat getPostingsFormatForField(String field) {
+                return field.equals("field_tw") ? weighted : super.getPostingsFormatForField(field);
+            }
+        }));
+
+        for (int segment = 0; segment < 6; segment++) {
+            RandomWordIndex.addSegment(w, random(), 50, 8, "field", "field_tr", "field_tw");
+        }
+        w.close();
+        return dir;
+    }
+
+    private static void assertSameScores(IndexSearcher s, String term) throws IOException {
+        TopDocs expected = s.search(new TranslationTermQuery(new Term("field_tr", term), "field"), 1000);
+        TopDocs actual = s.search(new TranslationTermQuery(new Term("field_tw", term), "field"), 1000);
+        RandomWordIndex.assertSameScores(expected, actual, 1e-2f);
+    }
+
+    public void test_sameScoresAsPayloads() throws IOException {
+
+        // arrange
+        TranslationMap map = TranslationMap.of(new ObjectMapper().readValue(json, ApiReturnModel.class), 0f, 10);
+        Directory dir = createIndex(map);
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+        s.setSimilarity(new BM25Similarity());
+
+        // act & assert
+        for (LeafReaderContext context : r.leaves()) {
+            assertTrue(TranslationPostingsFormat.isWeighted(context.reader().getFieldInfos().fieldInfo("field_tw")));
+            assertFalse(TranslationPostingsFormat.isWeighted(context.reader().getFieldInfos().fieldInfo("field_tr")));
+        }
+        assertSameScores(s, "universe");
+        assertSameScores(s, "space");
+        assertSameScores(s, "bla");
+
+        IOUtils.close(r, dir);
+    }
+
+    public void test_statisticsOfTheTranslationFieldRejected() {
+        // the statistics & lengths of a weighted field are quantized -> only the original field is used
+        expectThrows(IllegalArgumentException.class, () -> new TranslationTermQuery(new Term("field_tw", "universe"), "field_tw"));
+    }
+
+    public void test_weightsSurviveMerge() throws IOException {
+
+        // arrange
+        TranslationMap map = TranslationMap.of(new ObjectMapper().readValue(json, ApiReturnModel.class), 0f, 10);
+        Directory dir = createIndex(map);
+
+        // act
+        IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(null).setCodec(new Lucene62Codec() {
+            @Override
+            public PostingsFormat getPostingsFormatForField(String field) {
+                return field.equals("field_tw") ? new TranslationPostingsFormat() : super.getPostingsFormatForField(field);
+            }
+        }));
+        w.forceMerge(1);
+        w.close();
+
+        // assert: the weights of the merged segment are the payload sums
+        DirectoryReader r = DirectoryReader.open(dir);
+        assertEquals(1, r.leaves().size());
+
+        TermsEnum payloads = r.leaves().get(0).reader().terms("field_tr").iterator();
+        TermsEnum weights = r.leaves().get(0).reader().terms("field_tw").iterator();
+        assertTrue(payloads.seekExact(new BytesRef("universe")));
+        assertTrue(weights.seekExact(new BytesRef("universe")));
+
+        PostingsEnum expected = payloads.postings(null, PostingsEnum.PAYLOADS);
+        PostingsEnum actual = weights.postings(null, PostingsEnum.FREQS);
+        assertTrue(actual instanceof TranslationPostingsFormat.WeightedPostingsEnum);
+
+        while (expected.nextDoc() != PostingsEnum.NO_MORE_DOCS) {
+            float sum = 0;
+            for (int i = expected.freq(); i > 0; i--) {
+                expected.nextPosition();
+                BytesRef payload = expected.getPayload();
+                sum += payload == null ? 1 : PayloadHelper.decodeFloat(payload.bytes, payload.offset);
+            }
+            assertEquals(expected.docID(), actual.nextDoc());
+            assertEquals(sum, ((TranslationPostingsFormat.WeightedPostingsEnum) actual).weight(), 1f / 512);
+        }
+        assertEquals(PostingsEnum.NO_MORE_DOCS, actual.nextDoc());
+
+        IOUtils.close(r, dir);
+    }
+}
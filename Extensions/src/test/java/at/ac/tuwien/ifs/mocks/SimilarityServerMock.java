@@ -0,0 +1,124 @@
+package at.ac.tuwien.ifs.mocks;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the similarity api, runs on a random localhost port.
+ * Answers with the configured similar terms in json or smile (based on the Accept header) and compresses the
+ * response if gzip is accepted. Records the request content type and the bytes on the wire.
+ */
+public class SimilarityServerMock implements AutoCloseable {
+
+    private static final String SMILE = "application/x-jackson-smile";
+
+    private final HttpServer server;
+    private final Map<String, Object[]> similarTerms = new HashMap<>();
+
+    public volatile String lastRequestContentType;
+    public final AtomicLong requestBytes = new AtomicLong();
+    public final AtomicLong responseBytes = new AtomicLong();
+
+    public SimilarityServerMock() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public SimilarityServerMock add(String term, String[] similar, float[] weights) {
+        similarTerms.put(term, new Object[]{similar, weights});
+        return this;
+    }
+
+    public String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/api/v1.0/relatedterms";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+
+        lastRequestContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        boolean requestSmile = lastRequestContentType != null && lastRequestContentType.startsWith(SMILE);
+
+        byte[] raw = readAll(exchange.getRequestBody());
+        requestBytes.addAndGet(raw.length);
+
+        InputStream body = new ByteArrayInputStream(raw);
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = new GZIPInputStream(body);
+        }
+        JsonNode request = new ObjectMapper(requestSmile ? new SmileFactory() : new JsonFactory()).readTree(body);
+
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        boolean responseSmile = accept != null && accept.startsWith(SMILE);
+        boolean responseGzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        OutputStream out = responseGzip ? new GZIPOutputStream(payload) : payload;
+        JsonGenerator generator = (responseSmile ? new SmileFactory() : new JsonFactory()).createGenerator(out);
+        generator.writeStartObject();
+        for (JsonNode term : request.get("terms")) {
+            Object[] entry = similarTerms.get(term.asText());
+            if (entry == null) {
+                continue;
+            }
+            generator.writeArrayFieldStart(term.asText());
+            generator.writeStartArray();
+            for (String s : (String[]) entry[0]) {
+                generator.writeString(s);
+            }
+            generator.writeEndArray();
+            generator.writeStartArray();
+            for (float w : (float[]) entry[1]) {
+                generator.writeNumber(w);
+            }
+            generator.writeEndArray();
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+        generator.close();
+        out.close();
+
+        byte[] bytes = payload.toByteArray();
+        responseBytes.addAndGet(bytes.length);
+
+        exchange.getResponseHeaders().set("Content-Type", responseSmile ? SMILE : "application/json");
+        if (responseGzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
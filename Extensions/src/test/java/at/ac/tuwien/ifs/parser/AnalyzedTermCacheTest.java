@@ -0,0 +1,98 @@
+package at.ac.tuwien.ifs.parser;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for the <code>{@link AnalyzedTermCache}</code>
+ */
+public class AnalyzedTermCacheTest {
+
+    /**
+     * English analyzer, that counts how often it is used
+     */
+    private static class CountingAnalyzer extends AnalyzerWrapper {
+
+        final AtomicInteger calls = new AtomicInteger();
+        private final Analyzer english = new EnglishAnalyzer();
+
+        CountingAnalyzer() {
+            super(Analyzer.PER_FIELD_REUSE_STRATEGY);
+        }
+
+        @Override
+        protected Analyzer getWrappedAnalyzer(String fieldName) {
+            return english;
+        }
+
+        @Override
+        protected Reader wrapReader(String fieldName, Reader reader) {
+            calls.incrementAndGet();
+            return reader;
+        }
+    }
+
+    @Test
+    public void test_memoizesPerAnalyzerAndField() throws IOException {
+
+        // arrange
+        AnalyzedTermCache cache = new AnalyzedTermCache(100);
+        CountingAnalyzer analyzer = new CountingAnalyzer();
+        CountingAnalyzer other = new CountingAnalyzer();
+
+        // act
+        String first = cache.analyzeFirst(analyzer, "text", "vehicles");
+        String second = cache.analyzeFirst(analyzer, "text", "vehicles");
+        cache.analyze(analyzer, "title", "vehicles");
+        cache.analyze(other, "text", "vehicles");
+
+        // assert
+        Assert.assertEquals("vehicl", first);
+        Assert.assertEquals("vehicl", second);
+        Assert.assertEquals(2, analyzer.calls.get());
+        Assert.assertEquals(1, other.calls.get());
+        Assert.assertNull(cache.analyzeFirst(analyzer, "text", "the"));
+    }
+
+    @Test
+    public void test_bounded_keepsFrequentTerms() throws IOException {
+
+        // arrange
+        AnalyzedTermCache cache = new AnalyzedTermCache(10);
+        CountingAnalyzer analyzer = new CountingAnalyzer();
+
+        // act
+        for (int i = 0; i < 1000; i++) {
+            cache.analyze(analyzer, "text", "frequent");
+            cache.analyze(analyzer, "text", "term" + i);
+        }
+
+        // assert
+        Assert.assertTrue(cache.size() <= 10);
+        Assert.assertEquals(1001, analyzer.calls.get());
+    }
+
+    @Test
+    public void test_clear_dropsAnalyzers() throws IOException {
+
+        // arrange
+        AnalyzedTermCache cache = new AnalyzedTermCache(100);
+        CountingAnalyzer analyzer = new CountingAnalyzer();
+        cache.analyze(analyzer, "text", "vehicles");
+
+        // act
+        cache.clear();
+        cache.analyze(analyzer, "text", "vehicles");
+
+        // assert
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(2, analyzer.calls.get());
+    }
+}
@@ -0,0 +1,162 @@
+package at.ac.tuwien.ifs.parser;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.request.CollectionAdminRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.cloud.SolrCloudTestCase;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.BeforeClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integration tests for the <code>{@link AugmentedStatsCache}</code> in an embedded SolrCloud cluster: a collection
+ * with 2 (very different) shards must score like the same documents in a single shard.
+ * Based on resources/cloud/conf
+ */
+public class AugmentedStatsCacheIntegrationTest extends SolrCloudTestCase {
+
+    private static final Logger logger = LoggerFactory.getLogger(AugmentedStatsCacheIntegrationTest.class);
+
+    private static final String reference = "reference";
+    private static final String distributed = "distributed";
+    private static final String local = "local";
+
+    @BeforeClass
+    public static void setupCluster() throws Exception {
+        configureCluster(2)
+                .addConfig("conf", Paths.get(AugmentedStatsCacheIntegrationTest.class.getResource("/cloud/conf").toURI()))
+                .configure();
+
+        CollectionAdminRequest.createCollectionWithImplicitRouter(reference, "conf", "shard1", 1)
+                .process(cluster.getSolrClient());
+        CollectionAdminRequest.createCollectionWithImplicitRouter(distributed, "conf", "shard1,shard2", 1)
+                .process(cluster.getSolrClient());
+        CollectionAdminRequest.createCollectionWithImplicitRouter(local, "conf", "shard1,shard2", 1)
+                .withProperty("solr.statsCache", "org.apache.solr.search.stats.LocalStatsCache")
+                .process(cluster.getSolrClient());
+
+        for (String collection : new String[]{reference, distributed, local}) {
+            cluster.getSolrClient().waitForState(collection, DEFAULT_TIMEOUT, TimeUnit.SECONDS,
+                    clusterShape(collection.equals(reference) ? 1 : 2, 1));
+        }
+
+        // shard1: many documents with the main term, shard2: mostly the similar term of the mock api ("bla")
+        addDocuments("shard1", 150, 10);
+        addDocuments("shard2", 20, 80);
+
+        for (String collection : new String[]{reference, distributed, local}) {
+            cluster.getSolrClient().commit(collection);
+        }
+    }
+
+    private static void addDocuments(String shard, int mainTermDocs, int similarTermDocs) throws Exception {
+        for (String collection : new String[]{reference, distributed, local}) {
+            UpdateRequest update = new UpdateRequest();
+            // the reference collection has only one shard
+            update.setParam("_route_", collection.equals(reference) ? "shard1" : shard);
+
+            for (int i = 0; i < mainTermDocs + similarTermDocs; i++) {
+                SolrInputDocument doc = new SolrInputDocument();
+                doc.addField("id", UUID.nameUUIDFromBytes((shard + i).getBytes("UTF-8")).toString());
+                if (i < mainTermDocs) {
+                    doc.addField("text", i % 3 == 0 ? "world bla bla filler" : "world filler text " + i);
+                } else {
+                    // similar term twice -> weighted freq (.5) >= documents
+                    doc.addField("text", "bla bla filler " + i);
+                }
+                update.add(doc);
+            }
+            update.process(cluster.getSolrClient(), collection);
+        }
+    }
+
+    private static Map<String, Float> query(String collection, String handler) throws Exception {
+        SolrQuery query = new SolrQuery("world");
+        query.setRequestHandler(handler);
+        query.setFields("id", "score");
+        query.setRows(1000);
+
+        QueryResponse response = cluster.getSolrClient().query(collection, query);
+
+        Map<String, Float> scores = new HashMap<>();
+        for (SolrDocument doc : response.getResults()) {
+            scores.put(doc.getFieldValue("id").toString(), (Float) doc.getFieldValue("score"));
+        }
+        return scores;
+    }
+
+    private static void assertScores(Map<String, Float> expected, Map<String, Float> actual, boolean same) {
+        assertEquals(expected.keySet(), actual.keySet());
+
+        boolean allSame = true;
+        for (Map.Entry<String, Float> entry : expected.entrySet()) {
+            allSame &= Math.abs(entry.getValue() - actual.get(entry.getKey())) < 0.0001;
+        }
+        assertEquals(same, allSame);
+    }
+
+    public void test_ET_sameScoresAsSingleShard() throws Exception {
+
+        // act
+        Map<String, Float> referenceScores = query(reference, "/similarity-query-et");
+        Map<String, Float> distributedScores = query(distributed, "/similarity-query-et");
+        Map<String, Float> localScores = query(local, "/similarity-query-et");
+
+        // assert: 150 + 20 documents with the main term + 90 with the similar term
+        assertEquals(260, referenceScores.size());
+        assertScores(referenceScores, distributedScores, true);
+        assertScores(referenceScores, localScores, false);
+    }
+
+    public void test_GT_sameScoresAsSingleShard() throws Exception {
+
+        // act
+        Map<String, Float> referenceScores = query(reference, "/similarity-query");
+        Map<String, Float> distributedScores = query(distributed, "/similarity-query");
+        Map<String, Float> localScores = query(local, "/similarity-query");
+
+        // assert
+        assertScores(referenceScores, distributedScores, true);
+        assertScores(referenceScores, localScores, false);
+    }
+
+    /**
+     * Measures the cost of the extra stats round (same sharded query with local statistics vs. distributed statistics)
+     */
+    public void test_ET_statsRoundCost() throws Exception {
+
+        // warm up
+        for (int i = 0; i < 20; i++) {
+            query(local, "/similarity-query-et");
+            query(distributed, "/similarity-query-et");
+        }
+
+        int runs = 50;
+        long localNanos = 0;
+        long distributedNanos = 0;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            query(local, "/similarity-query-et");
+            localNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            query(distributed, "/similarity-query-et");
+            distributedNanos += System.nanoTime() - start;
+        }
+
+        logger.info(String.format(Locale.ROOT, "ET query with local stats: %.2f ms, with distributed stats: %.2f ms (avg. of %d runs)",
+                localNanos / 1e6 / runs, distributedNanos / 1e6 / runs, runs));
+
+        assertTrue(localNanos > 0 && distributedNanos > 0);
+    }
+}
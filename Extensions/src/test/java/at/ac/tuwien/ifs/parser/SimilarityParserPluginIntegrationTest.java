@@ -4,6 +4,7 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.BasicResultContext;
@@ -156,4 +157,33 @@ public class SimilarityParserPluginIntegrationTest extends AbstractSolrTestCase
         // cleanup
         queryRequest.close();
     }
+
+    /**
+     * Checks that the term contexts of a repeated query are served from the solr user cache "termContextCache"
+     */
+    public void test_QParser_TermContextCache() throws Exception {
+
+        // arrange (solr does not score on an empty index)
+        SolrInputDocument newDoc = new SolrInputDocument();
+        newDoc.addField("id", "c2eb8869-f70c-4164-a79f-ee1579b2d126");
+        newDoc.addField("text", "cached terms");
+        server.add(newDoc);
+        server.commit();
+
+        // act
+        NamedList<Object> stats = null;
+        for (int i = 0; i < 2; i++) {
+            SolrQueryRequest queryRequest = req("cached");
+            h.queryAndResponse("/similarity-query-cached", queryRequest);
+            stats = queryRequest.getSearcher().getCache("termContextCache").getStatistics();
+            queryRequest.close();
+        }
+
+        // assert - main term + mock similar term are cached after the first query
+        assertEquals(stats.toString(), 2L, ((Number) stats.get("hits")).longValue());
+
+        // cleanup (the segment is dropped -> no influence on the doc ids of other tests)
+        server.deleteById("c2eb8869-f70c-4164-a79f-ee1579b2d126");
+        server.commit();
+    }
 }
@@ -1,18 +1,28 @@
 package at.ac.tuwien.ifs.parser;
 
+import at.ac.tuwien.ifs.api.ReloadableSimilarityApi;
 import at.ac.tuwien.ifs.api.SimilarityApiMock;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.search.QParser;
+import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.search.SyntaxError;
 import org.apache.solr.util.AbstractSolrTestCase;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import at.ac.tuwien.ifs.query.AugmentedMultiFieldQuery;
+import at.ac.tuwien.ifs.query.AugmentedPhraseQuery;
 import at.ac.tuwien.ifs.query.AugmentedTermQuery;
 import at.ac.tuwien.ifs.query.TermWeightTuple;
+import at.ac.tuwien.ifs.query.TranslationTermQuery;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /**
  * Unit tests, that check the correct "query string" -> "lucene augmented query" behavior
@@ -82,6 +92,217 @@ public class SimilarityParserTest extends AbstractSolrTestCase {
         Assert.assertEquals(expected, luceneQuery);
     }
 
+    @Test
+    public void test_translationField() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.add("query:translationField", "text_tr");
+        QParser parser = new SimilarityParser("first",new ModifiableSolrParams(),params,req("first"));
+
+        // act
+        Query luceneQuery = parser.parse();
+
+        // assert
+        Assert.assertEquals(new TranslationTermQuery(new Term("text_tr", "first"), "text"), luceneQuery);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void test_translationField_ET() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.set("query:method", "ET");
+        params.add("query:translationField", "text_tr");
+
+        // act - expect: exception
+        QParser parser = new SimilarityParser("first",new ModifiableSolrParams(),params,req("first"));
+    }
+
+    @Test
+    public void test_fileApi_ownedByThePlugin() throws Exception {
+
+        // arrange
+        Path file = Files.createTempFile("similar-terms", ".json");
+        Files.write(file, "{\"first\": [[\"second\"], [0.5]]}".getBytes(StandardCharsets.UTF_8));
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.set("api:type", "file");
+        params.add("api:file", file.toString());
+        params.add("api:fileReloadInterval", "60000");
+
+        SimilarityParserPlugin core1 = new SimilarityParserPlugin();
+        SimilarityParserPlugin core2 = new SimilarityParserPlugin();
+
+        // act
+        new SimilarityParser("first",new ModifiableSolrParams(),params,req("first"),core1).parse();
+        new SimilarityParser("first",new ModifiableSolrParams(),params,req("first"),core1).parse();
+        new SimilarityParser("first",new ModifiableSolrParams(),params,req("first"),core2).parse();
+
+        // assert: one file api per core, closed with its core
+        Assert.assertEquals(1, core1.getFileApis().size());
+        Assert.assertEquals(1, core2.getFileApis().size());
+        ReloadableSimilarityApi api = core1.getFileApis().iterator().next();
+        Assert.assertNotSame(api, core2.getFileApis().iterator().next());
+
+        core1.close();
+        Assert.assertTrue(core1.getFileApis().isEmpty());
+        try {
+            api.acquire();
+            Assert.fail("expected an exception after close");
+        } catch (AlreadyClosedException e) {
+            // expected
+        }
+
+        core2.close();
+        Files.delete(file);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void test_translationField_maxPostings() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.add("query:translationField", "text_tr");
+        params.add("query:maxPostings", "1000");
+
+        // act - expect: exception
+        QParser parser = new SimilarityParser("first",new ModifiableSolrParams(),params,req("first"));
+    }
+
+    @Test
+    public void test_twoTerm_phraseSlop() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.add("query:phraseSlop", "2");
+        QParser parser = new SimilarityParser("first second",new ModifiableSolrParams(),params,req("first second"));
+
+        // act
+        Query luceneQuery = parser.parse();
+
+        // assert: both terms + the phrase over the same expansions
+        BooleanQuery realQuery = (BooleanQuery)luceneQuery;
+        Assert.assertEquals(3,realQuery.clauses().size());
+
+        AugmentedPhraseQuery expected = new AugmentedPhraseQuery(2,
+                new Term[]{new Term("text", "first"), new Term("text", "second")},
+                new TermWeightTuple[][]{{SimilarityApiMock.similarTerm("text")}, {SimilarityApiMock.similarTerm("text")}});
+        Assert.assertEquals(expected,realQuery.clauses().get(2).getQuery());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void test_phraseSlop_ET() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.set("query:method", "ET");
+        params.add("query:phraseSlop", "2");
+
+        // act - expect: exception
+        QParser parser = new SimilarityParser("first second",new ModifiableSolrParams(),params,req("first second"));
+    }
+
+    @Test
+    public void test_twoTerm_phraseSlop_maxPostings() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.add("query:phraseSlop", "2");
+        params.add("query:maxPostings", "1000");
+        SolrQueryRequest request = req("first second");
+        QParser parser = new SimilarityParser("first second",new ModifiableSolrParams(),params,request);
+
+        // act
+        Query luceneQuery;
+        try {
+            luceneQuery = parser.parse();
+        } finally {
+            request.close(); // releases the searcher of the budget
+        }
+
+        // assert: the phrase gets the expansions fitted by the parser (no second fit in the weights)
+        BooleanQuery realQuery = (BooleanQuery)luceneQuery;
+        AugmentedPhraseQuery expected = new AugmentedPhraseQuery(2,
+                new Term[]{new Term("text", "first"), new Term("text", "second")},
+                new TermWeightTuple[][]{{SimilarityApiMock.similarTerm("text")}, {SimilarityApiMock.similarTerm("text")}});
+        Assert.assertEquals(expected,realQuery.clauses().get(2).getQuery());
+    }
+
+    @Test
+    public void test_singleTerm_fields() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.add("query:fields", "title^2 text");
+        params.add("query:b", "0.5");
+        QParser parser = new SimilarityParser("first",new ModifiableSolrParams(),params,req("first"));
+
+        // act
+        Query luceneQuery = parser.parse();
+
+        // assert: one query over both fields with the same expansion
+        AugmentedMultiFieldQuery expected = new AugmentedMultiFieldQuery(AugmentedTermQuery.ModelMethod.Generalized, 1.2f,
+                new AugmentedMultiFieldQuery.FieldParameters[]{
+                        new AugmentedMultiFieldQuery.FieldParameters("title", 2f, .5f),
+                        new AugmentedMultiFieldQuery.FieldParameters("text", 1f, .5f)},
+                new Term("text", "first"), new TermWeightTuple[]{SimilarityApiMock.similarTerm("text")});
+        Assert.assertEquals(expected,luceneQuery);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void test_fields_maxPostings() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.add("query:fields", "title^2 text");
+        params.add("query:maxPostings", "1000");
+
+        // act - expect: exception
+        QParser parser = new SimilarityParser("first",new ModifiableSolrParams(),params,req("first"));
+    }
+
+    @Test
+    public void test_singleTerm_maxPostings() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.add("query:maxPostings", "1000");
+        SolrQueryRequest request = req("first");
+        QParser parser = new SimilarityParser("first",new ModifiableSolrParams(),params,request);
+
+        // act
+        Query luceneQuery;
+        try {
+            luceneQuery = parser.parse();
+        } finally {
+            request.close(); // releases the searcher of the budget
+        }
+
+        // assert: fitted once by the parser with the request searcher -> the weight does not fit again
+        AugmentedTermQuery expected = new AugmentedTermQuery(
+                AugmentedTermQuery.ModelMethod.Generalized, new Term("text", "first"),
+                new TermWeightTuple[]{SimilarityApiMock.similarTerm("text")}
+                );
+        Assert.assertEquals(expected, luceneQuery);
+    }
+
+    @Test(expected = SyntaxError.class)
+    public void test_maxMillis_overflow() throws SyntaxError {
+
+        // arrange
+        ModifiableSolrParams params = new ModifiableSolrParams(mockCorrectParams);
+        params.add("query:maxMillis", String.valueOf(Long.MAX_VALUE / 2));
+        SolrQueryRequest request = req("first");
+        QParser parser = new SimilarityParser("first",new ModifiableSolrParams(),params,request);
+
+        // act - expect: exception (not a negative budget)
+        try {
+            parser.parse();
+        } finally {
+            request.close();
+        }
+    }
+
     @Test
     public void test_twoTerm() throws SyntaxError {
 
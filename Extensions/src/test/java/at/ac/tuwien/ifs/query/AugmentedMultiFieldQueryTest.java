@@ -0,0 +1,113 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.io.IOException;
+
+/**
+ * Tests, that the <code>{@link AugmentedMultiFieldQuery}</code> scores like the <code>{@link AugmentedTermQuery}</code>
+ * for a single field (and for copies of a field with the boosts split between them) and combines the fields BM25F-style
+ */
+public class AugmentedMultiFieldQueryTest extends LuceneTestCase {
+
+    private static final AugmentedMultiFieldQuery.FieldParameters[] single = {
+            new AugmentedMultiFieldQuery.FieldParameters("field", 1f, .75f)};
+
+    private static final AugmentedMultiFieldQuery.FieldParameters[] copies = {
+            new AugmentedMultiFieldQuery.FieldParameters("field", .5f, .75f),
+            new AugmentedMultiFieldQuery.FieldParameters("copy", .5f, .75f)};
+
+    private static TermWeightTuple[] similar() {
+        return new TermWeightTuple[]{
+                new TermWeightTuple(new Term("field", "world"), .9f),
+                new TermWeightTuple(new Term("field", "infinity"), .45f)};
+    }
+
+    private static void assertSameScores(IndexSearcher s, Query expectedQuery, Query actualQuery) throws IOException {
+        RandomWordIndex.assertSameScores(s.search(expectedQuery, 1000), s.search(actualQuery, 1000), 1e-5f);
+    }
+
+    public void test_sameScoresAsAugmentedTermQuery() throws IOException {
+
+        // arrange
+        Directory dir = newDirectory();
+        RandomIndexWriter w = new RandomIndexWriter(random(), dir, new MockAnalyzer(random()));
+        RandomWordIndex.addSegment(w.w, random(), 300, 12, "field", "copy");
+        DirectoryReader r = w.getReader();
+        w.close();
+        IndexSearcher s = newSearcher(r);
+        s.setSimilarity(new BM25SimilarityLossless());
+
+        for (AugmentedTermQuery.ModelMethod method : AugmentedTermQuery.ModelMethod.values()) {
+
+            Query expected = new AugmentedTermQuery(method, new Term("field", "universe"), similar());
+
+            // act & assert
+            assertSameScores(s, expected, new AugmentedMultiFieldQuery(method, 1.2f, single, new Term("field", "universe"), similar()));
+            assertSameScores(s, expected, new AugmentedMultiFieldQuery(method, 1.2f, copies, new Term("field", "universe"), similar()));
+
+            // the term contexts of all fields resolved per leaf by a builder (same states as serial)
+            assertSameScores(s, expected, new AugmentedMultiFieldQuery(method, 1.2f, copies, new Term("field", "universe"), similar(),
+                    null, new TermContextBuilder(TermContextBuilder.Mode.PerLeaf, Runnable::run)));
+        }
+
+        IOUtils.close(r, dir);
+    }
+
+    public void test_fieldBoosts() throws IOException {
+
+        // arrange
+        Directory dir = newDirectory();
+        IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new MockAnalyzer(random())).setSimilarity(new BM25SimilarityLossless()));
+        String[][] docs = {{"universe", "bla bla"}, {"bla", "universe bla"}, {"world", "universe bla"}, {"bla", "bla space"}};
+        for (String[] texts : docs) {
+            Document doc = new Document();
+            doc.add(newTextField("title", texts[0], Field.Store.NO));
+            doc.add(newTextField("body", texts[1], Field.Store.NO));
+            w.addDocument(doc);
+        }
+        w.close();
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+        s.setSimilarity(new BM25SimilarityLossless());
+
+        AugmentedMultiFieldQuery query = new AugmentedMultiFieldQuery(AugmentedTermQuery.ModelMethod.Generalized, 1.2f,
+                new AugmentedMultiFieldQuery.FieldParameters[]{
+                        new AugmentedMultiFieldQuery.FieldParameters("title", 3f, .75f),
+                        new AugmentedMultiFieldQuery.FieldParameters("body", 1f, .75f)},
+                new Term("title", "universe"), new TermWeightTuple[]{new TermWeightTuple(new Term("title", "world"), .5f)});
+
+        // act
+        TopDocs result = s.search(query, 10);
+
+        // assert: title match (boost 3) > main term in the body + similar term in the title > body match only
+        assertEquals(3, result.totalHits);
+        assertEquals(0, result.scoreDocs[0].doc);
+        assertEquals(2, result.scoreDocs[1].doc);
+        assertEquals(1, result.scoreDocs[2].doc);
+
+        for (ScoreDoc scoreDoc : result.scoreDocs) {
+            Explanation explanation = s.explain(query, scoreDoc.doc);
+            assertTrue(explanation.isMatch());
+            assertEquals(scoreDoc.score, explanation.getValue(), 1e-6f * scoreDoc.score);
+        }
+        assertTrue(s.explain(query, 2).toString().contains("weightedTermFreq=0.5"));
+        assertFalse(s.explain(query, 3).isMatch());
+
+        IOUtils.close(r, dir);
+    }
+}
@@ -0,0 +1,138 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.io.IOException;
+
+/**
+ * Tests, that the <code>{@link AugmentedPhraseQuery}</code> scores like a <code>{@link PhraseQuery}</code> without similar
+ * terms and weights the matches of similar terms
+ */
+public class AugmentedPhraseQueryTest extends LuceneTestCase {
+
+    private static final TermWeightTuple[] none = new TermWeightTuple[0];
+
+    private static Term term(String text) {
+        return new Term("field", text);
+    }
+
+    public void test_sameScoresAsPhraseQuery() throws IOException {
+
+        // arrange
+        Directory dir = newDirectory();
+        RandomIndexWriter w = new RandomIndexWriter(random(), dir, new MockAnalyzer(random()));
+        RandomWordIndex.addSegment(w.w, random(), 300, 12, "field");
+        DirectoryReader r = w.getReader();
+        w.close();
+        IndexSearcher s = newSearcher(r);
+        s.setSimilarity(random().nextBoolean() ? new BM25Similarity() : new BM25SimilarityLossless());
+
+        for (int slop = 0; slop < 4; slop++) {
+            for (String[] phrase : new String[][]{{"universe", "world"}, {"space", "bla", "universe"}, {"infinity", "space"}}) {
+
+                PhraseQuery.Builder builder = new PhraseQuery.Builder().setSlop(slop);
+                Term[] mainTerms = new Term[phrase.length];
+                TermWeightTuple[][] similarTerms = new TermWeightTuple[phrase.length][];
+                for (int i = 0; i < phrase.length; i++) {
+                    builder.add(term(phrase[i]));
+                    mainTerms[i] = term(phrase[i]);
+                    similarTerms[i] = none;
+                }
+
+                // act
+                TopDocs expected = s.search(builder.build(), 1000);
+                TopDocs actual = s.search(new AugmentedPhraseQuery(slop, mainTerms, similarTerms), 1000);
+
+                // assert
+                RandomWordIndex.assertSameScores(expected, actual, 1e-6f);
+            }
+        }
+
+        IOUtils.close(r, dir);
+    }
+
+    public void test_weightedMatches() throws IOException {
+
+        // arrange
+        Directory dir = newDirectory();
+        IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new MockAnalyzer(random())));
+        for (String text : new String[]{"big world", "big small world", "big universe", "world big", "small world"}) {
+            Document doc = new Document();
+            doc.add(newTextField("field", text, Field.Store.NO));
+            w.addDocument(doc);
+        }
+        w.close();
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+        s.setSimilarity(new BM25SimilarityLossless());
+
+        AugmentedPhraseQuery query = new AugmentedPhraseQuery(1, new Term[]{term("big"), term("universe")},
+                new TermWeightTuple[][]{none, {new TermWeightTuple(term("world"), .5f)}});
+
+        // act
+        TopDocs result = s.search(query, 10);
+
+        // assert: "big universe" (1), "big world" (0.5), "big small world" (0.5 * 1/2), "world big" needs slop 2
+        assertEquals(3, result.totalHits);
+        assertEquals(2, result.scoreDocs[0].doc);
+        assertEquals(0, result.scoreDocs[1].doc);
+        assertEquals(1, result.scoreDocs[2].doc);
+
+        assertWeightedFreq(1f, s.explain(query, 2));
+        assertWeightedFreq(.5f, s.explain(query, 0));
+        assertWeightedFreq(.25f, s.explain(query, 1));
+        assertFalse(s.explain(query, 3).isMatch());
+
+        IOUtils.close(r, dir);
+    }
+
+    public void test_budget() throws IOException {
+
+        // arrange
+        Directory dir = newDirectory();
+        IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new MockAnalyzer(random())));
+        for (String text : new String[]{"big world", "big small world", "big universe", "world big", "small world"}) {
+            Document doc = new Document();
+            doc.add(newTextField("field", text, Field.Store.NO));
+            w.addDocument(doc);
+        }
+        w.close();
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+        s.setSimilarity(new BM25SimilarityLossless());
+
+        // slot "universe" costs 1 + 4 ("world") postings -> "world" is dropped, like in the term query of the slot
+        AugmentedPhraseQuery query = new AugmentedPhraseQuery(1, new Term[]{term("big"), term("universe")},
+                new TermWeightTuple[][]{none, {new TermWeightTuple(term("world"), .5f)}},
+                new ExpansionBudget(4), TermContextBuilder.serial());
+
+        // act
+        TopDocs result = s.search(query, 10);
+
+        // assert
+        assertEquals(1, result.totalHits);
+        assertEquals(2, result.scoreDocs[0].doc);
+        assertWeightedFreq(1f, s.explain(query, 2));
+
+        IOUtils.close(r, dir);
+    }
+
+    private static void assertWeightedFreq(float expected, Explanation explanation) {
+        assertTrue(explanation.isMatch());
+        assertTrue(explanation.toString(), explanation.toString().contains("weightedPhraseFreq=" + expected));
+    }
+}
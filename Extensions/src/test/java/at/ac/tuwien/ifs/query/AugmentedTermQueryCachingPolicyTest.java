@@ -0,0 +1,110 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.io.IOException;
+
+/**
+ * Tests the hashing & size of the <code>{@link AugmentedTermQuery}</code> and that it is cached (as a filter) with the
+ * <code>{@link AugmentedTermQueryCachingPolicy}</code>
+ */
+public class AugmentedTermQueryCachingPolicyTest extends LuceneTestCase {
+
+    private static final Term universe = new Term("field", "universe");
+    private static final Term world = new Term("field", "world");
+    private static final Term infinity = new Term("field", "infinity");
+
+    private static AugmentedTermQuery query(AugmentedTermQuery.ModelMethod method, float worldWeight, float infinityWeight) {
+        return new AugmentedTermQuery(method, universe, new TermWeightTuple[]{
+                new TermWeightTuple(world, worldWeight),
+                new TermWeightTuple(infinity, infinityWeight)});
+    }
+
+    public void test_hashCode_coversMethodAndExpansion() {
+
+        AugmentedTermQuery query = query(AugmentedTermQuery.ModelMethod.Generalized, .5f, .3f);
+
+        // same query -> same hash
+        assertEquals(query, query(AugmentedTermQuery.ModelMethod.Generalized, .5f, .3f));
+        assertEquals(query.hashCode(), query(AugmentedTermQuery.ModelMethod.Generalized, .5f, .3f).hashCode());
+
+        // same main term, but other method, weights or similar terms -> other hash
+        AugmentedTermQuery[] others = {
+                query(AugmentedTermQuery.ModelMethod.Extended, .5f, .3f),
+                query(AugmentedTermQuery.ModelMethod.Generalized, .5f, .4f),
+                new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, universe, new TermWeightTuple[]{}),
+                new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, universe, new TermWeightTuple[]{
+                        new TermWeightTuple(world, .5f)})
+        };
+        for (AugmentedTermQuery other : others) {
+            assertFalse(query.equals(other));
+            assertTrue(query.hashCode() != other.hashCode());
+        }
+    }
+
+    public void test_ramBytesUsed_growsWithExpansion() {
+
+        AugmentedTermQuery single = new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, universe, new TermWeightTuple[]{});
+        AugmentedTermQuery expanded = query(AugmentedTermQuery.ModelMethod.Generalized, .5f, .3f);
+
+        assertTrue(single.ramBytesUsed() > 0);
+        assertTrue(expanded.ramBytesUsed() > single.ramBytesUsed());
+    }
+
+    public void test_filter_cachedAndFound() throws IOException {
+
+        // arrange
+        Directory dir = newDirectory();
+        IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new MockAnalyzer(random())));
+        String[] docs = {"bla", "universe bla bla", "universe world infinity", "world bla", "infinity"};
+        for (int i = 0; i < 100; i++) {
+            Document doc = new Document();
+            doc.add(newTextField("field", docs[i % docs.length], Field.Store.NO));
+            w.addDocument(doc);
+        }
+        w.forceMerge(1);
+        DirectoryReader r = DirectoryReader.open(w);
+
+        LRUQueryCache cache = new LRUQueryCache(100, 1 << 20, context -> true);
+        IndexSearcher s = new IndexSearcher(r);
+        s.setQueryCache(cache);
+        s.setQueryCachingPolicy(new AugmentedTermQueryCachingPolicy(2));
+
+        AugmentedTermQuery wide = query(AugmentedTermQuery.ModelMethod.Generalized, .5f, .3f);
+
+        // act & assert: wide expansion -> cached after 2 uses
+        assertEquals(80, s.count(wide));
+        assertEquals(0, cache.getCacheCount());
+        assertEquals(80, s.count(wide));
+        assertEquals(1, cache.getCacheCount());
+
+        // an equal query is found, the cache is charged with the size of the query
+        long hits = cache.getHitCount();
+        assertEquals(80, s.count(query(AugmentedTermQuery.ModelMethod.Generalized, .5f, .3f)));
+        assertEquals(hits + 1, cache.getHitCount());
+        assertTrue(cache.ramBytesUsed() >= wide.ramBytesUsed());
+
+        // other weights -> not found
+        assertEquals(80, s.count(query(AugmentedTermQuery.ModelMethod.Generalized, .5f, .4f)));
+        assertEquals(hits + 1, cache.getHitCount());
+
+        // no similar terms -> never cached (like a term query)
+        AugmentedTermQuery single = new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, universe, new TermWeightTuple[]{});
+        for (int i = 0; i < 10; i++) {
+            assertEquals(40, s.count(single));
+        }
+        assertEquals(1, cache.getCacheCount());
+
+        IOUtils.close(r, w, dir);
+    }
+}
@@ -3,7 +3,10 @@ package at.ac.tuwien.ifs.query;
 import org.apache.lucene.analysis.MockAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.NoMergePolicy;
 import org.apache.lucene.index.RandomIndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
@@ -14,6 +17,10 @@ import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.LuceneTestCase;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Contains integration tests for the <code>{@link AugmentedTermQuery}</code>
@@ -185,4 +192,148 @@ public class AugmentedTermQueryIntegrationTest extends LuceneTestCase
 
         IOUtils.close(r, w, dir, analyzer);
     }
+
+    public void test_AugmentedTermQuery_ExpansionBudget() throws IOException {
+
+        // arrange lucene index
+        Directory dir = newDirectory();
+        MockAnalyzer analyzer = new MockAnalyzer(random());
+
+        RandomIndexWriter w = new RandomIndexWriter(
+                random(),
+                dir,
+                newIndexWriterConfig(new MockAnalyzer(random()))
+                        .setMergePolicy(newLogMergePolicy())
+                        .setSimilarity(new BM25Similarity()
+                        ));
+
+        String[] docs = new String[] {
+                "bla",
+                "universe bla bla",
+                "universe world infinity",
+                "universe world bla",
+        };
+        for (int i = 0; i < docs.length; i++) {
+            Document doc = new Document();
+            doc.add(newStringField("id", "" + i, Field.Store.YES));
+            doc.add(newTextField("field", docs[i], Field.Store.NO));
+            w.addDocument(doc);
+        }
+
+        w.forceMerge(1);
+
+        IndexReader r = w.getReader();
+        IndexSearcher s = newSearcher(r);
+
+        Term searchTerm = new Term("field","universe");
+
+        // cost: universe (3) + world (2) + infinity (1) = 6
+        TermWeightTuple[] termWeightTuples = {
+                new TermWeightTuple(new Term("field","world"), .5f),
+                new TermWeightTuple(new Term("field","infinity"), .3f)};
+
+        // budget is large enough -> nothing is dropped
+        {
+            ExpansionBudget budget = new ExpansionBudget(6);
+            TopDocs budgetResults = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, searchTerm, termWeightTuples, budget), 10);
+            TopDocs fullResults = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, searchTerm, termWeightTuples), 10);
+
+            assertEquals(fullResults.totalHits, budgetResults.totalHits);
+            for (int i = 0; i < fullResults.scoreDocs.length; i++) {
+                assertEquals(fullResults.scoreDocs[i].score, budgetResults.scoreDocs[i].score, 0.0001);
+            }
+            assertFalse(budget.fit(r, searchTerm, termWeightTuples).isDegraded());
+        }
+
+        // budget 5 -> the lowest weighted term (infinity) is dropped
+        {
+            ExpansionBudget budget = new ExpansionBudget(5);
+            TopDocs budgetResults = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, searchTerm, termWeightTuples, budget), 10);
+            TopDocs reducedResults = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, searchTerm, new TermWeightTuple[]{termWeightTuples[0]}), 10);
+
+            assertEquals(reducedResults.totalHits, budgetResults.totalHits);
+            for (int i = 0; i < reducedResults.scoreDocs.length; i++) {
+                assertEquals(reducedResults.scoreDocs[i].score, budgetResults.scoreDocs[i].score, 0.0001);
+            }
+
+            ExpansionBudget.Fit fit = budget.fit(r, searchTerm, termWeightTuples);
+            assertTrue(fit.isDegraded());
+            assertEquals(Collections.singletonList("infinity"), fit.dropped);
+            assertEquals(6L, fit.cost);
+            assertEquals(5L, fit.reducedCost);
+            assertEquals(1, fit.kept.length);
+        }
+
+        // budget smaller than the main term -> only the main term is left
+        {
+            ExpansionBudget budget = new ExpansionBudget(1);
+            TopDocs budgetResults = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Extended, searchTerm, termWeightTuples, budget), 10);
+
+            assertEquals(3, budgetResults.totalHits);
+            assertEquals(budgetResults.scoreDocs[0].score,budgetResults.scoreDocs[2].score,0.0001);
+        }
+
+        IOUtils.close(r, w, dir, analyzer);
+    }
+
+    public void test_AugmentedTermQuery_IntraQueryParallelism() throws Exception {
+
+        // arrange lucene index - one segment per document
+        Directory dir = newDirectory();
+
+        IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new MockAnalyzer(random()))
+                .setMergePolicy(NoMergePolicy.INSTANCE)
+                .setSimilarity(new BM25Similarity()));
+
+        String[] docs = new String[] {
+                "bla",
+                "universe bla bla",
+                "universe world infinity",
+                "universe world bla",
+                "world world",
+                "infinity bla",
+        };
+        for (int i = 0; i < docs.length; i++) {
+            Document doc = new Document();
+            doc.add(newStringField("id", "" + i, Field.Store.YES));
+            doc.add(newTextField("field", docs[i], Field.Store.NO));
+            w.addDocument(doc);
+            w.commit();
+        }
+
+        IndexReader r = DirectoryReader.open(w);
+        assertEquals(docs.length, r.leaves().size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        IndexSearcher serial = new IndexSearcher(r);
+        serial.setSimilarity(new BM25Similarity());
+        IndexSearcher parallel = new IndexSearcher(r, executor);
+        parallel.setSimilarity(new BM25Similarity());
+
+        Term searchTerm = new Term("field","universe");
+        TermWeightTuple[] termWeightTuples = {
+                new TermWeightTuple(new Term("field","world"), .5f),
+                new TermWeightTuple(new Term("field","infinity"), .3f)};
+
+        // act & assert - same hits & scores for both methods, repeated to interleave the leaf scorers
+        for (AugmentedTermQuery.ModelMethod method : AugmentedTermQuery.ModelMethod.values()) {
+            AugmentedTermQuery testQuery = new AugmentedTermQuery(method, searchTerm, termWeightTuples);
+            TopDocs serialResults = serial.search(testQuery, 10);
+
+            for (int run = 0; run < 20; run++) {
+                TopDocs parallelResults = parallel.search(testQuery, 10);
+
+                assertEquals(serialResults.totalHits, parallelResults.totalHits);
+                for (int i = 0; i < serialResults.scoreDocs.length; i++) {
+                    assertEquals(serialResults.scoreDocs[i].doc, parallelResults.scoreDocs[i].doc);
+                    assertEquals(serialResults.scoreDocs[i].score, parallelResults.scoreDocs[i].score, 0.0001);
+                }
+            }
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        IOUtils.close(r, w, dir);
+    }
 }
@@ -0,0 +1,118 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests, that the serial and the fork-join computation of the <code>{@link ExtendedStatistics}</code> give exactly
+ * the same values on an index with multiple segments, and how far they are from the former float scan
+ */
+public class ExtendedStatisticsTest extends LuceneTestCase {
+
+    public void test_parallel_sameAsSerial() throws Exception {
+
+        // arrange lucene index, one segment per commit
+        Directory dir = newDirectory();
+        RandomIndexWriter w = new RandomIndexWriter(
+                random(),
+                dir,
+                newIndexWriterConfig(new MockAnalyzer(random()))
+                        .setMergePolicy(NoMergePolicy.INSTANCE));
+
+        String[] words = {"universe", "world", "infinity", "bla"};
+        int expectedDocumentSetCount = 0;
+
+        for (int segment = 0; segment < 12; segment++) {
+            for (int i = 0; i < 50; i++) {
+                StringBuilder text = new StringBuilder();
+                boolean matches = false;
+                for (int j = 0; j < 1 + random().nextInt(8); j++) {
+                    int word = random().nextInt(words.length);
+                    matches |= word < 3;
+                    text.append(words[word]).append(' ');
+                }
+                if (matches) {
+                    expectedDocumentSetCount++;
+                }
+                Document doc = new Document();
+                doc.add(newTextField("field", text.toString(), Field.Store.NO));
+                w.addDocument(doc);
+            }
+            w.commit();
+        }
+
+        IndexReader r = w.getReader();
+
+        // universe = main term, world + infinity = similar terms
+        BytesRef[] terms = {new BytesRef("universe"), new BytesRef("world"), new BytesRef("infinity")};
+        float[] similarWeights = {.5f, .3f};
+
+        ExtendedStatistics.LeafPostings postings = context -> {
+            PostingsEnum[] output = new PostingsEnum[terms.length];
+            Terms fieldTerms = context.reader().terms("field");
+            if (fieldTerms != null) {
+                TermsEnum termsEnum = fieldTerms.iterator();
+                for (int i = 0; i < terms.length; i++) {
+                    if (termsEnum.seekExact(terms[i])) {
+                        output[i] = termsEnum.postings(null, PostingsEnum.FREQS);
+                    }
+                }
+            }
+            return output;
+        };
+
+        // baseline: the former scan - one running float sum over all leaves, doc by doc
+        float baselineWeightedSum = 0;
+        float baselineOneMinusWeightedSum = 0;
+        for (LeafReaderContext context : r.leaves()) {
+            PostingsEnum[] leafPostings = postings.postings(context);
+            for (int doc = 0; doc < context.reader().maxDoc(); doc++) {
+                for (int i = 1; i < leafPostings.length; i++) {
+                    if (leafPostings[i] != null && leafPostings[i].docID() < doc) {
+                        leafPostings[i].advance(doc);
+                    }
+                    if (leafPostings[i] != null && leafPostings[i].docID() == doc) {
+                        baselineWeightedSum += similarWeights[i - 1] * leafPostings[i].freq();
+                        baselineOneMinusWeightedSum += (1 - similarWeights[i - 1]) * leafPostings[i].freq();
+                    }
+                }
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        // act
+        ExtendedStatistics serial = ExtendedStatistics.compute(r.leaves(), similarWeights, postings, null);
+        ExtendedStatistics parallel = ExtendedStatistics.compute(r.leaves(), similarWeights, postings, pool);
+
+        // assert
+        assertEquals(expectedDocumentSetCount, serial.documentSetCount);
+        assertEquals(serial.documentSetCount, parallel.documentSetCount);
+        assertTrue(serial.weightedSimilarTermFreqSum > 0);
+        assertEquals(Double.doubleToLongBits(serial.weightedSimilarTermFreqSum), Double.doubleToLongBits(parallel.weightedSimilarTermFreqSum));
+        assertEquals(Double.doubleToLongBits(serial.oneMinusWeightedSimilarTermFreqSum), Double.doubleToLongBits(parallel.oneMinusWeightedSimilarTermFreqSum));
+
+        // the double sums differ from the float scan only by its rounding errors (< 1 per 10^5 for these sums)
+        assertEquals(baselineWeightedSum, serial.weightedSimilarTermFreqSum, 1e-5 * baselineWeightedSum);
+        assertEquals(baselineOneMinusWeightedSum, serial.oneMinusWeightedSimilarTermFreqSum, 1e-5 * baselineOneMinusWeightedSum);
+
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        IOUtils.close(r, w, dir);
+    }
+}
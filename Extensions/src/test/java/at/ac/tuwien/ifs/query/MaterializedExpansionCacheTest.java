@@ -0,0 +1,197 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.ThreadInterruptedException;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests, that a materialized expansion (<code>{@link MaterializedExpansionCache}</code>) scores exactly like the merged
+ * postings and that the cache is bounded and cleaned up
+ */
+public class MaterializedExpansionCacheTest extends LuceneTestCase {
+
+    private static final Term main = new Term("field", "universe");
+    private static final TermWeightTuple[] similar = {
+            new TermWeightTuple(new Term("field", "world"), .9f),
+            new TermWeightTuple(new Term("field", "infinity"), .8f),
+            new TermWeightTuple(new Term("field", "missing"), .7f)};
+
+    private static Directory createIndex() throws IOException {
+        Directory dir = newDirectory();
+        IndexWriter w = new IndexWriter(dir, RandomWordIndex.segmentPerCommit(newIndexWriterConfig(new MockAnalyzer(random()))));
+        for (int segment = 0; segment < 3; segment++) {
+            RandomWordIndex.addSegment(w, random(), 200, 6, "field");
+        }
+        w.close();
+        return dir;
+    }
+
+    private static void assertSameScores(TopDocs expected, TopDocs actual) {
+        RandomWordIndex.assertSameScores(expected, actual, 0f);
+    }
+
+    private void assertSameScores(AugmentedTermQuery.ModelMethod method) throws IOException {
+
+        // arrange
+        Directory dir = createIndex();
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+        s.setSimilarity(random().nextBoolean() ? new BM25Similarity() : new BM25SimilarityLossless());
+
+        MaterializedExpansionCache cache = new MaterializedExpansionCache(2, 1 << 20);
+
+        TopDocs expected = s.search(new AugmentedTermQuery(method, main, similar), 1000);
+
+        // act & assert: first request -> postings, second -> materialized, third -> read from the cache
+        for (int i = 0; i < 3; i++) {
+            AugmentedTermQuery query = new AugmentedTermQuery(method, main, similar, null, TermContextBuilder.serial(), null, cache);
+            assertSameScores(expected, s.search(query, 1000));
+
+            if (i == 0) {
+                assertEquals(0, cache.size());
+            }
+        }
+        assertEquals(r.leaves().size(), cache.size());
+        assertTrue(cache.getHits() >= r.leaves().size());
+
+        // other weights -> another expansion
+        TermWeightTuple[] otherWeights = {similar[0], new TermWeightTuple(similar[1].term, .5f)};
+        AugmentedTermQuery other = new AugmentedTermQuery(method, main, otherWeights, null, TermContextBuilder.serial(), null, cache);
+        assertSameScores(s.search(new AugmentedTermQuery(method, main, otherWeights), 1000), s.search(other, 1000));
+        assertEquals(r.leaves().size(), cache.size());
+
+        // explain works on the materialized list (with the rounded freq, like the postings)
+        ScoreDoc top = expected.scoreDocs[0];
+        AugmentedTermQuery query = new AugmentedTermQuery(method, main, similar, null, TermContextBuilder.serial(), null, cache);
+        assertEquals(s.explain(new AugmentedTermQuery(method, main, similar), top.doc).getValue(),
+                s.explain(query, top.doc).getValue(), 0f);
+
+        // model changed
+        cache.invalidate();
+        assertEquals(0, cache.size());
+
+        IOUtils.close(r, dir);
+    }
+
+    public void test_GT_sameScoresAsPostings() throws IOException {
+        assertSameScores(AugmentedTermQuery.ModelMethod.Generalized);
+    }
+
+    public void test_ET_sameScoresAsPostings() throws IOException {
+        assertSameScores(AugmentedTermQuery.ModelMethod.Extended);
+    }
+
+    public void test_boundedAndEvictedWithCore() throws IOException {
+
+        // arrange
+        Directory dir = createIndex();
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+
+        MaterializedExpansionCache tiny = new MaterializedExpansionCache(1, 64);
+        MaterializedExpansionCache cache = new MaterializedExpansionCache(1, 1 << 20);
+
+        // act
+        s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, main, similar, null, TermContextBuilder.serial(), null, tiny), 10);
+        s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, main, similar, null, TermContextBuilder.serial(), null, cache), 10);
+
+        // assert: nothing fits into the tiny cache (not even built), the lists are dropped with the segments
+        assertEquals(0, tiny.size());
+        assertEquals(r.leaves().size(), tiny.getRejected());
+        assertEquals(r.leaves().size(), cache.size());
+        assertTrue(cache.ramBytesUsed() > 0);
+
+        IOUtils.close(r);
+        assertEquals(0, cache.size());
+
+        dir.close();
+    }
+
+    public void test_rejectedAreNotBuiltAgain() throws IOException {
+
+        // arrange
+        Directory dir = createIndex();
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+
+        MaterializedExpansionCache tiny = new MaterializedExpansionCache(1, 64);
+        TopDocs expected = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Extended, main, similar), 1000);
+
+        // act & assert: the postings are scored, the rejected expansions stay rejected
+        for (int i = 0; i < 3; i++) {
+            AugmentedTermQuery query = new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Extended, main, similar, null, TermContextBuilder.serial(), null, tiny);
+            assertSameScores(expected, s.search(query, 1000));
+            assertEquals(r.leaves().size(), tiny.getRejected());
+            assertEquals(0, tiny.size());
+        }
+
+        tiny.invalidate();
+        assertEquals(0, tiny.getRejected());
+
+        IOUtils.close(r, dir);
+    }
+
+    public void test_singleLoadPerKey() throws Exception {
+
+        // arrange
+        Directory dir = createIndex();
+        DirectoryReader r = DirectoryReader.open(dir);
+        LeafReader leaf = r.leaves().get(0).reader();
+
+        CoreCache<String, Integer> cache = new CoreCache<>(100, value -> 1);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[4];
+        Integer[] values = new Integer[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int slot = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    values[slot] = cache.getOrLoad(leaf, "key", () -> {
+                        // the other threads ask for the key meanwhile
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                            throw new ThreadInterruptedException(e);
+                        }
+                        return loads.incrementAndGet();
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[t].start();
+        }
+
+        // act
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // assert
+        assertEquals(1, loads.get());
+        for (Integer value : values) {
+            assertEquals(Integer.valueOf(1), value);
+        }
+        assertEquals(1, cache.size());
+
+        IOUtils.close(r, dir);
+    }
+}
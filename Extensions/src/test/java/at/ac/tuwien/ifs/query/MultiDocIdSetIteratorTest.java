@@ -101,5 +101,34 @@ public class MultiDocIdSetIteratorTest {
 
     }
 
+    /**
+     * Tests advancing (e.g. in a conjunction), only the iterators behind the target are moved
+     */
+    @Test
+    public void test_Advance() throws IOException {
+
+        // arrange
+        PostingsEnumMock mainPostings = new PostingsEnumMock(new int[]{1, 2, 6}, new int[]{1, 1, 1});
+        PostingsEnumMock secondPostings = new PostingsEnumMock(new int[]{2, 3, 4, 6}, new int[]{1, 1, 1, 1});
+
+        MultiDocIdSetIterator postingsEnum = new MultiDocIdSetIterator(
+                new PostingsEnumWeightTuple[]{
+                        new PostingsEnumWeightTuple(mainPostings,0),
+                        new PostingsEnumWeightTuple(secondPostings,0)
+                });
+
+        // act + assert
+        Assert.assertEquals(3, postingsEnum.advance(3));
+        Assert.assertEquals(6, mainPostings.docID());
+        Assert.assertEquals(3, secondPostings.docID());
+
+        postingsEnum.nextDoc(); // 4
+        Assert.assertEquals(4, postingsEnum.docID());
+
+        Assert.assertEquals(6, postingsEnum.advance(5));
+        Assert.assertEquals(6, mainPostings.docID());
+        Assert.assertEquals(6, secondPostings.docID());
 
-}
\ No newline at end of file
+        Assert.assertEquals(DocIdSetIterator.NO_MORE_DOCS, postingsEnum.advance(7));
+    }
+}
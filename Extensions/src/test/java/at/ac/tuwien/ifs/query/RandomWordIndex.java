@@ -0,0 +1,80 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Assert;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Shared fixture of the tests, that compare two ways to score the same expansion: documents of random words from a
+ * small vocabulary, so every word is frequent and the similar terms of a query overlap in many documents
+ */
+public final class RandomWordIndex {
+
+    public static final String[] WORDS = {"universe", "world", "infinity", "bla", "space"};
+
+    private RandomWordIndex() {
+    }
+
+    /**
+     * Text of 1 to maxWords random words of the vocabulary
+     */
+    public static String text(Random random, int maxWords) {
+        StringBuilder text = new StringBuilder();
+        int length = 1 + random.nextInt(maxWords);
+        for (int j = 0; j < length; j++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Creates one segment per commit: no merges and no flushes before the commit (the random test configs flush
+     * after a few documents)
+     */
+    public static IndexWriterConfig segmentPerCommit(IndexWriterConfig config) {
+        return config.setMergePolicy(NoMergePolicy.INSTANCE)
+                .setRAMBufferSizeMB(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB)
+                .setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+    }
+
+    /**
+     * Adds the documents with the same random text in every field and commits them. The first document contains
+     * every word, so every term of the vocabulary is in every segment (also if the config flushes more often).
+     */
+    public static void addSegment(IndexWriter w, Random random, int docs, int maxWords, String... fields) throws IOException {
+        for (int i = 0; i < docs; i++) {
+            String text = i == 0 ? String.join(" ", WORDS) : text(random, maxWords);
+            Document doc = new Document();
+            for (String field : fields) {
+                doc.add(LuceneTestCase.newTextField(random, field, text, Field.Store.NO));
+            }
+            w.addDocument(doc);
+        }
+        w.commit();
+    }
+
+    /**
+     * Same hits with the same scores (rank by rank) up to the relative delta, with a delta of 0 the ranks have to
+     * contain the same documents as well
+     */
+    public static void assertSameScores(TopDocs expected, TopDocs actual, float relativeDelta) {
+        Assert.assertEquals(expected.totalHits, actual.totalHits);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            ScoreDoc e = expected.scoreDocs[i];
+            ScoreDoc a = actual.scoreDocs[i];
+            if (relativeDelta == 0) {
+                Assert.assertEquals(e.doc, a.doc);
+            }
+            Assert.assertEquals(e.score, a.score, relativeDelta * e.score);
+        }
+    }
+}
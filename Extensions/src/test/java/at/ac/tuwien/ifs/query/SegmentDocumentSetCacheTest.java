@@ -0,0 +1,95 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.io.IOException;
+
+/**
+ * Tests, that the <code>{@link SegmentDocumentSetCache}</code> only counts new segments after a near-real-time
+ * reopen, drops the partials of merged away segments and always gives the same count as a full scan
+ */
+public class SegmentDocumentSetCacheTest extends LuceneTestCase {
+
+    private static void addSegment(IndexWriter w) throws IOException {
+        RandomWordIndex.addSegment(w, random(), 100, 2, "field");
+    }
+
+    private static TermContext[] states(DirectoryReader r, Term[] terms) throws IOException {
+        TermContext[] states = new TermContext[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            states[i] = TermContext.build(r.getContext(), terms[i]);
+        }
+        return states;
+    }
+
+    private static long scan(DirectoryReader r, Term[] terms) throws IOException {
+        long count = 0;
+        for (LeafReaderContext leaf : r.leaves()) {
+            count += TermDocSetCache.countLeaf(leaf, terms, null, null);
+        }
+        return count;
+    }
+
+    public void test_reopen_onlyNewSegmentsAreCounted() throws IOException {
+
+        // arrange
+        Directory dir = newDirectory();
+        IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new MockAnalyzer(random()))
+                .setMergePolicy(NoMergePolicy.INSTANCE));
+        for (int i = 0; i < 3; i++) {
+            addSegment(w);
+        }
+
+        Term[] terms = {new Term("field", "universe"), new Term("field", "world"), new Term("field", "infinity")};
+        Term[] reordered = {terms[2], terms[0], terms[1]};
+
+        SegmentDocumentSetCache cache = new SegmentDocumentSetCache(100, random().nextBoolean() ? null : new TermDocSetCache(10, 1 << 20));
+
+        // (the random config may flush more than one segment per commit)
+        DirectoryReader r1 = DirectoryReader.open(w);
+        int segments = r1.leaves().size();
+
+        // act & assert: first query counts all segments
+        assertEquals(scan(r1, terms), cache.count(new IndexSearcher(r1), terms, states(r1, terms)));
+        assertEquals(segments, cache.getMisses());
+        assertEquals(segments, cache.size());
+
+        // same terms in another order -> same partials
+        assertEquals(scan(r1, terms), cache.count(new IndexSearcher(r1), reordered, states(r1, reordered)));
+        assertEquals(segments, cache.getHits());
+
+        // near-real-time reopen with new segments -> only the new ones are counted
+        addSegment(w);
+        DirectoryReader r2 = DirectoryReader.openIfChanged(r1, w);
+        assertNotNull(r2);
+        int newSegments = r2.leaves().size() - segments;
+        assertTrue(newSegments > 0);
+
+        assertEquals(scan(r2, terms), cache.count(new IndexSearcher(r2), terms, states(r2, terms)));
+        assertEquals(segments + newSegments, cache.getMisses());
+        assertEquals(2 * segments, cache.getHits());
+
+        // merge -> the old cores are closed with the last reader, their partials are dropped
+        w.getConfig().setMergePolicy(newLogMergePolicy());
+        w.forceMerge(1);
+        DirectoryReader r3 = DirectoryReader.openIfChanged(r2, w);
+        assertNotNull(r3);
+        IOUtils.close(r1, r2);
+
+        assertEquals(0, cache.size());
+        assertEquals(scan(r3, terms), cache.count(new IndexSearcher(r3), terms, states(r3, terms)));
+        assertEquals(1, cache.size());
+
+        IOUtils.close(r3, w, dir);
+    }
+}
@@ -0,0 +1,145 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests, that the parallel modes of the <code>{@link TermContextBuilder}</code> produce the same term contexts
+ * (and search results) as the serial build, on an index with multiple segments
+ */
+public class TermContextBuilderTest extends LuceneTestCase {
+
+    public void test_parallelModes_sameAsSerial() throws IOException {
+
+        // arrange lucene index, one segment per commit
+        Directory dir = newDirectory();
+        RandomIndexWriter w = new RandomIndexWriter(
+                random(),
+                dir,
+                newIndexWriterConfig(new MockAnalyzer(random()))
+                        .setMergePolicy(NoMergePolicy.INSTANCE)
+                        .setSimilarity(new BM25Similarity()));
+
+        String[] docs = new String[] {
+                "bla",
+                "universe bla bla",
+                "universe world infinity",
+                "universe world bla",
+                "world world",
+                "infinity",
+        };
+        for (int i = 0; i < docs.length; i++) {
+            Document doc = new Document();
+            doc.add(newStringField("id", "" + i, Field.Store.YES));
+            doc.add(newTextField("field", docs[i], Field.Store.NO));
+            w.addDocument(doc);
+            w.commit();
+        }
+
+        IndexReader r = w.getReader();
+        IndexSearcher s = newSearcher(r);
+        s.setSimilarity(new BM25Similarity());
+
+        Term[] terms = {
+                new Term("field", "universe"),
+                new Term("field", "world"),
+                new Term("field", "missing"),
+                new Term("other", "world"),
+                new Term("field", "infinity")};
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        TermContextBuilder[] builders = {
+                new TermContextBuilder(TermContextBuilder.Mode.PerTerm, executor),
+                new TermContextBuilder(TermContextBuilder.Mode.PerLeaf, executor)};
+
+        // act & assert: term contexts
+        TermContext[] expected = TermContextBuilder.serial().build(r.getContext(), terms);
+
+        for (TermContextBuilder builder : builders) {
+            TermContext[] actual = builder.build(r.getContext(), terms);
+
+            for (int i = 0; i < terms.length; i++) {
+                assertTrue(actual[i].wasBuiltFor(r.getContext()));
+                assertEquals(expected[i].docFreq(), actual[i].docFreq());
+                assertEquals(expected[i].totalTermFreq(), actual[i].totalTermFreq());
+                for (int ord = 0; ord < r.leaves().size(); ord++) {
+                    assertEquals(expected[i].get(ord) == null, actual[i].get(ord) == null);
+                }
+            }
+        }
+
+        // act & assert: search results
+        TermWeightTuple[] similar = {
+                new TermWeightTuple(terms[1], .5f),
+                new TermWeightTuple(terms[4], .3f)};
+
+        for (AugmentedTermQuery.ModelMethod method : AugmentedTermQuery.ModelMethod.values()) {
+            TopDocs expectedDocs = s.search(new AugmentedTermQuery(method, terms[0], similar), 10);
+
+            for (TermContextBuilder builder : builders) {
+                TopDocs actualDocs = s.search(new AugmentedTermQuery(method, terms[0], similar, null, builder), 10);
+
+                assertEquals(expectedDocs.totalHits, actualDocs.totalHits);
+                for (int i = 0; i < expectedDocs.scoreDocs.length; i++) {
+                    assertEquals(expectedDocs.scoreDocs[i].doc, actualDocs.scoreDocs[i].doc);
+                    assertEquals(expectedDocs.scoreDocs[i].score, actualDocs.scoreDocs[i].score, 0);
+                }
+            }
+        }
+
+        executor.shutdown();
+        IOUtils.close(r, w, dir);
+    }
+
+    public void test_cache_reusedUntilReopen() throws IOException {
+
+        // arrange
+        Directory dir = newDirectory();
+        RandomIndexWriter w = new RandomIndexWriter(random(), dir, newIndexWriterConfig(new MockAnalyzer(random())));
+
+        Document doc = new Document();
+        doc.add(newTextField("field", "universe world", Field.Store.NO));
+        w.addDocument(doc);
+
+        IndexReader r = w.getReader();
+
+        Term[] terms = {new Term("field", "universe"), new Term("field", "world")};
+        BoundedTermContextCache cache = new BoundedTermContextCache(100);
+        TermContextBuilder builder = TermContextBuilder.serial().withCache(cache);
+
+        // act
+        TermContext[] first = builder.build(r.getContext(), terms);
+        TermContext[] second = builder.build(r.getContext(), terms);
+
+        w.addDocument(doc);
+        IndexReader reopened = w.getReader();
+        TermContext[] third = builder.build(reopened.getContext(), terms);
+
+        // assert
+        assertSame(first[0], second[0]);
+        assertSame(first[1], second[1]);
+        assertNotSame(first[0], third[0]);
+        assertTrue(third[0].wasBuiltFor(reopened.getContext()));
+        assertEquals(2, third[0].docFreq());
+
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses()); // 2 initial + 2 built for the old reader
+        IOUtils.close(r, reopened, w, dir);
+    }
+}
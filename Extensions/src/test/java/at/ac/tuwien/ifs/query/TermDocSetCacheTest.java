@@ -0,0 +1,123 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+
+/**
+ * Tests, that the <code>{@link TermDocSetCache}</code> counts exactly the same document sets as the postings scan
+ * of the extended model method, and that it is bounded & cleaned up with the segment cores
+ */
+public class TermDocSetCacheTest extends LuceneTestCase {
+
+    private static Directory createIndex() throws IOException {
+        Directory dir = newDirectory();
+        IndexWriter w = new IndexWriter(dir, RandomWordIndex.segmentPerCommit(newIndexWriterConfig(new MockAnalyzer(random()))));
+        for (int segment = 0; segment < 4; segment++) {
+            RandomWordIndex.addSegment(w, random(), 300, 4, "field");
+        }
+        w.close();
+        return dir;
+    }
+
+    public void test_count_sameAsScan() throws IOException {
+
+        // arrange
+        Directory dir = createIndex();
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+        s.setSimilarity(new BM25Similarity());
+
+        // "missing" is not in the index
+        Term[] terms = {new Term("field", "universe"), new Term("field", "world"), new Term("field", "infinity"), new Term("field", "missing")};
+        TermContext[] states = new TermContext[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            states[i] = TermContext.build(r.getContext(), terms[i]);
+        }
+        float[] weights = {.9f, .8f, .8f};
+
+        ExtendedStatistics scan = ExtendedStatistics.compute(r.leaves(), weights, context -> {
+            PostingsEnum[] output = new PostingsEnum[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                output[i] = context.reader().postings(terms[i], PostingsEnum.FREQS);
+            }
+            return output;
+        }, null);
+
+        TermDocSetCache cache = new TermDocSetCache(50, 1 << 20);
+
+        // act
+        long first = cache.count(s, terms, states);
+        long second = cache.count(s, terms, states);
+
+        // assert
+        assertEquals(scan.documentSetCount, first);
+        assertEquals(first, second);
+        assertTrue(cache.size() > 0);
+        assertEquals(cache.size(), cache.getHits());
+
+        // same ranking with the query (high weights -> weighted ttf >= document set count in this dense index)
+        Term mainTerm = terms[0];
+        TermWeightTuple[] similar = {
+                new TermWeightTuple(terms[1], .9f),
+                new TermWeightTuple(terms[2], .8f),
+                new TermWeightTuple(terms[3], .8f)};
+
+        TopDocs scanned = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Extended, mainTerm, similar), 20);
+        TopDocs cached = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Extended, mainTerm, similar,
+                null, TermContextBuilder.serial(), cache), 20);
+
+        assertEquals(scanned.totalHits, cached.totalHits);
+        for (int i = 0; i < scanned.scoreDocs.length; i++) {
+            assertEquals(scanned.scoreDocs[i].score, cached.scoreDocs[i].score, 0.0001);
+        }
+
+        // closing the reader closes the segment cores -> all bitmaps are removed
+        r.close();
+        assertEquals(0, cache.size());
+
+        IOUtils.close(dir);
+    }
+
+    public void test_bounded() throws IOException {
+
+        // arrange
+        Directory dir = createIndex();
+        DirectoryReader r = DirectoryReader.open(dir);
+        IndexSearcher s = new IndexSearcher(r);
+
+        Term[] terms = new Term[RandomWordIndex.WORDS.length];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = new Term("field", RandomWordIndex.WORDS[i]);
+        }
+
+        TermDocSetCache unbounded = new TermDocSetCache(1, Long.MAX_VALUE);
+        unbounded.count(s, terms, null);
+        long maxBytes = (unbounded.ramBytesUsed() - RamUsageEstimator.shallowSizeOf(unbounded)) / 3;
+
+        TermDocSetCache bounded = new TermDocSetCache(1, maxBytes);
+
+        // act
+        long count = bounded.count(s, terms, null);
+
+        // assert: same count, but only a part of the bitmaps is kept
+        assertEquals(unbounded.count(s, terms, null), count);
+        assertEquals(r.maxDoc(), count);
+        assertTrue(bounded.size() < unbounded.size());
+        assertTrue(bounded.ramBytesUsed() - RamUsageEstimator.shallowSizeOf(bounded) <= maxBytes);
+
+        IOUtils.close(r, dir);
+    }
+}
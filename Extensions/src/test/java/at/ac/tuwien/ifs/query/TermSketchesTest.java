@@ -0,0 +1,148 @@
+package at.ac.tuwien.ifs.query;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Tests the <code>{@link HyperLogLog}</code> estimates, the <code>{@link TermSketches}</code> sidecar and the
+ * approximate extended model method of the <code>{@link AugmentedTermQuery}</code>
+ */
+public class TermSketchesTest extends LuceneTestCase {
+
+    public void test_hyperLogLog_estimate() {
+
+        // arrange
+        HyperLogLog a = new HyperLogLog(12);
+        HyperLogLog b = new HyperLogLog(12);
+
+        // act: a = 0 .. 60k, b = 40k .. 100k -> union = 100k
+        for (int i = 0; i < 60000; i++) {
+            a.add(TermSketches.hashDoc(i));
+        }
+        for (int i = 40000; i < 100000; i++) {
+            b.add(TermSketches.hashDoc(i));
+        }
+        HyperLogLog union = a.copy();
+        union.merge(b);
+
+        // assert: ~1.6% standard error -> 5% is safe
+        assertEquals(60000, a.cardinality(), 60000 * 0.05);
+        assertEquals(100000, union.cardinality(), 100000 * 0.05);
+
+        // small cardinalities are nearly exact (linear counting)
+        HyperLogLog small = new HyperLogLog(12);
+        for (int i = 0; i < 100; i++) {
+            small.add(TermSketches.hashDoc(i));
+        }
+        assertEquals(100, small.cardinality(), 2);
+    }
+
+    public void test_approximateExtended_closeToExact() throws IOException {
+
+        // arrange lucene index, one segment per commit
+        Directory dir = newDirectory();
+        RandomIndexWriter w = new RandomIndexWriter(
+                random(),
+                dir,
+                newIndexWriterConfig(new MockAnalyzer(random()))
+                        .setMergePolicy(NoMergePolicy.INSTANCE)
+                        .setSimilarity(new BM25Similarity()));
+
+        String[] words = {"universe", "world", "infinity", "bla", "space"};
+        for (int segment = 0; segment < 4; segment++) {
+            for (int i = 0; i < 500; i++) {
+                StringBuilder text = new StringBuilder();
+                for (int j = 0; j < 1 + random().nextInt(6); j++) {
+                    text.append(words[random().nextInt(words.length)]).append(' ');
+                }
+                Document doc = new Document();
+                doc.add(newTextField("field", text.toString(), Field.Store.NO));
+                w.addDocument(doc);
+            }
+            w.commit();
+        }
+
+        DirectoryReader r = w.getReader();
+        IndexSearcher s = new IndexSearcher(r);
+        s.setSimilarity(new BM25Similarity());
+
+        // rare terms (below 50 docs) are not sketched -> there are none here, except the missing term
+        Path file = createTempDir().resolve("index" + TermSketches.EXTENSION);
+        TermSketches.write(r, 50, 12, file);
+
+        // act
+        TermSketches sketches = TermSketches.load(file);
+
+        // assert
+        assertTrue(sketches.isBuiltFor(r));
+        assertEquals(words.length, sketches.size());
+        assertNotNull(sketches.get(new Term("field", "universe")));
+        assertNull(sketches.get(new Term("field", "missing")));
+
+        Term mainTerm = new Term("field", "universe");
+        TermWeightTuple[] similar = {
+                new TermWeightTuple(new Term("field", "world"), .5f),
+                new TermWeightTuple(new Term("field", "infinity"), .3f),
+                new TermWeightTuple(new Term("field", "missing"), .3f)};
+
+        Term[] terms = {mainTerm, similar[0].term, similar[1].term, similar[2].term};
+        TermContext[] states = new TermContext[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            states[i] = TermContext.build(r.getContext(), terms[i]);
+        }
+        float[] weights = {.5f, .3f, .3f};
+
+        ExtendedStatistics exactStats = ExtendedStatistics.compute(r.leaves(), weights, context -> {
+            PostingsEnum[] output = new PostingsEnum[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                output[i] = context.reader().postings(terms[i], PostingsEnum.FREQS);
+            }
+            return output;
+        }, null);
+        ExtendedStatistics approximateStats = ExtendedStatistics.count(sketches, s, terms, states, weights);
+
+        // union doc freq inside the error of the sketches, the weighted freq sums are exact
+        assertEquals(exactStats.documentSetCount, approximateStats.documentSetCount, exactStats.documentSetCount * 0.05);
+        assertEquals(exactStats.weightedSimilarTermFreqSum, approximateStats.weightedSimilarTermFreqSum, 1f);
+        assertEquals(exactStats.oneMinusWeightedSimilarTermFreqSum, approximateStats.oneMinusWeightedSimilarTermFreqSum, 1f);
+
+        // same matches with the query
+        TopDocs exact = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Extended, mainTerm, similar), 10);
+        TopDocs approximate = s.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Extended, mainTerm, similar,
+                null, TermContextBuilder.serial(), sketches), 10);
+        assertEquals(exact.totalHits, approximate.totalHits);
+
+        // sketches of another commit -> exact statistics
+        w.addDocument(new Document());
+        w.commit();
+        DirectoryReader r2 = w.getReader();
+        assertFalse(sketches.isBuiltFor(r2));
+
+        IndexSearcher s2 = new IndexSearcher(r2);
+        s2.setSimilarity(new BM25Similarity());
+        TopDocs exact2 = s2.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Extended, mainTerm, similar), 10);
+        TopDocs fallback2 = s2.search(new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Extended, mainTerm, similar,
+                null, TermContextBuilder.serial(), sketches), 10);
+        for (int i = 0; i < exact2.scoreDocs.length; i++) {
+            assertEquals(exact2.scoreDocs[i].score, fallback2.scoreDocs[i].score, 0f);
+        }
+
+        IOUtils.close(r, r2, w, dir);
+    }
+}
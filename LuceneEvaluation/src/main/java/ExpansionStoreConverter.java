@@ -0,0 +1,58 @@
+import at.ac.tuwien.ifs.api.MappedExpansionStore;
+import at.ac.tuwien.ifs.api.PreAnalyzedExpansions;
+import org.apache.commons.cli.*;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Main class, converts a pre-computed similar term file (json) to a memory mapped expansion store (.exp),
+ * optionally pre-analyzed with the analyzer of the evaluation (-a) - then the TopicEvaluator does not need to
+ * analyze the similar terms of every query
+ */
+public class ExpansionStoreConverter {
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = new Options();
+
+        options.addRequiredOption("i", "input-file", true,
+                "pre-computed similar term file (json)");
+
+        options.addRequiredOption("o", "output-file", true,
+                "expansion store file (should end with " + MappedExpansionStore.EXTENSION + ")");
+
+        options.addOption("a", "analyzer", true,
+                "english/stop-lower-only - pre-analyze the terms (must match the analyzer of the evaluation)");
+
+        options.addOption("f", "field", true,
+                "index field, passed to the analyzer (default: body)");
+
+        CommandLine parsedArgs;
+        CommandLineParser parser = new DefaultParser();
+        try {
+            parsedArgs = parser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("expansionStoreConverter", options);
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        Path input = Paths.get(parsedArgs.getOptionValue("i"));
+        Path output = Paths.get(parsedArgs.getOptionValue("o"));
+
+        if (parsedArgs.hasOption("a")) {
+            String analyzer = parsedArgs.getOptionValue("a");
+            PreAnalyzedExpansions.convert(input, output, TopicEvaluator.getAnalyzerFromString(analyzer),
+                    parsedArgs.getOptionValue("f", "body"), analyzer);
+        } else {
+            MappedExpansionStore.convert(input, output);
+        }
+
+        try (MappedExpansionStore store = new MappedExpansionStore(output)) {
+            System.out.println("Converted " + store.size() + " terms in (s): " + ((System.currentTimeMillis() - startTime) / 1000f));
+        }
+    }
+}
@@ -43,6 +43,9 @@ public class Indexer {
         options.addRequiredOption("a","analyzer",true,
                 "english/stop-lower-only");
 
+        options.addOption("sk","term-sketches",true,
+                "optional, writes the term sketch file for the ETA translation model after indexing (see TermSketchBuilder)");
+
         CommandLineParser parser = new DefaultParser();
         try {
             parsedArgs = parser.parse( options, args );
@@ -94,6 +97,11 @@ public class Indexer {
 
             writer.close();
 
+            if(parsedArgs.hasOption("sk")){
+                TermSketchBuilder.build(dir, Paths.get(parsedArgs.getOptionValue("sk")),
+                        TermSketchBuilder.defaultMinDocFreq, TermSketchBuilder.defaultPrecision);
+            }
+
         } catch (IOException e) {
             System.out.println("Error: " + e.getMessage());
             e.printStackTrace();
@@ -41,6 +41,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class, is used to index TREC-8 (given path) into a lucene index
@@ -63,6 +66,8 @@ public class MsMarcoSearcher {
 
         options.addRequiredOption("a", "analyzer", true, "english/stop-lower-only");
 
+        options.addOption("ip", "intra-query-threads", true, "optional, threads that search the index segments of a query in parallel (default: 1)");
+
         CommandLineParser parser = new DefaultParser();
         try {
             parsedArgs = parser.parse(options, args);
@@ -90,7 +95,10 @@ public class MsMarcoSearcher {
 
             FSDirectory indexDirectory = FSDirectory.open(Paths.get(parsedArgs.getOptionValue("i")));
             IndexReader reader = DirectoryReader.open(indexDirectory);
-            IndexSearcher searcher = new IndexSearcher(reader);
+
+            int intraQueryThreads = Integer.parseInt(parsedArgs.getOptionValue("ip", "1"));
+            ExecutorService executor = intraQueryThreads > 1 ? Executors.newFixedThreadPool(intraQueryThreads) : null;
+            IndexSearcher searcher = new IndexSearcher(reader, executor);
 
             switch (parsedArgs.getOptionValue("t")) {
             case "lossless":
@@ -105,6 +113,10 @@ public class MsMarcoSearcher {
 
             queryMsMarco(parsedArgs.getOptionValue("q"), parsedArgs.getOptionValue("o"), analyzer, searcher);
 
+            if (executor != null) {
+                executor.shutdown();
+                executor.awaitTermination(7, TimeUnit.DAYS); // = no timeout
+            }
             reader.close();
             indexDirectory.close();
 
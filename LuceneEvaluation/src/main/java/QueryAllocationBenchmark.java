@@ -0,0 +1,150 @@
+import at.ac.tuwien.ifs.query.AugmentedTermQuery;
+import at.ac.tuwien.ifs.query.BM25SimilarityLossless;
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import org.apache.commons.cli.*;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Main class, measures the heap allocation (bytes per query, all threads) and the latency of the augmented term
+ * query on a synthetic in-memory index - to check changes of the scoring hot path.
+ * Run with a fixed heap and without other load, the numbers are averages over all runs (after the warm up).
+ */
+public class QueryAllocationBenchmark {
+
+    private static final String field = "body";
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = new Options();
+
+        options.addOption("m", "method", true,
+                "GT or ET (default: ET)");
+
+        options.addOption("n", "docs", true,
+                "number of synthetic documents (default: 200000)");
+
+        options.addOption("g", "segments", true,
+                "number of index segments (default: 8)");
+
+        options.addOption("s", "similar-terms", true,
+                "number of similar terms per query (default: 5)");
+
+        options.addOption("r", "runs", true,
+                "measured queries (default: 2000)");
+
+        options.addOption("w", "warmup", true,
+                "warm up queries (default: 2000)");
+
+        CommandLine parsedArgs;
+        CommandLineParser parser = new DefaultParser();
+        try {
+            parsedArgs = parser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("queryAllocationBenchmark", options);
+            return;
+        }
+
+        AugmentedTermQuery.ModelMethod method = parsedArgs.getOptionValue("m", "ET").equals("GT") ?
+                AugmentedTermQuery.ModelMethod.Generalized : AugmentedTermQuery.ModelMethod.Extended;
+        int docs = Integer.parseInt(parsedArgs.getOptionValue("n", "200000"));
+        int segments = Integer.parseInt(parsedArgs.getOptionValue("g", "8"));
+        int similarTerms = Integer.parseInt(parsedArgs.getOptionValue("s", "5"));
+        int runs = Integer.parseInt(parsedArgs.getOptionValue("r", "2000"));
+        int warmup = Integer.parseInt(parsedArgs.getOptionValue("w", "2000"));
+
+        try (Directory directory = createIndex(docs, segments);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(new BM25SimilarityLossless());
+
+            Query[] queries = new Query[10];
+            for (int i = 0; i < queries.length; i++) {
+                TermWeightTuple[] similar = new TermWeightTuple[similarTerms];
+                for (int j = 0; j < similarTerms; j++) {
+                    similar[j] = new TermWeightTuple(new Term(field, "w" + (i + j + 1)), .9f - .4f * j / Math.max(1, similarTerms));
+                }
+                queries[i] = new AugmentedTermQuery(method, new Term(field, "w" + i), similar);
+            }
+
+            for (int i = 0; i < warmup; i++) {
+                searcher.search(queries[i % queries.length], 10);
+            }
+
+            long bytesBefore = allocatedBytes();
+            long timeBefore = System.nanoTime();
+            long hits = 0;
+            for (int i = 0; i < runs; i++) {
+                hits += searcher.search(queries[i % queries.length], 10).totalHits;
+            }
+            long time = System.nanoTime() - timeBefore;
+            long bytes = allocatedBytes() - bytesBefore;
+
+            System.out.println(method + ": " + reader.leaves().size() + " segments, " + reader.maxDoc() + " docs, " +
+                    similarTerms + " similar terms, " + (hits / runs) + " hits per query");
+            System.out.println("allocated (bytes/query): " + (bytes / runs));
+            System.out.println("latency (ms/query): " + (time / 1e6 / runs));
+        }
+    }
+
+    /**
+     * Documents with 20 words of a zipf-like distribution (w0 is the most frequent word)
+     */
+    private static Directory createIndex(int docs, int segments) throws Exception {
+        Directory directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer())
+                .setSimilarity(new BM25SimilarityLossless())
+                .setMergePolicy(NoMergePolicy.INSTANCE)
+                .setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH)
+                .setRAMBufferSizeMB(1024);
+
+        Random random = new Random(42);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            int perSegment = Math.max(1, docs / segments);
+            for (int i = 0; i < docs; i++) {
+                StringBuilder text = new StringBuilder();
+                for (int j = 0; j < 20; j++) {
+                    text.append('w').append((int) Math.floor(Math.pow(1000, random.nextDouble())) - 1).append(' ');
+                }
+                Document doc = new Document();
+                doc.add(new TextField(field, text.toString(), Field.Store.NO));
+                writer.addDocument(doc);
+
+                if ((i + 1) % perSegment == 0) {
+                    writer.commit();
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Sum of the allocated bytes of all live threads (including fork-join workers of the statistics)
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sum = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                sum += bytes;
+            }
+        }
+        return sum;
+    }
+}
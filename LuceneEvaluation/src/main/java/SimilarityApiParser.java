@@ -1,10 +1,12 @@
 import at.ac.tuwien.ifs.api.ISimilarityApi;
 import at.ac.tuwien.ifs.api.SimilarTermModel;
+import at.ac.tuwien.ifs.parser.AnalyzedTermCache;
+import at.ac.tuwien.ifs.query.AugmentedMultiFieldQuery;
 import at.ac.tuwien.ifs.query.AugmentedTermQuery;
+import at.ac.tuwien.ifs.query.DocumentSetCounter;
+import at.ac.tuwien.ifs.query.TermContextBuilder;
 import at.ac.tuwien.ifs.query.TermWeightTuple;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.benchmark.quality.QualityQuery;
 import org.apache.lucene.benchmark.quality.QualityQueryParser;
 import org.apache.lucene.index.Term;
@@ -16,7 +18,9 @@ import org.apache.lucene.search.TermQuery;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * used to parse a query string into a lucene query - accesses the ISimilarity api for similarity information
@@ -35,6 +39,11 @@ public class SimilarityApiParser implements QualityQueryParser {
     private final AugmentedTermQuery.ModelMethod method;
     private Preprocessing preprocessingMethod;
     private Analyzer analyzer;
+    private boolean preAnalyzedApi;
+    private DocumentSetCounter documentSetCounter;
+    private AugmentedMultiFieldQuery.FieldParameters[] fields;
+    private float k1;
+    private final AnalyzedTermCache analyzedTerms = new AnalyzedTermCache(100000);
 
     /**
      * Constructor of a simple qq parser.
@@ -53,6 +62,32 @@ public class SimilarityApiParser implements QualityQueryParser {
         this.similarityApi = similarityApi;
     }
 
+    /**
+     * Set to true, if the api returns terms that are already analyzed with the analyzer of this parser
+     * (see <code>{@link at.ac.tuwien.ifs.api.PreAnalyzedExpansions}</code>) -> only terms without similar
+     * terms are analyzed in the Tokenize preprocessing
+     */
+    public void setPreAnalyzedApi(boolean preAnalyzedApi){
+        this.preAnalyzedApi = preAnalyzedApi;
+    }
+
+    /**
+     * Set a counter for the document set of the extended model statistics, e.g. the term sketches of the index
+     * (approximate ET) or a bitmap cache (exact)
+     */
+    public void setDocumentSetCounter(DocumentSetCounter documentSetCounter){
+        this.documentSetCounter = documentSetCounter;
+    }
+
+    /**
+     * Set the fields, the expansions are searched in (one BM25F-style query per query term instead of the index field),
+     * the index field is still used to analyze the query
+     */
+    public void setFields(AugmentedMultiFieldQuery.FieldParameters[] fields, float k1){
+        this.fields = fields;
+        this.k1 = k1;
+    }
+
     /*
      * Parses the given query, with the settings set in the constructor
      */
@@ -83,7 +118,7 @@ public class SimilarityApiParser implements QualityQueryParser {
         String[] queryTerms;
 
         try {
-            queryTerms = termsFromTokenStream(analyzer.tokenStream(indexField, qq.getValue(queryPart)));
+            queryTerms = analyzedTerms.analyze(analyzer, indexField, qq.getValue(queryPart));
         } catch (IOException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -121,7 +156,7 @@ public class SimilarityApiParser implements QualityQueryParser {
         if(preprocessingMethod == Preprocessing.FullAnalyzer) {
 
             try {
-                queryTerms = termsFromTokenStream(analyzer.tokenStream(indexField, qq.getValue(queryPart)));
+                queryTerms = analyzedTerms.analyze(analyzer, indexField, qq.getValue(queryPart));
             } catch (IOException e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
@@ -153,23 +188,28 @@ public class SimilarityApiParser implements QualityQueryParser {
         if(preprocessingMethod == Preprocessing.Tokenize) {
             List<SimilarTermModel> transformedSimilarTerms = new ArrayList<>();
             for (SimilarTermModel m : similarTerms) {
-                String[] st = termsFromTokenStream(analyzer.tokenStream(indexField, m.queryTerm.text()));
-                if (st.length == 0) {
+                if (preAnalyzedApi && m.similarTerms.length > 0) {
+                    transformedSimilarTerms.add(m);
+                    continue;
+                }
+
+                String mainStemmed = analyzedTerms.analyzeFirst(analyzer, indexField, m.queryTerm.text());
+                if (mainStemmed == null) {
                     continue;
                 }
-                String mainStemmed = st[0];
 
                 List<TermWeightTuple> similar = new ArrayList<>();
+                Set<String> added = new HashSet<>();
+                added.add(mainStemmed);
+
                 for (int j = 0; j < m.similarTerms.length; j++) {
 
-                    String[] stemmed = termsFromTokenStream(analyzer.tokenStream(indexField, m.similarTerms[j].term.text()));
-                    if (stemmed.length > 0) {
-                        if (similar.stream().filter(t -> t.term.text().equals(stemmed[0])).count() == 0 && !stemmed[0].equals(mainStemmed)) {
-                            similar.add(
-                                    new TermWeightTuple(
-                                            new Term(indexField, stemmed[0]),
-                                            m.similarTerms[j].weight));
-                        }
+                    String stemmed = analyzedTerms.analyzeFirst(analyzer, indexField, m.similarTerms[j].term.text());
+                    if (stemmed != null && added.add(stemmed)) { // first (= highest weighted) term per stem
+                        similar.add(
+                                new TermWeightTuple(
+                                        new Term(indexField, stemmed),
+                                        m.similarTerms[j].weight));
                     }
                 }
 
@@ -187,13 +227,13 @@ public class SimilarityApiParser implements QualityQueryParser {
         //
         Query query;
         if(similarTerms.length == 1) {
-            query = new AugmentedTermQuery(method, similarTerms[0].queryTerm, similarTerms[0].similarTerms);
+            query = createTermQuery(similarTerms[0]);
         }else{
 
             BooleanQuery.Builder builder = new BooleanQuery.Builder();
 
             for (SimilarTermModel model : similarTerms) {
-                builder.add(new AugmentedTermQuery(method, model.queryTerm, model.similarTerms), BooleanClause.Occur.SHOULD);
+                builder.add(createTermQuery(model), BooleanClause.Occur.SHOULD);
             }
 
             query = builder.build();
@@ -202,17 +242,10 @@ public class SimilarityApiParser implements QualityQueryParser {
         return query;
     }
 
-    private String[] termsFromTokenStream(TokenStream stream) throws IOException {
-
-        List<String> outputTemp=new ArrayList<>();
-        CharTermAttribute charTermAttribute = stream.addAttribute(CharTermAttribute.class);
-        stream.reset();
-        while (stream.incrementToken()) {
-            outputTemp.add(charTermAttribute.toString());
+    private Query createTermQuery(SimilarTermModel model) {
+        if(fields != null) {
+            return new AugmentedMultiFieldQuery(method, k1, fields, model.queryTerm, model.similarTerms, documentSetCounter);
         }
-        stream.end();
-        stream.close();
-
-        return outputTemp.toArray(new String[0]);
+        return new AugmentedTermQuery(method, model.queryTerm, model.similarTerms, null, TermContextBuilder.serial(), documentSetCounter);
     }
 }
@@ -0,0 +1,67 @@
+import at.ac.tuwien.ifs.query.TermSketches;
+import org.apache.commons.cli.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Main class, writes the term sketch sidecar (see TermSketches) of a lucene index (created with Indexer.main),
+ * needed by the approximate extended translation model (ETA) of the TopicEvaluator.
+ * The sketches are only valid for the current commit of the index - rebuild them after the index changed.
+ */
+public class TermSketchBuilder {
+
+    public static final int defaultMinDocFreq = 1000;
+    public static final int defaultPrecision = 12;
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = new Options();
+
+        options.addRequiredOption("i", "index-directory", true,
+                "location of a lucene index (directory)");
+
+        options.addRequiredOption("o", "output-file", true,
+                "term sketch file (should end with " + TermSketches.EXTENSION + ")");
+
+        options.addOption("d", "min-doc-freq", true,
+                "optional, only terms with at least this document frequency get a sketch (default: " + defaultMinDocFreq + ")");
+
+        options.addOption("p", "precision", true,
+                "optional, 2^p registers per sketch (default: " + defaultPrecision + ", ~1.6% error)");
+
+        CommandLine parsedArgs;
+        CommandLineParser parser = new DefaultParser();
+        try {
+            parsedArgs = parser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("termSketchBuilder", options);
+            return;
+        }
+
+        try (Directory directory = FSDirectory.open(Paths.get(parsedArgs.getOptionValue("i")))) {
+            build(directory, Paths.get(parsedArgs.getOptionValue("o")),
+                    Integer.parseInt(parsedArgs.getOptionValue("d", String.valueOf(defaultMinDocFreq))),
+                    Integer.parseInt(parsedArgs.getOptionValue("p", String.valueOf(defaultPrecision))));
+        }
+    }
+
+    /**
+     * Builds the sketches for the latest commit of the index in the given directory
+     */
+    public static void build(Directory directory, Path output, int minDocFreq, int precision) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            TermSketches.write(reader, minDocFreq, precision, output);
+        }
+
+        TermSketches sketches = TermSketches.load(output);
+        System.out.println("Built " + sketches.size() + " term sketches in (s): " + ((System.currentTimeMillis() - startTime) / 1000f));
+    }
+}
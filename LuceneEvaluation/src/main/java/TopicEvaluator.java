@@ -1,6 +1,9 @@
 import at.ac.tuwien.ifs.api.*;
+import at.ac.tuwien.ifs.parser.SimilarityParser;
 import at.ac.tuwien.ifs.query.AugmentedTermQuery;
 import at.ac.tuwien.ifs.query.BM25SimilarityLossless;
+import at.ac.tuwien.ifs.query.TermDocSetCache;
+import at.ac.tuwien.ifs.query.TermSketches;
 import org.apache.commons.cli.*;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.StopAnalyzer;
@@ -40,6 +43,9 @@ public class TopicEvaluator {
     private static FSDirectory indexDirectory;
     private static Path topicsPath;
     private static IndexReader reader;
+    private static ExecutorService intraQueryExecutor;
+    private static TermSketches termSketches;
+    private static TermDocSetCache docSetCache;
 
     public static void main(String[] args) throws Exception {
 
@@ -65,7 +71,7 @@ public class TopicEvaluator {
                 "which similarity source to use to use (rest-api/file/recorder/mock)");
 
         options.addRequiredOption("so", "similarity-option", true,
-                "based on -s, url or file path ... (if s=file, you can set a simple glob (dir/filenamestart) here for multiple evaluations)");
+                "based on -s, url or file path ... (if s=file, you can set a simple glob (dir/filenamestart) here for multiple evaluations, .exp files are opened as memory mapped stores)");
 
         options.addRequiredOption("sp", "similarity-preprocessing", true,
                 "which type of preprocessing should be done before the similarity source is accessed" +
@@ -93,11 +99,23 @@ public class TopicEvaluator {
                 "choice: bm25,bm25lossless,lm - can be multiple sep. by ',' but bm25lossless needs a different index");
 
         options.addRequiredOption("m", "translation-models", true,
-                "choice: none,GT,ET - can be multiple sep. by ','");
+                "choice: none,GT,ET,ETA - can be multiple sep. by ',' (ETA = approximate ET, needs -sk)");
 
         options.addRequiredOption("a", "analyzer", true,
                 "english/stop-lower-only");
 
+        options.addOption("sk", "term-sketches", true,
+                "optional, term sketch file of the index (see TermSketchBuilder), used by the ETA translation model");
+
+        options.addOption("dc", "doc-set-cache", true,
+                "optional, size in MB of a bitmap cache for the document sets of frequent terms, used by the ET translation model");
+
+        options.addOption("ip", "intra-query-threads", true,
+                "optional, number of threads that search the index segments of a single query in parallel (default: 1 = no intra-query parallelism)");
+
+        options.addOption("fl", "fields", true,
+                "optional, searches the expansions BM25F-style in these fields of the index instead of the body (e.g. title^2,body, k1 = 1.2, b = 0.75), used by the GT/ET translation models");
+
         CommandLineParser parser = new DefaultParser();
         try {
             parsedArgs = parser.parse(options, args);
@@ -116,6 +134,22 @@ public class TopicEvaluator {
         indexDirectory = FSDirectory.open(Paths.get(parsedArgs.getOptionValue("i")));
         reader = DirectoryReader.open(indexDirectory);
 
+        if (parsedArgs.hasOption("sk")) {
+            termSketches = TermSketches.load(Paths.get(parsedArgs.getOptionValue("sk")));
+            if (!termSketches.isBuiltFor(reader)) {
+                throw new RuntimeException("term sketches: " + parsedArgs.getOptionValue("sk") + " were built for another index commit");
+            }
+        }
+
+        if (parsedArgs.hasOption("dc")) {
+            docSetCache = new TermDocSetCache(TermSketchBuilder.defaultMinDocFreq, Long.parseLong(parsedArgs.getOptionValue("dc")) << 20);
+        }
+
+        int intraQueryThreads = Integer.parseInt(parsedArgs.getOptionValue("ip", "1"));
+        if (intraQueryThreads > 1) {
+            intraQueryExecutor = Executors.newFixedThreadPool(intraQueryThreads);
+        }
+
         topicsPath = Paths.get(parsedArgs.getOptionValue("t"));
 
         String[] similarityClasses = parsedArgs.getOptionValue("e").split(",");
@@ -206,6 +240,10 @@ public class TopicEvaluator {
 
         System.out.println("All completed !\n Total time: (s): " + ((System.currentTimeMillis() - startTime) / 1000f));
 
+        if (intraQueryExecutor != null) {
+            intraQueryExecutor.shutdown();
+            intraQueryExecutor.awaitTermination(7, TimeUnit.DAYS); // = no timeout
+        }
         reader.close();
         indexDirectory.close();
     }
@@ -227,7 +265,7 @@ public class TopicEvaluator {
         //
         // prepare index + similarity
         //
-        IndexSearcher searcher = new IndexSearcher(reader);
+        IndexSearcher searcher = new IndexSearcher(reader, intraQueryExecutor); // executor may be null (= serial)
         searcher.setSimilarity(getSimilarityFromString(sim));
 
         // use trec utilities to read trec topics into quality queries
@@ -263,6 +301,13 @@ public class TopicEvaluator {
                 mm = AugmentedTermQuery.ModelMethod.Extended;
                 useAugmented = true;
                 break;
+            case "ETA":
+                if (termSketches == null) {
+                    throw new RuntimeException("translation model: ETA needs the term sketches (-sk)");
+                }
+                mm = AugmentedTermQuery.ModelMethod.Extended;
+                useAugmented = true;
+                break;
             case "GT":
                 mm = AugmentedTermQuery.ModelMethod.Generalized;
                 useAugmented = true;
@@ -276,21 +321,28 @@ public class TopicEvaluator {
             apiPrePro = SimilarityApiParser.Preprocessing.FullAnalyzer;
         }
 
-        Analyzer analyzer = null;
+        Analyzer analyzer = getAnalyzerFromString(parsedArgs.getOptionValue("a"));
 
-        switch (parsedArgs.getOptionValue("a")) {
-            case "english":
-                analyzer = new EnglishAnalyzer(StopWords.nltkStopWords());
-                break;
-            case "stop-lower-only":
-                analyzer = new StopAnalyzer(StopWords.nltkStopWords());
-                break;
-            default:
-                throw new RuntimeException("analyzer not supported: " + parsedArgs.getOptionValue("a"));
+        SimilarityApiParser qqParser = new SimilarityApiParser("title", "body", useAugmented, mm, apiPrePro, analyzer);
+        ISimilarityApi similarityApi = getISimilarityApi(similarityOption);
+        qqParser.setSimilarityApi(similarityApi);
+        if (useAugmented && parsedArgs.hasOption("fl")) {
+            qqParser.setFields(SimilarityParser.parseFields(parsedArgs.getOptionValue("fl"), 0.75f), 1.2f);
+        }
+        if (model.equals("ETA")) {
+            qqParser.setDocumentSetCounter(termSketches);
+        } else if (model.equals("ET")) {
+            qqParser.setDocumentSetCounter(docSetCache); // null -> postings are walked
         }
 
-        SimilarityApiParser qqParser = new SimilarityApiParser("title", "body", useAugmented, mm, apiPrePro, analyzer);
-        qqParser.setSimilarityApi(getISimilarityApi(similarityOption));
+        // pre-analyzed stores (see ExpansionStoreConverter) have to match the analyzer
+        if (similarityApi instanceof MappedExpansionStore && ((MappedExpansionStore) similarityApi).getAnalyzerId() != null) {
+            String analyzerId = ((MappedExpansionStore) similarityApi).getAnalyzerId();
+            if (!analyzerId.equals(parsedArgs.getOptionValue("a"))) {
+                throw new RuntimeException("similarity file is pre-analyzed with: " + analyzerId + " but the analyzer is: " + parsedArgs.getOptionValue("a"));
+            }
+            qqParser.setPreAnalyzedApi(true);
+        }
 
         //
         // run the evaluation
@@ -315,7 +367,11 @@ public class TopicEvaluator {
                 similarityApi = new SimilarityApi(similarityOption, null);
                 break;
             case "file":
-                similarityApi = new SimilarityApiFromFile(similarityOption);
+                if (similarityOption.endsWith(MappedExpansionStore.EXTENSION)) {
+                    similarityApi = new MappedExpansionStore(Paths.get(similarityOption));
+                } else {
+                    similarityApi = new SimilarityApiFromFile(similarityOption);
+                }
                 break;
             case "recorder":
                 similarityApi = new SimilarityRecorder(similarityOption);
@@ -329,6 +385,17 @@ public class TopicEvaluator {
         return similarityApi;
     }
 
+    static Analyzer getAnalyzerFromString(String name) {
+        switch (name) {
+            case "english":
+                return new EnglishAnalyzer(StopWords.nltkStopWords());
+            case "stop-lower-only":
+                return new StopAnalyzer(StopWords.nltkStopWords());
+            default:
+                throw new RuntimeException("analyzer not supported: " + name);
+        }
+    }
+
     private static Similarity getSimilarityFromString(String sim) {
         Similarity similarity;
 
@@ -0,0 +1,214 @@
+import at.ac.tuwien.ifs.analysis.TranslationMap;
+import at.ac.tuwien.ifs.analysis.TranslationTokenFilter;
+import at.ac.tuwien.ifs.api.ApiReturnModel;
+import at.ac.tuwien.ifs.codecs.TranslationPostingsFormat;
+import at.ac.tuwien.ifs.query.AugmentedTermQuery;
+import at.ac.tuwien.ifs.query.BM25SimilarityLossless;
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import at.ac.tuwien.ifs.query.TranslationTermQuery;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.cli.*;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene62.Lucene62Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Main class, compares the index-time translation field (<code>{@link TranslationTokenFilter}</code> +
+ * <code>{@link TranslationTermQuery}</code>) with the query-time generalized model (<code>{@link AugmentedTermQuery}</code>)
+ * on a synthetic in-memory index: index size overhead, latency and the top 10 parity. With <code>-w</code> the
+ * translation field is written with the <code>{@link TranslationPostingsFormat}</code>.
+ */
+public class TranslationFieldBenchmark {
+
+    private static final String field = "body";
+    private static final String translationField = "body_tr";
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = new Options();
+
+        options.addOption("n", "docs", true,
+                "number of synthetic documents (default: 200000)");
+
+        options.addOption("s", "similar-terms", true,
+                "number of similar terms per main term (default: 5)");
+
+        options.addOption("r", "runs", true,
+                "measured queries (default: 2000)");
+
+        options.addOption("w", "weights", false,
+                "writes the translation field with the TranslationPostingsFormat (quantized weights instead of payloads)");
+
+        CommandLine parsedArgs;
+        CommandLineParser parser = new DefaultParser();
+        try {
+            parsedArgs = parser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("translationFieldBenchmark", options);
+            return;
+        }
+
+        int docs = Integer.parseInt(parsedArgs.getOptionValue("n", "200000"));
+        int similarTerms = Integer.parseInt(parsedArgs.getOptionValue("s", "5"));
+        int runs = Integer.parseInt(parsedArgs.getOptionValue("r", "2000"));
+        boolean quantized = parsedArgs.hasOption("w");
+
+        // the same expansion for both models: w<i> -> w<i+1> ... w<i+s>, for the 1000 words of the index
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder terms = new StringBuilder();
+            StringBuilder weights = new StringBuilder();
+            for (int j = 0; j < similarTerms; j++) {
+                terms.append(j > 0 ? "," : "").append("\"w").append(i + j + 1).append('"');
+                weights.append(j > 0 ? "," : "").append(weight(j, similarTerms));
+            }
+            json.append(i > 0 ? "," : "").append("\"w").append(i).append("\":[[").append(terms).append("],[").append(weights).append("]]");
+        }
+        TranslationMap translationMap = TranslationMap.of(
+                new ObjectMapper().readValue(json.append('}').toString(), ApiReturnModel.class), 0f, Integer.MAX_VALUE);
+
+        long plainSize;
+        try (Directory plain = createIndex(docs, null, false)) {
+            plainSize = size(plain);
+        }
+
+        try (Directory directory = createIndex(docs, translationMap, quantized);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(new BM25SimilarityLossless());
+
+            Query[] augmented = new Query[10];
+            Query[] translated = new Query[10];
+            for (int i = 0; i < augmented.length; i++) {
+                TermWeightTuple[] similar = new TermWeightTuple[similarTerms];
+                for (int j = 0; j < similarTerms; j++) {
+                    similar[j] = new TermWeightTuple(new Term(field, "w" + (i + j + 1)), weight(j, similarTerms));
+                }
+                augmented[i] = new AugmentedTermQuery(AugmentedTermQuery.ModelMethod.Generalized, new Term(field, "w" + i), similar);
+                translated[i] = new TranslationTermQuery(new Term(translationField, "w" + i), field);
+            }
+
+            // parity
+            int overlap = 0;
+            float maxScoreDiff = 0;
+            for (int i = 0; i < augmented.length; i++) {
+                TopDocs expected = searcher.search(augmented[i], 10);
+                TopDocs actual = searcher.search(translated[i], 10);
+                Set<Integer> expectedDocs = new HashSet<>();
+                for (ScoreDoc doc : expected.scoreDocs) {
+                    expectedDocs.add(doc.doc);
+                }
+                for (int j = 0; j < actual.scoreDocs.length; j++) {
+                    overlap += expectedDocs.contains(actual.scoreDocs[j].doc) ? 1 : 0;
+                    maxScoreDiff = Math.max(maxScoreDiff, Math.abs(expected.scoreDocs[j].score - actual.scoreDocs[j].score));
+                }
+            }
+
+            long directorySize = size(directory);
+            System.out.println(reader.leaves().size() + " segments, " + reader.maxDoc() + " docs, " +
+                    similarTerms + " similar terms, " + translationMap.getTranslationCount() + " translations, " +
+                    (quantized ? "quantized weights" : "payloads"));
+            System.out.println("index size (bytes): " + plainSize + " without, " + directorySize + " with translation field (+" +
+                    String.format("%.1f", 100.0 * (directorySize - plainSize) / plainSize) + "%)");
+            System.out.println("top 10 overlap: " + overlap + "/" + (10 * augmented.length) + ", max. score difference: " + maxScoreDiff);
+            System.out.println("latency GT (ms/query): " + latency(searcher, augmented, runs));
+            System.out.println("latency translation field (ms/query): " + latency(searcher, translated, runs));
+        }
+    }
+
+    private static float weight(int j, int similarTerms) {
+        return .9f - .4f * j / Math.max(1, similarTerms);
+    }
+
+    private static double latency(IndexSearcher searcher, Query[] queries, int runs) throws Exception {
+        for (int i = 0; i < runs; i++) {
+            searcher.search(queries[i % queries.length], 10);
+        }
+        long timeBefore = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            searcher.search(queries[i % queries.length], 10);
+        }
+        return (System.nanoTime() - timeBefore) / 1e6 / runs;
+    }
+
+    private static long size(Directory directory) throws Exception {
+        long sum = 0;
+        for (String file : directory.listAll()) {
+            sum += directory.fileLength(file);
+        }
+        return sum;
+    }
+
+    /**
+     * Documents with 20 words of a zipf-like distribution (w0 is the most frequent word), with the translation field
+     * as copy of the body, if a translation map is given
+     */
+    private static Directory createIndex(int docs, TranslationMap translationMap, boolean quantized) throws Exception {
+        Analyzer analyzer = new WhitespaceAnalyzer();
+        if (translationMap != null) {
+            analyzer = new PerFieldAnalyzerWrapper(analyzer, Collections.singletonMap(translationField, new Analyzer() {
+                @Override
+                protected TokenStreamComponents createComponents(String fieldName) {
+                    Tokenizer tokenizer = new WhitespaceTokenizer();
+                    return new TokenStreamComponents(tokenizer, new TranslationTokenFilter(tokenizer, translationMap));
+                }
+            }));
+        }
+
+        Directory directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(analyzer)
+                .setSimilarity(new BM25SimilarityLossless())
+                .setRAMBufferSizeMB(256);
+        if (quantized) {
+            PostingsFormat format = new TranslationPostingsFormat();
+            config.setCodec(new Lucene62Codec() {
+                @Override
+                public PostingsFormat getPostingsFormatForField(String field) {
+                    return field.equals(translationField) ? format : super.getPostingsFormatForField(field);
+                }
+            });
+        }
+
+        Random random = new Random(42);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < docs; i++) {
+                StringBuilder text = new StringBuilder();
+                for (int j = 0; j < 20; j++) {
+                    text.append('w').append((int) Math.floor(Math.pow(1000, random.nextDouble())) - 1).append(' ');
+                }
+                Document doc = new Document();
+                doc.add(new TextField(field, text.toString(), Field.Store.NO));
+                if (translationMap != null) {
+                    doc.add(new TextField(translationField, text.toString(), Field.Store.NO));
+                }
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,89 @@
+package at.ac.tuwien.ifs.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free throughput & latency statistics of the <code>{@link SimilarityServer}</code>
+ *
+ * Latencies are recorded in a histogram with power of two microsecond buckets (1us .. ~1h), percentiles are
+ * reported as the upper bound of the bucket they fall into.
+ */
+public class ServerStats {
+
+    private static final int buckets = 32;
+
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder terms = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(buckets);
+
+    public void record(int termCount, long latencyNanos) {
+        requests.increment();
+        terms.add(termCount);
+        totalLatencyNanos.add(latencyNanos);
+
+        long max;
+        while (latencyNanos > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+            // retry
+        }
+
+        long micros = Math.max(1, latencyNanos / 1000);
+        int bucket = Math.min(buckets - 1, 63 - Long.numberOfLeadingZeros(micros));
+        histogram.incrementAndGet(bucket);
+    }
+
+    public void recordError() {
+        errors.increment();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Returns a snapshot of all values (requests/s and latencies in milliseconds)
+     */
+    public Map<String, Object> snapshot() {
+        long requestCount = requests.sum();
+        double uptimeSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("uptimeSeconds", uptimeSeconds);
+        stats.put("requests", requestCount);
+        stats.put("terms", terms.sum());
+        stats.put("errors", errors.sum());
+        stats.put("requestsPerSecond", uptimeSeconds > 0 ? requestCount / uptimeSeconds : 0);
+        stats.put("meanLatencyMs", requestCount > 0 ? totalLatencyNanos.sum() / 1e6 / requestCount : 0);
+        stats.put("maxLatencyMs", maxLatencyNanos.get() / 1e6);
+        stats.put("p50LatencyMs", percentile(0.5));
+        stats.put("p99LatencyMs", percentile(0.99));
+        return stats;
+    }
+
+    private double percentile(double p) {
+        long total = 0;
+        for (int i = 0; i < buckets; i++) {
+            total += histogram.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < buckets; i++) {
+            seen += histogram.get(i);
+            if (seen >= rank) {
+                return (1L << (i + 1)) / 1000.0;
+            }
+        }
+        return maxLatencyNanos.get() / 1e6;
+    }
+}
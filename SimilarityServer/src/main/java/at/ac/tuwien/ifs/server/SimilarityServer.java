@@ -0,0 +1,222 @@
+package at.ac.tuwien.ifs.server;
+
+import at.ac.tuwien.ifs.api.ISimilarityApi;
+import at.ac.tuwien.ifs.api.SimilarTermModel;
+import at.ac.tuwien.ifs.api.SimilarityApi;
+import at.ac.tuwien.ifs.api.SimilarityApiFromFile;
+import at.ac.tuwien.ifs.query.TermWeightTuple;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Lightweight http server, that serves similar terms from a local <code>{@link ISimilarityApi}</code>
+ * (e.g. the pre-computed <code>{@link SimilarityApiFromFile}</code>) with the same request / response contract as the
+ * external similarity api (see <code>{@link SimilarityApi}</code>), so it can be used as a drop-in on localhost.
+ *
+ * Connections are multiplexed by the NIO selector of the jdk http server, requests are handled by a small fixed
+ * thread pool. Json and smile payloads and gzip compression are negotiated via the request headers.
+ *
+ * Endpoints:
+ * <ul>
+ * <li><code>/api/v1.0/relatedterms</code> (and every other path) - similar terms for {"terms": [...], ...}</li>
+ * <li><code>/stats</code> - throughput & latency statistics as json</li>
+ * </ul>
+ */
+public class SimilarityServer {
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+    private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+
+    private final ISimilarityApi source;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ServerStats stats = new ServerStats();
+
+    public SimilarityServer(ISimilarityApi source, InetSocketAddress address, int threads) throws IOException {
+        this.source = source;
+
+        server = HttpServer.create(address, 1024);
+        server.createContext("/", this::handleRelatedTerms);
+        server.createContext("/stats", this::handleStats);
+
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() throws InterruptedException {
+        server.stop(0);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public ServerStats getStats() {
+        return stats;
+    }
+
+    private void handleRelatedTerms(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+
+            //
+            // parse request: {"terms": [...], "vector_method": ...} (the method params are not used)
+            //
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            ObjectMapper requestMapper = isSmile(contentType) ? smileMapper : jsonMapper;
+
+            InputStream body = exchange.getRequestBody();
+            if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = new GZIPInputStream(body);
+            }
+
+            JsonNode request = requestMapper.readTree(body);
+            JsonNode termsNode = request == null ? null : request.get("terms");
+            if (termsNode == null || !termsNode.isArray()) {
+                stats.recordError();
+                send(exchange, 400, "text/plain", false, "missing terms".getBytes("UTF-8"));
+                return;
+            }
+
+            String[] queryTerms = new String[termsNode.size()];
+            for (int i = 0; i < queryTerms.length; i++) {
+                queryTerms[i] = termsNode.get(i).asText();
+            }
+
+            SimilarTermModel[] models = source.GetSimilarTerms("", queryTerms);
+
+            //
+            // write response: {"term": [[similar terms], [weights]], ...}
+            //
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            boolean smile = isSmile(accept);
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            JsonGenerator generator = (smile ? smileMapper.getFactory() : jsonMapper.getFactory()).createGenerator(payload);
+            writeModels(generator, models);
+            generator.close();
+
+            send(exchange, 200, smile ? SimilarityApi.SMILE_CONTENT_TYPE : SimilarityApi.JSON_CONTENT_TYPE, gzip, payload.toByteArray());
+
+            stats.record(queryTerms.length, System.nanoTime() - start);
+
+        } catch (IOException | RuntimeException e) {
+            stats.recordError();
+            send(exchange, 500, "text/plain", false, String.valueOf(e.getMessage()).getBytes("UTF-8"));
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        Map<String, Object> snapshot = stats.snapshot();
+        send(exchange, 200, SimilarityApi.JSON_CONTENT_TYPE, false, jsonMapper.writeValueAsBytes(snapshot));
+    }
+
+    private static void writeModels(JsonGenerator generator, SimilarTermModel[] models) throws IOException {
+        generator.writeStartObject();
+        for (SimilarTermModel model : models) {
+            generator.writeArrayFieldStart(model.queryTerm.text());
+
+            generator.writeStartArray();
+            for (TermWeightTuple similar : model.similarTerms) {
+                generator.writeString(similar.term.text());
+            }
+            generator.writeEndArray();
+
+            generator.writeStartArray();
+            for (TermWeightTuple similar : model.similarTerms) {
+                generator.writeNumber(similar.weight);
+            }
+            generator.writeEndArray();
+
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    private static boolean isSmile(String contentType) {
+        return contentType != null && contentType.startsWith(SimilarityApi.SMILE_CONTENT_TYPE);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, boolean gzip, byte[] bytes) throws IOException {
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = new Options();
+
+        options.addRequiredOption("f", "similarity-file", true,
+                "pre-computed similar term file (json)");
+
+        options.addOption("p", "port", true,
+                "port to listen on (default 5000)");
+
+        options.addOption("b", "bind-address", true,
+                "address to bind to (default localhost)");
+
+        options.addOption("t", "threads", true,
+                "size of the request thread pool (default: number of cores)");
+
+        CommandLine parsedArgs;
+        CommandLineParser parser = new DefaultParser();
+        try {
+            parsedArgs = parser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("similarityServer", options);
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        ISimilarityApi source = new SimilarityApiFromFile(parsedArgs.getOptionValue("f"));
+
+        InetSocketAddress address = new InetSocketAddress(
+                parsedArgs.getOptionValue("b", "localhost"),
+                Integer.parseInt(parsedArgs.getOptionValue("p", "5000")));
+        int threads = Integer.parseInt(parsedArgs.getOptionValue("t", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        SimilarityServer server = new SimilarityServer(source, address, threads);
+        server.start();
+
+        System.out.println("Loaded in (s): " + ((System.currentTimeMillis() - startTime) / 1000f));
+        System.out.println("Listening on: http://" + address.getHostString() + ":" + server.getAddress().getPort() + " with " + threads + " threads");
+    }
+}
@@ -0,0 +1,99 @@
+package at.ac.tuwien.ifs.server;
+
+import at.ac.tuwien.ifs.api.SimilarTermModel;
+import at.ac.tuwien.ifs.api.SimilarityApi;
+import at.ac.tuwien.ifs.api.SimilarityApiFromFile;
+import org.apache.lucene.index.Term;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Integration tests of the <code>{@link SimilarityServer}</code> with the <code>{@link SimilarityApi}</code> client
+ * on a random localhost port
+ */
+public class SimilarityServerTest {
+
+    private static SimilarityServer server;
+    private static Path file;
+
+    @BeforeClass
+    public static void beforeTests() throws Exception {
+        file = Files.createTempFile("similar-terms", ".json");
+        Files.write(file, ("{\"car\": [[\"car\", \"vehicle\", \"auto\"], [1.0, 0.8, 0.75]]," +
+                           " \"house\": [[\"home\"], [0.7]]}").getBytes(StandardCharsets.UTF_8));
+
+        server = new SimilarityServer(new SimilarityApiFromFile(file.toString()), new InetSocketAddress("localhost", 0), 2);
+        server.start();
+    }
+
+    @AfterClass
+    public static void afterTests() throws Exception {
+        server.stop();
+        Files.deleteIfExists(file);
+    }
+
+    private static String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/api/v1.0/relatedterms";
+    }
+
+    private static void assertCar(SimilarTermModel model) {
+        Assert.assertEquals(new Term("body", "car"), model.queryTerm);
+        Assert.assertEquals(2, model.similarTerms.length);
+        Assert.assertEquals(new Term("body", "vehicle"), model.similarTerms[0].term);
+        Assert.assertEquals(0.75f, model.similarTerms[1].weight, 0.00001);
+    }
+
+    @Test
+    public void test_sameContractAsExternalApi() throws IOException {
+
+        for (SimilarityApi.WireFormat format : SimilarityApi.WireFormat.values()) {
+            for (boolean gzip : new boolean[]{false, true}) {
+
+                // act
+                SimilarTermModel[] result = new SimilarityApi(url(), null, format, gzip)
+                        .GetSimilarTerms("body", new String[]{"car", "unknown"});
+
+                // assert
+                Assert.assertEquals(2, result.length);
+                assertCar(result[0]);
+                Assert.assertEquals(0, result[1].similarTerms.length);
+            }
+        }
+    }
+
+    @Test
+    public void test_concurrentClients() throws Exception {
+
+        // arrange
+        long before = server.getStats().getRequests();
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        List<Future<SimilarTermModel[]>> results = new ArrayList<>();
+
+        // act
+        for (int i = 0; i < 200; i++) {
+            results.add(clients.submit(() -> new SimilarityApi(url(), null).GetSimilarTerms("body", new String[]{"car"})));
+        }
+
+        // assert
+        for (Future<SimilarTermModel[]> result : results) {
+            assertCar(result.get()[0]);
+        }
+        Assert.assertEquals(200, server.getStats().getRequests() - before);
+        Assert.assertEquals(0L, server.getStats().snapshot().get("errors"));
+
+        clients.shutdown();
+    }
+}